@@ -0,0 +1,85 @@
+/***************************************************************
+* file: ArenaAllocation.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class is a range of faces in an ArenaPage that holds the mesh
+* of one section of a chunk. The range may be larger than the mesh, so a
+* section that is edited can often be written back in place. The offset may
+* change when the page is compacted.
+*
+****************************************************************/
+package cs445craft;
+
+public class ArenaAllocation {
+    private final ArenaPage page;
+    private int offset;
+    private final int capacity;
+    private int numFaces;
+    
+    public ArenaAllocation(ArenaPage page, int offset, int capacity) {
+        this.page = page;
+        this.offset = offset;
+        this.capacity = capacity;
+    }
+    
+    /**
+    * method: getPage()
+    * purpose: Returns the page this range is in.
+    **/
+    public ArenaPage getPage() {
+        return page;
+    }
+    
+    /**
+    * method: getOffset()
+    * purpose: Returns the index of the first face of the range in the page.
+    **/
+    public int getOffset() {
+        return offset;
+    }
+    
+    /**
+    * method: setOffset()
+    * purpose: Move the range to a new first face. Only called by the page when
+    * it is compacted.
+    **/
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+    
+    /**
+    * method: getCapacity()
+    * purpose: Returns the number of faces the range has room for.
+    **/
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+    * method: getNumFaces()
+    * purpose: Returns the number of faces written to the range.
+    **/
+    public int getNumFaces() {
+        return numFaces;
+    }
+    
+    /**
+    * method: setNumFaces()
+    * purpose: Set the number of faces written to the range.
+    **/
+    public void setNumFaces(int numFaces) {
+        this.numFaces = numFaces;
+    }
+    
+    /**
+    * method: isPacked()
+    * purpose: Returns true if the faces are stored in the packed layout.
+    **/
+    public boolean isPacked() {
+        return page.isPacked();
+    }
+}
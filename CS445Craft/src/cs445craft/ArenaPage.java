@@ -0,0 +1,275 @@
+/***************************************************************
+* file: ArenaPage.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class is one large VBO of the ChunkArena. A page holds the
+* section meshes of the chunks in one region, all in the same vertex layout.
+* Vertex positions are relative to the corner of the region, so every section
+* in the page can be drawn with the same transform.
+*
+* Space in the page is handed out in ArenaAllocations by a first fit free list
+* measured in faces. Freed ranges are merged with the free ranges next to them.
+* When no free range is large enough, the ChunkArena can compact the page,
+* moving every allocation to the start of the page, or grow it.
+*
+* Chunks add the ranges they want drawn with queue(). record() then adds all
+* of them to a RenderCommandList as a single command. The VBO is created,
+* written and read through a RenderBackend.
+*
+****************************************************************/
+package cs445craft;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class ArenaPage {
+    private static final int INITIAL_QUEUE = 64;
+    
+    private final RenderBackend backend;
+    private final boolean packed;
+    private final long regionKey;
+    private final int bytesPerFace;
+    private final float originX, originZ;
+    private final int handle;
+    private int capacity;
+    
+    // free ranges by first face, and the total number of free faces
+    private final TreeMap<Integer, Integer> freeRanges;
+    private int freeFaces;
+    private final Set<ArenaAllocation> allocations;
+    
+    // ranges queued for drawing, in vertices
+    private int[] queuedFirst, queuedCount;
+    private int numQueued;
+    
+    public ArenaPage(RenderBackend backend, boolean packed, long regionKey, float originX, float originZ, int capacity) {
+        this.backend = backend;
+        this.packed = packed;
+        this.regionKey = regionKey;
+        this.originX = originX;
+        this.originZ = originZ;
+        this.capacity = capacity;
+        bytesPerFace = packed ? 2 * MeshBuffer.SHORTS_PER_FACE : 4 * MeshBuffer.FLOATS_PER_FACE;
+        
+        freeRanges = new TreeMap<>();
+        freeRanges.put(0, capacity);
+        freeFaces = capacity;
+        allocations = new HashSet<>();
+        
+        queuedFirst = new int[INITIAL_QUEUE];
+        queuedCount = new int[INITIAL_QUEUE];
+        
+        handle = backend.createBuffer((long) capacity * bytesPerFace);
+    }
+    
+    /**
+    * method: allocate()
+    * purpose: Take a range of a given number of faces from the first free range
+    * that is large enough. Returns null if there is none.
+    **/
+    public ArenaAllocation allocate(int faces) {
+        for (Map.Entry<Integer, Integer> range : freeRanges.entrySet()) {
+            int offset = range.getKey();
+            int size = range.getValue();
+            if (size < faces) {
+                continue;
+            }
+            
+            freeRanges.remove(offset);
+            if (size > faces) {
+                freeRanges.put(offset + faces, size - faces);
+            }
+            freeFaces -= faces;
+            
+            ArenaAllocation allocation = new ArenaAllocation(this, offset, faces);
+            allocations.add(allocation);
+            return allocation;
+        }
+        return null;
+    }
+    
+    /**
+    * method: free()
+    * purpose: Give the range of an allocation back to the free list, merging it
+    * with the free ranges before and after it.
+    **/
+    public void free(ArenaAllocation allocation) {
+        if (!allocations.remove(allocation)) {
+            return;
+        }
+        
+        int offset = allocation.getOffset();
+        int size = allocation.getCapacity();
+        freeFaces += size;
+        
+        Integer after = freeRanges.remove(offset + size);
+        if (after != null) {
+            size += after;
+        }
+        Map.Entry<Integer, Integer> before = freeRanges.lowerEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            offset = before.getKey();
+            size += before.getValue();
+        }
+        freeRanges.put(offset, size);
+    }
+    
+    /**
+    * method: write()
+    * purpose: Write the remaining bytes of a buffer, holding a given number of
+    * faces, to the range of an allocation. Must be called on the thread that
+    * has the OpenGL context.
+    **/
+    public void write(ArenaAllocation allocation, ByteBuffer data, int faces) {
+        allocation.setNumFaces(faces);
+        backend.writeBuffer(handle, (long) allocation.getOffset() * bytesPerFace, data);
+    }
+    
+    /**
+    * method: resize()
+    * purpose: Compact the page and give it a new capacity, which must hold all
+    * of the allocations. The data is read back from the VBO and the allocations
+    * are moved to the start of the page in order, leaving one free range at
+    * the end. Must be called on the thread that has the OpenGL context.
+    **/
+    public void resize(int newCapacity) {
+        ByteBuffer old = DirectBufferPool.acquire(capacity * bytesPerFace);
+        ByteBuffer data = DirectBufferPool.acquire(newCapacity * bytesPerFace);
+        backend.readBuffer(handle, 0, old);
+        
+        List<ArenaAllocation> sorted = new ArrayList<>(allocations);
+        sorted.sort(Comparator.comparingInt(ArenaAllocation::getOffset));
+        int next = 0;
+        for (ArenaAllocation allocation : sorted) {
+            old.clear();
+            old.limit((allocation.getOffset() + allocation.getNumFaces()) * bytesPerFace);
+            old.position(allocation.getOffset() * bytesPerFace);
+            data.position(next * bytesPerFace);
+            data.put(old);
+            allocation.setOffset(next);
+            next += allocation.getCapacity();
+        }
+        
+        data.position(0);
+        backend.replaceBuffer(handle, data);
+        DirectBufferPool.release(old);
+        DirectBufferPool.release(data);
+        
+        capacity = newCapacity;
+        freeFaces = newCapacity - next;
+        freeRanges.clear();
+        if (freeFaces > 0) {
+            freeRanges.put(next, freeFaces);
+        }
+    }
+    
+    /**
+    * method: delete()
+    * purpose: Delete the VBO. The page must not be used afterwards.
+    **/
+    public void delete() {
+        backend.deleteBuffer(handle);
+    }
+    
+    /**
+    * method: queue()
+    * purpose: Add the faces of an allocation to the ranges recorded by the next
+    * record(). A range that starts where the last one ended is joined to
+    * it.
+    **/
+    public void queue(ArenaAllocation allocation) {
+        int first = allocation.getOffset() * 4;
+        int count = allocation.getNumFaces() * 4;
+        if (numQueued > 0 && queuedFirst[numQueued - 1] + queuedCount[numQueued - 1] == first) {
+            queuedCount[numQueued - 1] += count;
+            return;
+        }
+        
+        if (numQueued == queuedFirst.length) {
+            queuedFirst = Arrays.copyOf(queuedFirst, numQueued * 2);
+            queuedCount = Arrays.copyOf(queuedCount, numQueued * 2);
+        }
+        queuedFirst[numQueued] = first;
+        queuedCount[numQueued] = count;
+        numQueued++;
+    }
+    
+    /**
+    * method: record()
+    * purpose: Record the queued ranges as one command of a given pass and clear
+    * the queue. Returns the number of ranges recorded.
+    **/
+    public int record(RenderCommandList commands, int pass) {
+        int ranges = numQueued;
+        if (ranges == 0) {
+            return 0;
+        }
+        numQueued = 0;
+        
+        RenderCommand command = commands.add(pass, ChunkArena.ATLAS_TEXTURE, packed, handle, originX, originZ);
+        for (int i = 0; i < ranges; i++) {
+            command.addRange(queuedFirst[i], queuedCount[i]);
+        }
+        return ranges;
+    }
+    
+    /**
+    * method: getNumQueued()
+    * purpose: Returns the number of ranges waiting for record().
+    **/
+    public int getNumQueued() {
+        return numQueued;
+    }
+    
+    /**
+    * method: isPacked()
+    * purpose: Returns true if the page holds faces in the packed layout.
+    **/
+    public boolean isPacked() {
+        return packed;
+    }
+    
+    /**
+    * method: getRegionKey()
+    * purpose: Returns the key of the region the page belongs to.
+    **/
+    public long getRegionKey() {
+        return regionKey;
+    }
+    
+    /**
+    * method: getCapacity()
+    * purpose: Returns the number of faces the page has room for.
+    **/
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+    * method: getFreeFaces()
+    * purpose: Returns the number of faces not in any allocation. They may be
+    * spread over several free ranges.
+    **/
+    public int getFreeFaces() {
+        return freeFaces;
+    }
+    
+    /**
+    * method: getBytesPerFace()
+    * purpose: Returns the size of one face in the page's layout.
+    **/
+    public int getBytesPerFace() {
+        return bytesPerFace;
+    }
+}
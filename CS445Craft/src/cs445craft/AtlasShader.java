@@ -0,0 +1,150 @@
+/***************************************************************
+* file: AtlasShader.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class compiles and binds the shaders used to draw chunk
+* meshes. Chunk meshes store texture coordinates in atlas tile units (see
+* Voxel.textureCoord()) so a single tile from terrain.png can repeat across a
+* merged face. The fragment shader wraps the position within the tile and
+* samples the atlas.
+* 
+* There are two programs, one for each mesh layout. Meshes in the float layout
+* use the fixed function pipeline for vertex processing (including lighting).
+* Meshes in the packed layout (see Voxel.writePackedFaceVertices()) use a
+* vertex shader that unpacks the position and texture coordinates and does the
+* same lighting as the fixed function pipeline.
+*
+****************************************************************/
+package cs445craft;
+
+import static org.lwjgl.opengl.GL11.GL_FALSE;
+import static org.lwjgl.opengl.GL20.*;
+
+public class AtlasShader {
+    // vertex attribute locations of the packed layout
+    public static final int POSITION_ATTRIBUTE = 0;
+    public static final int TEXTURE_ATTRIBUTE = 1;
+    
+    private static final String FRAGMENT_SOURCE =
+        "#version 110\n" +
+        "uniform sampler2D atlas;\n" +
+        "void main() {\n" +
+        "    vec2 tile = floor(gl_TexCoord[0].st / " + Voxel.TILE_STRIDE + ");\n" +
+        "    vec2 local = fract(gl_TexCoord[0].st - tile * " + Voxel.TILE_STRIDE + " - " + Voxel.TILE_MARGIN + ");\n" +
+        "    gl_FragColor = gl_Color * texture2D(atlas, (tile + local) / " + (float) Voxel.ATLAS_TILES + ");\n" +
+        "}\n";
+    
+    private static final String PACKED_VERTEX_SOURCE =
+        "#version 110\n" +
+        "attribute vec3 position;\n" +
+        "attribute vec2 packedTexture;\n" +
+        "void main() {\n" +
+        "    vec4 vertex = vec4(position / " + (float) Voxel.PACKED_POSITION_SCALE + ", 1.0);\n" +
+        "    gl_Position = gl_ModelViewProjectionMatrix * vertex;\n" +
+        // rebuild the texture coordinate in the format written by Voxel.textureCoord()
+        "    vec2 tile = vec2(mod(packedTexture.x, " + (float) Voxel.ATLAS_TILES + "), floor(packedTexture.x / " + (float) Voxel.ATLAS_TILES + "));\n" +
+        "    vec2 local = vec2(floor(packedTexture.y / 16.0), mod(packedTexture.y, 16.0));\n" +
+        "    gl_TexCoord[0] = vec4(tile * " + Voxel.TILE_STRIDE + " + " + Voxel.TILE_MARGIN + " + local, 0.0, 1.0);\n" +
+        // one positional light with no specular term, like the fixed function setup in Screen
+        "    vec3 eyePosition = (gl_ModelViewMatrix * vertex).xyz;\n" +
+        "    vec3 normal = normalize(gl_NormalMatrix * gl_Normal);\n" +
+        "    vec3 light = normalize(gl_LightSource[0].position.xyz - eyePosition);\n" +
+        "    vec4 color = gl_FrontLightModelProduct.sceneColor + gl_FrontLightProduct[0].ambient\n" +
+        "        + gl_FrontLightProduct[0].diffuse * max(dot(normal, light), 0.0);\n" +
+        "    gl_FrontColor = vec4(color.rgb, gl_FrontMaterial.diffuse.a);\n" +
+        "}\n";
+    
+    // the shader currently bound, used by selectLayout()
+    private static AtlasShader bound;
+    
+    private final int program;
+    private final int packedProgram;
+    private boolean packedBound;
+    
+    public AtlasShader() {
+        program = linkProgram(0, compileShader(GL_FRAGMENT_SHADER, FRAGMENT_SOURCE));
+        packedProgram = linkProgram(compileShader(GL_VERTEX_SHADER, PACKED_VERTEX_SOURCE), compileShader(GL_FRAGMENT_SHADER, FRAGMENT_SOURCE));
+    }
+    
+    /**
+    * method: compileShader()
+    * purpose: Compile a shader of a given type from source.
+    **/
+    private static int compileShader(int type, String source) {
+        int shader = glCreateShader(type);
+        glShaderSource(shader, source);
+        glCompileShader(shader);
+        if (glGetShaderi(shader, GL_COMPILE_STATUS) == GL_FALSE) {
+            throw new RuntimeException("AtlasShader compile failed: " + glGetShaderInfoLog(shader, 1024));
+        }
+        return shader;
+    }
+    
+    /**
+    * method: linkProgram()
+    * purpose: Link a program from a vertex shader (0 for none) and a fragment
+    * shader. The shaders are deleted once the program is linked.
+    **/
+    private static int linkProgram(int vertexShader, int fragmentShader) {
+        int p = glCreateProgram();
+        if (vertexShader != 0) {
+            glAttachShader(p, vertexShader);
+            glBindAttribLocation(p, POSITION_ATTRIBUTE, "position");
+            glBindAttribLocation(p, TEXTURE_ATTRIBUTE, "packedTexture");
+        }
+        glAttachShader(p, fragmentShader);
+        glLinkProgram(p);
+        if (glGetProgrami(p, GL_LINK_STATUS) == GL_FALSE) {
+            throw new RuntimeException("AtlasShader link failed: " + glGetProgramInfoLog(p, 1024));
+        }
+        if (vertexShader != 0) {
+            glDeleteShader(vertexShader);
+        }
+        glDeleteShader(fragmentShader);
+        
+        // the atlas is always bound to texture unit 0
+        glUseProgram(p);
+        glUniform1i(glGetUniformLocation(p, "atlas"), 0);
+        glUseProgram(0);
+        return p;
+    }
+    
+    /**
+    * method: bind()
+    * purpose: Use this shader for the following draw calls. The float layout
+    * program is used until selectLayout() is called.
+    **/
+    public void bind() {
+        glUseProgram(program);
+        packedBound = false;
+        bound = this;
+    }
+    
+    /**
+    * method: unbind()
+    * purpose: Go back to the fixed function pipeline.
+    **/
+    public void unbind() {
+        glUseProgram(0);
+        bound = null;
+    }
+    
+    /**
+    * method: selectLayout()
+    * purpose: Switch the bound shader to the program for a given mesh layout.
+    * Does nothing if no AtlasShader is bound or the right program is already in
+    * use.
+    **/
+    public static void selectLayout(boolean packed) {
+        AtlasShader shader = bound;
+        if (shader == null || shader.packedBound == packed) {
+            return;
+        }
+        glUseProgram(packed ? shader.packedProgram : shader.program);
+        shader.packedBound = packed;
+    }
+}
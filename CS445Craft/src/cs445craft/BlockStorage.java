@@ -0,0 +1,325 @@
+/***************************************************************
+* file: BlockStorage.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class stores a fixed number of VoxelTypes in a compact form.
+* Instead of keeping one object reference per cell, it keeps a small palette
+* of the VoxelTypes that are actually used and a bit-packed long[] of palette
+* indices. The number of bits per entry starts at zero (every cell holds the
+* same value) and widens one bit at a time as new types are written. Entries
+* are packed back to back, so an entry may span two longs. The palette and
+* the packed array can be written to a stream and read back as they are (see
+* write() and read()), so loading a saved chunk doesn't set every entry again.
+*
+****************************************************************/
+package cs445craft;
+
+import cs445craft.Voxel.VoxelType;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class BlockStorage {
+    // one palette slot for every VoxelType plus one for null (empty cells)
+    private static final int MAX_PALETTE_SIZE = VoxelType.values().length + 1;
+    private static final VoxelType[] TYPES = VoxelType.values();
+    // bits per entry needed to address a full palette
+    private static final int MAX_BITS = 32 - Integer.numberOfLeadingZeros(MAX_PALETTE_SIZE - 1);
+    // every cell holds palette entry 0, there is no packed array
+    private static final Packed UNIFORM = new Packed(0, null);
+    
+    private final int size;
+    private final VoxelType[] palette;
+    private final byte[] paletteLookup;
+    private int paletteSize;
+    
+    /*
+    The packed array is written by set() and read by get() from other threads
+    (the MeshBuilder reads while the ChunkGenerator writes). The bits per entry
+    and the array are replaced together when the storage is widened, and get()
+    reads the field once, so a reader always indexes an array with the bits it
+    was packed with.
+    */
+    private volatile Packed packed;
+    
+    /**
+    * class: Packed
+    * purpose: The bits per entry and the packed array they index, published
+    * together. Only the longs of the array change after it is published.
+    **/
+    private static final class Packed {
+        private final int bits;
+        private final long[] data;
+        
+        Packed(int bits, long[] data) {
+            this.bits = bits;
+            this.data = data;
+        }
+    }
+    
+    public BlockStorage(int size, VoxelType fill) {
+        this.size = size;
+        this.palette = new VoxelType[MAX_PALETTE_SIZE];
+        this.paletteLookup = new byte[MAX_PALETTE_SIZE];
+        
+        palette[0] = fill;
+        paletteSize = 1;
+        for (int i = 0; i < MAX_PALETTE_SIZE; i++) {
+            paletteLookup[i] = -1;
+        }
+        paletteLookup[lookupSlot(fill)] = 0;
+        
+        packed = UNIFORM;
+    }
+    
+    /**
+    * method: get()
+    * purpose: Return the VoxelType stored at a given index.
+    **/
+    public VoxelType get(int index) {
+        Packed current = packed;
+        if (current.bits == 0) {
+            return palette[0];
+        }
+        
+        return palette[readEntry(current.data, current.bits, index)];
+    }
+    
+    /**
+    * method: set()
+    * purpose: Store a VoxelType at a given index. If the VoxelType is not in the
+    * palette yet, it is added and the packed array is widened if needed.
+    **/
+    public synchronized void set(int index, VoxelType v) {
+        int p = paletteLookup[lookupSlot(v)];
+        if (p < 0) {
+            p = addToPalette(v);
+        }
+        
+        Packed current = packed;
+        if (current.bits == 0) {
+            // p must be 0 here, every cell already holds the fill value
+            return;
+        }
+        
+        writeEntry(current.data, current.bits, index, p);
+    }
+    
+    /**
+    * method: addToPalette()
+    * purpose: Add a VoxelType to the palette and widen the packed array if the
+    * current number of bits can't address the new palette entry.
+    **/
+    private int addToPalette(VoxelType v) {
+        int p = paletteSize++;
+        palette[p] = v;
+        paletteLookup[lookupSlot(v)] = (byte) p;
+        
+        int oldBits = packed.bits;
+        int newBits = oldBits;
+        while ((1 << newBits) < paletteSize) {
+            newBits++;
+        }
+        if (newBits != oldBits) {
+            widen(newBits);
+        }
+        
+        return p;
+    }
+    
+    /**
+    * method: widen()
+    * purpose: Copy every entry into a new packed array that uses more bits per
+    * entry.
+    **/
+    private void widen(int newBits) {
+        Packed old = packed;
+        long[] newData = new long[(size * newBits + 63) >>> 6];
+        
+        if (old.bits > 0) {
+            for (int i = 0; i < size; i++) {
+                writeEntry(newData, newBits, i, readEntry(old.data, old.bits, i));
+            }
+        }
+        
+        // publish the bits and the array together, see the comment on the field
+        packed = new Packed(newBits, newData);
+    }
+    
+    /**
+    * method: write()
+    * purpose: Write the palette and the packed array to a stream: the palette
+    * size, the lookup slot of each palette entry, the bits per entry and the
+    * longs of the packed array.
+    **/
+    public synchronized void write(DataOutputStream out) throws IOException {
+        out.writeByte(paletteSize);
+        for (int p = 0; p < paletteSize; p++) {
+            out.writeByte(lookupSlot(palette[p]));
+        }
+        Packed current = packed;
+        out.writeByte(current.bits);
+        if (current.bits > 0) {
+            for (long word : current.data) {
+                out.writeLong(word);
+            }
+        }
+    }
+    
+    /**
+    * method: maxWriteBytes()
+    * purpose: Returns the most bytes write() can write for a storage of a
+    * given size.
+    **/
+    public static int maxWriteBytes(int size) {
+        return 1 + MAX_PALETTE_SIZE + 1 + 8 * ((size * MAX_BITS + 63) >>> 6);
+    }
+    
+    /**
+    * method: read()
+    * purpose: Create a storage of a given size from a stream written by
+    * write(). Throws an IOException if the palette has a VoxelType twice or an
+    * entry indexes past the end of the palette.
+    **/
+    public static BlockStorage read(DataInputStream in, int size) throws IOException {
+        int paletteSize = in.readUnsignedByte();
+        if (paletteSize < 1 || paletteSize > MAX_PALETTE_SIZE) {
+            throw new IOException("Bad palette size " + paletteSize);
+        }
+        
+        BlockStorage storage = new BlockStorage(size, slotType(in.readUnsignedByte()));
+        for (int p = 1; p < paletteSize; p++) {
+            VoxelType v = slotType(in.readUnsignedByte());
+            if (storage.paletteLookup[lookupSlot(v)] >= 0) {
+                throw new IOException("Palette has " + v + " twice");
+            }
+            storage.palette[p] = v;
+            storage.paletteLookup[lookupSlot(v)] = (byte) p;
+        }
+        storage.paletteSize = paletteSize;
+        
+        int bits = in.readUnsignedByte();
+        if (bits > MAX_BITS || (1 << bits) < paletteSize) {
+            throw new IOException("Bad bits per entry " + bits);
+        }
+        if (bits > 0) {
+            long[] d = new long[(size * bits + 63) >>> 6];
+            for (int i = 0; i < d.length; i++) {
+                d[i] = in.readLong();
+            }
+            // with a full palette every index is valid
+            if ((1 << bits) > paletteSize) {
+                for (int i = 0; i < size; i++) {
+                    if (readEntry(d, bits, i) >= paletteSize) {
+                        throw new IOException("Entry " + i + " is past the end of the palette");
+                    }
+                }
+            }
+            storage.packed = new Packed(bits, d);
+        }
+        return storage;
+    }
+    
+    /**
+    * method: isUniform()
+    * purpose: Returns true if every entry holds the same VoxelType.
+    **/
+    public boolean isUniform() {
+        return packed.bits == 0;
+    }
+    
+    /**
+    * method: getPaletteSize()
+    * purpose: Returns the number of VoxelTypes in the palette.
+    **/
+    public int getPaletteSize() {
+        return paletteSize;
+    }
+    
+    /**
+    * method: getBitsPerEntry()
+    * purpose: Returns the number of bits used to store each entry.
+    **/
+    public int getBitsPerEntry() {
+        return packed.bits;
+    }
+    
+    /**
+    * method: getMemoryUsage()
+    * purpose: Returns an estimate of the number of heap bytes used by this
+    * object, including the palette and the packed array.
+    **/
+    public long getMemoryUsage() {
+        // object header and fields
+        long bytes = 32;
+        // palette and lookup arrays
+        bytes += 16 + 4 * MAX_PALETTE_SIZE;
+        bytes += 16 + MAX_PALETTE_SIZE;
+        
+        // uniform storages share one holder, the others have their own
+        long[] d = packed.data;
+        if (d != null) {
+            bytes += 24 + 16 + 8L * d.length;
+        }
+        return bytes;
+    }
+    
+    /**
+    * method: readEntry()
+    * purpose: Read the palette index at a given entry of a packed array.
+    **/
+    private static int readEntry(long[] d, int bits, int index) {
+        int bitIndex = index * bits;
+        int word = bitIndex >>> 6;
+        int offset = bitIndex & 63;
+        
+        long value = d[word] >>> offset;
+        if (offset + bits > 64) {
+            // entry continues in the next long
+            value |= d[word + 1] << (64 - offset);
+        }
+        return (int) (value & ((1L << bits) - 1));
+    }
+    
+    /**
+    * method: writeEntry()
+    * purpose: Write a palette index to a given entry of a packed array.
+    **/
+    private static void writeEntry(long[] d, int bits, int index, int p) {
+        int bitIndex = index * bits;
+        int word = bitIndex >>> 6;
+        int offset = bitIndex & 63;
+        long mask = (1L << bits) - 1;
+        
+        d[word] = (d[word] & ~(mask << offset)) | ((p & mask) << offset);
+        if (offset + bits > 64) {
+            // entry continues in the next long
+            int shift = 64 - offset;
+            d[word + 1] = (d[word + 1] & ~(mask >>> shift)) | ((p & mask) >>> shift);
+        }
+    }
+    
+    /**
+    * method: lookupSlot()
+    * purpose: Returns the paletteLookup slot of a VoxelType. Slot 0 is used for
+    * null.
+    **/
+    private static int lookupSlot(VoxelType v) {
+        return v == null ? 0 : v.ordinal() + 1;
+    }
+    
+    /**
+    * method: slotType()
+    * purpose: Returns the VoxelType of a paletteLookup slot.
+    **/
+    private static VoxelType slotType(int slot) throws IOException {
+        if (slot >= MAX_PALETTE_SIZE) {
+            throw new IOException("Bad VoxelType " + slot);
+        }
+        return slot == 0 ? null : TYPES[slot - 1];
+    }
+}
@@ -6,44 +6,144 @@
 * assignment: Final Project
 * date last modified: 10/28/2017
 *
-* purpose: This class defines one 30x30x90 chunk of voxels. The class uses a 3d
-* array of the enum VoxelType to keep track of which blocks are in each cell.
-* Null entries indicate empty cells. This class is also responsible for building
-* a mesh and rendering that mesh using VBOs.
+* purpose: This class defines one 30x30x90 chunk of voxels. The chunk is split
+* into 30x10x30 vertical sections. Each section uses a palette-compressed
+* BlockStorage of the enum VoxelType to keep track of which blocks are in each
+* cell. Null entries indicate empty cells, and sections that are entirely empty
+* are stored as null. This class is also responsible for building a mesh and
+* rendering that mesh from the ChunkArena.
 * 
 ****************************************************************/
 
 package cs445craft;
 
 import cs445craft.Voxel.VoxelType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
-import java.nio.FloatBuffer;
-import org.lwjgl.BufferUtils;
-import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL15.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class Chunk extends Drawable {
     public static final int CHUNK_S = 30;
     public static final int CHUNK_H = 90;
     public static final int NUM_BLOCKS = CHUNK_S * CHUNK_H * CHUNK_S;
+    public static final int SECTION_H = 10;
+    public static final int NUM_SECTIONS = CHUNK_H / SECTION_H;
+    public static final int SECTION_VOLUME = CHUNK_S * SECTION_H * CHUNK_S;
+    public static final int ALL_SECTIONS = (1 << NUM_SECTIONS) - 1;
+    
+    /*
+    rebuildMesh() works on a padded copy of the chunk that also holds a one voxel
+    border copied from the adjacent chunks (see copyPaddedBlocks()). Each cell
+    holds VoxelType ordinal + 1, or 0 for empty cells. The ordering is [y][x][z]
+    like the sections, so the 6 neighbors of a cell are at fixed offsets.
+    */
+    private static final int PADDED_S = CHUNK_S + 2;
+    private static final int PADDED_H = CHUNK_H + 2;
+    private static final int PADDED_VOLUME = PADDED_S * PADDED_H * PADDED_S;
+    private static final int[] PADDED_NEIGHBOR_OFFSETS = new int[6];
+    static {
+        PADDED_NEIGHBOR_OFFSETS[Voxel.FACE_TOP]    = PADDED_S * PADDED_S;
+        PADDED_NEIGHBOR_OFFSETS[Voxel.FACE_BOTTOM] = -PADDED_S * PADDED_S;
+        PADDED_NEIGHBOR_OFFSETS[Voxel.FACE_FRONT]  = -1;
+        PADDED_NEIGHBOR_OFFSETS[Voxel.FACE_BACK]   = 1;
+        PADDED_NEIGHBOR_OFFSETS[Voxel.FACE_LEFT]   = -PADDED_S;
+        PADDED_NEIGHBOR_OFFSETS[Voxel.FACE_RIGHT]  = PADDED_S;
+    }
+    
+    // VoxelType codes as used in the padded copy, 0 is empty
+    private static final VoxelType[] CODE_TO_TYPE = VoxelType.values();
+    private static final int NUM_CODES = CODE_TO_TYPE.length + 1;
+    
+    // kinds of section written by writeBlocks()
+    private static final int SECTION_EMPTY = 0;
+    private static final int SECTION_STORED = 1;
+    // the most bytes writeBlocks() can return
+    public static final int MAX_BLOCK_BYTES = NUM_SECTIONS * (1 + BlockStorage.maxWriteBytes(SECTION_VOLUME));
+    
+    /*
+    Bit masks of the faces to draw for a voxel given the code of the voxel and the
+    codes of its neighbors. FACE_VISIBLE[code * NUM_CODES + adjacentCode] is the
+    result of shouldDrawFace(). FACE_MASK_BY_CODE removes the top and bottom faces
+    of cross types.
+    */
+    private static final boolean[] FACE_VISIBLE = buildFaceVisibleTable();
+    private static final int[] FACE_MASK_BY_CODE = buildFaceMaskTable();
+    
+    // codes of the voxels that can be seen through, used for the connectivity of sections
+    private static final boolean[] OPEN_BY_CODE = buildOpenTable();
+    
+    // when enabled, adjacent faces of the same VoxelType are merged into larger quads
+    private static volatile boolean greedyMeshing = true;
+    
+    // when enabled, meshes are built in the packed vertex layout instead of the float layout
+    private static volatile boolean packedVertices = true;
+    
+    // when enabled, the time and statistics of every mesh build and upload are printed
+    private static volatile boolean debugOutput;
     
     private final World world;
-    public int indexI, indexJ;
+    // the 3 x 3 chunks around this one by neighborIndex(), this chunk in the
+    // middle. Linked by the World when chunks are added or removed.
+    private final AtomicReferenceArray<Chunk> neighbors;
+    // final so that threads looking the chunk up in the World's ChunkTable see them
+    public final int indexI, indexJ;
     public float chunkX, chunkY, chunkZ;
-    private final VoxelType[][][] blocks;
+    private final BlockStorage[] sections;
+    
+    // the range of the ChunkArena holding each section of the opaque and translucent meshes, null if it has no faces
+    private final ArenaAllocation[] sectionAllocations;
+    private final ArenaAllocation[] sectionAllocationsTranslucent;
+    
+    // sections found inside the view frustum by the last call to inFrustum()
+    private int visibleSections;
+    
+    // pairs of faces of each section connected through open voxels, and the sections reached by an OcclusionCuller walk
+    private final int[] sectionConnectivity;
+    private int reachedWalk, reachedSections;
+    
+    // number of times the connectivity of a section changed, only used on the main thread
+    private static int connectivityChanges;
     
-    private int numFaces, numFacesTranslucent, tempNumFaces, tempNumFacesTranslucent;
+    /*
+    The version is incremented after every change that affects the mesh (see
+    setDirtySections()). rebuildMesh() records the version it started from, and
+    copyMeshToVBO() only uploads a mesh built from the current version. The
+    version of the uploaded mesh is only used on the main thread.
     
-    private final int VBOHandle;
-    private final int VBOHandleTranslucent;
+    dirtySections holds a bit for each section that changed since the last
+    uploaded mesh. It is only changed together with the version, while holding
+    the lock on this chunk.
+    */
+    private volatile int version;
+    private int dirtySections;
+    private int uploadedVersion;
     
-    int writeIndex;
-    int writeIndexTranslucent;
-    float[] tempMeshData;
-    float[] tempMeshDataTranslucent;
+    // number of meshes thrown away by copyMeshToVBO() because they were out of date
+    private static final AtomicInteger staleMeshes = new AtomicInteger();
     
-    private boolean dirty, generated, built;
+    // face mask used by greedy meshing, one per mesh building thread. writeGreedyFaces() leaves it cleared.
+    private static final ThreadLocal<byte[]> greedyFaceMask = ThreadLocal.withInitial(() -> new byte[6 * NUM_BLOCKS]);
+    
+    // padded copy of the blocks used by rebuildMesh(), one per mesh building thread
+    private static final ThreadLocal<byte[]> paddedBlocks = ThreadLocal.withInitial(() -> new byte[PADDED_VOLUME]);
+    
+    // open cells and flood fill queue used by computeConnectivity(), one per mesh building thread
+    private static final ThreadLocal<boolean[]> openCells = ThreadLocal.withInitial(() -> new boolean[SECTION_VOLUME]);
+    private static final ThreadLocal<int[]> fillQueue = ThreadLocal.withInitial(() -> new int[SECTION_VOLUME]);
+    
+    private volatile boolean generated;
+    // set when blocks are broken, so unloading saves the chunk to the ChunkStore
+    private volatile boolean modified;
+    private boolean built;
     
     public Chunk(World world, int indexI, int indexJ) {
         this.world = world;
@@ -55,39 +155,143 @@ public class Chunk extends Drawable {
         chunkY = 0.0f;
         
         /*
-        The ordering of the blocks array is [y][x][z]. The reason for doing this
-        is because the WorldGenerator was easier to design if we iterate first on
-        the y-axis and then on the x and z axiis. If we iterate in the same way
-        the array is structured, we get better cache locality and hopefully better
-        performance.
+        The ordering of each section's storage is [y][x][z] (see sectionIndex()).
+        The reason for doing this is because the WorldGenerator was easier to
+        design if we iterate first on the y-axis and then on the x and z axiis. If
+        we iterate in the same way the storage is structured, we get better cache
+        locality and hopefully better performance.
+        
+        All sections start out empty (null).
         */
-        blocks = new VoxelType[CHUNK_H][CHUNK_S][CHUNK_S];
-
-        VBOHandle = glGenBuffers();
-        VBOHandleTranslucent = glGenBuffers();
+        sections = new BlockStorage[NUM_SECTIONS];
+        
+        neighbors = new AtomicReferenceArray<>(9);
+        neighbors.set(neighborIndex(0, 0), this);
+        
+        sectionAllocations = new ArenaAllocation[NUM_SECTIONS];
+        sectionAllocationsTranslucent = new ArenaAllocation[NUM_SECTIONS];
+        
+        visibleSections = ALL_SECTIONS;
+        
+        // until a section is meshed, assume it can be seen through
+        sectionConnectivity = new int[NUM_SECTIONS];
+        Arrays.fill(sectionConnectivity, OcclusionCuller.ALL_CONNECTED);
+        
+        // no mesh has been uploaded, so every section needs to be built
+        version = 0;
+        dirtySections = ALL_SECTIONS;
+        uploadedVersion = -1;
     }
     
     /**
     * method: getDirty()
     * purpose: Returns the state of the dirty flag. Chunks are marked as "dirty"
-    * when the mesh has been modified and needs to be rebuilt. The rebuildMesh()
-    * methods clears the dirty flag.
+    * when the mesh has been modified and needs to be rebuilt. A chunk is dirty
+    * until a mesh built from its current version has been uploaded by
+    * copyMeshToVBO().
     * 
     * The Game.java class checks for dirty chunks and adds them to a queue to be
     * rebuilt.
     **/
     public boolean getDirty() {
-        return dirty;
+        return version != uploadedVersion;
     }
     
     /**
     * method: setDirty()
     * purpose: Mark this chunk as dirty so its mesh will be rebuilt. The chunk
-    * becomes "dirty" when a block is broken or a new adjacent chunk is created
-    * by the WorldGenerator.
+    * becomes "dirty" when its blocks change, a block is broken at the edge of
+    * an adjacent chunk or a new adjacent chunk is created by the WorldGenerator.
+    * 
+    * All sections are rebuilt. Use setDirtySections() when only some sections
+    * changed.
     **/
     public void setDirty() {
-        this.dirty = true;
+        setDirtySections(ALL_SECTIONS);
+    }
+    
+    /**
+    * method: setDirtySections()
+    * purpose: Mark some sections of this chunk as dirty, given a bit mask with
+    * bit s set for each section s whose mesh needs to be rebuilt.
+    * 
+    * This increments the version, so it must be called after the blocks are
+    * changed. Any mesh that was being built at the time will not be uploaded.
+    **/
+    public synchronized void setDirtySections(int sectionMask) {
+        dirtySections |= sectionMask;
+        version++;
+    }
+    
+    /**
+    * method: getVersion()
+    * purpose: Returns the current version of this chunk.
+    **/
+    public int getVersion() {
+        return version;
+    }
+    
+    /**
+    * method: getStaleMeshes()
+    * purpose: Returns the number of meshes that copyMeshToVBO() did not upload
+    * because the chunk was modified while they were being built.
+    **/
+    public static int getStaleMeshes() {
+        return staleMeshes.get();
+    }
+    
+    /**
+    * method: getGreedyMeshing()
+    * purpose: Returns true if rebuildMesh() merges adjacent faces of the same
+    * VoxelType into larger quads.
+    **/
+    public static boolean getGreedyMeshing() {
+        return greedyMeshing;
+    }
+    
+    /**
+    * method: setGreedyMeshing()
+    * purpose: Turn greedy meshing on or off. Chunks must be marked dirty to be
+    * rebuilt with the new setting.
+    **/
+    public static void setGreedyMeshing(boolean enabled) {
+        greedyMeshing = enabled;
+    }
+    
+    /**
+    * method: getPackedVertices()
+    * purpose: Returns true if rebuildMesh() builds meshes in the packed vertex
+    * layout (8 bytes per vertex) instead of the float layout (20 bytes per vertex).
+    **/
+    public static boolean getPackedVertices() {
+        return packedVertices;
+    }
+    
+    /**
+    * method: setPackedVertices()
+    * purpose: Choose the vertex layout used by rebuildMesh(). Chunks must be
+    * marked dirty to be rebuilt with the new setting.
+    **/
+    public static void setPackedVertices(boolean enabled) {
+        packedVertices = enabled;
+    }
+    
+    /**
+    * method: getDebugOutput()
+    * purpose: Returns true if statistics are printed while the game runs.
+    **/
+    public static boolean getDebugOutput() {
+        return debugOutput;
+    }
+    
+    /**
+    * method: setDebugOutput()
+    * purpose: Turn the printing of statistics on or off. This covers each mesh
+    * build and upload here, each chunk generated by the WorldGenerator and the
+    * statistics the Game prints once a second.
+    **/
+    public static void setDebugOutput(boolean enabled) {
+        debugOutput = enabled;
     }
     
     /**
@@ -99,7 +303,16 @@ public class Chunk extends Drawable {
     public boolean getGenerated() {
         return generated;
     }
-    
+
+    /**
+    * method: getBuilt()
+    * purpose: Returns true once a mesh of this chunk has been copied to the
+    * ChunkArena.
+    **/
+    public boolean getBuilt() {
+        return built;
+    }
+
     /**
     * method: setGenerated()
     * purpose: Sets the generated flag to true. This method is called by the WorldGenerator
@@ -111,9 +324,71 @@ public class Chunk extends Drawable {
     }
     
     
+    /**
+    * method: sectionIndex()
+    * purpose: Translate an x,y,z position in a section to an index in that
+    * section's storage. The y value is relative to the bottom of the section.
+    * The storage is ordered [y][x][z].
+    **/
+    private static int sectionIndex(int x, int sectionY, int z) {
+        return (sectionY * CHUNK_S + x) * CHUNK_S + z;
+    }
+    
+    /**
+    * method: setBlock()
+    * purpose: Store a VoxelType at a given x,y,z position. A new section is
+    * created if a block is placed in an empty section.
+    **/
+    private void setBlock(int x, int y, int z, VoxelType v) {
+        int s = y / SECTION_H;
+        int index = sectionIndex(x, y - s * SECTION_H, z);
+        
+        BlockStorage section = sections[s];
+        if (section == null) {
+            if (v == null) {
+                return;
+            }
+            section = new BlockStorage(SECTION_VOLUME, null);
+            section.set(index, v);
+            sections[s] = section;
+            return;
+        }
+        
+        section.set(index, v);
+    }
+    
+    /**
+    * method: compactSection()
+    * purpose: Check if a section holds only one VoxelType. If it holds only
+    * empty cells it is replaced with null. If it holds a single VoxelType it is
+    * replaced with a uniform BlockStorage that has no packed array.
+    **/
+    private void compactSection(int s) {
+        BlockStorage section = sections[s];
+        if (section == null) {
+            return;
+        }
+        
+        VoxelType first = section.get(0);
+        if (!section.isUniform()) {
+            for (int i = 1; i < SECTION_VOLUME; i++) {
+                if (section.get(i) != first) {
+                    return;
+                }
+            }
+        }
+        
+        if (first == null) {
+            sections[s] = null;
+        } else if (!section.isUniform()) {
+            sections[s] = new BlockStorage(SECTION_VOLUME, first);
+        }
+    }
+    
     /**
     * method: copyBlocks()
-    * purpose: Copy a 3d array of VoxelType into this instance's blocks array.
+    * purpose: Copy a 3d array of VoxelType into this instance's sections. Sections
+    * that end up empty or uniform are compacted.
     **/
     public void copyBlocks(VoxelType[][][] wBlocks, int sx, int lx, int sy, int ly, int sz, int lz) {
         if (ly > CHUNK_H)
@@ -129,15 +404,75 @@ public class Chunk extends Drawable {
             for (int ix = sx; ix < sx + lx; ix++) {
                 int z = 0;
                 for (int iz = sz; iz < sz + lz; iz++) {
-                    this.blocks[y][x][z] = wBlocks[iy][ix][iz];
+                    setBlock(x, y, z, wBlocks[iy][ix][iz]);
                     z++;
                 }
                 x++;
             }
             y++;
         }
+        
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            compactSection(s);
+        }
+        setDirty();
     }
 
+    /**
+    * method: writeBlocks()
+    * purpose: Returns the blocks of this chunk as bytes for the ChunkStore.
+    * Each section is written as SECTION_EMPTY, or SECTION_STORED followed by
+    * its BlockStorage (see BlockStorage.write()).
+    **/
+    public byte[] writeBlocks() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (BlockStorage section : sections) {
+                if (section == null) {
+                    out.writeByte(SECTION_EMPTY);
+                } else {
+                    out.writeByte(SECTION_STORED);
+                    section.write(out);
+                }
+            }
+        } catch (IOException ex) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+    * method: readBlocks()
+    * purpose: Replace the blocks of this chunk with bytes written by
+    * writeBlocks() and mark the chunk dirty. The chunk is not marked modified,
+    * since the bytes are already saved.
+    **/
+    public void readBlocks(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        BlockStorage[] read = new BlockStorage[NUM_SECTIONS];
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            int kind = in.readUnsignedByte();
+            if (kind == SECTION_STORED) {
+                read[s] = BlockStorage.read(in, SECTION_VOLUME);
+            } else if (kind != SECTION_EMPTY) {
+                throw new IOException("Bad section " + kind);
+            }
+        }
+        System.arraycopy(read, 0, sections, 0, NUM_SECTIONS);
+        setDirty();
+    }
+    
+    /**
+    * method: getModified()
+    * purpose: Returns true if blocks were broken since the chunk was generated
+    * or loaded, so it must be saved before it is unloaded.
+    **/
+    public boolean getModified() {
+        return modified;
+    }
+    
     /**
     * method: voxelLookupSafe()
     * purpose: Returns VoxelType in the x,y,z position in the blocks array. Does
@@ -149,12 +484,26 @@ public class Chunk extends Drawable {
             x >= 0 && x < CHUNK_S &&
             z >= 0 && z < CHUNK_S
         ) {
-            return blocks[y][x][z];
+            return sectionLookup(x, y, z);
         }
         
         return null;
     }
     
+    /**
+    * method: sectionLookup()
+    * purpose: Returns VoxelType in the x,y,z position without bounds checking.
+    * Empty sections return null.
+    **/
+    private VoxelType sectionLookup(int x, int y, int z) {
+        int s = y / SECTION_H;
+        BlockStorage section = sections[s];
+        if (section == null) {
+            return null;
+        }
+        return section.get(sectionIndex(x, y - s * SECTION_H, z));
+    }
+    
     /**
     * method: blockAt()
     * purpose: Returns the VoxelType at a given x,y,z in the blocks array.
@@ -186,8 +535,28 @@ public class Chunk extends Drawable {
     * 
     **/
     public int depthAt(int x, int y, int z) {
-        for (int i = y; i >= 0; i--) {
-            VoxelType block = voxelLookupSafe(x, i, z);
+        if (x < 0 || x >= CHUNK_S || z < 0 || z >= CHUNK_S) {
+            return CHUNK_H;
+        }
+        
+        for (int i = Math.min(y, CHUNK_H - 1); i >= 0; i--) {
+            int s = i / SECTION_H;
+            BlockStorage section = sections[s];
+            
+            // skip to the bottom of empty or uniform sections
+            if (section == null) {
+                i = s * SECTION_H;
+                continue;
+            }
+            if (section.isUniform()) {
+                if (Voxel.isSolid(section.get(0))) {
+                    return i;
+                }
+                i = s * SECTION_H;
+                continue;
+            }
+            
+            VoxelType block = section.get(sectionIndex(x, i - s * SECTION_H, z));
             if (block != null && Voxel.isSolid(block)) {
                 return i;
             }
@@ -196,6 +565,58 @@ public class Chunk extends Drawable {
         return CHUNK_H;
     }
     
+    /**
+    * method: getBlockMemoryUsage()
+    * purpose: Returns an estimate of the number of heap bytes used to store the
+    * voxels of this chunk.
+    **/
+    public long getBlockMemoryUsage() {
+        long bytes = 16 + 4 * NUM_SECTIONS;
+        for (BlockStorage section: sections) {
+            if (section != null) {
+                bytes += section.getMemoryUsage();
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+    * method: getNumEmptySections()
+    * purpose: Returns the number of sections that contain only empty cells.
+    **/
+    public int getNumEmptySections() {
+        int count = 0;
+        for (BlockStorage section: sections) {
+            if (section == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+    * method: getNumUniformSections()
+    * purpose: Returns the number of sections that are filled with a single
+    * VoxelType.
+    **/
+    public int getNumUniformSections() {
+        int count = 0;
+        for (BlockStorage section: sections) {
+            if (section != null && section.isUniform()) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+    * method: isSectionEmpty()
+    * purpose: Returns true if a given section contains only empty cells.
+    **/
+    public boolean isSectionEmpty(int s) {
+        return sections[s] == null;
+    }
+    
     /**
     * method: traverseChunks()
     * purpose: Returns the chunk at a given x,y,z location in the blocks array.
@@ -225,8 +646,35 @@ public class Chunk extends Drawable {
             return this;
         }
         
-        // traversing chunk boundary, lookup adjacent chunk
-        return world.findAdjacentChunk(this, xDir, zDir);
+        // traversing chunk boundary, follow the link to the adjacent chunk
+        return neighbors.get(neighborIndex(xDir, zDir));
+    }
+    
+    /**
+    * method: getNeighbor()
+    * purpose: Returns the adjacent chunk in a given direction, given -1, 0 or 1
+    * on each axis, or null if there is none. getNeighbor(0, 0) returns this
+    * chunk. May be called from any thread.
+    **/
+    public Chunk getNeighbor(int xDir, int zDir) {
+        return neighbors.get(neighborIndex(xDir, zDir));
+    }
+    
+    /**
+    * method: setNeighbor()
+    * purpose: Link the adjacent chunk in a given direction, or unlink it if
+    * null. Only called by the World.
+    **/
+    void setNeighbor(int xDir, int zDir, Chunk neighbor) {
+        neighbors.set(neighborIndex(xDir, zDir), neighbor);
+    }
+    
+    /**
+    * method: neighborIndex()
+    * purpose: Returns the index of a direction in the neighbors array.
+    **/
+    private static int neighborIndex(int xDir, int zDir) {
+        return (zDir + 1) * 3 + xDir + 1;
     }
     
     /**
@@ -245,7 +693,7 @@ public class Chunk extends Drawable {
         int wrappedX = Math.floorMod(x, CHUNK_S);
         int wrappedZ = Math.floorMod(z, CHUNK_S);
         
-        return lookupChunk.blocks[y][wrappedX][wrappedZ]; //voxelLookupSafe(wrappedX, y, wrappedZ);
+        return lookupChunk.sectionLookup(wrappedX, y, wrappedZ);
     }
     
     /**
@@ -261,10 +709,14 @@ public class Chunk extends Drawable {
     /**
     * method: breakBlock()
     * purpose: Remove a voxel at a given x, y, z position in the blocks array and
-    * rebuild the mesh. If a block is broken at a chunk boundary, the adjacent chunk
-    * is marked as dirty so it will also be rebuilt. If the above voxels satisfy
-    * the Voxel.breakIfSupportRemoved() function, they will also be removed.
+    * mark the sections around it as dirty. If a block is broken at a chunk
+    * boundary, the section of the adjacent chunk is marked as dirty so it will
+    * also be rebuilt. If the above voxels satisfy the Voxel.breakIfSupportRemoved()
+    * function, they will also be removed.
     * 
+    * The mesh is not rebuilt here. Edited chunks are reported to the World, and
+    * the Game schedules them once per frame so that any number of edits in the
+    * same frame only cause one rebuild of each chunk.
     **/
     public void breakBlock(int x, int y, int z) {
         VoxelType v = voxelLookupSafe(x, y, z);
@@ -275,10 +727,12 @@ public class Chunk extends Drawable {
                 breakBlock(x, y + 1, z);
             }
             
-            // break block and fix the mesh
-            blocks[y][x][z] = null;
-            rebuildMesh();
-            copyMeshToVBO();
+            // break block and mark the sections with faces next to it as dirty
+            setBlock(x, y, z, null);
+            compactSection(y / SECTION_H);
+            modified = true;
+            setDirtySections(sectionsAround(y));
+            world.markEdited(this);
             
             // check if breaking block at chunk boundary
             int xDir = 0;
@@ -296,170 +750,730 @@ public class Chunk extends Drawable {
 
             if (xDir != 0) {
                 // lookup adjacent chunk and mark it as dirty so the mesh will be rebuilt
-                Chunk adjacent = world.findAdjacentChunk(this, xDir, 0);
+                Chunk adjacent = getNeighbor(xDir, 0);
                 if (adjacent != null) {
-                    adjacent.setDirty();
+                    adjacent.setDirtySections(1 << (y / SECTION_H));
+                    world.markEdited(adjacent);
                 }
             }
             
             if (zDir != 0) {
                 // lookup adjacent chunk and mark it as dirty so the mesh will be rebuilt
-                Chunk adjacent = world.findAdjacentChunk(this, 0, zDir);
+                Chunk adjacent = getNeighbor(0, zDir);
                 if (adjacent != null) {
-                    adjacent.setDirty();
+                    adjacent.setDirtySections(1 << (y / SECTION_H));
+                    world.markEdited(adjacent);
                 }
             }
         }
     }
     
+    /**
+    * method: sectionsAround()
+    * purpose: Returns a bit mask of the sections with faces that can change when
+    * the voxel at a given y changes. This is the voxel's own section, and the
+    * section above or below when the voxel is on the edge of its section.
+    **/
+    private static int sectionsAround(int y) {
+        int mask = 1 << (y / SECTION_H);
+        if (y > 0) {
+            mask |= 1 << ((y - 1) / SECTION_H);
+        }
+        if (y < CHUNK_H - 1) {
+            mask |= 1 << ((y + 1) / SECTION_H);
+        }
+        return mask;
+    }
+    
     /**
     * method: rebuildMesh()
-    * purpose: Loop over the blocks array to build a 3d mesh of the chunk to
+    * purpose: Loop over the dirty sections to build a 3d mesh of them to
     * render to the screen. Faces that can not be see will not be included in
-    * the mesh.
+    * the mesh. The faces of each section are written together so that each
+    * section can be uploaded to its own range of the ChunkArena, and sections
+    * that did not change keep the ranges they already have. Vertex positions
+    * are relative to the corner of the chunk's region in the arena.
+    * 
+    * The connectivity of each rebuilt section is computed as well (see
+    * computeConnectivity()).
+    * 
+    * Empty sections are skipped entirely. In uniform sections of a type that
+    * hides its own faces, only the voxels on the outside of the section are
+    * examined because the faces of the inner voxels can never be seen.
+    * 
+    * If greedy meshing is enabled, visible faces of greedy meshable voxels are
+    * recorded in a face mask instead of being written directly. After the loop,
+    * writeGreedyFaces() merges them into larger quads. Faces are only merged
+    * within a section.
     * 
     * This method builds two meshes: one for opaque voxels and another for translucent
     * voxels. This is because the screen needs to draw the opaque meshes before
     * the translucent ones.
     * 
-    * Mesh data is rendered to temporary float arrays. The copyMeshToVBO() copies
-    * the data out of the temporary array to create the VBOs. The reason for a two
+    * Mesh data is rendered to temporary MeshBuffers taken from a pool. The
+    * buffers grow as faces are added, so they only hold as much memory as the
+    * mesh needs. The ChunkMesh copies their data to direct buffers and returns
+    * them to the pool, and holds the direct buffers along with the version of
+    * the chunk they were built from. The copyMeshToVBO() copies the data out
+    * of the ChunkMesh to the ChunkArena and releases the direct buffers. The reason for a two
     * step generation process is so that rebuildMesh() can be done on a background
     * thread to prevent lag/stuttering. However copyMeshToVBO() must be done on
     * the main thread because that thread has the OpenGL context.
+    * 
+    * This method does not modify the chunk, so any number of threads can build
+    * meshes at the same time.
     **/
-    public void rebuildMesh() {
+    public ChunkMesh rebuildMesh() {
         // create a timer
         ThreadMXBean threadTimer = ManagementFactory.getThreadMXBean();
         long start = threadTimer.getCurrentThreadCpuTime();
         
-        // reset number of faces
-        tempNumFaces = 0;
-        tempNumFacesTranslucent = 0;
+        long startAllocated = threadAllocatedBytes(threadTimer);
+        
+        // the version and dirty sections must be read before any blocks are, see setDirtySections()
+        int meshVersion, sectionMask;
+        synchronized (this) {
+            meshVersion = version;
+            sectionMask = dirtySections;
+        }
+        
+        // a chunk that isn't dirty is rebuilt completely
+        if (sectionMask == 0) {
+            sectionMask = ALL_SECTIONS;
+        }
+        
+        // get empty buffers to hold the mesh data
+        boolean packed = packedVertices;
+        MeshBuffer mesh = MeshBuffer.obtain(packed);
+        MeshBuffer meshTranslucent = MeshBuffer.obtain(packed);
+        
+        // face mask for greedy meshing, holds VoxelType ordinal + 1 for each face to be merged
+        boolean greedy = greedyMeshing;
+        byte[] faceMask = greedy ? greedyFaceMask.get() : null;
+        
+        // copy the blocks and the border of the adjacent chunks so no lookups cross chunks
+        byte[] padded = paddedBlocks.get();
+        copyPaddedBlocks(padded, sectionMask);
+        
+        // vertex positions are relative to the corner of the chunk's region (see ChunkArena)
+        int regionX = ChunkArena.regionOffset(indexI);
+        int regionZ = ChunkArena.regionOffset(indexJ);
         
-        // compute number of floats to be written
-        int floatsPerFacePosition = 3 * 4;
-        int floatsPerFaceTexture = 2 * 4;
-        int floatsPerFace = floatsPerFacePosition + floatsPerFaceTexture;        
-        int totalFloats = NUM_BLOCKS * 6 * floatsPerFace;
+        // index of the first face of each section
+        int[] sectionOffsets = new int[NUM_SECTIONS + 1];
+        int[] sectionOffsetsTranslucent = new int[NUM_SECTIONS + 1];
+        int[] sectionConnectivity = new int[NUM_SECTIONS];
 
-        // create float arrays to hold data
-        writeIndex = 0;
-        writeIndexTranslucent = 0;
-        tempMeshData = new float[totalFloats];
-        tempMeshDataTranslucent = new float[totalFloats];
+        // section statistics
+        int meshVoxelsVisited = 0;
+        int meshVoxelsSkippedEmpty = 0;
+        int meshVoxelsSkippedUniform = 0;
 
-        // loop over each block in this chunk
-        for (int y = 0; y < CHUNK_H; y++) {
-            for (int x = 0; x < CHUNK_S; x++) {
-                for (int z = 0; z < CHUNK_S; z++) {
-                    VoxelType voxelType = blocks[y][x][z];
-                    
-                    // null is used for empty cells
-                    if (voxelType == null) {
-                        continue;
+        // loop over each dirty section in this chunk
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            sectionOffsets[s] = mesh.getNumFaces();
+            sectionOffsetsTranslucent[s] = meshTranslucent.getNumFaces();
+            if ((sectionMask & (1 << s)) == 0) {
+                continue;
+            }
+            
+            BlockStorage section = sections[s];
+            
+            // null is used for empty sections
+            if (section == null) {
+                sectionConnectivity[s] = OcclusionCuller.ALL_CONNECTED;
+                meshVoxelsSkippedEmpty += SECTION_VOLUME;
+                continue;
+            }
+            
+            // a uniform section is either open everywhere or nowhere
+            if (section.isUniform()) {
+                sectionConnectivity[s] = OPEN_BY_CODE[typeCode(section.get(0))] ? OcclusionCuller.ALL_CONNECTED : 0;
+            } else {
+                sectionConnectivity[s] = computeConnectivity(padded, s);
+            }
+            
+            // the inner voxels of a uniform section can't be seen unless the type is see-through
+            boolean shellOnly = section.isUniform() && !Voxel.isPartiallyTransparent(section.get(0));
+            
+            // loop over each block in this section, in the same order as the storage
+            for (int sy = 0; sy < SECTION_H; sy++) {
+                int y = s * SECTION_H + sy;
+                for (int x = 0; x < CHUNK_S; x++) {
+                    // in the inner rows of a shellOnly section only the first and last z are examined
+                    int zStep = 1;
+                    if (shellOnly && sy > 0 && sy < SECTION_H - 1 && x > 0 && x < CHUNK_S - 1) {
+                        zStep = CHUNK_S - 1;
+                        meshVoxelsSkippedUniform += CHUNK_S - 2;
                     }
                     
-                    // lookup all 6 adjacent voxels, traversing chunk boundaries if needed.
-                    VoxelType above = voxelLookupTraverseChunks(x, y + 1, z, VoxelType.BEDROCK);
-                    VoxelType below = voxelLookupTraverseChunks(x, y - 1, z, VoxelType.BEDROCK);
-                    VoxelType front = voxelLookupTraverseChunks(x, y, z - 1, VoxelType.BEDROCK);
-                    VoxelType back  = voxelLookupTraverseChunks(x, y, z + 1, VoxelType.BEDROCK);
-                    VoxelType left  = voxelLookupTraverseChunks(x - 1, y, z, VoxelType.BEDROCK);
-                    VoxelType right = voxelLookupTraverseChunks(x + 1, y, z, VoxelType.BEDROCK);
-
-                    // compute faces that can not be seen
-                    boolean[] faceVisible = new boolean[6];
-                    faceVisible[Voxel.FACE_TOP]    = shouldDrawFace(voxelType, above);
-                    //the extra & y > 0 is here so we don't draw the bottom faces of the world's bottom voxels
-                    faceVisible[Voxel.FACE_BOTTOM] = y > 0 && shouldDrawFace(voxelType, below);
-                    faceVisible[Voxel.FACE_FRONT]  = shouldDrawFace(voxelType, front);
-                    faceVisible[Voxel.FACE_BACK]   = shouldDrawFace(voxelType, back);
-                    faceVisible[Voxel.FACE_LEFT]   = shouldDrawFace(voxelType, left);
-                    faceVisible[Voxel.FACE_RIGHT]  = shouldDrawFace(voxelType, right);
-
-                    // don't draw the top and bottom faces of cross type objects
-                    faceVisible[Voxel.FACE_BOTTOM] &= !Voxel.isCrossType(voxelType);
-                    faceVisible[Voxel.FACE_TOP] &= !Voxel.isCrossType(voxelType);
+                    int rowIndex = paddedIndex(x, y, 0);
+                    for (int z = 0; z < CHUNK_S; z += zStep) {
+                        int p = rowIndex + z;
+                        int code = padded[p];
+                        meshVoxelsVisited++;
+                        
+                        // 0 is used for empty cells
+                        if (code == 0) {
+                            continue;
+                        }
+                        
+                        // compute faces that can not be seen from the 6 adjacent voxels
+                        int row = code * NUM_CODES;
+                        int visibleFaces = 0;
+                        for (int face = 0; face < 6; face++) {
+                            if (FACE_VISIBLE[row + padded[p + PADDED_NEIGHBOR_OFFSETS[face]]]) {
+                                visibleFaces |= 1 << face;
+                            }
+                        }
+                        visibleFaces &= FACE_MASK_BY_CODE[code];
+                        //don't draw the bottom faces of the world's bottom voxels
+                        if (y == 0) {
+                            visibleFaces &= ~(1 << Voxel.FACE_BOTTOM);
+                        }
+                        if (visibleFaces == 0) {
+                            continue;
+                        }
+                        
+                        VoxelType voxelType = CODE_TO_TYPE[code - 1];
 
-                    // check if texture is translucent (like water or glass)
-                    boolean translucentTexture = Voxel.isTranslucent(voxelType);
-                    
-                    // translate x,y,z indices to OpenGL coordinates
-                    float glX = (float) (x * Voxel.BLOCK_SIZE);
-                    float glY = (float) (y * Voxel.BLOCK_SIZE);
-                    float glZ = (float) (z * Voxel.BLOCK_SIZE);
-                    
-                    // loop over the faces and write them to the buffers
-                    for (int face = 0; face < 6; face++) {
-                        if (faceVisible[face]) {
-                            if (translucentTexture) {
-                                // write to the translucent buffer
-                                Voxel.writeFaceVertices(tempMeshDataTranslucent, writeIndexTranslucent, face, voxelType, glX, glY, glZ);
-                                writeIndexTranslucent += floatsPerFace;
-                                tempNumFacesTranslucent++;
-                            } else {
-                                // write to the opaque buffer
-                                Voxel.writeFaceVertices(tempMeshData, writeIndex, face, voxelType, glX, glY, glZ);
-                                writeIndex += floatsPerFace;
-                                tempNumFaces++;
+                        // check if texture is translucent (like water or glass)
+                        boolean translucentTexture = Voxel.isTranslucent(voxelType);
+                        
+                        // record faces to be merged by writeGreedyFaces()
+                        if (greedy && Voxel.isGreedyMeshable(voxelType)) {
+                            int maskIndex = (y * CHUNK_S + x) * CHUNK_S + z;
+                            for (int face = 0; face < 6; face++) {
+                                if ((visibleFaces & (1 << face)) != 0) {
+                                    faceMask[face * NUM_BLOCKS + maskIndex] = (byte) code;
+                                }
+                            }
+                            continue;
+                        }
+                        
+                        // translate x,y,z indices to OpenGL coordinates relative to the region
+                        float glX = (float) ((regionX + x) * Voxel.BLOCK_SIZE);
+                        float glY = (float) (y * Voxel.BLOCK_SIZE);
+                        float glZ = (float) ((regionZ + z) * Voxel.BLOCK_SIZE);
+                        
+                        // loop over the faces and write them to the buffers
+                        for (int face = 0; face < 6; face++) {
+                            if ((visibleFaces & (1 << face)) != 0) {
+                                // write to the translucent or opaque buffer
+                                MeshBuffer target = translucentTexture ? meshTranslucent : mesh;
+                                int writeIndex = target.addFace();
+                                if (packed) {
+                                    Voxel.writePackedFaceVertices(target.getPackedData(), writeIndex, face, voxelType, regionX + x, y, regionZ + z);
+                                } else {
+                                    Voxel.writeFaceVertices(target.getData(), writeIndex, face, voxelType, glX, glY, glZ);
+                                }
                             }
                         }
                     }
                 }
+                // yeild after each vertical layer so that mesh building doesn't cause stuttering
+                Thread.yield();
+            }
+            
+            // merge the faces recorded for this section
+            if (greedy) {
+                writeGreedyFaces(faceMask, mesh, meshTranslucent, s);
             }
-            // yeild after each vertical layer so that mesh building doesn't cause stuttering
-            Thread.yield();
         }
+        sectionOffsets[NUM_SECTIONS] = mesh.getNumFaces();
+        sectionOffsetsTranslucent[NUM_SECTIONS] = meshTranslucent.getNumFaces();
+        
+        long meshBytesAllocated = threadAllocatedBytes(threadTimer) - startAllocated;
         
         // print out how long it took to build the mesh
-        System.out.println("MeshBuild " + indexI + "," + indexJ + " in " + (threadTimer.getCurrentThreadCpuTime() - start) / 1000000000.0);
+        if (debugOutput) {
+            System.out.println("MeshBuild " + indexI + "," + indexJ + " in " + (threadTimer.getCurrentThreadCpuTime() - start) / 1000000000.0
+                + " (" + Integer.bitCount(sectionMask) + " sections, visited " + meshVoxelsVisited + ", skipped " + meshVoxelsSkippedEmpty + " empty, " + meshVoxelsSkippedUniform + " uniform)"
+                + " allocated " + meshBytesAllocated + " bytes");
+        }
+        
+        // hand the buffers over to copyMeshToVBO()
+        return new ChunkMesh(this, meshVersion, mesh, meshTranslucent, sectionMask, sectionOffsets, sectionOffsetsTranslucent, sectionConnectivity,
+            meshVoxelsVisited, meshVoxelsSkippedEmpty, meshVoxelsSkippedUniform, meshBytesAllocated);
+    }
+    
+    /**
+    * method: copyPaddedBlocks()
+    * purpose: Copy the blocks of this chunk into a padded array along with a one
+    * voxel border taken from the 4 adjacent chunks. Border cells above and below
+    * the chunk, and cells of adjacent chunks that don't exist yet, are filled
+    * with BEDROCK so their faces are hidden, the same as
+    * voxelLookupTraverseChunks(x, y, z, VoxelType.BEDROCK).
+    * 
+    * Only the sections in the given bit mask and the sections above and below
+    * them are copied, which is everything needed to build the faces of the
+    * sections in the mask.
+    **/
+    private void copyPaddedBlocks(byte[] padded, int sectionMask) {
+        byte bedrock = (byte) (VoxelType.BEDROCK.ordinal() + 1);
+        Arrays.fill(padded, bedrock);
+        int copyMask = (sectionMask | (sectionMask << 1) | (sectionMask >>> 1)) & ALL_SECTIONS;
+        
+        // this chunk, one section at a time
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            if ((copyMask & (1 << s)) == 0) {
+                continue;
+            }
+            
+            BlockStorage section = sections[s];
+            for (int sy = 0; sy < SECTION_H; sy++) {
+                int y = s * SECTION_H + sy;
+                for (int x = 0; x < CHUNK_S; x++) {
+                    int rowIndex = paddedIndex(x, y, 0);
+                    if (section == null || section.isUniform()) {
+                        byte code = section == null ? 0 : typeCode(section.get(0));
+                        Arrays.fill(padded, rowIndex, rowIndex + CHUNK_S, code);
+                        continue;
+                    }
+                    
+                    int index = sectionIndex(x, sy, 0);
+                    for (int z = 0; z < CHUNK_S; z++) {
+                        padded[rowIndex + z] = typeCode(section.get(index + z));
+                    }
+                }
+            }
+        }
+        
+        // one face of each adjacent chunk
+        Chunk left = getNeighbor(-1, 0);
+        Chunk right = getNeighbor(1, 0);
+        Chunk front = getNeighbor(0, -1);
+        Chunk back = getNeighbor(0, 1);
+        for (int y = 0; y < CHUNK_H; y++) {
+            if ((copyMask & (1 << (y / SECTION_H))) == 0) {
+                continue;
+            }
+            for (int k = 0; k < CHUNK_S; k++) {
+                if (left != null) {
+                    padded[paddedIndex(-1, y, k)] = typeCode(left.sectionLookup(CHUNK_S - 1, y, k));
+                }
+                if (right != null) {
+                    padded[paddedIndex(CHUNK_S, y, k)] = typeCode(right.sectionLookup(0, y, k));
+                }
+                if (front != null) {
+                    padded[paddedIndex(k, y, -1)] = typeCode(front.sectionLookup(k, y, CHUNK_S - 1));
+                }
+                if (back != null) {
+                    padded[paddedIndex(k, y, CHUNK_S)] = typeCode(back.sectionLookup(k, y, 0));
+                }
+            }
+        }
+    }
+    
+    /**
+    * method: computeConnectivity()
+    * purpose: Returns the pairs of faces of a section that are connected
+    * through open voxels (see OcclusionCuller). The open voxels are split into
+    * regions with a flood fill, and every pair of faces touched by the same
+    * region is connected. The section must already be in the padded array.
+    **/
+    private static int computeConnectivity(byte[] padded, int s) {
+        boolean[] open = openCells.get();
+        int numOpen = 0;
+        for (int sy = 0; sy < SECTION_H; sy++) {
+            for (int x = 0; x < CHUNK_S; x++) {
+                int rowIndex = paddedIndex(x, s * SECTION_H + sy, 0);
+                int cell = sectionIndex(x, sy, 0);
+                for (int z = 0; z < CHUNK_S; z++) {
+                    boolean isOpen = OPEN_BY_CODE[padded[rowIndex + z]];
+                    open[cell + z] = isOpen;
+                    if (isOpen) {
+                        numOpen++;
+                    }
+                }
+            }
+        }
+        if (numOpen == 0) {
+            return 0;
+        }
+        
+        // each fill clears the cells it visits, so every cell is visited once
+        int[] queue = fillQueue.get();
+        int connectivity = 0;
+        int layer = CHUNK_S * CHUNK_S;
+        for (int start = 0; start < SECTION_VOLUME && connectivity != OcclusionCuller.ALL_CONNECTED; start++) {
+            if (!open[start]) {
+                continue;
+            }
+            
+            open[start] = false;
+            queue[0] = start;
+            int head = 0;
+            int tail = 1;
+            int faces = 0;
+            while (head < tail) {
+                int cell = queue[head++];
+                int z = cell % CHUNK_S;
+                int x = (cell / CHUNK_S) % CHUNK_S;
+                int sy = cell / layer;
+                
+                // cells on the border of the section touch its faces
+                if (x == 0) {
+                    faces |= 1 << Voxel.FACE_LEFT;
+                }
+                if (x == CHUNK_S - 1) {
+                    faces |= 1 << Voxel.FACE_RIGHT;
+                }
+                if (z == 0) {
+                    faces |= 1 << Voxel.FACE_FRONT;
+                }
+                if (z == CHUNK_S - 1) {
+                    faces |= 1 << Voxel.FACE_BACK;
+                }
+                if (sy == 0) {
+                    faces |= 1 << Voxel.FACE_BOTTOM;
+                }
+                if (sy == SECTION_H - 1) {
+                    faces |= 1 << Voxel.FACE_TOP;
+                }
+                
+                if (x > 0 && open[cell - CHUNK_S]) {
+                    open[cell - CHUNK_S] = false;
+                    queue[tail++] = cell - CHUNK_S;
+                }
+                if (x < CHUNK_S - 1 && open[cell + CHUNK_S]) {
+                    open[cell + CHUNK_S] = false;
+                    queue[tail++] = cell + CHUNK_S;
+                }
+                if (z > 0 && open[cell - 1]) {
+                    open[cell - 1] = false;
+                    queue[tail++] = cell - 1;
+                }
+                if (z < CHUNK_S - 1 && open[cell + 1]) {
+                    open[cell + 1] = false;
+                    queue[tail++] = cell + 1;
+                }
+                if (sy > 0 && open[cell - layer]) {
+                    open[cell - layer] = false;
+                    queue[tail++] = cell - layer;
+                }
+                if (sy < SECTION_H - 1 && open[cell + layer]) {
+                    open[cell + layer] = false;
+                    queue[tail++] = cell + layer;
+                }
+            }
+            connectivity = OcclusionCuller.connect(connectivity, faces);
+        }
+        return connectivity;
+    }
+    
+    /**
+    * method: paddedIndex()
+    * purpose: Translate an x, y, z position in this chunk to an index in the
+    * padded array. Positions from -1 to CHUNK_S (or CHUNK_H) are allowed.
+    **/
+    private static int paddedIndex(int x, int y, int z) {
+        return ((y + 1) * PADDED_S + (x + 1)) * PADDED_S + (z + 1);
+    }
+    
+    /**
+    * method: typeCode()
+    * purpose: Returns the code of a VoxelType in the padded array.
+    **/
+    private static byte typeCode(VoxelType v) {
+        return v == null ? 0 : (byte) (v.ordinal() + 1);
+    }
+    
+    /**
+    * method: buildFaceVisibleTable()
+    * purpose: Build the FACE_VISIBLE table from shouldDrawFace().
+    **/
+    private static boolean[] buildFaceVisibleTable() {
+        boolean[] table = new boolean[NUM_CODES * NUM_CODES];
+        for (int code = 1; code < NUM_CODES; code++) {
+            for (int adjacent = 0; adjacent < NUM_CODES; adjacent++) {
+                VoxelType adjacentType = adjacent == 0 ? null : CODE_TO_TYPE[adjacent - 1];
+                table[code * NUM_CODES + adjacent] = shouldDrawFace(CODE_TO_TYPE[code - 1], adjacentType);
+            }
+        }
+        return table;
+    }
+    
+    /**
+    * method: buildFaceMaskTable()
+    * purpose: Build the FACE_MASK_BY_CODE table. Cross types don't have top and
+    * bottom faces.
+    **/
+    private static int[] buildFaceMaskTable() {
+        int[] table = new int[NUM_CODES];
+        for (int code = 1; code < NUM_CODES; code++) {
+            table[code] = 0x3F;
+            if (Voxel.isCrossType(CODE_TO_TYPE[code - 1])) {
+                table[code] &= ~((1 << Voxel.FACE_TOP) | (1 << Voxel.FACE_BOTTOM));
+            }
+        }
+        return table;
+    }
+    
+    /**
+    * method: buildOpenTable()
+    * purpose: Build the OPEN_BY_CODE table. Empty cells and voxels that don't
+    * completely hide what is behind them (translucent, partially transparent
+    * and cross types) are open.
+    **/
+    private static boolean[] buildOpenTable() {
+        boolean[] table = new boolean[NUM_CODES];
+        table[0] = true;
+        for (int code = 1; code < NUM_CODES; code++) {
+            VoxelType v = CODE_TO_TYPE[code - 1];
+            table[code] = Voxel.isTranslucent(v) || Voxel.isPartiallyTransparent(v) || Voxel.isCrossType(v);
+        }
+        return table;
+    }
+    
+    /**
+    * method: writeGreedyFaces()
+    * purpose: Merge the faces recorded in the face mask for one section into
+    * rectangles and write them to the given mesh buffers. Rectangles don't
+    * cross into other sections.
+    * 
+    * Each face direction is handled one slice at a time. A slice is a plane of
+    * voxels perpendicular to the face normal. Within a slice, faces are merged
+    * along the face's texture u axis first, then rows of the same width are
+    * merged along the texture v axis.
+    * 
+    * The packed layout can only hold rectangles up to Voxel.MAX_PACKED_MERGE
+    * voxels wide and tall, so larger ones are split.
+    **/
+    private void writeGreedyFaces(byte[] faceMask, MeshBuffer mesh, MeshBuffer meshTranslucent, int section) {
+        VoxelType[] types = VoxelType.values();
+        boolean packed = mesh.isPacked();
+        int maxMerge = packed ? Voxel.MAX_PACKED_MERGE : Integer.MAX_VALUE;
+        int sectionStart = section * SECTION_H;
+        int sectionEnd = sectionStart + SECTION_H;
+        int regionX = ChunkArena.regionOffset(indexI);
+        int regionZ = ChunkArena.regionOffset(indexJ);
+        
+        for (int face = 0; face < 6; face++) {
+            int base = face * NUM_BLOCKS;
+            
+            // range of the normal axis (n), texture u axis (a) and texture v axis (b), y is limited to the section
+            boolean horizontal = face == Voxel.FACE_TOP || face == Voxel.FACE_BOTTOM;
+            int startN = horizontal ? sectionStart : 0;
+            int endN = horizontal ? sectionEnd : CHUNK_S;
+            int dimA = CHUNK_S;
+            int startB = horizontal ? 0 : sectionStart;
+            int endB = horizontal ? CHUNK_S : sectionEnd;
+            
+            for (int n = startN; n < endN; n++) {
+                for (int b = startB; b < endB; b++) {
+                    for (int a = 0; a < dimA; a++) {
+                        byte type = faceMask[base + maskIndex(face, n, a, b)];
+                        if (type == 0) {
+                            continue;
+                        }
+                        
+                        // grow the rectangle along the u axis
+                        int w = 1;
+                        while (a + w < dimA && w < maxMerge && faceMask[base + maskIndex(face, n, a + w, b)] == type) {
+                            w++;
+                        }
+                        
+                        // grow the rectangle along the v axis while the whole row matches
+                        int h = 1;
+                        growV:
+                        while (b + h < endB && h < maxMerge) {
+                            for (int k = 0; k < w; k++) {
+                                if (faceMask[base + maskIndex(face, n, a + k, b + h)] != type) {
+                                    break growV;
+                                }
+                            }
+                            h++;
+                        }
+                        
+                        // clear the merged faces so they aren't written again
+                        for (int kb = 0; kb < h; kb++) {
+                            for (int ka = 0; ka < w; ka++) {
+                                faceMask[base + maskIndex(face, n, a + ka, b + kb)] = 0;
+                            }
+                        }
+                        
+                        // translate the first voxel of the rectangle to OpenGL coordinates relative to the region
+                        int index = maskIndex(face, n, a, b);
+                        int x = (index / CHUNK_S) % CHUNK_S;
+                        int y = index / (CHUNK_S * CHUNK_S);
+                        int z = index % CHUNK_S;
+                        float glX = (float) ((regionX + x) * Voxel.BLOCK_SIZE);
+                        float glY = (float) (y * Voxel.BLOCK_SIZE);
+                        float glZ = (float) ((regionZ + z) * Voxel.BLOCK_SIZE);
+                        
+                        // write to the translucent or opaque buffer
+                        VoxelType voxelType = types[type - 1];
+                        MeshBuffer target = Voxel.isTranslucent(voxelType) ? meshTranslucent : mesh;
+                        int writeIndex = target.addFace();
+                        if (packed) {
+                            Voxel.writeMergedPackedFaceVertices(target.getPackedData(), writeIndex, face, voxelType, regionX + x, y, regionZ + z, w, h);
+                        } else {
+                            Voxel.writeMergedFaceVertices(target.getData(), writeIndex, face, voxelType, glX, glY, glZ, w, h);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+    * method: maskIndex()
+    * purpose: Translate a position on the normal (n), texture u (a) and texture v
+    * (b) axes of a face to an index in the face mask. The face mask uses the same
+    * [y][x][z] ordering as the sections.
+    **/
+    private static int maskIndex(int face, int n, int a, int b) {
+        switch (face) {
+            case Voxel.FACE_TOP:
+            case Voxel.FACE_BOTTOM:
+                return (n * CHUNK_S + a) * CHUNK_S + b;
+            case Voxel.FACE_FRONT:
+            case Voxel.FACE_BACK:
+                return (b * CHUNK_S + a) * CHUNK_S + n;
+            default:
+                return (b * CHUNK_S + n) * CHUNK_S + a;
+        }
     }
     
     /**
     * method: copyMeshToVBO()
-    * purpose: Copy the data in the tempMeshData and tempMeshDataTranslucent arrays
-    * to VBOs. This must be done only after rebuildMesh() is called.
+    * purpose: Copy the data of a ChunkMesh returned by rebuildMesh() to the
+    * ChunkArena. Each section in the mesh is copied to its own range of the
+    * arena, the ranges of the other sections are not changed. If the chunk has been modified since the mesh
+    * was built, the mesh is thrown away and the chunk stays dirty. Either way
+    * the mesh's direct buffers are returned to their pool afterwards. Returns true
+    * if the mesh was uploaded.
     **/
-    public void copyMeshToVBO() {
-        // make sure rebuildMesh() was called first.
-        if (tempMeshData == null || tempMeshDataTranslucent == null) {
-            return;
+    public boolean copyMeshToVBO(ChunkMesh chunkMesh) {
+        synchronized (this) {
+            // skip meshes built from an old version of the blocks
+            if (chunkMesh.getVersion() != version) {
+                chunkMesh.release();
+                staleMeshes.incrementAndGet();
+                if (debugOutput) {
+                    System.out.println("MeshVBOCopy " + indexI + "," + indexJ + " skipped, built from version " + chunkMesh.getVersion() + " of " + version);
+                }
+                return false;
+            }
+            
+            // the sections in the mesh are up to date
+            dirtySections &= ~chunkMesh.getSectionMask();
+        }
+        
+        // the OcclusionCuller walks the sections again when their connectivity changes
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            if ((chunkMesh.getSectionMask() & (1 << s)) != 0 && sectionConnectivity[s] != chunkMesh.getConnectivity(s)) {
+                sectionConnectivity[s] = chunkMesh.getConnectivity(s);
+                connectivityChanges++;
+            }
         }
         
         // create timer
         ThreadMXBean threadTimer = ManagementFactory.getThreadMXBean();
         long start = threadTimer.getCurrentThreadCpuTime();
         
-        // create FloatBuffers
-        FloatBuffer vertexVBO = BufferUtils.createFloatBuffer(writeIndex);
-        FloatBuffer vertexTranslucentVBO = BufferUtils.createFloatBuffer(writeIndexTranslucent);
-        
-        // copy float data to FloatBuffers
-        ((FloatBuffer) vertexVBO.clear()).put(tempMeshData, 0, writeIndex).flip();
-        ((FloatBuffer) vertexTranslucentVBO.clear()).put(tempMeshDataTranslucent, 0, writeIndexTranslucent).flip();
-        
-        // Load FloatBuffers data into VBOs
-        glBindBuffer(GL_ARRAY_BUFFER, VBOHandle);
-        glBufferData(GL_ARRAY_BUFFER, vertexVBO, GL_STATIC_DRAW);
-        glBindBuffer(GL_ARRAY_BUFFER, VBOHandleTranslucent);
-        glBufferData(GL_ARRAY_BUFFER, vertexTranslucentVBO, GL_STATIC_DRAW);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        // the mesh data was copied to direct buffers by the building thread
+        boolean packed = chunkMesh.isPacked();
+        int bytesPerFace = packed ? 2 * MeshBuffer.SHORTS_PER_FACE : 4 * MeshBuffer.FLOATS_PER_FACE;
+        ByteBuffer vertexVBO = chunkMesh.getVertexData(false);
+        ByteBuffer vertexTranslucentVBO = chunkMesh.getVertexData(true);
         
-        // copy over number of faces
-        numFaces = tempNumFaces;
-        numFacesTranslucent = tempNumFacesTranslucent;
+        // load the faces of each rebuilt section into the section's ranges of the arena
+        // the opaque sections go first so that new ranges of a chunk end up next to each other
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            if ((chunkMesh.getSectionMask() & (1 << s)) != 0) {
+                sectionAllocations[s] = copySectionToArena(sectionAllocations[s], vertexVBO, chunkMesh.getFirstFace(s, false), chunkMesh.getNumFaces(s, false), bytesPerFace, packed);
+            }
+        }
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            if ((chunkMesh.getSectionMask() & (1 << s)) != 0) {
+                sectionAllocationsTranslucent[s] = copySectionToArena(sectionAllocationsTranslucent[s], vertexTranslucentVBO, chunkMesh.getFirstFace(s, true), chunkMesh.getNumFaces(s, true), bytesPerFace, packed);
+            }
+        }
         
-        // clear out temp buffers
-        tempMeshData = null;
-        tempMeshDataTranslucent = null;
+        // return the buffers to their pools
+        chunkMesh.release();
         
         // print how long it took
-        System.out.println("MeshVBOCopy " + indexI + "," + indexJ + " in " + (threadTimer.getCurrentThreadCpuTime() - start) / 1000000000.0);
+        if (debugOutput) {
+            System.out.println("MeshVBOCopy " + indexI + "," + indexJ + " in " + (threadTimer.getCurrentThreadCpuTime() - start) / 1000000000.0
+                + " (" + Integer.bitCount(chunkMesh.getSectionMask()) + " sections, mesh buffers created " + MeshBuffer.getBuffersCreated()
+                + ", grown " + MeshBuffer.getBuffersGrown() + ", dropped " + MeshBuffer.getBuffersDropped() + ", " + MeshBuffer.getBytesAllocated() + " bytes total, direct buffers created "
+                + DirectBufferPool.getBuffersCreated() + ", reused " + DirectBufferPool.getBuffersReused() + ")");
+        }
         
         // set the flags
-        dirty = false;
+        uploadedVersion = chunkMesh.getVersion();
         built = true;
+        return true;
+    }
+    
+    /**
+    * method: releaseMesh()
+    * purpose: Free the mesh of this chunk in the ChunkArena and mark every
+    * section dirty, so the mesh is built again when the chunk comes back
+    * within the draw distance. A mesh being built at the time is thrown away.
+    * Returns the number of bytes freed. Must be called on the thread that has
+    * the OpenGL context.
+    **/
+    public long releaseMesh() {
+        long bytes = getMeshBytes();
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            if (sectionAllocations[s] != null) {
+                ChunkArena.free(sectionAllocations[s]);
+                sectionAllocations[s] = null;
+            }
+            if (sectionAllocationsTranslucent[s] != null) {
+                ChunkArena.free(sectionAllocationsTranslucent[s]);
+                sectionAllocationsTranslucent[s] = null;
+            }
+        }
+        built = false;
+        setDirty();
+        return bytes;
+    }
+    
+    /**
+    * method: getMeshBytes()
+    * purpose: Returns the number of bytes of the ChunkArena held by the mesh of
+    * this chunk.
+    **/
+    public long getMeshBytes() {
+        long bytes = 0;
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            if (sectionAllocations[s] != null) {
+                bytes += (long) sectionAllocations[s].getCapacity() * sectionAllocations[s].getPage().getBytesPerFace();
+            }
+            if (sectionAllocationsTranslucent[s] != null) {
+                bytes += (long) sectionAllocationsTranslucent[s].getCapacity() * sectionAllocationsTranslucent[s].getPage().getBytesPerFace();
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+    * method: copySectionToArena()
+    * purpose: Copy a range of faces from a ByteBuffer to the ChunkArena, given
+    * the old allocation of the section. Returns the new allocation.
+    **/
+    private ArenaAllocation copySectionToArena(ArenaAllocation allocation, ByteBuffer data, int firstFace, int faces, int bytesPerFace, boolean packed) {
+        data.clear();
+        data.limit((firstFace + faces) * bytesPerFace);
+        data.position(firstFace * bytesPerFace);
+        return ChunkArena.upload(allocation, ChunkArena.regionOf(indexI), ChunkArena.regionOf(indexJ), packed, data, faces);
+    }
+    
+    /**
+    * method: threadAllocatedBytes()
+    * purpose: Returns the number of bytes allocated by the current thread, or 0
+    * if the JVM can't measure it.
+    **/
+    private static long threadAllocatedBytes(ThreadMXBean threadTimer) {
+        if (threadTimer instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadTimer).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
     }
     
     /**
@@ -467,7 +1481,7 @@ public class Chunk extends Drawable {
     * purpose: Examines two adjacent VoxelTypes and determines if the
     * mating face of the fist Voxel should be drawn.
     **/
-    private boolean shouldDrawFace(VoxelType v, VoxelType adjacent) {
+    private static boolean shouldDrawFace(VoxelType v, VoxelType adjacent) {
         if (adjacent == null) {
             return true;
         }
@@ -485,50 +1499,156 @@ public class Chunk extends Drawable {
     
     /**
     * method: draw()
-    * purpose: Draw the pre-built textured mesh of opaque voxels to the screen.
+    * purpose: Queue the pre-built textured mesh of opaque voxels to be drawn by
+    * the ChunkArena.
     **/
     @Override
     public void draw() {
-        drawVBO(VBOHandle, numFaces);
+        queueSections(sectionAllocations);
     }
     
     /**
     * method: drawTranslucent()
-    * purpose: Draw the pre-built textured mesh of translucent voxels to the screen.
+    * purpose: Queue the pre-built textured mesh of translucent voxels to be
+    * drawn by the ChunkArena.
     **/
     @Override
     public void drawTranslucent() {
-        drawVBO(VBOHandleTranslucent, numFacesTranslucent);
+        queueSections(sectionAllocationsTranslucent);
     }
     
     /**
-    * method: drawVBO()
-    * purpose: Draw a given VBO to the screen.
+    * method: queueSections()
+    * purpose: Queue the given sections to be drawn, skipping the sections
+    * without faces and the sections outside the view frustum.
     **/
-    private void drawVBO(int VBO, int faces) {
+    private void queueSections(ArenaAllocation[] allocations) {
         if (!built) {
             return;
         }
         
-        glEnableClientState(GL_VERTEX_ARRAY);
-        glEnableClientState (GL_TEXTURE_COORD_ARRAY);
-        glPushMatrix();
-        glTranslatef(chunkX, chunkY, chunkZ);
-        
-        glBindBuffer(GL_ARRAY_BUFFER, VBO);
-        glBindTexture(GL_TEXTURE_2D, 1);
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            if (allocations[s] != null && (visibleSections & (1 << s)) != 0) {
+                ChunkArena.queue(allocations[s]);
+            }
+        }
+    }
+    
+    /**
+    * method: inFrustum()
+    * purpose: Test the bounding box of this chunk against the view frustum, and
+    * if it is inside, the box of each section. The sections found inside are the
+    * only ones drawn until the next call, including sections that get faces in
+    * the meantime. Returns true if the chunk's box is inside.
+    **/
+    @Override
+    public boolean inFrustum(Frustum frustum) {
+        // voxels extend half a block around their position
+        float half = Voxel.BLOCK_SIZE / 2.0f;
+        float minX = chunkX - half;
+        float minY = chunkY - half;
+        float minZ = chunkZ - half;
+        float maxX = minX + CHUNK_S * Voxel.BLOCK_SIZE;
+        float maxZ = minZ + CHUNK_S * Voxel.BLOCK_SIZE;
         
-        // Using interleved VBO for better performance
-        // (V,V,V,T,T)
-        int stride = 5 * 4;
-        glVertexPointer(3, GL_FLOAT, stride, 0);
-        glTexCoordPointer(2, GL_FLOAT, stride, 3 * 4);
-
-        glDrawArrays(GL_QUADS, 0, faces * 4);
+        int sectionsWithFaces = getSectionsWithFaces();
+        visibleSections = 0;
+        boolean inside = frustum.intersects(minX, minY, minZ, maxX, minY + CHUNK_H * Voxel.BLOCK_SIZE, maxZ);
+        if (inside) {
+            for (int s = 0; s < NUM_SECTIONS; s++) {
+                if (sectionInFrustum(frustum, s)) {
+                    visibleSections |= 1 << s;
+                }
+            }
+        }
         
-        glPopMatrix();
-        glDisableClientState(GL_VERTEX_ARRAY);
-        glDisableClientState (GL_TEXTURE_COORD_ARRAY);
+        // only sections with faces are counted
+        int numVisible = Integer.bitCount(visibleSections & sectionsWithFaces);
+        frustum.countSections(numVisible, Integer.bitCount(sectionsWithFaces) - numVisible);
+        return inside;
+    }
+    
+    /**
+    * method: sectionInFrustum()
+    * purpose: Returns true if the bounding box of a section may be inside the
+    * view frustum.
+    **/
+    public boolean sectionInFrustum(Frustum frustum, int s) {
+        float half = Voxel.BLOCK_SIZE / 2.0f;
+        float minX = chunkX - half;
+        float minZ = chunkZ - half;
+        float sectionHeight = SECTION_H * Voxel.BLOCK_SIZE;
+        float sectionY = chunkY - half + s * sectionHeight;
+        return frustum.intersects(minX, sectionY, minZ, minX + CHUNK_S * Voxel.BLOCK_SIZE, sectionY + sectionHeight, minZ + CHUNK_S * Voxel.BLOCK_SIZE);
+    }
+    
+    /**
+    * method: getSectionsWithFaces()
+    * purpose: Returns a bit mask of the sections that have opaque or
+    * translucent faces in the ChunkArena.
+    **/
+    private int getSectionsWithFaces() {
+        int sectionsWithFaces = 0;
+        for (int s = 0; s < NUM_SECTIONS; s++) {
+            if (sectionAllocations[s] != null || sectionAllocationsTranslucent[s] != null) {
+                sectionsWithFaces |= 1 << s;
+            }
+        }
+        return sectionsWithFaces;
+    }
+    
+    /**
+    * method: reachable()
+    * purpose: Remove the sections the last walk of the OcclusionCuller did not
+    * reach from the sections found by inFrustum(). Returns true if any section
+    * is left.
+    **/
+    @Override
+    public boolean reachable(OcclusionCuller occlusion) {
+        int reached = occlusion.getReachedSections(this);
+        occlusion.countOccluded(Integer.bitCount(visibleSections & ~reached & getSectionsWithFaces()));
+        visibleSections &= reached;
+        return visibleSections != 0;
+    }
+    
+    /**
+    * method: getSectionConnectivity()
+    * purpose: Returns the pairs of faces of a section that are connected
+    * through open voxels, as of the last uploaded mesh.
+    **/
+    public int getSectionConnectivity(int s) {
+        return sectionConnectivity[s];
+    }
+    
+    /**
+    * method: markReached()
+    * purpose: Record that a walk of the OcclusionCuller reached a section. The
+    * sections reached by earlier walks are forgotten.
+    **/
+    public void markReached(int walk, int s) {
+        if (reachedWalk != walk) {
+            reachedWalk = walk;
+            reachedSections = 0;
+        }
+        reachedSections |= 1 << s;
+    }
+    
+    /**
+    * method: getReachedSections()
+    * purpose: Returns a bit mask of the sections reached by a walk of the
+    * OcclusionCuller.
+    **/
+    public int getReachedSections(int walk) {
+        return reachedWalk == walk ? reachedSections : 0;
+    }
+    
+    /**
+    * method: getConnectivityChanges()
+    * purpose: Returns the number of times the connectivity of a section has
+    * changed since the program started.
+    **/
+    public static int getConnectivityChanges() {
+        return connectivityChanges;
     }
     
     /**
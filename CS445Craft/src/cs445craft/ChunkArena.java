@@ -0,0 +1,362 @@
+/***************************************************************
+* file: ChunkArena.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class is static and not meant to be instantiated.
+* It holds the vertex data of every chunk mesh in a few large VBOs (ArenaPages)
+* instead of one VBO per chunk section, so the visible chunks can be drawn with
+* a handful of draw calls.
+*
+* The world is split into regions of REGION_S x REGION_S chunks. Each region
+* has its own pages for each vertex layout, and chunk meshes are built with
+* positions relative to the corner of their region (see regionOffset()). The
+* packed layout stores positions in shorts, which is why a page can't hold
+* the whole world.
+*
+* When a section is uploaded it is written in place if its old range is large
+* enough. Otherwise the old range is freed and a new one is taken from the
+* region's pages. If none of them has a free range that is large enough, a page
+* with enough free space in total is compacted, or else a page is grown, or
+* else a new page is created.
+* A page is deleted when its last allocation is freed, and trim() shrinks the
+* pages that are mostly empty after meshes have been freed.
+*
+* To draw, the Screen calls beginPass() with its RenderCommandList, each
+* visible chunk queues its sections and the Screen calls endPass(), which
+* records one command for each page. In the translucent pass the queue is
+* recorded whenever the page changes, which keeps the order chunks were queued
+* in.
+*
+* The pages are created, written and read through the RenderBackend given to
+* setBackend(), which must be called before any mesh is uploaded.
+*
+****************************************************************/
+package cs445craft;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ChunkArena {
+    public static final int REGION_S = 8;
+    // the terrain atlas is the first texture loaded by the Game
+    public static final int ATLAS_TEXTURE = 1;
+    private static final int INITIAL_PAGE_BYTES = 4 << 20;
+    private static final int MAX_PAGE_BYTES = 32 << 20;
+    
+    // pages of each region by region key, one map for each layout
+    private static final Map<Long, List<ArenaPage>> packedPages = new HashMap<>();
+    private static final Map<Long, List<ArenaPage>> floatPages = new HashMap<>();
+    
+    private static RenderBackend backend;
+    
+    // pages with queued ranges in the current pass
+    private static final List<ArenaPage> queuedPages = new ArrayList<>();
+    private static RenderCommandList passCommands;
+    private static int pass;
+    private static ArenaPage lastQueued;
+    
+    // statistics
+    private static int numPages, numCompactions, numGrows, numShrinks;
+    private static long bytesAllocated;
+    private static int drawCalls, drawRanges;
+    
+    /**
+    * method: setBackend()
+    * purpose: Set the RenderBackend used to create, write and read pages.
+    **/
+    public static void setBackend(RenderBackend renderBackend) {
+        backend = renderBackend;
+    }
+    
+    /**
+    * method: getBackend()
+    * purpose: Returns the RenderBackend used by the pages.
+    **/
+    public static RenderBackend getBackend() {
+        return backend;
+    }
+    
+    /**
+    * method: regionOf()
+    * purpose: Returns the index of the region a chunk index is in.
+    **/
+    public static int regionOf(int chunkIndex) {
+        return Math.floorDiv(chunkIndex, REGION_S);
+    }
+    
+    /**
+    * method: regionOffset()
+    * purpose: Returns the number of voxels from the corner of the region to the
+    * corner of the chunk along one axis, given the chunk index on that axis.
+    * Chunk meshes add it to the vertex positions.
+    **/
+    public static int regionOffset(int chunkIndex) {
+        return Math.floorMod(chunkIndex, REGION_S) * Chunk.CHUNK_S;
+    }
+    
+    /**
+    * method: regionKey()
+    * purpose: Returns the key of a region in the maps of pages.
+    **/
+    private static long regionKey(int regionI, int regionJ) {
+        return ((long) regionI << 32) | (regionJ & 0xFFFFFFFFL);
+    }
+    
+    /**
+    * method: upload()
+    * purpose: Upload the remaining bytes of a buffer, holding a given number of
+    * faces in a given layout, for a section of a chunk in region regionI,
+    * regionJ. The old allocation of the section (or null) is reused if it is
+    * large enough and in the same layout. Returns the allocation holding the
+    * faces, or null if there are none. Must be called on the thread that has
+    * the OpenGL context.
+    **/
+    public static ArenaAllocation upload(ArenaAllocation old, int regionI, int regionJ, boolean packed, ByteBuffer data, int faces) {
+        ArenaAllocation allocation = old;
+        boolean grown = old != null && old.isPacked() == packed && faces > old.getCapacity();
+        if (allocation != null && (faces == 0 || faces > allocation.getCapacity() || allocation.isPacked() != packed)) {
+            free(allocation);
+            allocation = null;
+        }
+        if (faces == 0) {
+            return null;
+        }
+        
+        if (allocation == null) {
+            // a section that has grown is likely to grow again, so leave room for 25% more faces
+            int size = grown ? faces + faces / 4 : faces;
+            allocation = allocate(regionI, regionJ, packed, size);
+        }
+        allocation.getPage().write(allocation, data, faces);
+        return allocation;
+    }
+    
+    /**
+    * method: free()
+    * purpose: Give the range of an allocation back to its page. A page that
+    * has no allocations left is deleted.
+    **/
+    public static void free(ArenaAllocation allocation) {
+        ArenaPage page = allocation.getPage();
+        page.free(allocation);
+        if (page.getFreeFaces() < page.getCapacity()) {
+            return;
+        }
+        
+        Map<Long, List<ArenaPage>> regions = page.isPacked() ? packedPages : floatPages;
+        List<ArenaPage> pages = regions.get(page.getRegionKey());
+        pages.remove(page);
+        if (pages.isEmpty()) {
+            regions.remove(page.getRegionKey());
+        }
+        page.delete();
+        numPages--;
+        bytesAllocated -= (long) page.getCapacity() * page.getBytesPerFace();
+    }
+    
+    /**
+    * method: trim()
+    * purpose: Shrink the pages that are less than a quarter full to twice the
+    * faces they hold, but not below the initial page size. Called after
+    * meshes have been freed to give the memory of their pages back. Must be
+    * called on the thread that has the OpenGL context.
+    **/
+    public static void trim() {
+        for (Map<Long, List<ArenaPage>> regions : Arrays.asList(packedPages, floatPages)) {
+            for (List<ArenaPage> pages : regions.values()) {
+                for (ArenaPage page : pages) {
+                    int used = page.getCapacity() - page.getFreeFaces();
+                    int minFaces = INITIAL_PAGE_BYTES / page.getBytesPerFace();
+                    if (used < page.getCapacity() / 4 && page.getCapacity() > minFaces) {
+                        int newCapacity = Math.max(minFaces, used * 2);
+                        bytesAllocated -= (long) (page.getCapacity() - newCapacity) * page.getBytesPerFace();
+                        page.resize(newCapacity);
+                        numShrinks++;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+    * method: allocate()
+    * purpose: Find a range of a given number of faces in the pages of a region,
+    * compacting or growing a page or creating a new page if needed.
+    **/
+    private static ArenaAllocation allocate(int regionI, int regionJ, boolean packed, int faces) {
+        long key = regionKey(regionI, regionJ);
+        Map<Long, List<ArenaPage>> regions = packed ? packedPages : floatPages;
+        List<ArenaPage> pages = regions.computeIfAbsent(key, k -> new ArrayList<>());
+        
+        for (ArenaPage page : pages) {
+            ArenaAllocation allocation = page.allocate(faces);
+            if (allocation != null) {
+                return allocation;
+            }
+        }
+        
+        // the free space is there but split into ranges that are too small
+        for (ArenaPage page : pages) {
+            if (page.getFreeFaces() >= faces) {
+                page.resize(page.getCapacity());
+                numCompactions++;
+                return page.allocate(faces);
+            }
+        }
+        
+        // grow a page that is not at the largest size yet
+        for (ArenaPage page : pages) {
+            int maxFaces = MAX_PAGE_BYTES / page.getBytesPerFace();
+            int needed = page.getCapacity() - page.getFreeFaces() + faces;
+            if (needed <= maxFaces) {
+                int newCapacity = Math.min(Math.max(page.getCapacity() * 2, needed), maxFaces);
+                bytesAllocated += (long) (newCapacity - page.getCapacity()) * page.getBytesPerFace();
+                page.resize(newCapacity);
+                numGrows++;
+                return page.allocate(faces);
+            }
+        }
+        
+        int bytesPerFace = packed ? 2 * MeshBuffer.SHORTS_PER_FACE : 4 * MeshBuffer.FLOATS_PER_FACE;
+        float regionSize = REGION_S * Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+        ArenaPage page = new ArenaPage(backend, packed, key, regionI * regionSize, regionJ * regionSize, Math.max(INITIAL_PAGE_BYTES / bytesPerFace, faces));
+        pages.add(page);
+        numPages++;
+        bytesAllocated += (long) page.getCapacity() * page.getBytesPerFace();
+        return page.allocate(faces);
+    }
+    
+    /**
+    * method: beginPass()
+    * purpose: Start queueing sections to draw in a pass (see RenderCommand). In
+    * the translucent pass the sections are recorded in the order they are
+    * queued, otherwise each page records all of its queued sections at the end
+    * of the pass.
+    **/
+    public static void beginPass(RenderCommandList commands, int renderPass) {
+        passCommands = commands;
+        pass = renderPass;
+        lastQueued = null;
+    }
+    
+    /**
+    * method: queue()
+    * purpose: Queue the faces of an allocation to be drawn in the current
+    * pass.
+    **/
+    public static void queue(ArenaAllocation allocation) {
+        ArenaPage page = allocation.getPage();
+        if (pass == RenderCommand.PASS_TRANSLUCENT) {
+            if (lastQueued != null && lastQueued != page) {
+                recordPage(lastQueued);
+            }
+        } else if (page.getNumQueued() == 0) {
+            queuedPages.add(page);
+        }
+        page.queue(allocation);
+        lastQueued = page;
+    }
+    
+    /**
+    * method: endPass()
+    * purpose: Record the sections that are still queued.
+    **/
+    public static void endPass() {
+        if (pass == RenderCommand.PASS_TRANSLUCENT && lastQueued != null) {
+            recordPage(lastQueued);
+        }
+        for (ArenaPage page : queuedPages) {
+            recordPage(page);
+        }
+        queuedPages.clear();
+        lastQueued = null;
+        passCommands = null;
+    }
+    
+    /**
+    * method: recordPage()
+    * purpose: Record the queued ranges of a page and count the command.
+    **/
+    private static void recordPage(ArenaPage page) {
+        int ranges = page.record(passCommands, pass);
+        if (ranges > 0) {
+            drawCalls++;
+            drawRanges += ranges;
+        }
+    }
+    
+    /**
+    * method: getDrawCalls()
+    * purpose: Returns the number of draw commands recorded since the last call
+    * to resetDrawStats().
+    **/
+    public static int getDrawCalls() {
+        return drawCalls;
+    }
+    
+    /**
+    * method: getDrawRanges()
+    * purpose: Returns the number of ranges of faces recorded since the last call
+    * to resetDrawStats(). Each draw command draws one or more ranges.
+    **/
+    public static int getDrawRanges() {
+        return drawRanges;
+    }
+    
+    /**
+    * method: resetDrawStats()
+    * purpose: Set the draw call and range counts back to 0.
+    **/
+    public static void resetDrawStats() {
+        drawCalls = 0;
+        drawRanges = 0;
+    }
+    
+    /**
+    * method: getNumPages()
+    * purpose: Returns the number of pages.
+    **/
+    public static int getNumPages() {
+        return numPages;
+    }
+    
+    /**
+    * method: getBytesAllocated()
+    * purpose: Returns the total size of the pages.
+    **/
+    public static long getBytesAllocated() {
+        return bytesAllocated;
+    }
+    
+    /**
+    * method: getNumCompactions()
+    * purpose: Returns the number of times a page was compacted to make room.
+    **/
+    public static int getNumCompactions() {
+        return numCompactions;
+    }
+    
+    /**
+    * method: getNumGrows()
+    * purpose: Returns the number of times a page was grown to make room.
+    **/
+    public static int getNumGrows() {
+        return numGrows;
+    }
+    
+    /**
+    * method: getNumShrinks()
+    * purpose: Returns the number of times trim() shrank a page.
+    **/
+    public static int getNumShrinks() {
+        return numShrinks;
+    }
+}
@@ -0,0 +1,208 @@
+/***************************************************************
+* file: ChunkMesh.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class is the result of Chunk.rebuildMesh(). It holds the
+* opaque and translucent mesh data, the version of the chunk the mesh was built
+* from and some statistics about the build. Once created it is never modified,
+* so it can be handed from a MeshBuilder thread to the main thread without
+* locking. Chunk.copyMeshToVBO() uploads it, or throws it away if the chunk has
+* been modified since the mesh was built.
+* 
+* A mesh may only cover some of the chunk's sections (see getSectionMask()). The
+* faces of each section are stored together, in section order, so every section
+* can be uploaded to its own range of the ChunkArena. The mesh also holds the
+* connectivity of each rebuilt section used by the OcclusionCuller.
+* 
+* The constructor runs on the building thread and copies the vertex data to
+* direct buffers from the DirectBufferPool, ready to be uploaded. The
+* MeshBuffers go back to their pool right away, only their face counts and
+* layout are kept. release() returns the direct buffers to their pool once the
+* mesh has been uploaded or thrown away.
+*
+****************************************************************/
+package cs445craft;
+
+import java.nio.ByteBuffer;
+
+public class ChunkMesh {
+    private final Chunk chunk;
+    private final int version;
+    // the vertex data of the meshes in direct buffers, for the upload
+    private final ByteBuffer vertexData, vertexDataTranslucent;
+    private final int numFaces, numFacesTranslucent;
+    // true if the vertex data is in the packed layout (see MeshBuffer)
+    private final boolean packed;
+    
+    // sections included in the mesh, and the index of the first face of each section
+    private final int sectionMask;
+    private final int[] sectionOffsets, sectionOffsetsTranslucent;
+    // pairs of faces of each section connected through open voxels (see OcclusionCuller)
+    private final int[] sectionConnectivity;
+    
+    // section statistics of the build
+    private final int voxelsVisited, voxelsSkippedEmpty, voxelsSkippedUniform;
+    // bytes allocated by the building thread
+    private final long bytesAllocated;
+    
+    public ChunkMesh(Chunk chunk, int version, MeshBuffer mesh, MeshBuffer meshTranslucent,
+            int sectionMask, int[] sectionOffsets, int[] sectionOffsetsTranslucent, int[] sectionConnectivity,
+            int voxelsVisited, int voxelsSkippedEmpty, int voxelsSkippedUniform, long bytesAllocated) {
+        this.chunk = chunk;
+        this.version = version;
+        this.sectionMask = sectionMask;
+        this.sectionOffsets = sectionOffsets;
+        this.sectionOffsetsTranslucent = sectionOffsetsTranslucent;
+        this.sectionConnectivity = sectionConnectivity;
+        this.voxelsVisited = voxelsVisited;
+        this.voxelsSkippedEmpty = voxelsSkippedEmpty;
+        this.voxelsSkippedUniform = voxelsSkippedUniform;
+        this.bytesAllocated = bytesAllocated;
+        vertexData = mesh.toDirectBuffer();
+        vertexDataTranslucent = meshTranslucent.toDirectBuffer();
+        numFaces = mesh.getNumFaces();
+        numFacesTranslucent = meshTranslucent.getNumFaces();
+        packed = mesh.isPacked();
+        
+        // the data is in the direct buffers now, the next build can reuse the arrays
+        MeshBuffer.recycle(mesh);
+        MeshBuffer.recycle(meshTranslucent);
+    }
+    
+    /**
+    * method: release()
+    * purpose: Return the direct buffers to their pool. The mesh must not be
+    * used afterwards.
+    **/
+    public void release() {
+        DirectBufferPool.release(vertexData);
+        DirectBufferPool.release(vertexDataTranslucent);
+    }
+    
+    /**
+    * method: getChunk()
+    * purpose: Returns the chunk this mesh was built for.
+    **/
+    public Chunk getChunk() {
+        return chunk;
+    }
+    
+    /**
+    * method: getVersion()
+    * purpose: Returns the version of the chunk this mesh was built from.
+    **/
+    public int getVersion() {
+        return version;
+    }
+    
+    /**
+    * method: getTotalFaces()
+    * purpose: Returns the number of faces in the opaque or translucent mesh.
+    **/
+    public int getTotalFaces(boolean translucent) {
+        return translucent ? numFacesTranslucent : numFaces;
+    }
+    
+    /**
+    * method: isPacked()
+    * purpose: Returns true if the vertex data is in the packed layout.
+    **/
+    public boolean isPacked() {
+        return packed;
+    }
+    
+    /**
+    * method: getVertexData()
+    * purpose: Returns a direct buffer holding the vertex data of the opaque or
+    * translucent mesh.
+    **/
+    public ByteBuffer getVertexData(boolean translucent) {
+        return translucent ? vertexDataTranslucent : vertexData;
+    }
+    
+    /**
+    * method: getSectionMask()
+    * purpose: Returns a bit mask of the sections included in this mesh. Bit s
+    * is set if section s was rebuilt.
+    **/
+    public int getSectionMask() {
+        return sectionMask;
+    }
+    
+    /**
+    * method: getFirstFace()
+    * purpose: Returns the index of the first face of a section in the opaque
+    * or translucent mesh.
+    **/
+    public int getFirstFace(int section, boolean translucent) {
+        return (translucent ? sectionOffsetsTranslucent : sectionOffsets)[section];
+    }
+    
+    /**
+    * method: getNumFaces()
+    * purpose: Returns the number of faces of a section in the opaque or
+    * translucent mesh.
+    **/
+    public int getNumFaces(int section, boolean translucent) {
+        int[] offsets = translucent ? sectionOffsetsTranslucent : sectionOffsets;
+        return offsets[section + 1] - offsets[section];
+    }
+    
+    /**
+    * method: getConnectivity()
+    * purpose: Returns the pairs of faces of a rebuilt section that are
+    * connected through open voxels.
+    **/
+    public int getConnectivity(int section) {
+        return sectionConnectivity[section];
+    }
+    
+    /**
+    * method: getVoxelsVisited()
+    * purpose: Returns the number of voxels examined by the build.
+    **/
+    public int getVoxelsVisited() {
+        return voxelsVisited;
+    }
+    
+    /**
+    * method: getVoxelsSkippedEmpty()
+    * purpose: Returns the number of voxels the build did not examine because
+    * they were in empty sections.
+    **/
+    public int getVoxelsSkippedEmpty() {
+        return voxelsSkippedEmpty;
+    }
+    
+    /**
+    * method: getVoxelsSkippedUniform()
+    * purpose: Returns the number of voxels the build did not examine because
+    * they were hidden inside a uniform section.
+    **/
+    public int getVoxelsSkippedUniform() {
+        return voxelsSkippedUniform;
+    }
+    
+    /**
+    * method: getBytesAllocated()
+    * purpose: Returns the number of bytes allocated by the thread during the
+    * build.
+    **/
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+    
+    /**
+    * method: getUploadBytes()
+    * purpose: Returns the number of bytes of vertex data copyMeshToVBO() will
+    * upload.
+    **/
+    public long getUploadBytes() {
+        int bytesPerFace = packed ? 2 * MeshBuffer.SHORTS_PER_FACE : 4 * MeshBuffer.FLOATS_PER_FACE;
+        return (long) (numFaces + numFacesTranslucent) * bytesPerFace;
+    }
+}
@@ -0,0 +1,154 @@
+/***************************************************************
+* file: ChunkResidency.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class decides which chunks stay in the World as the player
+* moves. The Game calls findUnloadable() when the player enters a new chunk,
+* with the distance around the player where chunks may be drawn or are
+* generated (the keep distance), and unloads the chunks it returns:
+*  - a chunk farther than the keep distance plus a margin is unloaded.
+*  - while more than the maximum number of chunks would remain, chunks outside
+*    the keep distance are unloaded, least recently used first. A chunk is
+*    used while it is within the keep distance.
+* Distances are counted in chunks along the farthest axis, the same way
+* WorldGenerator.createNewChunksIfNeeded() creates chunks. A chunk within the
+* keep distance is never unloaded, even over the maximum number of chunks.
+*
+* The margin keeps chunks from being unloaded and generated again when the
+* player walks back and forth over a chunk border. Chunks within the keep
+* distance are used farthest first on every call, so among chunks that left
+* the keep distance at the same time the farthest one is unloaded first.
+* Must be used on the main thread.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public class ChunkResidency {
+    private final int unloadMargin;
+    private final int maxChunks;
+    
+    // chunks of the World, least recently used first
+    private final LinkedHashMap<Chunk, Boolean> resident;
+    // chunks within the keep distance, only used during findUnloadable()
+    private final List<Chunk> kept;
+    
+    // statistics
+    private int numUnloaded, numEvicted;
+    
+    public ChunkResidency(int unloadMargin, int maxChunks) {
+        this.unloadMargin = unloadMargin;
+        this.maxChunks = maxChunks;
+        resident = new LinkedHashMap<>(1024, 0.75f, true);
+        kept = new ArrayList<>();
+    }
+    
+    /**
+    * method: findUnloadable()
+    * purpose: Add the chunks to unload to a given list, given the chunks of the
+    * World, the index of the chunk the player is in and the keep distance in
+    * chunks. The chunks added are forgotten, so the caller must remove them
+    * from the World.
+    **/
+    public void findUnloadable(Collection<Chunk> chunks, int chunkI, int chunkJ, int keepDistance, List<Chunk> out) {
+        int unloadDistance = keepDistance + unloadMargin;
+        int first = out.size();
+        
+        // chunks within the keep distance are moved to the end of the order, farthest first
+        kept.clear();
+        for (Chunk chunk : chunks) {
+            int distance = distance(chunk, chunkI, chunkJ);
+            if (distance > unloadDistance) {
+                out.add(chunk);
+            } else {
+                if (!resident.containsKey(chunk)) {
+                    resident.put(chunk, Boolean.TRUE);
+                }
+                if (distance <= keepDistance) {
+                    kept.add(chunk);
+                }
+            }
+        }
+        kept.sort((a, b) -> distance(b, chunkI, chunkJ) - distance(a, chunkI, chunkJ));
+        kept.forEach(resident::get);
+        kept.clear();
+        for (int i = first; i < out.size(); i++) {
+            resident.remove(out.get(i));
+        }
+        numUnloaded += out.size() - first;
+        
+        // least recently used first, skipping the chunks in use
+        Iterator<Chunk> it = resident.keySet().iterator();
+        while (resident.size() > maxChunks && it.hasNext()) {
+            Chunk chunk = it.next();
+            if (distance(chunk, chunkI, chunkJ) > keepDistance) {
+                out.add(chunk);
+                numEvicted++;
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+    * method: distance()
+    * purpose: Returns the number of chunks between a chunk and the chunk at a
+    * given index along the farthest axis.
+    **/
+    private static int distance(Chunk chunk, int chunkI, int chunkJ) {
+        return Math.max(Math.abs(chunk.indexI - chunkI), Math.abs(chunk.indexJ - chunkJ));
+    }
+    
+    /**
+    * method: getMaxChunks()
+    * purpose: Returns the number of chunks that may stay in the World before
+    * chunks outside the keep distance are unloaded.
+    **/
+    public int getMaxChunks() {
+        return maxChunks;
+    }
+    
+    /**
+    * method: getNumResident()
+    * purpose: Returns the number of chunks left in the World by the last call
+    * to findUnloadable().
+    **/
+    public int getNumResident() {
+        return resident.size();
+    }
+    
+    /**
+    * method: getNumUnloaded()
+    * purpose: Returns the number of chunks unloaded because they were outside
+    * the unload distance.
+    **/
+    public int getNumUnloaded() {
+        return numUnloaded;
+    }
+    
+    /**
+    * method: getNumEvicted()
+    * purpose: Returns the number of chunks unloaded to stay within the maximum
+    * number of chunks.
+    **/
+    public int getNumEvicted() {
+        return numEvicted;
+    }
+    
+    /**
+    * method: toString()
+    * purpose: Returns the statistics in one line.
+    **/
+    @Override
+    public String toString() {
+        return resident.size() + " of " + maxChunks + " chunks resident, " + numUnloaded + " unloaded, " + numEvicted + " evicted";
+    }
+}
@@ -0,0 +1,230 @@
+/***************************************************************
+* file: ChunkStore.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class saves the chunks of the World to a directory on disk so
+* the world survives unloading and restarting the game. Chunks are saved in
+* RegionFiles of RegionFile.REGION_S x REGION_S chunks, named after the index
+* of the region. The payload of a chunk is the length of the bytes written by
+* Chunk.writeBlocks() followed by those bytes compressed with a Deflater. The
+* directory also holds the seed of the world (see getSeed()), so a chunk that
+* is not saved is generated the same way it was before.
+*
+* Region files are opened the first time one of their chunks is used and stay
+* open until close(). Looking up a chunk whose region has no file doesn't
+* create one. The methods are synchronized, so a store may be used by any
+* thread.
+*
+****************************************************************/
+package cs445craft;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class ChunkStore {
+    private static final String SEED_FILE = "seed.dat";
+    // the payload starts with the length of the uncompressed bytes
+    private static final int PAYLOAD_HEADER_BYTES = 4;
+    
+    private final File directory;
+    private final Map<Long, RegionFile> regions;
+    private final Deflater deflater;
+    private final Inflater inflater;
+    // compressed and uncompressed bytes of the chunk being saved or loaded
+    private byte[] compressed, uncompressed;
+    
+    // statistics
+    private int numSaved, numLoaded;
+    private long bytesWritten, saveNanos, loadNanos;
+    
+    public ChunkStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        regions = new HashMap<>();
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        inflater = new Inflater();
+        compressed = new byte[1 << 16];
+        uncompressed = new byte[1 << 16];
+    }
+    
+    /**
+    * method: getSeed()
+    * purpose: Returns the seed saved in the directory. If there is none, a
+    * given seed is saved and returned.
+    **/
+    public synchronized int getSeed(int newSeed) throws IOException {
+        File file = new File(directory, SEED_FILE);
+        if (file.isFile()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                return in.readInt();
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(newSeed);
+        }
+        return newSeed;
+    }
+    
+    /**
+    * method: contains()
+    * purpose: Returns true if the chunk at the index of a given chunk is saved.
+    **/
+    public synchronized boolean contains(Chunk chunk) throws IOException {
+        RegionFile region = getRegion(chunk, false);
+        return region != null && region.contains(RegionFile.index(chunk.indexI, chunk.indexJ));
+    }
+    
+    /**
+    * method: save()
+    * purpose: Save the blocks of a chunk, replacing what was saved for its
+    * index before.
+    **/
+    public synchronized void save(Chunk chunk) throws IOException {
+        long start = System.nanoTime();
+        byte[] data = chunk.writeBlocks();
+        
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        int length = PAYLOAD_HEADER_BYTES;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        ByteBuffer.wrap(compressed).putInt(0, data.length);
+        
+        getRegion(chunk, true).write(RegionFile.index(chunk.indexI, chunk.indexJ), compressed, length);
+        numSaved++;
+        bytesWritten += length;
+        saveNanos += System.nanoTime() - start;
+    }
+    
+    /**
+    * method: load()
+    * purpose: Fill a chunk with the blocks saved for its index and mark it
+    * generated. Returns false if it is not saved, so the chunk must be
+    * generated instead.
+    **/
+    public synchronized boolean load(Chunk chunk) throws IOException {
+        long start = System.nanoTime();
+        RegionFile region = getRegion(chunk, false);
+        byte[] payload = region == null ? null : region.read(RegionFile.index(chunk.indexI, chunk.indexJ));
+        if (payload == null) {
+            return false;
+        }
+        
+        // the length is checked before it is used, so a corrupt payload can't allocate a huge array
+        int length = payload.length < PAYLOAD_HEADER_BYTES ? -1 : ByteBuffer.wrap(payload).getInt(0);
+        if (length < 0 || length > Chunk.MAX_BLOCK_BYTES) {
+            throw new IOException("Chunk " + chunk.indexI + "," + chunk.indexJ + " has a bad length " + length);
+        }
+        if (uncompressed.length < length) {
+            uncompressed = new byte[length];
+        }
+        inflater.reset();
+        inflater.setInput(payload, PAYLOAD_HEADER_BYTES, payload.length - PAYLOAD_HEADER_BYTES);
+        try {
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(uncompressed, read, length - read);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new IOException("Chunk " + chunk.indexI + "," + chunk.indexJ + " is cut short");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Chunk " + chunk.indexI + "," + chunk.indexJ + " is corrupt", ex);
+        }
+        
+        chunk.readBlocks(uncompressed);
+        chunk.setGenerated();
+        numLoaded++;
+        loadNanos += System.nanoTime() - start;
+        return true;
+    }
+    
+    /**
+    * method: getRegion()
+    * purpose: Returns the region file holding a given chunk, opening it if it
+    * is not open yet. If create is false and the file doesn't exist, returns
+    * null.
+    **/
+    private RegionFile getRegion(Chunk chunk, boolean create) throws IOException {
+        int regionI = Math.floorDiv(chunk.indexI, RegionFile.REGION_S);
+        int regionJ = Math.floorDiv(chunk.indexJ, RegionFile.REGION_S);
+        long key = ChunkTable.key(regionI, regionJ);
+        RegionFile region = regions.get(key);
+        if (region == null) {
+            File file = new File(directory, "r." + regionI + "." + regionJ + ".dat");
+            if (!create && !file.isFile()) {
+                return null;
+            }
+            region = new RegionFile(file);
+            regions.put(key, region);
+        }
+        return region;
+    }
+    
+    /**
+    * method: close()
+    * purpose: Close the open region files. The store must not be used
+    * afterwards.
+    **/
+    public synchronized void close() throws IOException {
+        for (RegionFile region : regions.values()) {
+            region.close();
+        }
+        regions.clear();
+        deflater.end();
+        inflater.end();
+    }
+    
+    /**
+    * method: getNumSaved()
+    * purpose: Returns the number of chunks saved.
+    **/
+    public synchronized int getNumSaved() {
+        return numSaved;
+    }
+    
+    /**
+    * method: getNumLoaded()
+    * purpose: Returns the number of chunks loaded.
+    **/
+    public synchronized int getNumLoaded() {
+        return numLoaded;
+    }
+    
+    /**
+    * method: toString()
+    * purpose: Returns the statistics in one line.
+    **/
+    @Override
+    public synchronized String toString() {
+        return regions.size() + " regions open, " + numSaved + " saved (" + (bytesWritten >> 10) + " KB, "
+            + (numSaved == 0 ? 0 : saveNanos / numSaved / 1000) + " us each), " + numLoaded + " loaded ("
+            + (numLoaded == 0 ? 0 : loadNanos / numLoaded / 1000) + " us each)";
+    }
+}
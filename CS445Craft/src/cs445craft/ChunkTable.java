@@ -0,0 +1,214 @@
+/***************************************************************
+* file: ChunkTable.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class maps chunk indices to the chunks of the World. The i and
+* j index are packed into one long key (see key()) and looked up in an open
+* addressing hash table with linear probing, so a lookup doesn't box any
+* integers and usually reads a single slot.
+*
+* Only one thread may change the table, but any number of threads may look up
+* chunks while it does. A lookup sees every change finished before it started
+* and may or may not see a change that is in progress:
+*  - the arrays are held by the volatile slots field, which is written again
+*    after every change and read first by a lookup.
+*  - a lookup checks the indices of the chunk it found, which are final, so a
+*    slot that is being written can't return the wrong chunk.
+*  - when the table grows the chunks are copied to new arrays. The old arrays
+*    are not changed again, so a lookup still reading them finds what they
+*    held.
+* Removed slots are marked with a tombstone so probing continues past them.
+* Tombstones are dropped when the table is rebuilt. The two keys used as
+* markers belong to chunks at i = Integer.MIN_VALUE, which are never created.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.Arrays;
+
+public class ChunkTable {
+    private static final int INITIAL_CAPACITY = 256;
+    // the table is rebuilt when this fraction of the slots is used or removed
+    private static final float MAX_LOAD = 0.5f;
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long REMOVED = Long.MIN_VALUE + 1;
+    
+    private volatile Slots slots;
+    // chunks in the table, and slots holding a chunk or a tombstone
+    private int size, used;
+    
+    public ChunkTable() {
+        slots = new Slots(INITIAL_CAPACITY);
+    }
+    
+    /**
+    * method: key()
+    * purpose: Returns the key of the chunk at a given i and j index.
+    **/
+    public static long key(int i, int j) {
+        return ((long) i << 32) | (j & 0xFFFFFFFFL);
+    }
+    
+    /**
+    * method: get()
+    * purpose: Returns the chunk at a given i and j index, or null. May be
+    * called from any thread.
+    **/
+    public Chunk get(int i, int j) {
+        Slots s = slots;
+        long key = key(i, j);
+        int mask = s.keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long k = s.keys[slot];
+            if (k == key) {
+                Chunk chunk = s.chunks[slot];
+                return chunk != null && chunk.indexI == i && chunk.indexJ == j ? chunk : null;
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+        }
+    }
+    
+    /**
+    * method: put()
+    * purpose: Add a chunk at its i and j index, replacing the chunk that was
+    * there. Returns the replaced chunk, or null.
+    **/
+    public Chunk put(Chunk chunk) {
+        if (used + 1 > slots.keys.length * MAX_LOAD) {
+            rebuild();
+        }
+        
+        Slots s = slots;
+        long key = key(chunk.indexI, chunk.indexJ);
+        int mask = s.keys.length - 1;
+        int free = -1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long k = s.keys[slot];
+            if (k == key) {
+                Chunk old = s.chunks[slot];
+                s.chunks[slot] = chunk;
+                slots = s;
+                return old;
+            }
+            if (k == REMOVED && free < 0) {
+                free = slot;
+            }
+            if (k == EMPTY) {
+                if (free < 0) {
+                    free = slot;
+                    used++;
+                }
+                break;
+            }
+        }
+        
+        // the chunk is written first, a lookup that sees the key without it finds nothing
+        s.chunks[free] = chunk;
+        s.keys[free] = key;
+        size++;
+        slots = s;
+        return null;
+    }
+    
+    /**
+    * method: remove()
+    * purpose: Remove the chunk at a given i and j index. Returns the removed
+    * chunk, or null.
+    **/
+    public Chunk remove(int i, int j) {
+        Slots s = slots;
+        long key = key(i, j);
+        int mask = s.keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long k = s.keys[slot];
+            if (k == key) {
+                Chunk old = s.chunks[slot];
+                s.keys[slot] = REMOVED;
+                s.chunks[slot] = null;
+                size--;
+                slots = s;
+                return old;
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+        }
+    }
+    
+    /**
+    * method: rebuild()
+    * purpose: Copy the chunks to new arrays without tombstones, twice as large
+    * if the table is more than a quarter full.
+    **/
+    private void rebuild() {
+        Slots old = slots;
+        int capacity = old.keys.length;
+        if (size + 1 > capacity * MAX_LOAD / 2) {
+            capacity *= 2;
+        }
+        
+        Slots s = new Slots(capacity);
+        int mask = capacity - 1;
+        for (int o = 0; o < old.keys.length; o++) {
+            Chunk chunk = old.chunks[o];
+            if (chunk != null) {
+                int slot = hash(old.keys[o]) & mask;
+                while (s.keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                s.keys[slot] = old.keys[o];
+                s.chunks[slot] = chunk;
+            }
+        }
+        used = size;
+        slots = s;
+    }
+    
+    /**
+    * method: hash()
+    * purpose: Mix the bits of a key so that neighboring chunks are spread
+    * over the table.
+    **/
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+    
+    /**
+    * method: size()
+    * purpose: Returns the number of chunks in the table.
+    **/
+    public int size() {
+        return size;
+    }
+    
+    /**
+    * method: getCapacity()
+    * purpose: Returns the number of slots in the table.
+    **/
+    public int getCapacity() {
+        return slots.keys.length;
+    }
+    
+    /**
+    * class: Slots
+    * purpose: The key and chunk arrays of the table. A new Slots is created
+    * when the table is rebuilt.
+    **/
+    private static final class Slots {
+        private final long[] keys;
+        private final Chunk[] chunks;
+        
+        Slots(int capacity) {
+            keys = new long[capacity];
+            chunks = new Chunk[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+    }
+}
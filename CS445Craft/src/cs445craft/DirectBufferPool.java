@@ -0,0 +1,192 @@
+/***************************************************************
+* file: DirectBufferPool.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class is static and not meant to be instantiated.
+* It hands out direct ByteBuffers for vertex data on their way to OpenGL and
+* takes them back once the data has been uploaded, so uploading a mesh
+* doesn't leave direct memory behind that is only freed when the garbage
+* collector happens to run.
+*
+* Buffers come in size classes that double from MIN_CLASS_BYTES to
+* MAX_CLASS_BYTES, and each class has its own pool. A request is served from
+* the smallest class that is large enough. Requests larger than the largest
+* class get a buffer of their own size that is not pooled. Released buffers
+* are kept until the pools hold MAX_POOLED_BYTES, the rest are left for the
+* garbage collector. Any thread can acquire and release buffers.
+*
+****************************************************************/
+package cs445craft;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DirectBufferPool {
+    private static final int MIN_CLASS_SHIFT = 12;
+    private static final int MAX_CLASS_SHIFT = 25;
+    public static final int MIN_CLASS_BYTES = 1 << MIN_CLASS_SHIFT;
+    public static final int MAX_CLASS_BYTES = 1 << MAX_CLASS_SHIFT;
+    private static final long MAX_POOLED_BYTES = 64L << 20;
+    
+    // one pool for each size class
+    private static final List<ConcurrentLinkedQueue<ByteBuffer>> pools = new ArrayList<>();
+    static {
+        for (int c = MIN_CLASS_SHIFT; c <= MAX_CLASS_SHIFT; c++) {
+            pools.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+    
+    // statistics
+    private static final AtomicLong bytesPooled = new AtomicLong();
+    private static final AtomicLong bytesInUse = new AtomicLong();
+    private static final AtomicLong bytesCreated = new AtomicLong();
+    private static final AtomicInteger buffersCreated = new AtomicInteger();
+    private static final AtomicInteger buffersReused = new AtomicInteger();
+    private static final AtomicInteger buffersDropped = new AtomicInteger();
+    
+    /**
+    * method: acquire()
+    * purpose: Returns a direct buffer in native byte order with room for at
+    * least the given number of bytes. Its position is 0 and its limit is the
+    * number of bytes asked for. Give it back with release() when the data has
+    * been uploaded.
+    **/
+    public static ByteBuffer acquire(int bytes) {
+        int sizeClass = sizeClass(bytes);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = pools.get(sizeClass).poll();
+        }
+        
+        if (buffer != null) {
+            bytesPooled.addAndGet(-buffer.capacity());
+            buffersReused.incrementAndGet();
+        } else {
+            int capacity = sizeClass >= 0 ? 1 << (sizeClass + MIN_CLASS_SHIFT) : bytes;
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            bytesCreated.addAndGet(capacity);
+            buffersCreated.incrementAndGet();
+        }
+        bytesInUse.addAndGet(buffer.capacity());
+        
+        buffer.clear();
+        buffer.limit(bytes);
+        return buffer;
+    }
+    
+    /**
+    * method: release()
+    * purpose: Give back a buffer returned by acquire(). The buffer must not be
+    * used afterwards.
+    **/
+    public static void release(ByteBuffer buffer) {
+        bytesInUse.addAndGet(-buffer.capacity());
+        int sizeClass = sizeClass(buffer.capacity());
+        boolean pooled = sizeClass >= 0 && buffer.capacity() == 1 << (sizeClass + MIN_CLASS_SHIFT);
+        if (pooled && bytesPooled.addAndGet(buffer.capacity()) <= MAX_POOLED_BYTES) {
+            pools.get(sizeClass).add(buffer);
+        } else {
+            if (pooled) {
+                bytesPooled.addAndGet(-buffer.capacity());
+            }
+            buffersDropped.incrementAndGet();
+        }
+    }
+    
+    /**
+    * method: sizeClass()
+    * purpose: Returns the index of the smallest size class holding a given
+    * number of bytes, or -1 if it is larger than every class.
+    **/
+    private static int sizeClass(int bytes) {
+        if (bytes > MAX_CLASS_BYTES) {
+            return -1;
+        }
+        int shift = bytes <= MIN_CLASS_BYTES ? MIN_CLASS_SHIFT : 32 - Integer.numberOfLeadingZeros(bytes - 1);
+        return shift - MIN_CLASS_SHIFT;
+    }
+    
+    /**
+    * method: getBytesInUse()
+    * purpose: Returns the capacity of the buffers handed out and not released.
+    **/
+    public static long getBytesInUse() {
+        return bytesInUse.get();
+    }
+    
+    /**
+    * method: getBytesPooled()
+    * purpose: Returns the capacity of the buffers waiting in the pools.
+    **/
+    public static long getBytesPooled() {
+        return bytesPooled.get();
+    }
+    
+    /**
+    * method: getBytesCreated()
+    * purpose: Returns the total capacity of every buffer created by the pool.
+    **/
+    public static long getBytesCreated() {
+        return bytesCreated.get();
+    }
+    
+    /**
+    * method: getBuffersCreated()
+    * purpose: Returns the number of buffers created.
+    **/
+    public static int getBuffersCreated() {
+        return buffersCreated.get();
+    }
+    
+    /**
+    * method: getBuffersReused()
+    * purpose: Returns the number of requests served from a pool.
+    **/
+    public static int getBuffersReused() {
+        return buffersReused.get();
+    }
+    
+    /**
+    * method: getBuffersDropped()
+    * purpose: Returns the number of released buffers left for the garbage
+    * collector because the pools were full or the buffer was too large.
+    **/
+    public static int getBuffersDropped() {
+        return buffersDropped.get();
+    }
+    
+    /**
+    * method: getDirectMemoryUsed()
+    * purpose: Returns the direct memory the JVM has allocated, by this pool
+    * and everything else, or -1 if the JVM doesn't report it.
+    **/
+    public static long getDirectMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return -1;
+    }
+    
+    /**
+    * method: getStats()
+    * purpose: Returns the statistics in one line.
+    **/
+    public static String getStats() {
+        return (getBytesInUse() >> 10) + " KB in use, " + (getBytesPooled() >> 10) + " KB pooled, " + getBuffersCreated() + " created ("
+            + (getBytesCreated() >> 20) + " MB), " + getBuffersReused() + " reused, " + getBuffersDropped() + " dropped, JVM direct memory "
+            + (getDirectMemoryUsed() >> 20) + " MB";
+    }
+}
@@ -56,6 +56,26 @@ public abstract class Drawable {
     **/
     public abstract float getZ();
     
+    /**
+    * method: inFrustum()
+    * purpose: Returns true if any part of this object may be inside the given
+    * view frustum. Objects that don't override this are always drawn.
+    **/
+    public boolean inFrustum(Frustum frustum) {
+        return true;
+    }
+    
+    /**
+    * method: reachable()
+    * purpose: Returns true if any part of this object may be seen through open
+    * space from the camera, as found by the last walk of the given
+    * OcclusionCuller. Only called for objects inside the view frustum. Objects
+    * that don't override this are always drawn.
+    **/
+    public boolean reachable(OcclusionCuller occlusion) {
+        return true;
+    }
+    
     /**
     * method: activate()
     * purpose: Set the active flag to true. Called when the object is within the
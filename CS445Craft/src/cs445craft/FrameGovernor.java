@@ -0,0 +1,271 @@
+/***************************************************************
+* file: FrameGovernor.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class measures how long each frame takes and decides how much
+* work the Game can do per frame to hold the target frame time. The Game
+* calls frameFinished() once per frame and applies the decisions: the upload
+* budget (getUploadBudget()), which sets the time and bytes the Game's
+* MainThreadScheduler may use per frame, and whether the draw distance should
+* be one chunk larger or smaller. The Game moves the chunk generation boundary
+* with the draw distance and reports both back with decisionApplied(), so
+* getLastDecision() shows where the decision left them.
+*
+* The work time of a frame is the frame time minus the time spent waiting in
+* Display.sync(), so it shows how much room is left even when the frame rate
+* is capped. Every ADJUST_FRAMES frames the 95th percentile of the last
+* WINDOW_FRAMES work times is compared to the target:
+*  - over OVERLOAD_FACTOR of the target, the upload budget goes down by one,
+*    and once it is at the minimum the draw distance goes down a chunk.
+*  - under HEADROOM_FACTOR of the target, the upload budget goes up by one
+*    while uploads are waiting, otherwise, when nothing is waiting in the
+*    pipeline, the draw distance goes up a chunk.
+* The draw distance changes at most once every DRAW_DISTANCE_COOLDOWN frames,
+* since a new draw distance brings a burst of chunks to generate and mesh.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.Arrays;
+
+public class FrameGovernor {
+    public static final int DECISION_NONE = 0;
+    public static final int DECISION_DRAW_DISTANCE_UP = 1;
+    public static final int DECISION_DRAW_DISTANCE_DOWN = -1;
+    
+    private static final int WINDOW_FRAMES = 240;
+    private static final int ADJUST_FRAMES = 30;
+    private static final int DRAW_DISTANCE_COOLDOWN = 180;
+    private static final float OVERLOAD_FACTOR = 0.9f;
+    private static final float HEADROOM_FACTOR = 0.6f;
+    private static final int MIN_UPLOAD_BUDGET = 1;
+    private static final int MAX_UPLOAD_BUDGET = 8;
+    
+    private final long targetNanos;
+    private final float minDrawDistance, maxDrawDistance;
+    private boolean enabled;
+    private int uploadBudget;
+    
+    // the last WINDOW_FRAMES frame and work times, in a ring
+    private final long[] frameTimes;
+    private final long[] workTimes;
+    private final long[] sorted;
+    private int numFrames;
+    private int framesSinceAdjust, framesSinceDrawChange;
+    
+    // percentiles of the window at the last adjustment
+    private long frameP50, frameP95, frameP99, workP50, workP95, workP99;
+    
+    // decisions made
+    private int budgetRaises, budgetCuts, drawDistanceRaises, drawDistanceCuts;
+    private String lastDecision;
+    
+    public FrameGovernor(int targetFps, int uploadBudget, float minDrawDistance, float maxDrawDistance) {
+        this.targetNanos = 1000000000L / targetFps;
+        this.uploadBudget = uploadBudget;
+        this.minDrawDistance = minDrawDistance;
+        this.maxDrawDistance = maxDrawDistance;
+        enabled = true;
+        frameTimes = new long[WINDOW_FRAMES];
+        workTimes = new long[WINDOW_FRAMES];
+        sorted = new long[WINDOW_FRAMES];
+        framesSinceDrawChange = DRAW_DISTANCE_COOLDOWN;
+        lastDecision = "none";
+    }
+    
+    /**
+    * method: frameFinished()
+    * purpose: Record the time of a frame and the part of it spent working,
+    * given the number of uploads waiting, the number of chunks waiting to be
+    * generated or meshed and the current draw distance. Returns the change of
+    * draw distance the Game should make (DECISION_...).
+    **/
+    public int frameFinished(long frameNanos, long workNanos, int uploadsWaiting, int chunksWaiting, float drawDistance) {
+        frameTimes[numFrames % WINDOW_FRAMES] = frameNanos;
+        workTimes[numFrames % WINDOW_FRAMES] = workNanos;
+        numFrames++;
+        framesSinceAdjust++;
+        framesSinceDrawChange++;
+        if (framesSinceAdjust < ADJUST_FRAMES) {
+            return DECISION_NONE;
+        }
+        framesSinceAdjust = 0;
+        
+        int count = Math.min(numFrames, WINDOW_FRAMES);
+        frameP50 = percentile(frameTimes, count, 50);
+        frameP95 = percentile(frameTimes, count, 95);
+        frameP99 = percentile(frameTimes, count, 99);
+        workP50 = percentile(workTimes, count, 50);
+        workP95 = percentile(workTimes, count, 95);
+        workP99 = percentile(workTimes, count, 99);
+        if (!enabled) {
+            return DECISION_NONE;
+        }
+        
+        boolean canChangeDrawDistance = framesSinceDrawChange >= DRAW_DISTANCE_COOLDOWN;
+        if (workP95 > targetNanos * OVERLOAD_FACTOR) {
+            if (uploadBudget > MIN_UPLOAD_BUDGET) {
+                uploadBudget--;
+                budgetCuts++;
+                return decide(DECISION_NONE, "upload budget down to " + uploadBudget);
+            }
+            if (canChangeDrawDistance && drawDistance > minDrawDistance) {
+                drawDistanceCuts++;
+                return decide(DECISION_DRAW_DISTANCE_DOWN, "draw distance down");
+            }
+        } else if (workP95 < targetNanos * HEADROOM_FACTOR) {
+            if (uploadsWaiting > uploadBudget && uploadBudget < MAX_UPLOAD_BUDGET) {
+                uploadBudget++;
+                budgetRaises++;
+                return decide(DECISION_NONE, "upload budget up to " + uploadBudget);
+            }
+            if (canChangeDrawDistance && uploadsWaiting == 0 && chunksWaiting == 0 && drawDistance < maxDrawDistance) {
+                drawDistanceRaises++;
+                return decide(DECISION_DRAW_DISTANCE_UP, "draw distance up");
+            }
+        }
+        return DECISION_NONE;
+    }
+    
+    /**
+    * method: decide()
+    * purpose: Remember a decision and return it. A change of draw distance
+    * starts the cooldown.
+    **/
+    private int decide(int decision, String description) {
+        if (decision != DECISION_NONE) {
+            framesSinceDrawChange = 0;
+        }
+        lastDecision = description + " (p95 work " + toMillis(workP95) + " ms)";
+        return decision;
+    }
+    
+    /**
+    * method: decisionApplied()
+    * purpose: Add the draw distance and chunk generation boundary the Game
+    * set for the last decision to its description.
+    **/
+    public void decisionApplied(float drawDistance, int generationBoundary) {
+        lastDecision += ", draw distance " + drawDistance + ", generation boundary " + generationBoundary;
+    }
+    
+    /**
+    * method: percentile()
+    * purpose: Returns the given percentile of the first count times of a
+    * window.
+    **/
+    private long percentile(long[] times, int count, int percent) {
+        System.arraycopy(times, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        int index = (int) Math.ceil(count * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+    
+    /**
+    * method: toMillis()
+    * purpose: Returns a time in nanoseconds as milliseconds with one decimal.
+    **/
+    private static String toMillis(long nanos) {
+        return String.format("%.1f", nanos / 1000000.0);
+    }
+    
+    /**
+    * method: setEnabled()
+    * purpose: Turn the governor on or off. While it is off the times are still
+    * measured but nothing is changed.
+    **/
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+    * method: getEnabled()
+    * purpose: Returns true if the governor is on.
+    **/
+    public boolean getEnabled() {
+        return enabled;
+    }
+    
+    /**
+    * method: getUploadBudget()
+    * purpose: Returns the upload budget, in units of the time and bytes the
+    * Game may spend on uploads per frame.
+    **/
+    public int getUploadBudget() {
+        return uploadBudget;
+    }
+    
+    /**
+    * method: getLastDecision()
+    * purpose: Returns a description of the last change the governor made.
+    **/
+    public String getLastDecision() {
+        return lastDecision;
+    }
+    
+    /**
+    * method: getFramePercentile()
+    * purpose: Returns the 50th, 95th or 99th percentile frame time in
+    * nanoseconds, as of the last adjustment.
+    **/
+    public long getFramePercentile(int percent) {
+        return percent >= 99 ? frameP99 : percent >= 95 ? frameP95 : frameP50;
+    }
+    
+    /**
+    * method: getWorkPercentile()
+    * purpose: Returns the 50th, 95th or 99th percentile work time in
+    * nanoseconds, as of the last adjustment.
+    **/
+    public long getWorkPercentile(int percent) {
+        return percent >= 99 ? workP99 : percent >= 95 ? workP95 : workP50;
+    }
+    
+    /**
+    * method: getBudgetRaises()
+    * purpose: Returns the number of times the upload budget was raised.
+    **/
+    public int getBudgetRaises() {
+        return budgetRaises;
+    }
+    
+    /**
+    * method: getBudgetCuts()
+    * purpose: Returns the number of times the upload budget was cut.
+    **/
+    public int getBudgetCuts() {
+        return budgetCuts;
+    }
+    
+    /**
+    * method: getDrawDistanceRaises()
+    * purpose: Returns the number of times the draw distance was raised.
+    **/
+    public int getDrawDistanceRaises() {
+        return drawDistanceRaises;
+    }
+    
+    /**
+    * method: getDrawDistanceCuts()
+    * purpose: Returns the number of times the draw distance was cut.
+    **/
+    public int getDrawDistanceCuts() {
+        return drawDistanceCuts;
+    }
+    
+    /**
+    * method: toString()
+    * purpose: Returns the percentiles and the state of the governor in one
+    * line.
+    **/
+    @Override
+    public String toString() {
+        return "frame p50/p95/p99 " + toMillis(frameP50) + "/" + toMillis(frameP95) + "/" + toMillis(frameP99) + " ms, work "
+            + toMillis(workP50) + "/" + toMillis(workP95) + "/" + toMillis(workP99) + " ms, upload budget " + uploadBudget
+            + (enabled ? ", last decision: " + lastDecision : ", governor off");
+    }
+}
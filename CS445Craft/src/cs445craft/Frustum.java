@@ -0,0 +1,197 @@
+/***************************************************************
+* file: Frustum.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class holds the 6 planes of the camera's view frustum and tests
+* axis aligned boxes against them, so the Screen can skip objects that are
+* outside the view. The planes are rebuilt on each frame from the camera's
+* position, yaw and pitch and the perspective used by the Screen.
+* 
+* The frustum can be grown by a margin so it also holds everything the camera
+* would see after turning or moving a little. That way the Screen only has to
+* test objects again once the camera has gone past the margin.
+*
+* The frustum also counts the chunk sections that were found inside and
+* outside of it, for the statistics printed by the Game.
+*
+****************************************************************/
+package cs445craft;
+
+public class Frustum {
+    private static final int NUM_PLANES = 6;
+    private static final double MAX_HALF_ANGLE = Math.toRadians(89.0);
+    
+    // a, b, c, d of each plane. A point is inside if a*x + b*y + c*z + d >= 0 for all planes.
+    private final float[] planes;
+    private boolean enabled;
+    
+    // section statistics since the last update()
+    private int sectionsVisible, sectionsCulled;
+    
+    public Frustum() {
+        planes = new float[NUM_PLANES * 4];
+        enabled = true;
+    }
+    
+    /**
+    * method: update()
+    * purpose: Rebuild the planes from a camera and a perspective given the
+    * same way as for gluPerspective(). The view transform is the one applied by
+    * Camera.lookThrough().
+    * 
+    * The frustum is grown so it holds everything the camera would see after
+    * turning by up to angleMargin degrees and moving by up to distanceMargin.
+    * Each side is turned outwards by angleMargin, and the apex is moved back far
+    * enough that the frustum of a camera moved by distanceMargin in any
+    * direction is still inside. The far plane is moved out past the far
+    * corners.
+    **/
+    public void update(Camera camera, float fovy, float aspect, float zNear, float zFar, float angleMargin, float distanceMargin) {
+        // rotation of Camera.lookThrough(): pitch about the x axis, then yaw about the y axis
+        double pitch = Math.toRadians(camera.pitch);
+        double yaw = Math.toRadians(camera.yaw);
+        float cp = (float) Math.cos(pitch), sp = (float) Math.sin(pitch);
+        float cy = (float) Math.cos(yaw), sy = (float) Math.sin(yaw);
+        float[] row0 = {cy, 0.0f, sy, 0.0f};
+        float[] row1 = {sp * sy, cp, -sp * cy, 0.0f};
+        float[] row2 = {-cp * sy, sp, cp * cy, 0.0f};
+        
+        // widen the vertical and horizontal half angles by the margin
+        double margin = Math.toRadians(angleMargin);
+        double halfY = Math.toRadians(fovy) / 2.0;
+        double halfX = Math.atan(aspect * Math.tan(halfY));
+        double wideHalfY = Math.min(halfY + margin, MAX_HALF_ANGLE);
+        double wideHalfX = Math.min(halfX + margin, MAX_HALF_ANGLE);
+        
+        // move the apex back along the view direction (row2 points backwards)
+        float back = (float) (distanceMargin / Math.sin(Math.min(wideHalfX, wideHalfY)));
+        float eyeX = camera.x + back * row2[0];
+        float eyeY = camera.y + back * row2[1];
+        float eyeZ = camera.z + back * row2[2];
+        
+        // the far corners of a turned frustum reach past the far plane, so move it out to their distance
+        if (angleMargin > 0.0f || distanceMargin > 0.0f) {
+            double cornerScale = Math.sqrt(1.0 + Math.pow(Math.tan(halfX), 2) + Math.pow(Math.tan(halfY), 2));
+            zFar = (float) ((zFar + distanceMargin) * cornerScale) + back;
+        }
+        
+        // translation of Camera.lookThrough(), rotated into eye space
+        for (float[] row : new float[][] {row0, row1, row2}) {
+            row[3] = -(row[0] * eyeX + row[1] * eyeY + row[2] * eyeZ);
+        }
+        
+        // rows of the projection matrix of gluPerspective() times the view matrix
+        float f = (float) (1.0 / Math.tan(wideHalfY));
+        aspect = (float) (Math.tan(wideHalfX) / Math.tan(wideHalfY));
+        float depthScale = (zFar + zNear) / (zNear - zFar);
+        float depthOffset = 2.0f * zFar * zNear / (zNear - zFar);
+        float[] clipX = new float[4];
+        float[] clipY = new float[4];
+        float[] clipZ = new float[4];
+        float[] clipW = new float[4];
+        for (int i = 0; i < 4; i++) {
+            clipX[i] = f / aspect * row0[i];
+            clipY[i] = f * row1[i];
+            clipZ[i] = depthScale * row2[i] + (i == 3 ? depthOffset : 0.0f);
+            clipW[i] = -row2[i];
+        }
+        
+        // a point is inside when -w <= x, y, z <= w in clip space
+        setPlane(0, clipW, clipX, 1.0f);  // left
+        setPlane(1, clipW, clipX, -1.0f); // right
+        setPlane(2, clipW, clipY, 1.0f);  // bottom
+        setPlane(3, clipW, clipY, -1.0f); // top
+        setPlane(4, clipW, clipZ, 1.0f);  // near
+        setPlane(5, clipW, clipZ, -1.0f); // far
+        
+        sectionsVisible = 0;
+        sectionsCulled = 0;
+    }
+    
+    /**
+    * method: setPlane()
+    * purpose: Set a plane to w + sign * row. The planes are not normalized
+    * because only the sign of the distance is used.
+    **/
+    private void setPlane(int plane, float[] w, float[] row, float sign) {
+        for (int i = 0; i < 4; i++) {
+            planes[plane * 4 + i] = w[i] + sign * row[i];
+        }
+    }
+    
+    /**
+    * method: intersects()
+    * purpose: Returns true if an axis aligned box given by its min and max
+    * corners is at least partly inside the frustum. For each plane only the
+    * corner farthest along the plane's normal is tested. Boxes near the edges
+    * of the frustum may be reported as inside when they are not, but a box
+    * that is inside is never reported as outside. Always returns true if
+    * culling is disabled.
+    **/
+    public boolean intersects(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (!enabled) {
+            return true;
+        }
+        
+        for (int p = 0; p < NUM_PLANES * 4; p += 4) {
+            float a = planes[p];
+            float b = planes[p + 1];
+            float c = planes[p + 2];
+            float x = a >= 0.0f ? maxX : minX;
+            float y = b >= 0.0f ? maxY : minY;
+            float z = c >= 0.0f ? maxZ : minZ;
+            if (a * x + b * y + c * z + planes[p + 3] < 0.0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+    * method: countSections()
+    * purpose: Add to the number of chunk sections found inside and outside of
+    * the frustum since the last update().
+    **/
+    public void countSections(int visible, int culled) {
+        sectionsVisible += visible;
+        sectionsCulled += culled;
+    }
+    
+    /**
+    * method: getSectionsVisible()
+    * purpose: Returns the number of chunk sections found inside the frustum
+    * since the last update().
+    **/
+    public int getSectionsVisible() {
+        return sectionsVisible;
+    }
+    
+    /**
+    * method: getSectionsCulled()
+    * purpose: Returns the number of chunk sections found outside the frustum
+    * since the last update().
+    **/
+    public int getSectionsCulled() {
+        return sectionsCulled;
+    }
+    
+    /**
+    * method: setEnabled()
+    * purpose: Turn culling on or off. When off, every box is inside.
+    **/
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+    * method: getEnabled()
+    * purpose: Returns true if culling is on.
+    **/
+    public boolean getEnabled() {
+        return enabled;
+    }
+}
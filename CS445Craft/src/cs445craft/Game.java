@@ -19,6 +19,8 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.lwjgl.LWJGLException;
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.input.Mouse;
@@ -28,10 +30,35 @@ public class Game {
     // game constants
     public static final int RES_WIDTH = 640;
     public static final int RES_HEIGHT = 480;
+    // upload budget at the start, the FrameGovernor adjusts it
     public static final int ASYNC_TASKS_PER_FRAME = 2;
+    // time and bytes the taskScheduler may use per frame for each unit of upload budget
+    private static final long TASK_NANOS_PER_BUDGET = 1000000L;
+    private static final long TASK_BYTES_PER_BUDGET = 1 << 20;
+    // distant terrain tiles are small, so more of them are uploaded per unit of upload budget
+    private static final int LOD_UPLOADS_PER_TASK = 2;
+    // draw distance range the FrameGovernor keeps to
+    private static final float MIN_GOVERNED_DRAW_DIST = Chunk.CHUNK_S * Voxel.BLOCK_SIZE * 3.5f;
+    private static final float MAX_GOVERNED_DRAW_DIST = Chunk.CHUNK_S * Voxel.BLOCK_SIZE * 10.5f;
     private static final boolean DYNAMIC_WORLD_GENERATION = true;
     private static int CHUNK_GENERATION_BOUNDARY = 3;
+    // the boundary never goes below this, so chunks are always created around the player
+    private static final int MIN_GENERATION_BOUNDARY = 1;
     private static final int INITIAL_WORLD_SIZE = 4;
+    // number of MeshBuilder threads, can be set with -Dcs445craft.meshBuilders=N
+    private static final int MESH_BUILDER_THREADS = Integer.getInteger("cs445craft.meshBuilders", Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    // megabytes of chunk meshes the ChunkArena may hold, can be set with -Dcs445craft.meshBudgetMB=N
+    private static final long MESH_BYTE_BUDGET = (long) Integer.getInteger("cs445craft.meshBudgetMB", 256) << 20;
+    // chunks past the draw distance at which meshes are freed, can be set with -Dcs445craft.unloadMargin=N
+    private static final float UNLOAD_MARGIN = Integer.getInteger("cs445craft.unloadMargin", 2) * Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+    // chunks past the keep distance (see getKeepDistance()) at which chunks are unloaded, can be set with -Dcs445craft.chunkUnloadMargin=N
+    private static final int CHUNK_UNLOAD_MARGIN = Integer.getInteger("cs445craft.chunkUnloadMargin", 2);
+    // chunks that may stay loaded, can be set with -Dcs445craft.maxChunks=N. Chunks inside the keep distance are always kept.
+    private static final int MAX_CHUNKS = Integer.getInteger("cs445craft.maxChunks", 1024);
+    // directory the world is saved to, can be set with -Dcs445craft.worldDir=path
+    private static final String WORLD_DIR = System.getProperty("cs445craft.worldDir", "world");
+    // print statistics while the game runs (see Chunk.setDebugOutput()), can be set with -Dcs445craft.debug=true and toggled with F3
+    private static final boolean DEBUG_OUTPUT = Boolean.getBoolean("cs445craft.debug");
     
     // physics constants
     private static final float MOUSE_SENS = 0.09f;
@@ -44,7 +71,8 @@ public class Game {
     private static final float SIDE_COLLIDE_HEIGHT_FACTOR = 0.75f;
         
     // game state variables
-    private boolean noClip, lastSpaceState, lastVState, lastLeftMouseState, lastUpState, lastDownState;
+    private boolean noClip, lastSpaceState, lastVState, lastLeftMouseState, lastUpState, lastDownState, lastGState, lastPState, lastFState, lastOState, lastLState, lastBState, lastF3State;
+    private long renderStatsTime, lastFrameTime;
     private int worldX, worldZ, chunkI, chunkJ;
     private float yspeed;
     
@@ -52,14 +80,24 @@ public class Game {
     private final Random rand;
     private final WorldGenerator worldGen;
     private final World world;
+    private final LodTerrain lodTerrain;
     private final Camera camera;
     private final Screen screen;
+    private final FrameGovernor governor;
+    private final MeshResidency meshResidency;
+    private final ChunkResidency chunkResidency;
+    private final ChunkStore chunkStore;
     
     // useful data structures
-    private final Queue<Runnable> taskQueue;
+    private final MainThreadScheduler taskScheduler;
     private final Set<Chunk> scheduledForRebuild;
-    private final BlockingQueue<Chunk> ungeneratedChunkQueue, unbuiltChunkQueue, builtChunkQueue;
-    private final Thread chunkGenerator, meshBuilder;
+    private final BlockingQueue<Chunk> ungeneratedChunkQueue, unsavedChunkQueue;
+    private final BlockingQueue<ChunkMesh> builtChunkQueue;
+    private final MeshBuildQueue unbuiltChunkQueue;
+    private final List<Chunk> droppedChunks, editedChunks, unloadedChunks;
+    private final Thread chunkGenerator;
+    private final List<MeshBuilder> meshBuilders;
+    private final LodBuilder lodBuilder;
     
     public Game() throws LWJGLException, IOException {        
         // init camera and screen
@@ -69,23 +107,40 @@ public class Game {
         screen = new Screen(RES_WIDTH, RES_HEIGHT, "CS445Craft", camera);
         screen.moveLight(center + Chunk.CHUNK_S * Voxel.BLOCK_SIZE, top, center);
         
+        Chunk.setDebugOutput(DEBUG_OUTPUT);
+        
         // load texture
         TextureLoader.getTexture("png", new FileInputStream(new File("res/terrain.png")));
         
-        // setup world, taskQueue, and screen
+        // setup world, taskScheduler, and screen
         rand = new Random();
-        worldGen = new WorldGenerator(rand.nextInt(), INITIAL_WORLD_SIZE);
+        chunkStore = new ChunkStore(new File(WORLD_DIR));
+        worldGen = new WorldGenerator(chunkStore.getSeed(rand.nextInt()), INITIAL_WORLD_SIZE, chunkStore);
         world = worldGen.getOrGenerate();
         screen.addObjects(world.getChunks());
+        screen.setWorld(world);
+        lodTerrain = new LodTerrain(world);
+        screen.setLodTerrain(lodTerrain);
         
         // setup data structures
-        taskQueue = new LinkedList<>();
+        taskScheduler = new MainThreadScheduler();
         scheduledForRebuild = new HashSet<>();
         ungeneratedChunkQueue = new LinkedBlockingQueue<>();
-        chunkGenerator = new ChunkGenerator(ungeneratedChunkQueue);
-        unbuiltChunkQueue = new LinkedBlockingQueue<>();
+        unsavedChunkQueue = new LinkedBlockingQueue<>();
+        chunkGenerator = new ChunkGenerator(ungeneratedChunkQueue, unsavedChunkQueue);
+        unbuiltChunkQueue = new MeshBuildQueue(camera.x, camera.z, screen.getDrawDistance());
+        droppedChunks = new ArrayList<>();
+        editedChunks = new ArrayList<>();
+        unloadedChunks = new ArrayList<>();
         builtChunkQueue = new LinkedBlockingQueue<>();
-        meshBuilder = new MeshBuilder(unbuiltChunkQueue, builtChunkQueue);
+        meshBuilders = new ArrayList<>();
+        for (int i = 0; i < MESH_BUILDER_THREADS; i++) {
+            meshBuilders.add(new MeshBuilder(i, unbuiltChunkQueue, builtChunkQueue));
+        }
+        lodBuilder = new LodBuilder(lodTerrain);
+        governor = new FrameGovernor(Screen.TARGET_FPS, ASYNC_TASKS_PER_FRAME, MIN_GOVERNED_DRAW_DIST, MAX_GOVERNED_DRAW_DIST);
+        meshResidency = new MeshResidency(MESH_BYTE_BUDGET, UNLOAD_MARGIN);
+        chunkResidency = new ChunkResidency(CHUNK_UNLOAD_MARGIN, MAX_CHUNKS);
                 
         init();
     }
@@ -103,16 +158,19 @@ public class Game {
     
     /**
     * method: run()
-    * purpose: This method is the main game loop. It is responsible for four things:
-    *  1. Starting and stopping the background threads (chunkGenerator and meshBuilder).
+    * purpose: This method is the main game loop. It is responsible for five things:
+    *  1. Starting and stopping the background threads (chunkGenerator, meshBuilders and lodBuilder).
     *  2. Performing all the per-frame operations like input polling, collision checking, etc.
-    *  3. Looking for dirty chunks and adding them to a queue to be rebuilt by the meshBuilder
+    *  3. Looking for dirty chunks and adding them to a queue to be rebuilt by the meshBuilders
+    *  4. Uploading the built meshes, a few per frame
+    *  5. Timing each frame and applying the decisions of the FrameGovernor
     **/
     public void run() {
         try {
             // start the chunkGenerator and meshBuilder background threads
             chunkGenerator.start();
-            meshBuilder.start();
+            meshBuilders.forEach(builder -> builder.start());
+            lodBuilder.start();
 
             // main game loop
             while(true) {
@@ -137,21 +195,61 @@ public class Game {
                 checkPlayerStatus();
 
                 /*
-                Poll the taskQueue for async tasks that need to be completed. We
-                limit the number of async tasks that will be run per frame to
-                ASYNC_TASKS_PER_FRAME so that there are no studders or lag during
-                gameplay.
+                Run the async tasks that need to be completed on this thread,
+                closest chunks first. The time and bytes the tasks may use each
+                frame follow the upload budget of the FrameGovernor so that
+                there are no studders or lag during gameplay.
                 */
-                for (int i = 0; i < ASYNC_TASKS_PER_FRAME; i++) {
-                    Runnable task = taskQueue.poll();
-                    if (task == null) {
-                        break;
-                    }
-                    task.run();
-                }
+                int uploadBudget = governor.getUploadBudget();
+                taskScheduler.runFrame(uploadBudget * TASK_NANOS_PER_BUDGET, uploadBudget * TASK_BYTES_PER_BUDGET);
+                
+                // copy the distant terrain tiles built by the lodBuilder to the arena
+                lodTerrain.uploadBuilt(uploadBudget * LOD_UPLOADS_PER_TASK);
+                
+                // free the meshes of chunks that are far away or over the budget, they are rebuilt when the chunks come back
+                meshResidency.update(world.getChunks(), camera.x, camera.z, screen.getDrawDistance());
 
                 // draw one frame frame
                 screen.drawFrame();
+                
+                // let the governor adjust the upload budget and draw distance to the time the frame took
+                long frameEnd = System.nanoTime();
+                if (lastFrameTime != 0) {
+                    long frameNanos = frameEnd - lastFrameTime;
+                    int chunksWaiting = ungeneratedChunkQueue.size() + unbuiltChunkQueue.size() + lodTerrain.getNumQueued();
+                    int decision = governor.frameFinished(frameNanos, frameNanos - screen.getSyncTime(), taskScheduler.size(), chunksWaiting, screen.getDrawDistance());
+                    if (decision != FrameGovernor.DECISION_NONE) {
+                        changeDrawDistance(decision);
+                        governor.decisionApplied(screen.getDrawDistance(), CHUNK_GENERATION_BOUNDARY);
+                        if (Chunk.getDebugOutput()) {
+                            System.out.println("FrameGovernor " + governor.getLastDecision());
+                        }
+                    }
+                }
+                lastFrameTime = frameEnd;
+                
+                // print the culling statistics once a second while debug output is on
+                if (Chunk.getDebugOutput() && System.nanoTime() - renderStatsTime >= 1000000000L) {
+                    renderStatsTime = System.nanoTime();
+                    System.out.println("Render drew " + screen.getNumDrawn() + " chunks (" + screen.getSectionsDrawn() + " sections), culled "
+                        + screen.getNumCulled() + " chunks (" + screen.getSectionsCulled() + " sections), occluded "
+                        + screen.getNumOccluded() + " chunks (" + screen.getSectionsOccluded() + " sections), "
+                        + screen.getNumVisibleUpdates() + " visible updates, " + ChunkArena.getDrawCalls() + " draw calls ("
+                        + ChunkArena.getDrawRanges() + " ranges), " + ChunkArena.getNumPages() + " arena pages (" + ChunkArena.getBytesAllocated() / (1 << 20) + " MB, "
+                        + ChunkArena.getNumGrows() + " grown, " + ChunkArena.getNumCompactions() + " compacted), lod drew "
+                        + lodTerrain.getNumDrawn() + " of " + lodTerrain.getNumTiles() + " tiles (" + lodTerrain.getNumFaces() + " faces, "
+                        + lodTerrain.getNumQueued() + " queued, " + lodTerrain.getNumRebuilt() + " rebuilt)");
+                    System.out.println("FrameGovernor " + governor);
+                    System.out.println("Tasks waiting " + taskScheduler.size() + ", wait " + taskScheduler.getWaitTimes() + ", run " + taskScheduler.getRunTimes());
+                    System.out.println("DirectBufferPool " + DirectBufferPool.getStats());
+                    System.out.println("MeshResidency " + meshResidency);
+                    long blockBytes = 0;
+                    for (Chunk chunk : world.getChunks()) {
+                        blockBytes += chunk.getBlockMemoryUsage();
+                    }
+                    System.out.println("ChunkResidency " + world.getChunks().size() + " chunks loaded (" + (blockBytes >> 20) + " MB of blocks), "
+                        + chunkResidency + ", ChunkStore " + chunkStore);
+                }
 
                 /*
                 find all chunks that are:
@@ -161,34 +259,107 @@ public class Game {
                   4. not already scheduled to be rebuilt
                 
                 Take these chunks and add them to the unbuiltChunkQueue. This will
-                cause the MeshBuilder thread to rebuild the chunk mesh in the
-                background.
+                cause the MeshBuilder threads to rebuild the chunk meshes in the
+                background, closest chunks first. Chunks the queue dropped because
+                they went out of range are no longer scheduled.
+                */
+                unbuiltChunkQueue.drainDropped(droppedChunks);
+                scheduledForRebuild.removeAll(droppedChunks);
+                droppedChunks.clear();
+                
+                /*
+                Chunks where blocks were broken this frame are added ahead of
+                everything else so the player sees the change right away. Each
+                chunk is added once, however many blocks were broken in it, and
+                only the sections around the broken blocks are rebuilt.
                 */
+                world.drainEditedChunks(editedChunks);
+                editedChunks.stream().filter(chunk -> chunk.getGenerated()).forEach(chunk -> {
+                    scheduledForRebuild.add(chunk);
+                    unbuiltChunkQueue.add(chunk, true);
+                });
+                editedChunks.clear();
                 world.getChunks().stream().filter(chunk -> chunk.getActive() && chunk.getGenerated() && chunk.getDirty() && !scheduledForRebuild.contains(chunk)).forEach(chunk -> {
                     scheduledForRebuild.add(chunk);
-                    taskQueue.add(() -> {
-                        unbuiltChunkQueue.add(chunk);
-                    });
+                    unbuiltChunkQueue.add(chunk);
                 });
+                
+                // print the mesh building statistics once a second while there is work and debug output is on
+                if (unbuiltChunkQueue.updateStats() && Chunk.getDebugOutput() && (unbuiltChunkQueue.size() > 0 || unbuiltChunkQueue.getMeshesPerSecond() > 0)) {
+                    System.out.println("MeshQueue depth " + unbuiltChunkQueue.size() + ", " + unbuiltChunkQueue.getMeshesPerSecond() + " meshes/s"
+                        + " (" + unbuiltChunkQueue.getNumDropped() + " dropped, " + unbuiltChunkQueue.getNumDuplicates() + " duplicates)");
+                }
 
                 /*
                 Once the MeshBuilder thread is finished building the mesh, it will
-                place the chunk in the builtChunkQueue. Now we need to take the
-                chunk and generate an async task to copy the new mesh data into
+                place the ChunkMesh in the builtChunkQueue. Now we need to take the
+                mesh and generate an async task to copy the new mesh data into
                 a VBO for OpenGL to use. We can't do this in the MeshBuilder thread
-                because it dones't have a GL context.
+                because it dones't have a GL context. The closest chunks are
+                copied first and the size of the mesh counts against the byte
+                budget. If the chunk was modified while the mesh was being built,
+                the mesh is thrown away and the chunk stays dirty so it will be
+                scheduled again. Meshes of chunks unloaded in the meantime are
+                thrown away as well.
                 */
                 while (!builtChunkQueue.isEmpty()) {
-                    Chunk chunk = builtChunkQueue.poll();
-                    taskQueue.add(() -> {
-                        chunk.copyMeshToVBO();
-                        scheduledForRebuild.remove(chunk);
-                    });
+                    ChunkMesh builtMesh = builtChunkQueue.poll();
+                    Chunk builtChunk = builtMesh.getChunk();
+                    if (world.getChunk(builtChunk.indexI, builtChunk.indexJ) != builtChunk) {
+                        builtMesh.release();
+                        continue;
+                    }
+                    float priority = builtChunk.distanceTo(camera.x, builtChunk.getY(), camera.z);
+                    taskScheduler.submit(() -> {
+                        builtChunk.copyMeshToVBO(builtMesh);
+                        scheduledForRebuild.remove(builtChunk);
+                    }, priority, builtMesh.getUploadBytes());
                 }
             }
         } finally {
             ((ChunkGenerator) chunkGenerator).terminate();
-            ((MeshBuilder) meshBuilder).terminate();
+            meshBuilders.forEach(builder -> builder.terminate());
+            lodBuilder.terminate();
+            saveWorld();
+        }
+    }
+    
+    /**
+    * method: saveWorld()
+    * purpose: Wait for the chunkGenerator to stop, then save the chunks it
+    * didn't get to and every loaded chunk, and close the chunkStore.
+    **/
+    private void saveWorld() {
+        try {
+            chunkGenerator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        unsavedChunkQueue.forEach(chunk -> saveChunk(chunk));
+        unsavedChunkQueue.clear();
+        world.getChunks().stream().filter(chunk -> chunk.getGenerated()).forEach(chunk -> saveChunk(chunk));
+        try {
+            chunkStore.close();
+        } catch (IOException ex) {
+            Logger.getLogger(Game.class.getName()).log(Level.WARNING, null, ex);
+        }
+        System.out.println("ChunkStore " + chunkStore);
+    }
+    
+    /**
+    * method: saveChunk()
+    * purpose: Save a chunk to the chunkStore if blocks were broken in it or it
+    * was never saved. A chunk that can't be saved is generated again when it is
+    * loaded.
+    **/
+    private void saveChunk(Chunk chunk) {
+        try {
+            if (chunk.getModified() || !chunkStore.contains(chunk)) {
+                chunkStore.save(chunk);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(Game.class.getName()).log(Level.WARNING, null, ex);
         }
     }
     
@@ -231,13 +402,65 @@ public class Game {
         if (gridPositionUpdated || chunkPositionUpdated) {
             System.out.println("pos (" + worldX + "," + worldZ + ") chunk (" + chunkI + "," + chunkJ + ")");
         }
+        
+        // If the player entered a new chunk, build the closest meshes first and move the distant terrain
+        if (chunkPositionUpdated) {
+            unbuiltChunkQueue.setFocus(camera.x, camera.z, screen.getDrawDistance());
+            lodTerrain.update(camera.x, camera.z, screen.getDrawDistance());
+        }
 
         // If the player entered a new chunk, have the world generator create new chunks (if needed)
         // Then, add the new chunks to the ungeneratedChunkQueue so they will be filled by the ChunkGenerator
         if (chunkPositionUpdated && DYNAMIC_WORLD_GENERATION) {
             List<Chunk> newChunks = worldGen.createNewChunksIfNeeded(chunkI, chunkJ, CHUNK_GENERATION_BOUNDARY, screen);
             ungeneratedChunkQueue.addAll(newChunks);
+            unloadFarChunks();
+        }
+    }
+    
+    /**
+    * method: getKeepDistance()
+    * purpose: Returns the number of chunks around the player that are never
+    * unloaded: the draw distance in chunks rounded up, or the chunk
+    * generation boundary if that is larger. A chunk farther than that along
+    * either axis is farther than the draw distance from anywhere in the
+    * player's chunk, so it can't be drawn.
+    **/
+    private int getKeepDistance() {
+        return Math.max(CHUNK_GENERATION_BOUNDARY, getDrawChunks());
+    }
+    
+    /**
+    * method: getDrawChunks()
+    * purpose: Returns the draw distance in chunks, rounded up.
+    **/
+    private int getDrawChunks() {
+        return (int) Math.ceil(screen.getDrawDistance() / (Chunk.CHUNK_S * Voxel.BLOCK_SIZE));
+    }
+    
+    /**
+    * method: unloadFarChunks()
+    * purpose: Unload the chunks the chunkResidency picks, which are far outside
+    * the keep distance or over the maximum number of chunks.
+    * Generated chunks are handed to the chunkGenerator to be saved. An
+    * unloaded chunk is removed from the world, the screen and every queue,
+    * and its mesh is freed. If the player comes back it is created again and
+    * filled from the chunkStore or the WorldGenerator.
+    **/
+    private void unloadFarChunks() {
+        chunkResidency.findUnloadable(world.getChunks(), chunkI, chunkJ, getKeepDistance(), unloadedChunks);
+        for (Chunk chunk : unloadedChunks) {
+            if (chunk.getGenerated()) {
+                unsavedChunkQueue.add(chunk);
+            }
+            world.removeChunk(chunk);
+            screen.removeObject(chunk);
+            ungeneratedChunkQueue.remove(chunk);
+            unbuiltChunkQueue.remove(chunk);
+            scheduledForRebuild.remove(chunk);
+            chunk.releaseMesh();
         }
+        unloadedChunks.clear();
     }
     
     /**
@@ -294,6 +517,13 @@ public class Game {
     *  1. press 'v' to toggle noclip mode.
     *  2. press up to increase the draw distance
     *  3. press down to decrease the draw distance
+    *  4. press 'g' to toggle greedy meshing
+    *  5. press 'p' to toggle the packed vertex layout
+    *  6. press 'f' to toggle view frustum culling
+    *  7. press 'o' to toggle occlusion culling
+    *  8. press 'l' to toggle the distant terrain
+    *  9. press 'b' to toggle the FrameGovernor
+    *  10. press F3 to toggle the statistics printed while the game runs
     **/
     private void keyboardEvents() {
         if (Keyboard.isKeyDown(Keyboard.KEY_V)) {
@@ -308,8 +538,7 @@ public class Game {
         if (Keyboard.isKeyDown(Keyboard.KEY_UP)) {
             if (!lastUpState) {
                 lastUpState = true;
-                screen.incDrawDist(Chunk.CHUNK_S * Voxel.BLOCK_SIZE);
-                CHUNK_GENERATION_BOUNDARY++;
+                changeDrawDistance(1);
             }
         } else {
             lastUpState = false;
@@ -318,12 +547,109 @@ public class Game {
         if (Keyboard.isKeyDown(Keyboard.KEY_DOWN)) {
             if (!lastDownState) {
                 lastDownState = true;
-                screen.incDrawDist(-Chunk.CHUNK_S * Voxel.BLOCK_SIZE);
-                CHUNK_GENERATION_BOUNDARY--;
+                changeDrawDistance(-1);
             }
         } else {
             lastDownState = false;
         }
+        
+        if (Keyboard.isKeyDown(Keyboard.KEY_G)) {
+            if (!lastGState) {
+                lastGState = true;
+                Chunk.setGreedyMeshing(!Chunk.getGreedyMeshing());
+                System.out.println("greedy meshing " + (Chunk.getGreedyMeshing() ? "on" : "off"));
+                
+                // mark all chunks dirty so they will be rebuilt with the new setting
+                world.getChunks().stream().filter(chunk -> chunk.getGenerated()).forEach(chunk -> chunk.setDirty());
+            }
+        } else {
+            lastGState = false;
+        }
+        
+        if (Keyboard.isKeyDown(Keyboard.KEY_P)) {
+            if (!lastPState) {
+                lastPState = true;
+                Chunk.setPackedVertices(!Chunk.getPackedVertices());
+                System.out.println("packed vertices " + (Chunk.getPackedVertices() ? "on" : "off"));
+                
+                // mark all chunks dirty so they will be rebuilt with the new setting
+                world.getChunks().stream().filter(chunk -> chunk.getGenerated()).forEach(chunk -> chunk.setDirty());
+            }
+        } else {
+            lastPState = false;
+        }
+        
+        if (Keyboard.isKeyDown(Keyboard.KEY_F)) {
+            if (!lastFState) {
+                lastFState = true;
+                screen.setFrustumCulling(!screen.getFrustumCulling());
+                System.out.println("frustum culling " + (screen.getFrustumCulling() ? "on" : "off"));
+            }
+        } else {
+            lastFState = false;
+        }
+        
+        if (Keyboard.isKeyDown(Keyboard.KEY_O)) {
+            if (!lastOState) {
+                lastOState = true;
+                screen.setOcclusionCulling(!screen.getOcclusionCulling());
+                System.out.println("occlusion culling " + (screen.getOcclusionCulling() ? "on" : "off"));
+            }
+        } else {
+            lastOState = false;
+        }
+        
+        if (Keyboard.isKeyDown(Keyboard.KEY_L)) {
+            if (!lastLState) {
+                lastLState = true;
+                lodTerrain.setEnabled(!lodTerrain.getEnabled());
+                lodTerrain.update(camera.x, camera.z, screen.getDrawDistance());
+                System.out.println("distant terrain " + (lodTerrain.getEnabled() ? "on" : "off"));
+            }
+        } else {
+            lastLState = false;
+        }
+        
+        if (Keyboard.isKeyDown(Keyboard.KEY_B)) {
+            if (!lastBState) {
+                lastBState = true;
+                governor.setEnabled(!governor.getEnabled());
+                System.out.println("frame governor " + (governor.getEnabled() ? "on" : "off"));
+            }
+        } else {
+            lastBState = false;
+        }
+        
+        if (Keyboard.isKeyDown(Keyboard.KEY_F3)) {
+            if (!lastF3State) {
+                lastF3State = true;
+                Chunk.setDebugOutput(!Chunk.getDebugOutput());
+                System.out.println("statistics " + (Chunk.getDebugOutput() ? "on" : "off"));
+            }
+        } else {
+            lastF3State = false;
+        }
+    }
+    
+    /**
+    * method: changeDrawDistance()
+    * purpose: Make the draw distance a given number of chunks larger (or
+    * smaller, if negative) and refocus the mesh queue and distant terrain on
+    * the new distance. The chunk generation boundary changes by the same
+    * number of chunks, but stays between MIN_GENERATION_BOUNDARY and the draw
+    * distance in chunks, and the chunks inside a larger boundary are created.
+    * Used for the up and down keys and the FrameGovernor's decisions.
+    **/
+    private void changeDrawDistance(int chunks) {
+        screen.incDrawDist(chunks * Chunk.CHUNK_S * Voxel.BLOCK_SIZE);
+        int oldBoundary = CHUNK_GENERATION_BOUNDARY;
+        int maxBoundary = Math.max(MIN_GENERATION_BOUNDARY, getDrawChunks());
+        CHUNK_GENERATION_BOUNDARY = Math.max(MIN_GENERATION_BOUNDARY, Math.min(maxBoundary, CHUNK_GENERATION_BOUNDARY + chunks));
+        unbuiltChunkQueue.setFocus(camera.x, camera.z, screen.getDrawDistance());
+        lodTerrain.update(camera.x, camera.z, screen.getDrawDistance());
+        if (CHUNK_GENERATION_BOUNDARY > oldBoundary && DYNAMIC_WORLD_GENERATION) {
+            ungeneratedChunkQueue.addAll(worldGen.createNewChunksIfNeeded(chunkI, chunkJ, CHUNK_GENERATION_BOUNDARY, screen));
+        }
     }
     
     /**
@@ -476,12 +802,13 @@ public class Game {
     * generation is an expensive process.
     **/
     private class ChunkGenerator extends Thread {
-        private boolean done;
-        private final BlockingQueue<Chunk> ungeneratedChunkQueue;
+        private volatile boolean done;
+        private final BlockingQueue<Chunk> ungeneratedChunkQueue, unsavedChunkQueue;
         
-        ChunkGenerator(BlockingQueue<Chunk> ungenQueue) {
+        ChunkGenerator(BlockingQueue<Chunk> ungenQueue, BlockingQueue<Chunk> unsavedQueue) {
             this.done = false;
             this.ungeneratedChunkQueue = ungenQueue;
+            this.unsavedChunkQueue = unsavedQueue;
         }
         
         /**
@@ -496,25 +823,38 @@ public class Game {
         * class: run()
         * purpose: Run the thread. It will continually poll the ungeneratedChunkQueue
         * looking for new chunks that need to be filled with randomly generated
-        * content. When it's done, it will mark the new and adjacent chunks as
-        * dirty so they will be rebuilt.
+        * content, or with the blocks saved when they were unloaded. When it's
+        * done, it will mark the new and adjacent chunks as dirty so they will be
+        * rebuilt. Chunks unloaded by the main thread are saved first, so a
+        * chunk is always saved before it can be loaded again.
         **/
         @Override
         public void run() {
             while (!done) {
+                Chunk chunkToSave = unsavedChunkQueue.poll();
+                while (chunkToSave != null) {
+                    saveChunk(chunkToSave);
+                    chunkToSave = unsavedChunkQueue.poll();
+                }
+                
                 Chunk chunkToFill = ungeneratedChunkQueue.poll();
                 if (chunkToFill == null) {
                     continue;
                 }
                 
-                // generate chunk and set it dirty so the mesh will be rebuilt
-                worldGen.fillChunkGenerateRandom(chunkToFill);
+                // load or generate chunk and set it dirty so the mesh will be rebuilt
+                worldGen.fillChunk(chunkToFill);
                 chunkToFill.setDirty();
                 
-                world.findAllAdjacentChunks(chunkToFill).forEach(adjChunk -> {
-                    // set adjacent chunks as dirty so they will be rebuild as well
-                    adjChunk.setDirty();
-                });
+                // set the 4 adjacent chunks as dirty so they will be rebuild as well
+                for (int xDir = -1; xDir <= 1; xDir++) {
+                    for (int zDir = -1; zDir <= 1; zDir++) {
+                        Chunk adjChunk = chunkToFill.getNeighbor(xDir, zDir);
+                        if ((xDir == 0) != (zDir == 0) && adjChunk != null) {
+                            adjChunk.setDirty();
+                        }
+                    }
+                }
             }
         }
     }
@@ -522,15 +862,17 @@ public class Game {
     /**
     * class: MeshBuilder
     * purpose: This class extends the Thread class and allows us to build meshes
-    * on a background thread. This is to prevent lag/stuttering because mesh
-    * building is an expensive process.
+    * on background threads. This is to prevent lag/stuttering because mesh
+    * building is an expensive process. Several MeshBuilders share one
+    * MeshBuildQueue.
     **/
     private class MeshBuilder extends Thread {
-        private boolean done;
-        private final BlockingQueue<Chunk> unbuiltMeshQueue;
-        private final BlockingQueue<Chunk> builtMeshQueue;
+        private volatile boolean done;
+        private final MeshBuildQueue unbuiltMeshQueue;
+        private final BlockingQueue<ChunkMesh> builtMeshQueue;
         
-        MeshBuilder(BlockingQueue<Chunk> unbuiltQueue, BlockingQueue<Chunk> builtQueue) {
+        MeshBuilder(int id, MeshBuildQueue unbuiltQueue, BlockingQueue<ChunkMesh> builtQueue) {
+            super("MeshBuilder-" + id);
             this.done = false;
             this.unbuiltMeshQueue = unbuiltQueue;
             this.builtMeshQueue = builtQueue;
@@ -542,25 +884,72 @@ public class Game {
         **/
         public void terminate() {
             done = true;
+            interrupt();
         }
         
         /**
         * class: run()
-        * purpose: Run the thread. It will continually poll the unbuiltMeshQueue
-        * looking for new meshes that need to be built. Once a mesh is built,
-        * it is added to the builtMeshQueue.
+        * purpose: Run the thread. It will wait on the unbuiltMeshQueue for
+        * the next mesh that needs to be built. Once a mesh is built, it is
+        * added to the builtMeshQueue.
         **/
         @Override
         public void run() {
             while (!done) {
-                Chunk chunkToBuild = unbuiltMeshQueue.poll();
-                if (chunkToBuild == null) {
-                    continue;
+                Chunk chunkToBuild;
+                try {
+                    chunkToBuild = unbuiltMeshQueue.take();
+                } catch (InterruptedException e) {
+                    break;
                 }
                 
-                chunkToBuild.rebuildMesh();
+                builtMeshQueue.add(chunkToBuild.rebuildMesh());
+                unbuiltMeshQueue.markBuilt();
+            }
+        }
+    }
+    
+    /**
+    * class: LodBuilder
+    * purpose: This class extends the Thread class and builds the meshes of
+    * distant terrain tiles on a background thread, closest tiles first.
+    **/
+    private class LodBuilder extends Thread {
+        private volatile boolean done;
+        private final LodTerrain lodTerrain;
+        
+        LodBuilder(LodTerrain lodTerrain) {
+            super("LodBuilder");
+            this.done = false;
+            this.lodTerrain = lodTerrain;
+        }
+        
+        /**
+        * class: terminate()
+        * purpose: Terminate this thread
+        **/
+        public void terminate() {
+            done = true;
+            interrupt();
+        }
+        
+        /**
+        * class: run()
+        * purpose: Run the thread. It will wait for the next tile that needs to
+        * be built, build it and hand it back to the LodTerrain to be uploaded.
+        **/
+        @Override
+        public void run() {
+            while (!done) {
+                LodTile tileToBuild;
+                try {
+                    tileToBuild = lodTerrain.takeUnbuilt();
+                } catch (InterruptedException e) {
+                    break;
+                }
                 
-                builtMeshQueue.add(chunkToBuild);
+                tileToBuild.buildMesh(worldGen);
+                lodTerrain.addBuilt(tileToBuild);
             }
         }
     }
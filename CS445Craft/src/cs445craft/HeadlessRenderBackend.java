@@ -0,0 +1,354 @@
+/***************************************************************
+* file: HeadlessRenderBackend.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class is a RenderBackend that makes no OpenGL calls. It counts
+* the calls and bytes the LwjglRenderBackend would have made, so rendering can
+* be measured on a machine without a display. Buffers only exist as sizes, and
+* writes or reads outside of a buffer throw an exception.
+*
+****************************************************************/
+package cs445craft;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+public class HeadlessRenderBackend extends RenderBackend {
+    private final Map<Integer, Long> bufferSizes;
+    private int nextBuffer;
+    private boolean packed;
+    
+    // state changes and draws since the last reset()
+    private int passChanges, textureBinds, layoutChanges, bufferBinds, originChanges;
+    private int drawCalls, rangesDrawn;
+    private long verticesDrawn, bytesDrawn;
+    
+    // buffer operations since the last reset()
+    private int buffersCreated, buffersDeleted;
+    private long bytesWritten, bytesRead;
+    
+    public HeadlessRenderBackend() {
+        bufferSizes = new HashMap<>();
+        nextBuffer = 1;
+    }
+    
+    /**
+    * method: beginCommands()
+    * purpose: Nothing to prepare.
+    **/
+    @Override
+    protected void beginCommands() {
+    }
+    
+    /**
+    * method: endCommands()
+    * purpose: Nothing to undo.
+    **/
+    @Override
+    protected void endCommands(int lastLayout) {
+    }
+    
+    /**
+    * method: applyPass()
+    * purpose: Count a pass change.
+    **/
+    @Override
+    protected void applyPass(int pass) {
+        passChanges++;
+    }
+    
+    /**
+    * method: applyTexture()
+    * purpose: Count a texture bind.
+    **/
+    @Override
+    protected void applyTexture(int texture) {
+        textureBinds++;
+    }
+    
+    /**
+    * method: applyLayout()
+    * purpose: Count a layout change and remember the layout for the byte
+    * counts.
+    **/
+    @Override
+    protected void applyLayout(boolean packed) {
+        this.packed = packed;
+        layoutChanges++;
+    }
+    
+    /**
+    * method: applyBuffer()
+    * purpose: Count a buffer bind.
+    **/
+    @Override
+    protected void applyBuffer(int buffer, boolean packed) {
+        if (!bufferSizes.containsKey(buffer)) {
+            throw new IllegalArgumentException("HeadlessRenderBackend: buffer " + buffer + " does not exist");
+        }
+        bufferBinds++;
+    }
+    
+    /**
+    * method: applyOrigin()
+    * purpose: Count an origin change.
+    **/
+    @Override
+    protected void applyOrigin(float x, float z) {
+        originChanges++;
+    }
+    
+    /**
+    * method: drawRanges()
+    * purpose: Count a draw call and the ranges, vertices and bytes it draws.
+    **/
+    @Override
+    protected void drawRanges(int[] firsts, int[] counts, int n) {
+        drawCalls++;
+        rangesDrawn += n;
+        int bytesPerVertex = packed ? 2 * MeshBuffer.SHORTS_PER_FACE / 4 : 4 * MeshBuffer.FLOATS_PER_FACE / 4;
+        for (int i = 0; i < n; i++) {
+            verticesDrawn += counts[i];
+            bytesDrawn += (long) counts[i] * bytesPerVertex;
+        }
+    }
+    
+    /**
+    * method: createBuffer()
+    * purpose: Record the size of a new buffer.
+    **/
+    @Override
+    public int createBuffer(long bytes) {
+        int buffer = nextBuffer++;
+        bufferSizes.put(buffer, bytes);
+        buffersCreated++;
+        return buffer;
+    }
+    
+    /**
+    * method: writeBuffer()
+    * purpose: Count the bytes written.
+    **/
+    @Override
+    public void writeBuffer(int buffer, long offset, ByteBuffer data) {
+        checkRange(buffer, offset, data.remaining());
+        bytesWritten += data.remaining();
+    }
+    
+    /**
+    * method: readBuffer()
+    * purpose: Count the bytes read.
+    **/
+    @Override
+    public void readBuffer(int buffer, long offset, ByteBuffer data) {
+        checkRange(buffer, offset, data.remaining());
+        bytesRead += data.remaining();
+    }
+    
+    /**
+    * method: replaceBuffer()
+    * purpose: Record the new size of a buffer and count the bytes written.
+    **/
+    @Override
+    public void replaceBuffer(int buffer, ByteBuffer data) {
+        checkRange(buffer, 0, 0);
+        bufferSizes.put(buffer, (long) data.remaining());
+        bytesWritten += data.remaining();
+    }
+    
+    /**
+    * method: deleteBuffer()
+    * purpose: Forget a buffer.
+    **/
+    @Override
+    public void deleteBuffer(int buffer) {
+        checkRange(buffer, 0, 0);
+        bufferSizes.remove(buffer);
+        buffersDeleted++;
+    }
+    
+    /**
+    * method: checkRange()
+    * purpose: Throw an exception if a buffer does not exist or a range of bytes
+    * is not inside it.
+    **/
+    private void checkRange(int buffer, long offset, long bytes) {
+        Long size = bufferSizes.get(buffer);
+        if (size == null) {
+            throw new IllegalArgumentException("HeadlessRenderBackend: buffer " + buffer + " does not exist");
+        }
+        if (offset < 0 || offset + bytes > size) {
+            throw new IllegalArgumentException("HeadlessRenderBackend: bytes " + offset + " to " + (offset + bytes) + " are outside buffer " + buffer + " of " + size + " bytes");
+        }
+    }
+    
+    /**
+    * method: reset()
+    * purpose: Set all counts back to 0. The buffers are kept.
+    **/
+    public void reset() {
+        passChanges = 0;
+        textureBinds = 0;
+        layoutChanges = 0;
+        bufferBinds = 0;
+        originChanges = 0;
+        drawCalls = 0;
+        rangesDrawn = 0;
+        verticesDrawn = 0;
+        bytesDrawn = 0;
+        buffersCreated = 0;
+        buffersDeleted = 0;
+        bytesWritten = 0;
+        bytesRead = 0;
+    }
+    
+    /**
+    * method: getStateChanges()
+    * purpose: Returns the number of pass, texture, layout, buffer and origin
+    * changes.
+    **/
+    public int getStateChanges() {
+        return passChanges + textureBinds + layoutChanges + bufferBinds + originChanges;
+    }
+    
+    /**
+    * method: getPassChanges()
+    * purpose: Returns the number of pass changes.
+    **/
+    public int getPassChanges() {
+        return passChanges;
+    }
+    
+    /**
+    * method: getTextureBinds()
+    * purpose: Returns the number of texture binds.
+    **/
+    public int getTextureBinds() {
+        return textureBinds;
+    }
+    
+    /**
+    * method: getLayoutChanges()
+    * purpose: Returns the number of vertex layout changes.
+    **/
+    public int getLayoutChanges() {
+        return layoutChanges;
+    }
+    
+    /**
+    * method: getBufferBinds()
+    * purpose: Returns the number of vertex buffer binds.
+    **/
+    public int getBufferBinds() {
+        return bufferBinds;
+    }
+    
+    /**
+    * method: getOriginChanges()
+    * purpose: Returns the number of origin changes.
+    **/
+    public int getOriginChanges() {
+        return originChanges;
+    }
+    
+    /**
+    * method: getDrawCalls()
+    * purpose: Returns the number of draw calls.
+    **/
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+    
+    /**
+    * method: getRangesDrawn()
+    * purpose: Returns the number of ranges of vertices drawn.
+    **/
+    public int getRangesDrawn() {
+        return rangesDrawn;
+    }
+    
+    /**
+    * method: getVerticesDrawn()
+    * purpose: Returns the number of vertices drawn.
+    **/
+    public long getVerticesDrawn() {
+        return verticesDrawn;
+    }
+    
+    /**
+    * method: getBytesDrawn()
+    * purpose: Returns the number of bytes of vertex data drawn.
+    **/
+    public long getBytesDrawn() {
+        return bytesDrawn;
+    }
+    
+    /**
+    * method: getBuffersCreated()
+    * purpose: Returns the number of buffers created.
+    **/
+    public int getBuffersCreated() {
+        return buffersCreated;
+    }
+    
+    /**
+    * method: getBuffersDeleted()
+    * purpose: Returns the number of buffers deleted.
+    **/
+    public int getBuffersDeleted() {
+        return buffersDeleted;
+    }
+    
+    /**
+    * method: getBytesWritten()
+    * purpose: Returns the number of bytes written to buffers.
+    **/
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+    
+    /**
+    * method: getBytesRead()
+    * purpose: Returns the number of bytes read back from buffers.
+    **/
+    public long getBytesRead() {
+        return bytesRead;
+    }
+    
+    /**
+    * method: getBufferBytes()
+    * purpose: Returns the total size of the buffers that exist.
+    **/
+    public long getBufferBytes() {
+        long total = 0;
+        for (long size : bufferSizes.values()) {
+            total += size;
+        }
+        return total;
+    }
+    
+    /**
+    * method: getNumBuffers()
+    * purpose: Returns the number of buffers that exist.
+    **/
+    public int getNumBuffers() {
+        return bufferSizes.size();
+    }
+    
+    /**
+    * method: toString()
+    * purpose: Returns the counts in one line.
+    **/
+    @Override
+    public String toString() {
+        return drawCalls + " draw calls (" + rangesDrawn + " ranges, " + verticesDrawn + " vertices, " + bytesDrawn + " bytes), "
+            + getStateChanges() + " state changes (" + passChanges + " pass, " + textureBinds + " texture, " + layoutChanges + " layout, "
+            + bufferBinds + " buffer, " + originChanges + " origin), " + bytesWritten + " bytes written, " + bytesRead + " bytes read, "
+            + getNumBuffers() + " buffers of " + getBufferBytes() + " bytes";
+    }
+}
@@ -0,0 +1,117 @@
+/***************************************************************
+* file: LatencyHistogram.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class counts times in buckets that double in size: under 1
+* ms, 1 to 2 ms, 2 to 4 ms and so on up to MAX_BUCKET, with one more bucket
+* for everything longer. Recording a time doesn't allocate, so it can be
+* done every frame. Percentiles are given as the upper end of the bucket they
+* fall in.
+*
+****************************************************************/
+package cs445craft;
+
+public class LatencyHistogram {
+    // the last bucket holds times of 2^(MAX_BUCKET - 1) ms (about 16 s) and longer
+    private static final int MAX_BUCKET = 15;
+    
+    private final long[] counts;
+    private long count, totalNanos, maxNanos;
+    
+    public LatencyHistogram() {
+        counts = new long[MAX_BUCKET + 1];
+    }
+    
+    /**
+    * method: record()
+    * purpose: Count one time, in nanoseconds.
+    **/
+    public void record(long nanos) {
+        long millis = Math.max(0, nanos) / 1000000L;
+        int bucket = millis == 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+        counts[Math.min(bucket, MAX_BUCKET)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+    
+    /**
+    * method: getPercentileMillis()
+    * purpose: Returns the upper end of the bucket holding the given percentile
+    * of the times, in milliseconds, or -1 if it is in the last bucket. Returns
+    * 0 if nothing was recorded.
+    **/
+    public long getPercentileMillis(double percent) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percent / 100.0);
+        long seen = 0;
+        for (int bucket = 0; bucket < MAX_BUCKET; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return 1L << bucket;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+    * method: getCount()
+    * purpose: Returns the number of times recorded.
+    **/
+    public long getCount() {
+        return count;
+    }
+    
+    /**
+    * method: getMeanMillis()
+    * purpose: Returns the mean of the times recorded, in milliseconds.
+    **/
+    public double getMeanMillis() {
+        return count == 0 ? 0 : totalNanos / 1000000.0 / count;
+    }
+    
+    /**
+    * method: getMaxMillis()
+    * purpose: Returns the longest time recorded, in milliseconds.
+    **/
+    public double getMaxMillis() {
+        return maxNanos / 1000000.0;
+    }
+    
+    /**
+    * method: reset()
+    * purpose: Forget every time recorded.
+    **/
+    public void reset() {
+        for (int bucket = 0; bucket <= MAX_BUCKET; bucket++) {
+            counts[bucket] = 0;
+        }
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+    
+    /**
+    * method: toString()
+    * purpose: Returns the percentiles, mean and maximum in one line.
+    **/
+    @Override
+    public String toString() {
+        return String.format("p50 <%s p95 <%s p99 <%s ms, mean %.1f ms, max %.1f ms (%d)", bound(50), bound(95), bound(99), getMeanMillis(), getMaxMillis(), count);
+    }
+    
+    /**
+    * method: bound()
+    * purpose: Returns the upper end of a percentile's bucket as text.
+    **/
+    private String bound(double percent) {
+        long millis = getPercentileMillis(percent);
+        return millis < 0 ? "inf" : Long.toString(millis);
+    }
+}
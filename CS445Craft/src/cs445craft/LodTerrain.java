@@ -0,0 +1,339 @@
+/***************************************************************
+* file: LodTerrain.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class draws distant terrain past the draw distance with
+* LodTiles, out to LOD_DISTANCE_FACTOR times the draw distance. Tiles closer
+* than LEVEL_SWITCH_FACTOR times the draw distance sample every 2 voxels, the
+* ones further out every 4.
+*
+* update() is called when the camera enters another chunk. Tiles are created
+* from a little inside the draw distance (or closer, where the full chunk is
+* not built yet) out to the LOD distance, and only removed or switched to
+* another level once they are HYSTERESIS past the distance that created them,
+* so walking back and forth over a chunk border doesn't rebuild any tiles.
+*
+* New tiles and tiles that changed level are queued closest first for a
+* background thread that calls takeUnbuilt(), LodTile.buildMesh() and
+* addBuilt(). uploadBuilt() copies the built meshes to the ChunkArena on the
+* OpenGL thread.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class LodTerrain {
+    public static final float LOD_DISTANCE_FACTOR = 3.0f;
+    private static final float LEVEL_SWITCH_FACTOR = 2.0f;
+    private static final int LEVEL_NEAR = 2;
+    private static final int LEVEL_FAR = 4;
+    private static final float HYSTERESIS = Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+    
+    private final World world;
+    private final Map<Long, LodTile> tiles;
+    private final BlockingQueue<LodTile> unbuiltTiles;
+    private final ConcurrentLinkedQueue<LodTile> builtTiles;
+    private final List<LodTile> visible;
+    private final List<LodTile> created;
+    private boolean enabled;
+    private boolean changed;
+    private float drawDistance, lodDistance;
+    
+    // statistics
+    private int numDrawn, numBuilt, numRebuilt;
+    
+    public LodTerrain(World world) {
+        this.world = world;
+        tiles = new HashMap<>();
+        unbuiltTiles = new LinkedBlockingQueue<>();
+        builtTiles = new ConcurrentLinkedQueue<>();
+        visible = new ArrayList<>();
+        created = new ArrayList<>();
+        enabled = true;
+    }
+    
+    /**
+    * method: tileKey()
+    * purpose: Returns the key of a tile in the map of tiles.
+    **/
+    private static long tileKey(int i, int j) {
+        return ((long) i << 32) | (j & 0xFFFFFFFFL);
+    }
+    
+    /**
+    * method: update()
+    * purpose: Create, remove and switch the level of tiles for a camera at a
+    * given x, z position and the draw distance of the full chunks.
+    **/
+    public void update(float x, float z, float drawDistance) {
+        this.drawDistance = drawDistance;
+        lodDistance = drawDistance * LOD_DISTANCE_FACTOR;
+        if (!enabled) {
+            return;
+        }
+        float levelSwitch = drawDistance * LEVEL_SWITCH_FACTOR;
+        
+        // remove the tiles that are too far away or well inside the draw distance of built chunks
+        Iterator<LodTile> it = tiles.values().iterator();
+        while (it.hasNext()) {
+            LodTile tile = it.next();
+            float distance = tile.distanceTo(x, tile.getY(), z);
+            if (distance > lodDistance + HYSTERESIS || (distance <= drawDistance - 2 * HYSTERESIS && chunkBuilt(tile.indexI, tile.indexJ))) {
+                tile.release();
+                it.remove();
+                changed = true;
+                continue;
+            }
+            
+            int level = tile.getLevel();
+            if (level == LEVEL_NEAR && distance > levelSwitch + HYSTERESIS) {
+                level = LEVEL_FAR;
+            } else if (level == LEVEL_FAR && distance < levelSwitch - HYSTERESIS) {
+                level = LEVEL_NEAR;
+            }
+            if (level != tile.getLevel()) {
+                tile.setLevel(level);
+                created.add(tile);
+            }
+        }
+        
+        // create the missing tiles
+        float chunkWidth = Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+        int centerI = Math.floorDiv(world.glCoordToVoxelGridLocation(x), Chunk.CHUNK_S);
+        int centerJ = Math.floorDiv(world.glCoordToVoxelGridLocation(z), Chunk.CHUNK_S);
+        int radius = (int) Math.ceil(lodDistance / chunkWidth) + 1;
+        for (int i = centerI - radius; i <= centerI + radius; i++) {
+            for (int j = centerJ - radius; j <= centerJ + radius; j++) {
+                float distance = LodTile.distance(i, j, x, 0.0f, z);
+                if (distance > lodDistance || tiles.containsKey(tileKey(i, j))) {
+                    continue;
+                }
+                if (distance <= drawDistance - HYSTERESIS && chunkBuilt(i, j)) {
+                    continue;
+                }
+                LodTile tile = new LodTile(world, i, j, distance <= levelSwitch ? LEVEL_NEAR : LEVEL_FAR);
+                tiles.put(tileKey(i, j), tile);
+                created.add(tile);
+                changed = true;
+            }
+        }
+        
+        // queue the new tiles closest first
+        created.sort(Comparator.comparingDouble(tile -> tile.distanceTo(x, tile.getY(), z)));
+        for (LodTile tile : created) {
+            queue(tile);
+        }
+        created.clear();
+    }
+    
+    /**
+    * method: chunkBuilt()
+    * purpose: Returns true if the full chunk at a given index has a mesh.
+    **/
+    private boolean chunkBuilt(int i, int j) {
+        Chunk chunk = world.getChunk(i, j);
+        return chunk != null && chunk.getBuilt();
+    }
+    
+    /**
+    * method: queue()
+    * purpose: Queue a tile to be built, unless it is already waiting.
+    **/
+    private void queue(LodTile tile) {
+        if (!tile.getQueued()) {
+            tile.setQueued(true);
+            unbuiltTiles.add(tile);
+        }
+    }
+    
+    /**
+    * method: takeUnbuilt()
+    * purpose: Wait for the next tile to build. Called by the builder thread.
+    **/
+    public LodTile takeUnbuilt() throws InterruptedException {
+        return unbuiltTiles.take();
+    }
+    
+    /**
+    * method: addBuilt()
+    * purpose: Hand a built tile to uploadBuilt(). Called by the builder thread.
+    **/
+    public void addBuilt(LodTile tile) {
+        builtTiles.add(tile);
+    }
+    
+    /**
+    * method: uploadBuilt()
+    * purpose: Upload up to a given number of built tiles to the ChunkArena.
+    * Tiles that changed level while they were built are queued again. Must be
+    * called on the thread that has the OpenGL context.
+    **/
+    public void uploadBuilt(int max) {
+        for (int n = 0; n < max; n++) {
+            LodTile tile = builtTiles.poll();
+            if (tile == null) {
+                return;
+            }
+            tile.setQueued(false);
+            if (tile.upload()) {
+                numBuilt++;
+                changed = true;
+            } else {
+                numRebuilt++;
+                queue(tile);
+            }
+        }
+    }
+    
+    /**
+    * method: updateVisible()
+    * purpose: Find the tiles with a mesh inside the view frustum, closest
+    * first.
+    **/
+    public void updateVisible(Frustum frustum, float x, float z) {
+        visible.clear();
+        if (enabled) {
+            for (LodTile tile : tiles.values()) {
+                if (tile.getMeshLevel() != 0 && tile.inFrustum(frustum)) {
+                    visible.add(tile);
+                }
+            }
+            visible.sort(Comparator.comparingDouble(tile -> tile.distanceTo(x, tile.getY(), z)));
+        }
+        changed = false;
+    }
+    
+    /**
+    * method: draw()
+    * purpose: Queue the opaque part of the visible tiles front to back.
+    **/
+    public void draw() {
+        numDrawn = 0;
+        for (int i = 0; i < visible.size(); i++) {
+            LodTile tile = visible.get(i);
+            if (!tile.covered()) {
+                tile.draw();
+                numDrawn++;
+            }
+        }
+    }
+    
+    /**
+    * method: drawTranslucent()
+    * purpose: Queue the translucent part of the visible tiles back to front.
+    **/
+    public void drawTranslucent() {
+        for (int i = visible.size() - 1; i >= 0; i--) {
+            visible.get(i).drawTranslucent();
+        }
+    }
+    
+    /**
+    * method: setEnabled()
+    * purpose: Turn the distant terrain on or off. Turning it off removes every
+    * tile, turning it on creates them again on the next update().
+    **/
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            for (LodTile tile : tiles.values()) {
+                tile.release();
+            }
+            tiles.clear();
+            visible.clear();
+        }
+        changed = true;
+    }
+    
+    /**
+    * method: getEnabled()
+    * purpose: Returns true if the distant terrain is on.
+    **/
+    public boolean getEnabled() {
+        return enabled;
+    }
+    
+    /**
+    * method: getChanged()
+    * purpose: Returns true if tiles were added, removed or uploaded since the
+    * last updateVisible().
+    **/
+    public boolean getChanged() {
+        return changed;
+    }
+    
+    /**
+    * method: getLodDistance()
+    * purpose: Returns the distance out to which tiles are drawn, or the draw
+    * distance if the distant terrain is off.
+    **/
+    public float getLodDistance() {
+        return enabled ? lodDistance : drawDistance;
+    }
+    
+    /**
+    * method: getNumTiles()
+    * purpose: Returns the number of tiles.
+    **/
+    public int getNumTiles() {
+        return tiles.size();
+    }
+    
+    /**
+    * method: getNumDrawn()
+    * purpose: Returns the number of tiles drawn in the last frame.
+    **/
+    public int getNumDrawn() {
+        return numDrawn;
+    }
+    
+    /**
+    * method: getNumFaces()
+    * purpose: Returns the number of faces in the meshes of all tiles.
+    **/
+    public int getNumFaces() {
+        int faces = 0;
+        for (LodTile tile : tiles.values()) {
+            faces += tile.getNumFaces();
+        }
+        return faces;
+    }
+    
+    /**
+    * method: getNumBuilt()
+    * purpose: Returns the number of tile meshes uploaded.
+    **/
+    public int getNumBuilt() {
+        return numBuilt;
+    }
+    
+    /**
+    * method: getNumRebuilt()
+    * purpose: Returns the number of tile meshes thrown away because the tile
+    * changed level while it was built.
+    **/
+    public int getNumRebuilt() {
+        return numRebuilt;
+    }
+    
+    /**
+    * method: getNumQueued()
+    * purpose: Returns the number of tiles waiting to be built.
+    **/
+    public int getNumQueued() {
+        return unbuiltTiles.size();
+    }
+}
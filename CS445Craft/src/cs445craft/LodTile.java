@@ -0,0 +1,377 @@
+/***************************************************************
+* file: LodTile.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class is a coarse stand-in for a chunk beyond the draw
+* distance. It covers the same area as the chunk at its i, j index but its
+* mesh is built from the surface heights of the WorldGenerator instead of
+* voxels, sampled every level voxels. Each sample becomes a level x level
+* column: one merged top face and walls down to the neighboring columns.
+* The walls along the edges of the tile go down at least level voxels, so
+* there are no gaps next to tiles of another level or full chunks.
+*
+* The mesh is built on a background thread by buildMesh() and uploaded to the
+* ChunkArena on the OpenGL thread by upload(). The tile is not drawn while
+* the full chunk at its index is active and built.
+*
+****************************************************************/
+package cs445craft;
+
+import cs445craft.Voxel.VoxelType;
+import java.nio.ByteBuffer;
+
+public class LodTile extends Drawable {
+    public final int indexI, indexJ;
+    private final float tileX, tileZ;
+    private final World world;
+    
+    // level asked for by the LodTerrain, read by the builder thread
+    private volatile int level;
+    private volatile boolean removed;
+    private boolean queued;
+    
+    // vertex data built by the last buildMesh() in direct buffers from the
+    // DirectBufferPool, handed to upload() through the LodTerrain's queue
+    private ByteBuffer builtData, builtDataTranslucent;
+    private boolean builtPacked;
+    private int builtFaces, builtFacesTranslucent, builtLevel, builtMaxHeight;
+    
+    // mesh in the ChunkArena
+    private ArenaAllocation allocation, allocationTranslucent;
+    private int meshLevel, maxHeight, numFaces;
+    
+    public LodTile(World world, int indexI, int indexJ, int level) {
+        this.world = world;
+        this.indexI = indexI;
+        this.indexJ = indexJ;
+        this.level = level;
+        tileX = indexI * Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+        tileZ = indexJ * Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+    }
+    
+    /**
+    * method: buildMesh()
+    * purpose: Sample the surface of the tile and its neighbors at the current
+    * level and build the mesh. Called on a background thread, the mesh is
+    * kept until upload() is called.
+    **/
+    public void buildMesh(WorldGenerator worldGen) {
+        if (removed) {
+            return;
+        }
+        int step = level;
+        int cells = (Chunk.CHUNK_S + step - 1) / step;
+        int last = (cells - 1) * step;
+        
+        // heights and types of the cells with a border of the neighboring tiles' cells
+        int[][] heights = new int[cells + 2][cells + 2];
+        VoxelType[][] types = new VoxelType[cells + 2][cells + 2];
+        sample(worldGen, indexI, indexJ, 0, 0, step, cells, cells, heights, types, 1, 1);
+        sample(worldGen, indexI - 1, indexJ, last, 0, step, 1, cells, heights, types, 0, 1);
+        sample(worldGen, indexI + 1, indexJ, 0, 0, step, 1, cells, heights, types, cells + 1, 1);
+        sample(worldGen, indexI, indexJ - 1, 0, last, step, cells, 1, heights, types, 1, 0);
+        sample(worldGen, indexI, indexJ + 1, 0, 0, step, cells, 1, heights, types, 1, cells + 1);
+        
+        boolean packed = Chunk.getPackedVertices();
+        MeshBuffer mesh = MeshBuffer.obtain(packed);
+        MeshBuffer meshTranslucent = MeshBuffer.obtain(packed);
+        int regionX = ChunkArena.regionOffset(indexI);
+        int regionZ = ChunkArena.regionOffset(indexJ);
+        int highest = 0;
+        
+        for (int cx = 1; cx <= cells; cx++) {
+            for (int cz = 1; cz <= cells; cz++) {
+                int h = heights[cx][cz];
+                VoxelType type = types[cx][cz];
+                MeshBuffer target = Voxel.isTranslucent(type) ? meshTranslucent : mesh;
+                
+                // the last cell is narrower when the level doesn't divide the chunk size
+                int x = (cx - 1) * step;
+                int z = (cz - 1) * step;
+                int sizeX = Math.min(step, Chunk.CHUNK_S - x);
+                int sizeZ = Math.min(step, Chunk.CHUNK_S - z);
+                highest = Math.max(highest, h);
+                
+                writeFace(target, Voxel.FACE_TOP, type, regionX + x, h, regionZ + z, sizeX, sizeZ);
+                writeWall(target, Voxel.FACE_LEFT, type, regionX + x, h, regionZ + z, sizeZ, heights[cx - 1][cz], cx == 1, step);
+                writeWall(target, Voxel.FACE_RIGHT, type, regionX + x + sizeX - 1, h, regionZ + z, sizeZ, heights[cx + 1][cz], cx == cells, step);
+                writeWall(target, Voxel.FACE_FRONT, type, regionX + x, h, regionZ + z, sizeX, heights[cx][cz - 1], cz == 1, step);
+                writeWall(target, Voxel.FACE_BACK, type, regionX + x, h, regionZ + z + sizeZ - 1, sizeX, heights[cx][cz + 1], cz == cells, step);
+            }
+        }
+        
+        // copy the faces to direct buffers here so that upload() only hands them to OpenGL
+        builtData = mesh.toDirectBuffer();
+        builtDataTranslucent = meshTranslucent.toDirectBuffer();
+        builtPacked = packed;
+        builtFaces = mesh.getNumFaces();
+        builtFacesTranslucent = meshTranslucent.getNumFaces();
+        MeshBuffer.recycle(mesh);
+        MeshBuffer.recycle(meshTranslucent);
+        builtLevel = step;
+        builtMaxHeight = highest;
+    }
+    
+    /**
+    * method: sample()
+    * purpose: Sample the surface of a countX by countZ block of columns of the
+    * chunk at a given index, every step voxels from a local startX, startZ
+    * position, into the cell arrays starting at cell toX, toZ.
+    **/
+    private static void sample(WorldGenerator worldGen, int indexI, int indexJ, int startX, int startZ, int step, int countX, int countZ, int[][] heights, VoxelType[][] types, int toX, int toZ) {
+        int[][] sampledHeights = new int[countX][countZ];
+        VoxelType[][] sampledTypes = new VoxelType[countX][countZ];
+        worldGen.sampleSurface(indexI, indexJ, startX, startZ, step, countX, countZ, sampledHeights, sampledTypes);
+        for (int x = 0; x < countX; x++) {
+            for (int z = 0; z < countZ; z++) {
+                heights[toX + x][toZ + z] = sampledHeights[x][z];
+                types[toX + x][toZ + z] = sampledTypes[x][z];
+            }
+        }
+    }
+    
+    /**
+    * method: writeWall()
+    * purpose: Write the wall on one side of a column of a given height, from
+    * its top down to the height of the neighboring column. Walls on the edge of
+    * the tile go down at least step voxels, except for water. The top voxel of
+    * the wall shows the side of the surface block and the rest shows the block
+    * under it.
+    **/
+    private static void writeWall(MeshBuffer target, int face, VoxelType type, int x, int top, int z, int width, int neighborHeight, boolean edge, int step) {
+        int bottom = neighborHeight;
+        if (edge && type != VoxelType.WATER) {
+            bottom = Math.min(neighborHeight, top - step);
+        }
+        if (bottom >= top) {
+            return;
+        }
+        
+        writeFace(target, face, type, x, top, z, width, 1);
+        VoxelType below = type == VoxelType.GRASS || type == VoxelType.ICE_GRASS ? VoxelType.DIRT : type;
+        int maxRun = target.isPacked() ? Voxel.MAX_PACKED_MERGE : Chunk.CHUNK_H;
+        for (int y = bottom + 1; y < top; y += maxRun) {
+            writeFace(target, face, below, x, y, z, width, Math.min(maxRun, top - y));
+        }
+    }
+    
+    /**
+    * method: writeFace()
+    * purpose: Write a rectangle of merged faces, starting at the voxel at a
+    * given x, y, z index relative to the corner of the region, to a mesh.
+    **/
+    private static void writeFace(MeshBuffer target, int face, VoxelType type, int x, int y, int z, int w, int h) {
+        int writeIndex = target.addFace();
+        if (target.isPacked()) {
+            Voxel.writeMergedPackedFaceVertices(target.getPackedData(), writeIndex, face, type, x, y, z, w, h);
+        } else {
+            Voxel.writeMergedFaceVertices(target.getData(), writeIndex, face, type, x * Voxel.BLOCK_SIZE, y * Voxel.BLOCK_SIZE, z * Voxel.BLOCK_SIZE, w, h);
+        }
+    }
+    
+    /**
+    * method: upload()
+    * purpose: Copy the mesh built by buildMesh() to the ChunkArena and return
+    * its buffers to the DirectBufferPool. A removed tile's mesh is thrown away.
+    * Returns false if the mesh was built at another level than the one asked
+    * for now, so the tile needs to be built again.
+    * Must be called on the thread that has the OpenGL context.
+    **/
+    public boolean upload() {
+        ByteBuffer data = builtData;
+        ByteBuffer dataTranslucent = builtDataTranslucent;
+        builtData = null;
+        builtDataTranslucent = null;
+        if (data == null) {
+            return removed;
+        }
+        
+        if (!removed) {
+            allocation = copyToArena(allocation, data, builtFaces);
+            allocationTranslucent = copyToArena(allocationTranslucent, dataTranslucent, builtFacesTranslucent);
+            meshLevel = builtLevel;
+            maxHeight = builtMaxHeight;
+            numFaces = builtFaces + builtFacesTranslucent;
+        }
+        DirectBufferPool.release(data);
+        DirectBufferPool.release(dataTranslucent);
+        return removed || meshLevel == level;
+    }
+    
+    /**
+    * method: copyToArena()
+    * purpose: Copy a number of faces from a direct buffer to the ChunkArena
+    * given the old allocation. Returns the new allocation.
+    **/
+    private ArenaAllocation copyToArena(ArenaAllocation old, ByteBuffer data, int faces) {
+        return ChunkArena.upload(old, ChunkArena.regionOf(indexI), ChunkArena.regionOf(indexJ), builtPacked, data, faces);
+    }
+    
+    /**
+    * method: release()
+    * purpose: Mark the tile removed and free its mesh in the ChunkArena. A
+    * mesh still being built is thrown away when it is uploaded.
+    **/
+    public void release() {
+        removed = true;
+        if (allocation != null) {
+            ChunkArena.free(allocation);
+            allocation = null;
+        }
+        if (allocationTranslucent != null) {
+            ChunkArena.free(allocationTranslucent);
+            allocationTranslucent = null;
+        }
+        numFaces = 0;
+    }
+    
+    /**
+    * method: covered()
+    * purpose: Returns true if the full chunk at this tile's index is active and
+    * built, so it is drawn instead of the tile. The chunk is looked up every
+    * time since it may have been unloaded and created again.
+    **/
+    public boolean covered() {
+        Chunk chunk = world.getChunk(indexI, indexJ);
+        return chunk != null && chunk.getActive() && chunk.getBuilt();
+    }
+    
+    /**
+    * method: draw()
+    * purpose: Queue the opaque part of the mesh to be drawn by the ChunkArena.
+    **/
+    @Override
+    public void draw() {
+        if (allocation != null && !covered()) {
+            ChunkArena.queue(allocation);
+        }
+    }
+    
+    /**
+    * method: drawTranslucent()
+    * purpose: Queue the translucent part of the mesh to be drawn by the
+    * ChunkArena.
+    **/
+    @Override
+    public void drawTranslucent() {
+        if (allocationTranslucent != null && !covered()) {
+            ChunkArena.queue(allocationTranslucent);
+        }
+    }
+    
+    /**
+    * method: inFrustum()
+    * purpose: Test the box around the tile's mesh against the view frustum.
+    **/
+    @Override
+    public boolean inFrustum(Frustum frustum) {
+        float half = Voxel.BLOCK_SIZE / 2.0f;
+        float minX = tileX - half;
+        float minZ = tileZ - half;
+        float size = Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+        return frustum.intersects(minX, -half, minZ, minX + size, (maxHeight + 1) * Voxel.BLOCK_SIZE - half, minZ + size);
+    }
+    
+    /**
+    * method: distanceTo()
+    * purpose: Calculate the distance from the tile to some given point, the
+    * same way Chunk.distanceTo() does, so a tile and its chunk are on the same
+    * side of the draw distance.
+    **/
+    @Override
+    public float distanceTo(float x, float y, float z) {
+        return distance(indexI, indexJ, x, y, z);
+    }
+    
+    /**
+    * method: distance()
+    * purpose: Returns the distance Chunk.distanceTo() gives for the chunk at a
+    * given index, without the chunk.
+    **/
+    public static float distance(int indexI, int indexJ, float x, float y, float z) {
+        float chunkX = indexI * Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+        float chunkZ = indexJ * Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+        return (float) Math.sqrt(Math.pow(chunkX + Chunk.CHUNK_S - x, 2) + Math.pow(Chunk.CHUNK_H - y, 2) + Math.pow(chunkZ + Chunk.CHUNK_S - z, 2));
+    }
+    
+    /**
+    * method: getX()
+    * purpose: Get the x coordinate of this tile in OpenGL space.
+    **/
+    @Override
+    public float getX() {
+        return tileX;
+    }
+    
+    /**
+    * method: getY()
+    * purpose: Get the y coordinate of this tile in OpenGL space.
+    **/
+    @Override
+    public float getY() {
+        return 0.0f;
+    }
+    
+    /**
+    * method: getZ()
+    * purpose: Get the z coordinate of this tile in OpenGL space.
+    **/
+    @Override
+    public float getZ() {
+        return tileZ;
+    }
+    
+    /**
+    * method: getLevel()
+    * purpose: Returns the level asked for, the number of voxels each column of
+    * the mesh is wide.
+    **/
+    public int getLevel() {
+        return level;
+    }
+    
+    /**
+    * method: setLevel()
+    * purpose: Ask for another level. The old mesh is drawn until the tile is
+    * built again.
+    **/
+    public void setLevel(int level) {
+        this.level = level;
+    }
+    
+    /**
+    * method: getMeshLevel()
+    * purpose: Returns the level of the uploaded mesh, or 0 if there is none.
+    **/
+    public int getMeshLevel() {
+        return meshLevel;
+    }
+    
+    /**
+    * method: getQueued()
+    * purpose: Returns true if the tile is waiting to be built or uploaded.
+    **/
+    public boolean getQueued() {
+        return queued;
+    }
+    
+    /**
+    * method: setQueued()
+    * purpose: Set whether the tile is waiting to be built or uploaded.
+    **/
+    public void setQueued(boolean queued) {
+        this.queued = queued;
+    }
+    
+    /**
+    * method: getNumFaces()
+    * purpose: Returns the number of faces in the uploaded mesh.
+    **/
+    public int getNumFaces() {
+        return numFaces;
+    }
+}
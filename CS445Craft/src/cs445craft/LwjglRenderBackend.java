@@ -0,0 +1,224 @@
+/***************************************************************
+* file: LwjglRenderBackend.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class is the RenderBackend that makes OpenGL calls through
+* LWJGL. It must only be used on the thread that has the OpenGL context.
+*
+* Packed vertices are read as generic attributes by the AtlasShader, float
+* vertices use the fixed function vertex and texture coordinate arrays. Draws
+* are translated to their origin with the modelview matrix, which is pushed
+* when commands begin and popped when they end.
+*
+****************************************************************/
+package cs445craft;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import org.lwjgl.BufferUtils;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL14.glMultiDrawArrays;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+
+public class LwjglRenderBackend extends RenderBackend {
+    private IntBuffer firstBuffer, countBuffer;
+    
+    public LwjglRenderBackend() {
+        firstBuffer = BufferUtils.createIntBuffer(64);
+        countBuffer = BufferUtils.createIntBuffer(64);
+    }
+    
+    /**
+    * method: beginCommands()
+    * purpose: Save the modelview matrix so draws can be translated.
+    **/
+    @Override
+    protected void beginCommands() {
+        glPushMatrix();
+    }
+    
+    /**
+    * method: endCommands()
+    * purpose: Disable the vertex arrays of the last layout, unbind the buffer,
+    * restore the modelview matrix and the state the Screen set up for 3d
+    * objects.
+    **/
+    @Override
+    protected void endCommands(int lastLayout) {
+        if (lastLayout == 1) {
+            glDisableVertexAttribArray(AtlasShader.POSITION_ATTRIBUTE);
+            glDisableVertexAttribArray(AtlasShader.TEXTURE_ATTRIBUTE);
+        } else if (lastLayout == 0) {
+            glDisableClientState(GL_VERTEX_ARRAY);
+            glDisableClientState(GL_TEXTURE_COORD_ARRAY);
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glPopMatrix();
+        
+        // back to the state the Screen sets up for 3d objects
+        glDisable(GL_ALPHA_TEST);
+        glDisable(GL_BLEND);
+        glEnable(GL_CULL_FACE);
+        glDepthMask(true);
+    }
+    
+    /**
+    * method: applyPass()
+    * purpose: Set up alpha testing, blending, face culling and depth writes
+    * for the opaque or translucent pass.
+    **/
+    @Override
+    protected void applyPass(int pass) {
+        if (pass == RenderCommand.PASS_OPAQUE) {
+            // alpha test cuts out transparent parts of textures (like leaves or flowers)
+            glEnable(GL_ALPHA_TEST);
+            glDisable(GL_BLEND);
+            glEnable(GL_CULL_FACE);
+            glDepthMask(true);
+        } else {
+            glDisable(GL_ALPHA_TEST);
+            glEnable(GL_BLEND);
+            glDisable(GL_CULL_FACE);
+            glDepthMask(false);
+        }
+    }
+    
+    /**
+    * method: applyTexture()
+    * purpose: Bind a 2d texture.
+    **/
+    @Override
+    protected void applyTexture(int texture) {
+        glBindTexture(GL_TEXTURE_2D, texture);
+    }
+    
+    /**
+    * method: applyLayout()
+    * purpose: Select the AtlasShader program of a layout and enable its
+    * vertex arrays.
+    **/
+    @Override
+    protected void applyLayout(boolean packed) {
+        AtlasShader.selectLayout(packed);
+        if (packed) {
+            glDisableClientState(GL_VERTEX_ARRAY);
+            glDisableClientState(GL_TEXTURE_COORD_ARRAY);
+            glEnableVertexAttribArray(AtlasShader.POSITION_ATTRIBUTE);
+            glEnableVertexAttribArray(AtlasShader.TEXTURE_ATTRIBUTE);
+        } else {
+            glDisableVertexAttribArray(AtlasShader.POSITION_ATTRIBUTE);
+            glDisableVertexAttribArray(AtlasShader.TEXTURE_ATTRIBUTE);
+            glEnableClientState(GL_VERTEX_ARRAY);
+            glEnableClientState(GL_TEXTURE_COORD_ARRAY);
+        }
+    }
+    
+    /**
+    * method: applyBuffer()
+    * purpose: Bind a vertex buffer and set the vertex pointers of a layout.
+    **/
+    @Override
+    protected void applyBuffer(int buffer, boolean packed) {
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        if (packed) {
+            // (P,P,P,T) with 3 shorts of position and 2 bytes of texture
+            int stride = 4 * 2;
+            glVertexAttribPointer(AtlasShader.POSITION_ATTRIBUTE, 3, GL_SHORT, false, stride, 0);
+            glVertexAttribPointer(AtlasShader.TEXTURE_ATTRIBUTE, 2, GL_UNSIGNED_BYTE, false, stride, 3 * 2);
+        } else {
+            // Using interleved VBO for better performance
+            // (V,V,V,T,T)
+            int stride = 5 * 4;
+            glVertexPointer(3, GL_FLOAT, stride, 0);
+            glTexCoordPointer(2, GL_FLOAT, stride, 3 * 4);
+        }
+    }
+    
+    /**
+    * method: applyOrigin()
+    * purpose: Replace the translation of the modelview matrix.
+    **/
+    @Override
+    protected void applyOrigin(float x, float z) {
+        glPopMatrix();
+        glPushMatrix();
+        glTranslatef(x, 0.0f, z);
+    }
+    
+    /**
+    * method: drawRanges()
+    * purpose: Draw the ranges as quads with one glMultiDrawArrays() call.
+    **/
+    @Override
+    protected void drawRanges(int[] firsts, int[] counts, int n) {
+        if (firstBuffer.capacity() < n) {
+            firstBuffer = BufferUtils.createIntBuffer(firsts.length);
+            countBuffer = BufferUtils.createIntBuffer(counts.length);
+        }
+        firstBuffer.clear();
+        firstBuffer.put(firsts, 0, n).flip();
+        countBuffer.clear();
+        countBuffer.put(counts, 0, n).flip();
+        glMultiDrawArrays(GL_QUADS, firstBuffer, countBuffer);
+    }
+    
+    /**
+    * method: createBuffer()
+    * purpose: Create a VBO with an uninitialized store of a given size.
+    **/
+    @Override
+    public int createBuffer(long bytes) {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        glBufferData(GL_ARRAY_BUFFER, bytes, GL_STATIC_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        return buffer;
+    }
+    
+    /**
+    * method: writeBuffer()
+    * purpose: Write to a VBO with glBufferSubData().
+    **/
+    @Override
+    public void writeBuffer(int buffer, long offset, ByteBuffer data) {
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        glBufferSubData(GL_ARRAY_BUFFER, offset, data);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+    
+    /**
+    * method: readBuffer()
+    * purpose: Read from a VBO with glGetBufferSubData().
+    **/
+    @Override
+    public void readBuffer(int buffer, long offset, ByteBuffer data) {
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        glGetBufferSubData(GL_ARRAY_BUFFER, offset, data);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+    
+    /**
+    * method: replaceBuffer()
+    * purpose: Replace the store of a VBO with glBufferData().
+    **/
+    @Override
+    public void replaceBuffer(int buffer, ByteBuffer data) {
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        glBufferData(GL_ARRAY_BUFFER, data, GL_STATIC_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+    
+    /**
+    * method: deleteBuffer()
+    * purpose: Delete a VBO.
+    **/
+    @Override
+    public void deleteBuffer(int buffer) {
+        glDeleteBuffers(buffer);
+    }
+}
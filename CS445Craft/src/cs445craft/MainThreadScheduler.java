@@ -0,0 +1,221 @@
+/***************************************************************
+* file: MainThreadScheduler.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class holds the tasks that must run on the main thread, like
+* copying a built mesh to the ChunkArena, and runs some of them each frame.
+* It is only used by the main thread.
+*
+* Each task has a priority (lower runs first, the Game uses the distance from
+* the camera) and an estimate of the bytes it uploads. runFrame() runs tasks
+* in priority order until the frame's time or byte budget is used up, but
+* always runs at least one, so a task larger than the budget isn't stuck.
+* A task that has waited longer than STARVATION_NANOS runs first, whatever
+* its priority, one per frame, so far chunks are not starved by a steady
+* stream of near ones.
+*
+* How long each task waited and how long it ran are counted in
+* LatencyHistograms.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+
+public class MainThreadScheduler {
+    private static final long STARVATION_NANOS = 1000000000L;
+    
+    private final PriorityQueue<Task> byPriority;
+    // the same tasks in the order they were submitted, for the starvation check
+    private final ArrayDeque<Task> bySubmission;
+    private final LatencyHistogram waitTimes, runTimes;
+    private long nextSequence;
+    private int size;
+    
+    // statistics of the last runFrame()
+    private int tasksRun, starvedRun;
+    private long nanosUsed, bytesUsed;
+    
+    public MainThreadScheduler() {
+        byPriority = new PriorityQueue<>();
+        bySubmission = new ArrayDeque<>();
+        waitTimes = new LatencyHistogram();
+        runTimes = new LatencyHistogram();
+    }
+    
+    /**
+    * method: submit()
+    * purpose: Add a task with a given priority (lower runs first) and an
+    * estimate of the bytes it uploads.
+    **/
+    public void submit(Runnable runnable, float priority, long bytes) {
+        Task task = new Task(runnable, priority, bytes, nextSequence++, System.nanoTime());
+        byPriority.add(task);
+        bySubmission.add(task);
+        size++;
+    }
+    
+    /**
+    * method: runFrame()
+    * purpose: Run tasks until the given time budget (in nanoseconds) or byte
+    * budget is used up. Tasks that have waited too long go first.
+    **/
+    public void runFrame(long nanoBudget, long byteBudget) {
+        long start = System.nanoTime();
+        tasksRun = 0;
+        starvedRun = 0;
+        bytesUsed = 0;
+        
+        Task oldest = peekOldest();
+        if (oldest != null && start - oldest.submitted > STARVATION_NANOS) {
+            run(bySubmission.pollFirst());
+            starvedRun++;
+        }
+        
+        while (size > 0) {
+            Task next = peekNext();
+            long elapsed = System.nanoTime() - start;
+            boolean overBudget = elapsed >= nanoBudget || bytesUsed + next.bytes > byteBudget;
+            if (tasksRun > 0 && overBudget) {
+                break;
+            }
+            run(byPriority.poll());
+        }
+        nanosUsed = System.nanoTime() - start;
+    }
+    
+    /**
+    * method: peekOldest()
+    * purpose: Drop the tasks that already ran from the head of the submission
+    * order and return the oldest task waiting, or null.
+    **/
+    private Task peekOldest() {
+        while (!bySubmission.isEmpty() && bySubmission.peekFirst().done) {
+            bySubmission.pollFirst();
+        }
+        return bySubmission.peekFirst();
+    }
+    
+    /**
+    * method: peekNext()
+    * purpose: Drop the tasks that already ran from the head of the priority
+    * order and return the task that runs next, or null.
+    **/
+    private Task peekNext() {
+        while (!byPriority.isEmpty() && byPriority.peek().done) {
+            byPriority.poll();
+        }
+        return byPriority.peek();
+    }
+    
+    /**
+    * method: run()
+    * purpose: Run a task and count it. The task stays in the other order and
+    * is dropped from it when it reaches the head.
+    **/
+    private void run(Task task) {
+        long start = System.nanoTime();
+        waitTimes.record(start - task.submitted);
+        task.done = true;
+        size--;
+        task.runnable.run();
+        runTimes.record(System.nanoTime() - start);
+        tasksRun++;
+        bytesUsed += task.bytes;
+    }
+    
+    /**
+    * method: size()
+    * purpose: Returns the number of tasks waiting.
+    **/
+    public int size() {
+        return size;
+    }
+    
+    /**
+    * method: getWaitTimes()
+    * purpose: Returns the histogram of how long tasks waited before they ran.
+    **/
+    public LatencyHistogram getWaitTimes() {
+        return waitTimes;
+    }
+    
+    /**
+    * method: getRunTimes()
+    * purpose: Returns the histogram of how long tasks took to run.
+    **/
+    public LatencyHistogram getRunTimes() {
+        return runTimes;
+    }
+    
+    /**
+    * method: getTasksRun()
+    * purpose: Returns the number of tasks the last runFrame() ran.
+    **/
+    public int getTasksRun() {
+        return tasksRun;
+    }
+    
+    /**
+    * method: getStarvedRun()
+    * purpose: Returns the number of tasks the last runFrame() ran because they
+    * had waited too long.
+    **/
+    public int getStarvedRun() {
+        return starvedRun;
+    }
+    
+    /**
+    * method: getNanosUsed()
+    * purpose: Returns the time the last runFrame() took, in nanoseconds.
+    **/
+    public long getNanosUsed() {
+        return nanosUsed;
+    }
+    
+    /**
+    * method: getBytesUsed()
+    * purpose: Returns the bytes the tasks run by the last runFrame() estimated
+    * they would upload.
+    **/
+    public long getBytesUsed() {
+        return bytesUsed;
+    }
+    
+    /**
+    * class: Task
+    * purpose: A Runnable with its priority, byte estimate and submission time.
+    * Tasks with the same priority run in the order they were submitted.
+    **/
+    private static final class Task implements Comparable<Task> {
+        private final Runnable runnable;
+        private final float priority;
+        private final long bytes;
+        private final long sequence;
+        private final long submitted;
+        private boolean done;
+        
+        Task(Runnable runnable, float priority, long bytes, long sequence, long submitted) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.bytes = bytes;
+            this.sequence = sequence;
+            this.submitted = submitted;
+        }
+        
+        /**
+        * method: compareTo()
+        * purpose: Order by priority, then by submission.
+        **/
+        @Override
+        public int compareTo(Task other) {
+            int order = Float.compare(priority, other.priority);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/***************************************************************
+* file: MeshBuffer.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class holds the vertex data of a mesh while it is being built
+* on a background thread and until it is copied to a VBO on the main thread.
+* The float array grows as faces are added, so the memory held is proportional
+* to the number of faces in the mesh. Buffers are recycled to a pool after
+* their data has been copied out so that rebuilding a mesh does not allocate
+* new arrays. A buffer that grew past MAX_POOLED_FACES for an unusually large
+* mesh is dropped instead, so the pools never hold more than
+* MAX_POOLED_BUFFERS buffers of that size.
+* 
+* A buffer holds either the float layout (x, y, z, u, v as floats) or the packed
+* layout (see Voxel.writePackedFaceVertices()) which is stored in a short
+* array. Each layout has its own pool.
+* 
+* Once a mesh is finished, toDirectBuffer() copies its data to a direct buffer
+* from the DirectBufferPool on the building thread, so the main thread only has
+* to hand that buffer to OpenGL.
+*
+****************************************************************/
+package cs445craft;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MeshBuffer {
+    public static final int FLOATS_PER_FACE = 4 * (3 + 2);
+    public static final int SHORTS_PER_FACE = 4 * 4;
+    private static final int INITIAL_FACES = 1024;
+    private static final int MAX_POOLED_BUFFERS = 16;
+    // most faces a pooled buffer may have room for, enough for the meshes of most chunks
+    private static final int MAX_POOLED_FACES = 16 * INITIAL_FACES;
+    
+    // pools of buffers that are ready to be reused, one for each layout
+    private static final ConcurrentLinkedQueue<MeshBuffer> floatPool = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<MeshBuffer> packedPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledFloatBuffers = new AtomicInteger();
+    private static final AtomicInteger pooledPackedBuffers = new AtomicInteger();
+    
+    // allocation statistics
+    private static final AtomicInteger buffersCreated = new AtomicInteger();
+    private static final AtomicInteger buffersGrown = new AtomicInteger();
+    private static final AtomicInteger buffersDropped = new AtomicInteger();
+    private static final AtomicLong bytesAllocated = new AtomicLong();
+    
+    private final boolean packed;
+    private float[] data;
+    private short[] packedData;
+    private int numFaces;
+    
+    private MeshBuffer(boolean packed) {
+        this.packed = packed;
+        if (packed) {
+            packedData = new short[INITIAL_FACES * SHORTS_PER_FACE];
+            bytesAllocated.addAndGet(2L * packedData.length);
+        } else {
+            data = new float[INITIAL_FACES * FLOATS_PER_FACE];
+            bytesAllocated.addAndGet(4L * data.length);
+        }
+        buffersCreated.incrementAndGet();
+    }
+    
+    /**
+    * method: obtain()
+    * purpose: Get an empty buffer of the given layout from the pool, or create a
+    * new one if the pool is empty.
+    **/
+    public static MeshBuffer obtain(boolean packed) {
+        MeshBuffer buffer = (packed ? packedPool : floatPool).poll();
+        if (buffer == null) {
+            return new MeshBuffer(packed);
+        }
+        (packed ? pooledPackedBuffers : pooledFloatBuffers).decrementAndGet();
+        return buffer;
+    }
+    
+    /**
+    * method: recycle()
+    * purpose: Return a buffer to the pool once its data is no longer needed. If
+    * the pool is full, or the buffer has room for more than MAX_POOLED_FACES
+    * faces, the buffer is left for the garbage collector.
+    **/
+    public static void recycle(MeshBuffer buffer) {
+        buffer.numFaces = 0;
+        if (buffer.getCapacity() > MAX_POOLED_FACES) {
+            buffersDropped.incrementAndGet();
+            return;
+        }
+        AtomicInteger pooledBuffers = buffer.packed ? pooledPackedBuffers : pooledFloatBuffers;
+        if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            (buffer.packed ? packedPool : floatPool).add(buffer);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+    
+    /**
+    * method: addFace()
+    * purpose: Reserve room for one more face and return the index in the data
+    * array where its vertices should be written. The array may be replaced, so
+    * call getData() or getPackedData() after this method.
+    **/
+    public int addFace() {
+        int perFace = packed ? SHORTS_PER_FACE : FLOATS_PER_FACE;
+        int writeIndex = numFaces * perFace;
+        if (writeIndex + perFace > (packed ? packedData.length : data.length)) {
+            grow();
+        }
+        numFaces++;
+        return writeIndex;
+    }
+    
+    /**
+    * method: grow()
+    * purpose: Double the size of the data array, keeping the faces that have
+    * already been written.
+    **/
+    private void grow() {
+        if (packed) {
+            short[] newData = new short[packedData.length * 2];
+            System.arraycopy(packedData, 0, newData, 0, numFaces * SHORTS_PER_FACE);
+            packedData = newData;
+            bytesAllocated.addAndGet(2L * newData.length);
+        } else {
+            float[] newData = new float[data.length * 2];
+            System.arraycopy(data, 0, newData, 0, numFaces * FLOATS_PER_FACE);
+            data = newData;
+            bytesAllocated.addAndGet(4L * newData.length);
+        }
+        buffersGrown.incrementAndGet();
+    }
+    
+    /**
+    * method: toDirectBuffer()
+    * purpose: Copy the vertex data to a direct buffer from the
+    * DirectBufferPool. Release the buffer to the pool once it is uploaded.
+    **/
+    public ByteBuffer toDirectBuffer() {
+        ByteBuffer buffer;
+        if (packed) {
+            buffer = DirectBufferPool.acquire(2 * getNumShorts());
+            buffer.asShortBuffer().put(packedData, 0, getNumShorts());
+        } else {
+            buffer = DirectBufferPool.acquire(4 * getNumFloats());
+            buffer.asFloatBuffer().put(data, 0, getNumFloats());
+        }
+        return buffer;
+    }
+    
+    /**
+    * method: isPacked()
+    * purpose: Returns true if this buffer holds the packed layout.
+    **/
+    public boolean isPacked() {
+        return packed;
+    }
+    
+    /**
+    * method: getData()
+    * purpose: Returns the float array that holds the vertex data of the float
+    * layout.
+    **/
+    public float[] getData() {
+        return data;
+    }
+    
+    /**
+    * method: getPackedData()
+    * purpose: Returns the short array that holds the vertex data of the packed
+    * layout.
+    **/
+    public short[] getPackedData() {
+        return packedData;
+    }
+    
+    /**
+    * method: getCapacity()
+    * purpose: Returns the number of faces the data array has room for.
+    **/
+    public int getCapacity() {
+        return packed ? packedData.length / SHORTS_PER_FACE : data.length / FLOATS_PER_FACE;
+    }
+    
+    /**
+    * method: getNumFaces()
+    * purpose: Returns the number of faces written to this buffer.
+    **/
+    public int getNumFaces() {
+        return numFaces;
+    }
+    
+    /**
+    * method: getNumFloats()
+    * purpose: Returns the number of floats written to this buffer.
+    **/
+    public int getNumFloats() {
+        return numFaces * FLOATS_PER_FACE;
+    }
+    
+    /**
+    * method: getNumShorts()
+    * purpose: Returns the number of shorts written to this buffer.
+    **/
+    public int getNumShorts() {
+        return numFaces * SHORTS_PER_FACE;
+    }
+    
+    /**
+    * method: getBuffersCreated()
+    * purpose: Returns the number of buffers that have been created.
+    **/
+    public static int getBuffersCreated() {
+        return buffersCreated.get();
+    }
+    
+    /**
+    * method: getBuffersGrown()
+    * purpose: Returns the number of times a buffer had to grow.
+    **/
+    public static int getBuffersGrown() {
+        return buffersGrown.get();
+    }
+    
+    /**
+    * method: getBuffersDropped()
+    * purpose: Returns the number of buffers that were too large to be pooled
+    * again.
+    **/
+    public static int getBuffersDropped() {
+        return buffersDropped.get();
+    }
+    
+    /**
+    * method: getBytesAllocated()
+    * purpose: Returns the total number of bytes allocated for buffer data since
+    * the program started.
+    **/
+    public static long getBytesAllocated() {
+        return bytesAllocated.get();
+    }
+}
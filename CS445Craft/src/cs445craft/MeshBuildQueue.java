@@ -0,0 +1,255 @@
+/***************************************************************
+* file: MeshBuildQueue.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class holds the chunks waiting for the MeshBuilder threads.
+* Chunks are handed out closest first, measured from a focus point (the camera)
+* that the main thread updates as the player moves. A chunk can only be in the
+* queue once, and chunks that are farther than the draw distance when they reach
+* the front of the queue are dropped instead of built. Dropped chunks are kept
+* until the main thread collects them with drainDropped() so it can schedule
+* them again later.
+* 
+* Chunks added as urgent (chunks where the player broke a block) are handed out
+* before all others, in the order they were added, and are never dropped.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MeshBuildQueue {
+    private PriorityQueue<Chunk> queue;
+    private final ArrayDeque<Chunk> urgentQueue;
+    private final Set<Chunk> pending;
+    private final List<Chunk> dropped;
+    private float focusX, focusZ, maxDistance;
+    
+    // statistics
+    private final AtomicInteger meshesBuilt;
+    private int meshesBuiltAtSample;
+    private long sampleTime;
+    private float meshesPerSecond;
+    private int numDropped, numDuplicates;
+    
+    public MeshBuildQueue(float focusX, float focusZ, float maxDistance) {
+        this.focusX = focusX;
+        this.focusZ = focusZ;
+        this.maxDistance = maxDistance;
+        queue = new PriorityQueue<>(this::compareDistance);
+        urgentQueue = new ArrayDeque<>();
+        pending = new HashSet<>();
+        dropped = new ArrayList<>();
+        meshesBuilt = new AtomicInteger();
+        sampleTime = System.nanoTime();
+    }
+    
+    /**
+    * method: add()
+    * purpose: Add a chunk to the queue. Returns false if the chunk is already
+    * in the queue.
+    **/
+    public synchronized boolean add(Chunk chunk) {
+        return add(chunk, false);
+    }
+    
+    /**
+    * method: add()
+    * purpose: Add a chunk to the queue, ahead of all other chunks if urgent is
+    * true. A chunk that is already waiting is moved ahead if it becomes urgent.
+    * Returns false if the chunk was already in the queue.
+    **/
+    public synchronized boolean add(Chunk chunk, boolean urgent) {
+        if (!pending.add(chunk)) {
+            if (urgent && queue.remove(chunk)) {
+                urgentQueue.add(chunk);
+                notify();
+            } else {
+                numDuplicates++;
+            }
+            return false;
+        }
+        if (urgent) {
+            urgentQueue.add(chunk);
+        } else {
+            queue.add(chunk);
+        }
+        notify();
+        return true;
+    }
+    
+    /**
+    * method: remove()
+    * purpose: Remove a chunk from the queue, urgent or not. Returns false if
+    * the chunk was not waiting.
+    **/
+    public synchronized boolean remove(Chunk chunk) {
+        if (!pending.remove(chunk)) {
+            return false;
+        }
+        if (!queue.remove(chunk)) {
+            urgentQueue.remove(chunk);
+        }
+        return true;
+    }
+    
+    /**
+    * method: take()
+    * purpose: Remove and return the next chunk (see poll()), waiting until one
+    * is available.
+    **/
+    public synchronized Chunk take() throws InterruptedException {
+        Chunk chunk = poll();
+        while (chunk == null) {
+            wait();
+            chunk = poll();
+        }
+        return chunk;
+    }
+    
+    /**
+    * method: poll()
+    * purpose: Remove and return the first urgent chunk, or else the chunk
+    * closest to the focus point, or null if the queue is empty. Chunks outside
+    * the draw distance are moved to the dropped list along the way.
+    **/
+    public synchronized Chunk poll() {
+        Chunk chunk = urgentQueue.poll();
+        if (chunk != null) {
+            pending.remove(chunk);
+            return chunk;
+        }
+        
+        chunk = queue.poll();
+        while (chunk != null) {
+            pending.remove(chunk);
+            if (distance(chunk) <= maxDistance) {
+                return chunk;
+            }
+            dropped.add(chunk);
+            numDropped++;
+            chunk = queue.poll();
+        }
+        return null;
+    }
+    
+    /**
+    * method: setFocus()
+    * purpose: Move the focus point and change the draw distance. The queue is
+    * re-sorted because the distances have changed.
+    **/
+    public synchronized void setFocus(float x, float z, float distance) {
+        focusX = x;
+        focusZ = z;
+        maxDistance = distance;
+        
+        PriorityQueue<Chunk> sorted = new PriorityQueue<>(Math.max(1, queue.size()), this::compareDistance);
+        sorted.addAll(queue);
+        queue = sorted;
+    }
+    
+    /**
+    * method: drainDropped()
+    * purpose: Move the dropped chunks to a given collection.
+    **/
+    public synchronized void drainDropped(Collection<Chunk> out) {
+        out.addAll(dropped);
+        dropped.clear();
+    }
+    
+    /**
+    * method: markBuilt()
+    * purpose: Count a finished mesh for the meshes per second statistic. Called
+    * by the MeshBuilder threads.
+    **/
+    public void markBuilt() {
+        meshesBuilt.incrementAndGet();
+    }
+    
+    /**
+    * method: updateStats()
+    * purpose: Recompute the meshes per second if at least a second has passed
+    * since the last sample. Returns true if the value was updated.
+    **/
+    public synchronized boolean updateStats() {
+        long now = System.nanoTime();
+        if (now - sampleTime < 1000000000L) {
+            return false;
+        }
+        int built = meshesBuilt.get();
+        meshesPerSecond = (built - meshesBuiltAtSample) * 1000000000.0f / (now - sampleTime);
+        meshesBuiltAtSample = built;
+        sampleTime = now;
+        return true;
+    }
+    
+    /**
+    * method: getMeshesPerSecond()
+    * purpose: Returns the number of meshes built per second, as of the last
+    * call to updateStats().
+    **/
+    public synchronized float getMeshesPerSecond() {
+        return meshesPerSecond;
+    }
+    
+    /**
+    * method: getMeshesBuilt()
+    * purpose: Returns the total number of meshes built.
+    **/
+    public int getMeshesBuilt() {
+        return meshesBuilt.get();
+    }
+    
+    /**
+    * method: size()
+    * purpose: Returns the number of chunks waiting in the queue.
+    **/
+    public synchronized int size() {
+        return urgentQueue.size() + queue.size();
+    }
+    
+    /**
+    * method: getNumDropped()
+    * purpose: Returns the number of chunks dropped for being out of range.
+    **/
+    public synchronized int getNumDropped() {
+        return numDropped;
+    }
+    
+    /**
+    * method: getNumDuplicates()
+    * purpose: Returns the number of add() calls ignored because the chunk was
+    * already in the queue.
+    **/
+    public synchronized int getNumDuplicates() {
+        return numDuplicates;
+    }
+    
+    /**
+    * method: distance()
+    * purpose: Returns the distance from the focus point to a chunk, measured the
+    * same way as the Screen's draw distance check.
+    **/
+    private float distance(Chunk chunk) {
+        return chunk.distanceTo(focusX, chunk.getY(), focusZ);
+    }
+    
+    /**
+    * method: compareDistance()
+    * purpose: Order chunks by distance to the focus point, closest first.
+    **/
+    private int compareDistance(Chunk a, Chunk b) {
+        return Float.compare(distance(a), distance(b));
+    }
+}
@@ -0,0 +1,181 @@
+/***************************************************************
+* file: MeshResidency.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class decides which chunk meshes stay in the ChunkArena. The
+* Game calls update() every frame, and every UPDATE_FRAMES frames the built
+* chunks are checked:
+*  - a chunk farther than the unload distance (the draw distance plus a
+*    margin) has its mesh freed.
+*  - while the ChunkArena holds more than the byte budget, the meshes of
+*    chunks outside the draw distance are freed, least recently used first.
+*    A chunk is used while it is within the draw distance.
+* Chunks inside the draw distance are never freed, since they would be
+* rebuilt right away. A freed chunk is marked dirty, so its mesh is built
+* again when it comes back within the draw distance. After freeing meshes the
+* pages that are mostly empty are shrunk (see ChunkArena.trim()).
+*
+* The margin between the draw distance and the unload distance keeps chunks
+* from being freed and rebuilt when the player walks back and forth over a
+* chunk border. Must be used on the thread that has the OpenGL context.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+public class MeshResidency {
+    private static final int UPDATE_FRAMES = 30;
+    
+    private final long byteBudget;
+    private final float unloadMargin;
+    
+    // built chunks, least recently used first
+    private final LinkedHashMap<Chunk, Boolean> resident;
+    private int framesSinceUpdate;
+    
+    // statistics
+    private int numUnloaded, numEvicted, numShrinks;
+    private long bytesFreed;
+    
+    public MeshResidency(long byteBudget, float unloadMargin) {
+        this.byteBudget = byteBudget;
+        this.unloadMargin = unloadMargin;
+        resident = new LinkedHashMap<>(256, 0.75f, true);
+        framesSinceUpdate = UPDATE_FRAMES;
+    }
+    
+    /**
+    * method: update()
+    * purpose: Called once per frame with the chunks of the World, the camera
+    * position and the draw distance. Every UPDATE_FRAMES frames the meshes
+    * outside the unload distance are freed, then meshes outside the draw
+    * distance are freed until the ChunkArena is within the byte budget.
+    **/
+    public void update(Collection<Chunk> chunks, float x, float z, float drawDistance) {
+        if (++framesSinceUpdate < UPDATE_FRAMES) {
+            return;
+        }
+        framesSinceUpdate = 0;
+        
+        // chunks within the draw distance move to the end of the order
+        for (Chunk chunk : chunks) {
+            if (chunk.getBuilt() && (chunk.getActive() || !resident.containsKey(chunk))) {
+                resident.put(chunk, Boolean.TRUE);
+            }
+        }
+        
+        float unloadDistance = drawDistance + unloadMargin;
+        boolean freed = false;
+        Iterator<Chunk> it = resident.keySet().iterator();
+        while (it.hasNext()) {
+            Chunk chunk = it.next();
+            if (!chunk.getBuilt()) {
+                it.remove();
+            } else if (chunk.distanceTo(x, chunk.getY(), z) > unloadDistance) {
+                bytesFreed += chunk.releaseMesh();
+                numUnloaded++;
+                freed = true;
+                it.remove();
+            }
+        }
+        
+        // least recently used first, skipping the chunks in use
+        it = resident.keySet().iterator();
+        while (ChunkArena.getBytesAllocated() > byteBudget && it.hasNext()) {
+            Chunk chunk = it.next();
+            if (!chunk.getActive()) {
+                bytesFreed += chunk.releaseMesh();
+                numEvicted++;
+                freed = true;
+                it.remove();
+                
+                // emptied pages are deleted right away, mostly empty ones are shrunk
+                if (ChunkArena.getBytesAllocated() > byteBudget) {
+                    trim();
+                }
+            }
+        }
+        
+        if (freed) {
+            trim();
+        }
+    }
+    
+    /**
+    * method: trim()
+    * purpose: Shrink the mostly empty pages of the ChunkArena and count them.
+    **/
+    private void trim() {
+        int shrinks = ChunkArena.getNumShrinks();
+        ChunkArena.trim();
+        numShrinks += ChunkArena.getNumShrinks() - shrinks;
+    }
+    
+    /**
+    * method: getByteBudget()
+    * purpose: Returns the number of bytes the ChunkArena may hold before
+    * meshes outside the draw distance are freed.
+    **/
+    public long getByteBudget() {
+        return byteBudget;
+    }
+    
+    /**
+    * method: getNumResident()
+    * purpose: Returns the number of built chunks found by the last check.
+    **/
+    public int getNumResident() {
+        return resident.size();
+    }
+    
+    /**
+    * method: getNumUnloaded()
+    * purpose: Returns the number of meshes freed because their chunk was
+    * outside the unload distance.
+    **/
+    public int getNumUnloaded() {
+        return numUnloaded;
+    }
+    
+    /**
+    * method: getNumEvicted()
+    * purpose: Returns the number of meshes freed to stay within the byte
+    * budget.
+    **/
+    public int getNumEvicted() {
+        return numEvicted;
+    }
+    
+    /**
+    * method: getNumShrinks()
+    * purpose: Returns the number of pages shrunk after meshes were freed.
+    **/
+    public int getNumShrinks() {
+        return numShrinks;
+    }
+    
+    /**
+    * method: getBytesFreed()
+    * purpose: Returns the total number of bytes of the meshes freed.
+    **/
+    public long getBytesFreed() {
+        return bytesFreed;
+    }
+    
+    /**
+    * method: toString()
+    * purpose: Returns the statistics in one line.
+    **/
+    @Override
+    public String toString() {
+        return resident.size() + " chunks resident, arena " + (ChunkArena.getBytesAllocated() >> 20) + " of " + (byteBudget >> 20) + " MB, "
+            + numUnloaded + " unloaded, " + numEvicted + " evicted (" + (bytesFreed >> 20) + " MB), " + numShrinks + " pages shrunk";
+    }
+}
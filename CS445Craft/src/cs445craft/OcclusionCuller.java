@@ -0,0 +1,291 @@
+/***************************************************************
+* file: OcclusionCuller.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class finds the chunk sections that can be seen from the
+* camera through open space, so sections hidden inside the ground or behind
+* mountains are not drawn. It only uses the CPU.
+*
+* When a section is meshed, the Chunk records which pairs of the section's 6
+* faces are connected through voxels that are not opaque (see connect()).
+* update() walks the sections breadth first, starting at the camera's section.
+* A section is entered through one face and can only be left through a face
+* that is connected to it. The walk never steps in the opposite direction of a
+* step it has already taken, so it always moves away from the camera, and it
+* doesn't enter sections outside the view frustum or the draw distance.
+* Sections the walk doesn't reach can not be seen.
+*
+* Faces are numbered like the faces of a Voxel (Voxel.FACE_TOP...), so the
+* opposite of a face is face ^ 1.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.Arrays;
+
+public class OcclusionCuller {
+    // every pair of faces is connected, used for sections that have not been meshed
+    public static final int ALL_CONNECTED = (1 << 15) - 1;
+    private static final int[] PAIR_BITS = buildPairBits();
+    
+    // step in the chunk i index, section and chunk j index when leaving through each face
+    private static final int[] STEP_I = new int[6];
+    private static final int[] STEP_SECTION = new int[6];
+    private static final int[] STEP_J = new int[6];
+    static {
+        STEP_SECTION[Voxel.FACE_TOP] = 1;
+        STEP_SECTION[Voxel.FACE_BOTTOM] = -1;
+        STEP_J[Voxel.FACE_FRONT] = -1;
+        STEP_J[Voxel.FACE_BACK] = 1;
+        STEP_I[Voxel.FACE_LEFT] = -1;
+        STEP_I[Voxel.FACE_RIGHT] = 1;
+    }
+    
+    // the camera's section has no face it was entered through
+    private static final int NO_FACE = 7;
+    private static final int INITIAL_QUEUE = 1024;
+    
+    private final World world;
+    private boolean enabled;
+    
+    // number of the last walk, the Chunk remembers the walk that reached its sections
+    private int walk;
+    // true if the last walk could not start, then every section is reached
+    private boolean reachedAll;
+    // chunk indices and section the last walk started from
+    private int startI, startJ, startSection;
+    private int connectivityChanges;
+    
+    // sections waiting to be walked, the state holds the section, the face it was entered through and the directions taken
+    private Chunk[] queueChunks;
+    private int[] queueStates;
+    
+    private int sectionsReached, sectionsOccluded;
+    
+    public OcclusionCuller(World world) {
+        this.world = world;
+        enabled = true;
+        reachedAll = true;
+        queueChunks = new Chunk[INITIAL_QUEUE];
+        queueStates = new int[INITIAL_QUEUE];
+    }
+    
+    /**
+    * method: buildPairBits()
+    * purpose: Build the table of the bit used for each pair of faces. There are
+    * 15 pairs and both orders of a pair use the same bit.
+    **/
+    private static int[] buildPairBits() {
+        int[] table = new int[6 * 6];
+        int bit = 0;
+        for (int a = 0; a < 6; a++) {
+            for (int b = a + 1; b < 6; b++) {
+                table[a * 6 + b] = 1 << bit;
+                table[b * 6 + a] = 1 << bit;
+                bit++;
+            }
+        }
+        return table;
+    }
+    
+    /**
+    * method: connect()
+    * purpose: Returns the connectivity of a section with every pair of faces in
+    * a bit mask of faces connected. The faces are the faces touched by one
+    * region of open voxels.
+    **/
+    public static int connect(int connectivity, int faces) {
+        for (int a = 0; a < 6; a++) {
+            if ((faces & (1 << a)) == 0) {
+                continue;
+            }
+            for (int b = a + 1; b < 6; b++) {
+                if ((faces & (1 << b)) != 0) {
+                    connectivity |= PAIR_BITS[a * 6 + b];
+                }
+            }
+        }
+        return connectivity;
+    }
+    
+    /**
+    * method: isConnected()
+    * purpose: Returns true if two different faces of a section are connected
+    * through open voxels.
+    **/
+    public static boolean isConnected(int connectivity, int faceA, int faceB) {
+        return (connectivity & PAIR_BITS[faceA * 6 + faceB]) != 0;
+    }
+    
+    /**
+    * method: update()
+    * purpose: Walk the sections that can be seen from a camera position. If the
+    * culler is disabled, or the camera is not inside a chunk, every section is
+    * reached.
+    **/
+    public void update(float x, float y, float z, Frustum frustum, float drawDistance) {
+        walk++;
+        sectionsReached = 0;
+        sectionsOccluded = 0;
+        
+        startI = chunkIndex(x);
+        startJ = chunkIndex(z);
+        startSection = sectionIndex(y);
+        connectivityChanges = Chunk.getConnectivityChanges();
+        Chunk start = world.getChunk(startI, startJ);
+        reachedAll = !enabled || start == null;
+        if (reachedAll) {
+            return;
+        }
+        
+        start.markReached(walk, startSection);
+        sectionsReached++;
+        int head = 0;
+        int tail = 0;
+        queueChunks[tail] = start;
+        queueStates[tail] = startSection | (NO_FACE << 4);
+        tail++;
+        
+        while (head < tail) {
+            Chunk chunk = queueChunks[head];
+            int state = queueStates[head];
+            queueChunks[head] = null;
+            head++;
+            
+            int section = state & 0xF;
+            int entered = (state >> 4) & 0x7;
+            int directions = state >> 7;
+            int connectivity = chunk.getSectionConnectivity(section);
+            
+            for (int face = 0; face < 6; face++) {
+                // never step back towards the camera
+                if ((directions & (1 << (face ^ 1))) != 0) {
+                    continue;
+                }
+                // open space must connect the face the section was entered through to this face
+                if (entered != NO_FACE && (entered == face || !isConnected(connectivity, entered, face))) {
+                    continue;
+                }
+                
+                int nextSection = section + STEP_SECTION[face];
+                if (nextSection < 0 || nextSection >= Chunk.NUM_SECTIONS) {
+                    continue;
+                }
+                Chunk next = chunk;
+                if (STEP_I[face] != 0 || STEP_J[face] != 0) {
+                    next = chunk.getNeighbor(STEP_I[face], STEP_J[face]);
+                    if (next == null || next.distanceTo(x, next.getY(), z) > drawDistance) {
+                        continue;
+                    }
+                }
+                if ((next.getReachedSections(walk) & (1 << nextSection)) != 0) {
+                    continue;
+                }
+                if (!next.sectionInFrustum(frustum, nextSection)) {
+                    continue;
+                }
+                
+                next.markReached(walk, nextSection);
+                sectionsReached++;
+                // each section is queued at most once per walk
+                if (tail == queueChunks.length) {
+                    queueChunks = Arrays.copyOf(queueChunks, tail * 2);
+                    queueStates = Arrays.copyOf(queueStates, tail * 2);
+                }
+                queueChunks[tail] = next;
+                queueStates[tail] = nextSection | ((face ^ 1) << 4) | ((directions | (1 << face)) << 7);
+                tail++;
+            }
+        }
+    }
+    
+    /**
+    * method: isStale()
+    * purpose: Returns true if the camera is no longer in the section the last
+    * walk started from, or the connectivity of a section has changed since.
+    **/
+    public boolean isStale(float x, float y, float z) {
+        return chunkIndex(x) != startI || chunkIndex(z) != startJ || sectionIndex(y) != startSection
+            || Chunk.getConnectivityChanges() != connectivityChanges;
+    }
+    
+    /**
+    * method: chunkIndex()
+    * purpose: Returns the index of the chunk holding the voxel closest to an x
+    * or z coordinate in OpenGL space.
+    **/
+    private int chunkIndex(float pos) {
+        return Math.floorDiv(world.glCoordToVoxelGridLocation(pos), Chunk.CHUNK_S);
+    }
+    
+    /**
+    * method: sectionIndex()
+    * purpose: Returns the section holding the voxel closest to a y coordinate in
+    * OpenGL space. Positions above or below the world are in the top or bottom
+    * section.
+    **/
+    private int sectionIndex(float y) {
+        int section = Math.floorDiv(world.glCoordToVoxelGridLocation(y), Chunk.SECTION_H);
+        return Math.max(0, Math.min(Chunk.NUM_SECTIONS - 1, section));
+    }
+    
+    /**
+    * method: getReachedSections()
+    * purpose: Returns a bit mask of the sections of a chunk reached by the last
+    * walk.
+    **/
+    public int getReachedSections(Chunk chunk) {
+        if (reachedAll) {
+            return Chunk.ALL_SECTIONS;
+        }
+        return chunk.getReachedSections(walk);
+    }
+    
+    /**
+    * method: countOccluded()
+    * purpose: Add to the number of sections with faces that were inside the
+    * frustum but not reached.
+    **/
+    public void countOccluded(int sections) {
+        sectionsOccluded += sections;
+    }
+    
+    /**
+    * method: setEnabled()
+    * purpose: Turn occlusion culling on or off. Takes effect on the next
+    * update().
+    **/
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+    * method: getEnabled()
+    * purpose: Returns true if occlusion culling is on.
+    **/
+    public boolean getEnabled() {
+        return enabled;
+    }
+    
+    /**
+    * method: getSectionsReached()
+    * purpose: Returns the number of sections reached by the last walk,
+    * including sections without faces.
+    **/
+    public int getSectionsReached() {
+        return sectionsReached;
+    }
+    
+    /**
+    * method: getSectionsOccluded()
+    * purpose: Returns the number of sections with faces inside the frustum
+    * that the last walk did not reach.
+    **/
+    public int getSectionsOccluded() {
+        return sectionsOccluded;
+    }
+}
@@ -0,0 +1,271 @@
+/***************************************************************
+* file: RegionFile.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class stores the saved chunks of one REGION_S x REGION_S
+* region in a file. The file is split into sectors of SECTOR_BYTES bytes. The
+* first HEADER_SECTORS sectors hold the header, which has one entry per chunk
+* of the region: the first sector of its payload (0 if the chunk is not saved)
+* and the payload's length in bytes. The payloads start on a sector boundary
+* and use as many sectors as they need.
+*
+* Reads go through a read-only mapping of the whole file, so reading a chunk
+* copies its bytes straight out of the page cache. The mapping is replaced when
+* the file grows. A write puts the payload in the first free run of sectors
+* that is large enough, growing the file by at least GROW_SECTORS if there is
+* none, forces the payload to the disk and only then points the header at it.
+* The sectors the chunk used before are freed once the next write has forced
+* the new header to the disk too, so the old payload is never overwritten
+* while the header on the disk may still point at it. An interrupted write
+* therefore leaves the chunk as it was, or the header entry half written at
+* worst. Free sectors are found from the header when the file is opened.
+*
+* The methods are synchronized, a region file may be used by any thread.
+*
+****************************************************************/
+package cs445craft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+public class RegionFile {
+    public static final int REGION_S = 32;
+    public static final int CHUNKS_PER_REGION = REGION_S * REGION_S;
+    public static final int SECTOR_BYTES = 4096;
+    // one int for the first sector and one for the length of each chunk
+    private static final int HEADER_ENTRY_BYTES = 8;
+    private static final int HEADER_SECTORS = CHUNKS_PER_REGION * HEADER_ENTRY_BYTES / SECTOR_BYTES;
+    // the file grows by at least this many sectors, so it isn't mapped again after every write
+    private static final int GROW_SECTORS = 64;
+    
+    private final FileChannel channel;
+    private final int[] firstSectors, lengths;
+    // sectors used by the header and the payloads
+    private final BitSet usedSectors;
+    // sectors of replaced payloads, freed once the new header entries are on the disk
+    private final BitSet pendingSectors;
+    private int fileSectors;
+    private MappedByteBuffer mapped;
+    
+    // statistics
+    private int numReads, numWrites, numGrows;
+    
+    public RegionFile(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        firstSectors = new int[CHUNKS_PER_REGION];
+        lengths = new int[CHUNKS_PER_REGION];
+        usedSectors = new BitSet();
+        usedSectors.set(0, HEADER_SECTORS);
+        pendingSectors = new BitSet();
+        
+        // a new file starts with an empty header, a file that was cut short is padded to whole sectors
+        long size = channel.size();
+        fileSectors = (int) (size / SECTOR_BYTES);
+        if (fileSectors < HEADER_SECTORS || size % SECTOR_BYTES != 0) {
+            grow(Math.max(HEADER_SECTORS - fileSectors, 1));
+        }
+        
+        ByteBuffer header = map();
+        for (int index = 0; index < CHUNKS_PER_REGION; index++) {
+            int first = header.getInt(index * HEADER_ENTRY_BYTES);
+            int length = header.getInt(index * HEADER_ENTRY_BYTES + 4);
+            int sectors = numSectors(length);
+            if (first >= HEADER_SECTORS && length > 0 && first + sectors <= fileSectors) {
+                firstSectors[index] = first;
+                lengths[index] = length;
+                usedSectors.set(first, first + sectors);
+            }
+        }
+    }
+    
+    /**
+    * method: index()
+    * purpose: Returns the index of the header entry of the chunk at a given i
+    * and j index.
+    **/
+    public static int index(int i, int j) {
+        return Math.floorMod(j, REGION_S) * REGION_S + Math.floorMod(i, REGION_S);
+    }
+    
+    /**
+    * method: contains()
+    * purpose: Returns true if the chunk with a given header index is saved.
+    **/
+    public synchronized boolean contains(int index) {
+        return firstSectors[index] != 0;
+    }
+    
+    /**
+    * method: read()
+    * purpose: Returns the payload of the chunk with a given header index, or
+    * null if it is not saved.
+    **/
+    public synchronized byte[] read(int index) throws IOException {
+        int first = firstSectors[index];
+        if (first == 0) {
+            return null;
+        }
+        
+        byte[] data = new byte[lengths[index]];
+        ByteBuffer view = map().duplicate();
+        view.position(first * SECTOR_BYTES);
+        view.get(data);
+        numReads++;
+        return data;
+    }
+    
+    /**
+    * method: write()
+    * purpose: Save a given number of bytes of a payload for the chunk with a
+    * given header index, replacing the payload it had.
+    **/
+    public synchronized void write(int index, byte[] data, int length) throws IOException {
+        int sectors = numSectors(length);
+        int first = findFree(sectors);
+        if (first < 0) {
+            grow(Math.max(sectors, GROW_SECTORS));
+            first = findFree(sectors);
+        }
+        
+        writeFully(ByteBuffer.wrap(data, 0, length), (long) first * SECTOR_BYTES);
+        usedSectors.set(first, first + sectors);
+        // the payload reaches the disk before the header points at it, and so do the header entries of earlier writes
+        channel.force(false);
+        usedSectors.andNot(pendingSectors);
+        pendingSectors.clear();
+        
+        ByteBuffer entry = ByteBuffer.allocate(HEADER_ENTRY_BYTES);
+        entry.putInt(first).putInt(length).flip();
+        writeFully(entry, (long) index * HEADER_ENTRY_BYTES);
+        
+        // the old payload is freed by the next write, once this header entry is on the disk
+        int oldFirst = firstSectors[index];
+        if (oldFirst != 0) {
+            pendingSectors.set(oldFirst, oldFirst + numSectors(lengths[index]));
+        }
+        firstSectors[index] = first;
+        lengths[index] = length;
+        numWrites++;
+    }
+    
+    /**
+    * method: findFree()
+    * purpose: Returns the first sector of the first free run of a given number
+    * of sectors in the file, or -1 if there is none.
+    **/
+    private int findFree(int sectors) {
+        int start = usedSectors.nextClearBit(HEADER_SECTORS);
+        while (start + sectors <= fileSectors) {
+            int end = usedSectors.nextSetBit(start);
+            if (end < 0 || end >= start + sectors) {
+                return start;
+            }
+            start = usedSectors.nextClearBit(end);
+        }
+        return -1;
+    }
+    
+    /**
+    * method: grow()
+    * purpose: Add a given number of empty sectors to the end of the file. The
+    * mapping is replaced by the next read.
+    **/
+    private void grow(int sectors) throws IOException {
+        fileSectors += sectors;
+        writeFully(ByteBuffer.allocate(1), (long) fileSectors * SECTOR_BYTES - 1);
+        mapped = null;
+        numGrows++;
+    }
+    
+    /**
+    * method: map()
+    * purpose: Returns the mapping of the whole file, mapping it again if the
+    * file grew.
+    **/
+    private MappedByteBuffer map() throws IOException {
+        if (mapped == null) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) fileSectors * SECTOR_BYTES);
+        }
+        return mapped;
+    }
+    
+    /**
+    * method: writeFully()
+    * purpose: Write the remaining bytes of a buffer to the file at a given
+    * position.
+    **/
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+    
+    /**
+    * method: numSectors()
+    * purpose: Returns the number of sectors a payload of a given length uses.
+    **/
+    private static int numSectors(int length) {
+        return (length + SECTOR_BYTES - 1) / SECTOR_BYTES;
+    }
+    
+    /**
+    * method: close()
+    * purpose: Force the last writes to the disk and close the file. The region
+    * file must not be used afterwards.
+    **/
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        mapped = null;
+        channel.close();
+    }
+    
+    /**
+    * method: getFileSectors()
+    * purpose: Returns the number of sectors in the file.
+    **/
+    public synchronized int getFileSectors() {
+        return fileSectors;
+    }
+    
+    /**
+    * method: getUsedSectors()
+    * purpose: Returns the number of sectors used by the header and the
+    * payloads.
+    **/
+    public synchronized int getUsedSectors() {
+        return usedSectors.cardinality();
+    }
+    
+    /**
+    * method: getNumReads()
+    * purpose: Returns the number of payloads read.
+    **/
+    public synchronized int getNumReads() {
+        return numReads;
+    }
+    
+    /**
+    * method: getNumWrites()
+    * purpose: Returns the number of payloads written.
+    **/
+    public synchronized int getNumWrites() {
+        return numWrites;
+    }
+    
+    /**
+    * method: getNumGrows()
+    * purpose: Returns the number of times the file grew.
+    **/
+    public synchronized int getNumGrows() {
+        return numGrows;
+    }
+}
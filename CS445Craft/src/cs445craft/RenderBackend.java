@@ -0,0 +1,176 @@
+/***************************************************************
+* file: RenderBackend.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This abstract class defines the interface between the renderer and
+* the graphics API. It executes RenderCommands and owns the vertex buffers of
+* the ChunkArena.
+*
+* The state of the last command is remembered, and execute() only applies the
+* parts of the state that changed. This is done here rather than in each
+* backend so that the calls counted by the HeadlessRenderBackend are the same
+* calls the LwjglRenderBackend makes.
+*
+****************************************************************/
+package cs445craft;
+
+import java.nio.ByteBuffer;
+
+public abstract class RenderBackend {
+    // state applied by the last command, -1 when unknown
+    private int pass, texture, layout, buffer;
+    private float originX, originZ;
+    private boolean originSet;
+    
+    /**
+    * method: begin()
+    * purpose: Start submitting a list of commands. The state is unknown until
+    * the first command applies it.
+    **/
+    public void begin() {
+        pass = -1;
+        texture = -1;
+        layout = -1;
+        buffer = -1;
+        originSet = false;
+        beginCommands();
+    }
+    
+    /**
+    * method: execute()
+    * purpose: Apply the state of a command that differs from the last command,
+    * then draw its ranges.
+    **/
+    public void execute(RenderCommand command) {
+        if (command.getNumRanges() == 0) {
+            return;
+        }
+        
+        if (command.getPass() != pass) {
+            pass = command.getPass();
+            applyPass(pass);
+        }
+        if (command.getTexture() != texture) {
+            texture = command.getTexture();
+            applyTexture(texture);
+        }
+        
+        // the vertex pointers depend on the layout, so a new layout also needs the buffer set up again
+        int commandLayout = command.isPacked() ? 1 : 0;
+        if (commandLayout != layout) {
+            layout = commandLayout;
+            applyLayout(command.isPacked());
+            buffer = -1;
+        }
+        if (command.getBuffer() != buffer) {
+            buffer = command.getBuffer();
+            applyBuffer(buffer, command.isPacked());
+        }
+        
+        if (!originSet || command.getOriginX() != originX || command.getOriginZ() != originZ) {
+            originX = command.getOriginX();
+            originZ = command.getOriginZ();
+            originSet = true;
+            applyOrigin(originX, originZ);
+        }
+        
+        drawRanges(command.getFirsts(), command.getCounts(), command.getNumRanges());
+    }
+    
+    /**
+    * method: end()
+    * purpose: Finish submitting a list of commands.
+    **/
+    public void end() {
+        endCommands(layout);
+    }
+    
+    /**
+    * method: beginCommands()
+    * purpose: Prepare to execute commands.
+    **/
+    protected abstract void beginCommands();
+    
+    /**
+    * method: endCommands()
+    * purpose: Undo the state applied by the commands. The layout of the last
+    * command is given (1 packed, 0 float), or -1 if no command was executed.
+    **/
+    protected abstract void endCommands(int lastLayout);
+    
+    /**
+    * method: applyPass()
+    * purpose: Set up blending, alpha testing, face culling and depth writes for
+    * a pass.
+    **/
+    protected abstract void applyPass(int pass);
+    
+    /**
+    * method: applyTexture()
+    * purpose: Bind a texture.
+    **/
+    protected abstract void applyTexture(int texture);
+    
+    /**
+    * method: applyLayout()
+    * purpose: Switch the vertex arrays and shader to a vertex layout.
+    **/
+    protected abstract void applyLayout(boolean packed);
+    
+    /**
+    * method: applyBuffer()
+    * purpose: Bind a vertex buffer and point the vertex arrays of a layout into
+    * it.
+    **/
+    protected abstract void applyBuffer(int buffer, boolean packed);
+    
+    /**
+    * method: applyOrigin()
+    * purpose: Translate the following draws to an origin.
+    **/
+    protected abstract void applyOrigin(float x, float z);
+    
+    /**
+    * method: drawRanges()
+    * purpose: Draw quads from the first n ranges of vertices.
+    **/
+    protected abstract void drawRanges(int[] firsts, int[] counts, int n);
+    
+    /**
+    * method: createBuffer()
+    * purpose: Create a vertex buffer of a given size in bytes. Returns its
+    * handle.
+    **/
+    public abstract int createBuffer(long bytes);
+    
+    /**
+    * method: writeBuffer()
+    * purpose: Write the remaining bytes of some data to a vertex buffer at a
+    * given offset.
+    **/
+    public abstract void writeBuffer(int buffer, long offset, ByteBuffer data);
+    
+    /**
+    * method: readBuffer()
+    * purpose: Read the contents of a vertex buffer, starting at a given offset,
+    * into the remaining bytes of some data.
+    **/
+    public abstract void readBuffer(int buffer, long offset, ByteBuffer data);
+    
+    /**
+    * method: replaceBuffer()
+    * purpose: Replace the whole store of a vertex buffer with the remaining
+    * bytes of some data, changing its size.
+    **/
+    public abstract void replaceBuffer(int buffer, ByteBuffer data);
+    
+    /**
+    * method: deleteBuffer()
+    * purpose: Delete a vertex buffer.
+    **/
+    public abstract void deleteBuffer(int buffer);
+}
@@ -0,0 +1,166 @@
+/***************************************************************
+* file: RenderCommand.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class is one recorded draw call: the state it needs (pass,
+* texture, vertex layout, buffer and the origin of the buffer's positions)
+* and the ranges of vertices to draw. Commands are recorded into a
+* RenderCommandList, sorted by their sort key and then submitted to a
+* RenderBackend.
+*
+* Opaque commands are sorted by texture and vertex layout so that commands
+* sharing them are submitted together. Within the same texture and layout they
+* keep the order they were recorded in, which is front to back, and commands
+* of one buffer stay together since the ChunkArena records each buffer once
+* per opaque pass. Translucent commands must be drawn in the order they were
+* recorded (back to front), so their key is only the order they were recorded
+* in.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.Arrays;
+
+public class RenderCommand {
+    public static final int PASS_OPAQUE = 0;
+    public static final int PASS_TRANSLUCENT = 1;
+    private static final int INITIAL_RANGES = 16;
+    
+    private int pass;
+    private int texture;
+    private boolean packed;
+    private int buffer;
+    private float originX, originZ;
+    private long sortKey;
+    
+    // ranges of vertices to draw
+    private int[] firsts, counts;
+    private int numRanges;
+    
+    public RenderCommand() {
+        firsts = new int[INITIAL_RANGES];
+        counts = new int[INITIAL_RANGES];
+    }
+    
+    /**
+    * method: set()
+    * purpose: Set the state of this command and remove its ranges. The sequence
+    * is the number of commands recorded before this one in the frame.
+    **/
+    public void set(int pass, int texture, boolean packed, int buffer, float originX, float originZ, int sequence) {
+        this.pass = pass;
+        this.texture = texture;
+        this.packed = packed;
+        this.buffer = buffer;
+        this.originX = originX;
+        this.originZ = originZ;
+        numRanges = 0;
+        
+        // the pass is the highest bit, then texture and layout (only for opaque commands), then the sequence
+        long key = ((long) pass << 62) | sequence;
+        if (pass == PASS_OPAQUE) {
+            key |= ((long) (texture & 0x3FFFFF) << 40) | ((packed ? 1L : 0L) << 39);
+        }
+        sortKey = key;
+    }
+    
+    /**
+    * method: addRange()
+    * purpose: Add a range of vertices to draw.
+    **/
+    public void addRange(int first, int count) {
+        if (numRanges == firsts.length) {
+            firsts = Arrays.copyOf(firsts, numRanges * 2);
+            counts = Arrays.copyOf(counts, numRanges * 2);
+        }
+        firsts[numRanges] = first;
+        counts[numRanges] = count;
+        numRanges++;
+    }
+    
+    /**
+    * method: getPass()
+    * purpose: Returns PASS_OPAQUE or PASS_TRANSLUCENT.
+    **/
+    public int getPass() {
+        return pass;
+    }
+    
+    /**
+    * method: getTexture()
+    * purpose: Returns the texture to bind.
+    **/
+    public int getTexture() {
+        return texture;
+    }
+    
+    /**
+    * method: isPacked()
+    * purpose: Returns true if the buffer holds vertices in the packed layout.
+    **/
+    public boolean isPacked() {
+        return packed;
+    }
+    
+    /**
+    * method: getBuffer()
+    * purpose: Returns the handle of the vertex buffer to draw from.
+    **/
+    public int getBuffer() {
+        return buffer;
+    }
+    
+    /**
+    * method: getOriginX()
+    * purpose: Returns the x coordinate the vertex positions are relative to.
+    **/
+    public float getOriginX() {
+        return originX;
+    }
+    
+    /**
+    * method: getOriginZ()
+    * purpose: Returns the z coordinate the vertex positions are relative to.
+    **/
+    public float getOriginZ() {
+        return originZ;
+    }
+    
+    /**
+    * method: getSortKey()
+    * purpose: Returns the key the RenderCommandList sorts by.
+    **/
+    public long getSortKey() {
+        return sortKey;
+    }
+    
+    /**
+    * method: getFirsts()
+    * purpose: Returns the first vertex of each range. Only the first
+    * getNumRanges() entries are used.
+    **/
+    public int[] getFirsts() {
+        return firsts;
+    }
+    
+    /**
+    * method: getCounts()
+    * purpose: Returns the number of vertices of each range. Only the first
+    * getNumRanges() entries are used.
+    **/
+    public int[] getCounts() {
+        return counts;
+    }
+    
+    /**
+    * method: getNumRanges()
+    * purpose: Returns the number of ranges.
+    **/
+    public int getNumRanges() {
+        return numRanges;
+    }
+}
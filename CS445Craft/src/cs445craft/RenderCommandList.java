@@ -0,0 +1,82 @@
+/***************************************************************
+* file: RenderCommandList.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class holds the RenderCommands recorded by the Screen for one
+* frame. Commands are reused from frame to frame, so recording does not
+* allocate once the list has grown to the size of a frame. sort() orders the
+* commands by their sort key and submit() hands them to a RenderBackend.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+public class RenderCommandList {
+    private final List<RenderCommand> commands;
+    private final List<RenderCommand> recorded;
+    
+    public RenderCommandList() {
+        commands = new ArrayList<>();
+        recorded = new ArrayList<>();
+    }
+    
+    /**
+    * method: add()
+    * purpose: Record a command with the given state and no ranges. Returns the
+    * command so the caller can add its ranges.
+    **/
+    public RenderCommand add(int pass, int texture, boolean packed, int buffer, float originX, float originZ) {
+        int sequence = recorded.size();
+        if (sequence == commands.size()) {
+            commands.add(new RenderCommand());
+        }
+        RenderCommand command = commands.get(sequence);
+        command.set(pass, texture, packed, buffer, originX, originZ, sequence);
+        recorded.add(command);
+        return command;
+    }
+    
+    /**
+    * method: sort()
+    * purpose: Sort the recorded commands by their sort key. The sort is stable,
+    * so commands with the same key stay in the order they were recorded.
+    **/
+    public void sort() {
+        recorded.sort(Comparator.comparingLong(RenderCommand::getSortKey));
+    }
+    
+    /**
+    * method: submit()
+    * purpose: Hand the recorded commands to a backend in their current order.
+    **/
+    public void submit(RenderBackend backend) {
+        backend.begin();
+        for (int i = 0; i < recorded.size(); i++) {
+            backend.execute(recorded.get(i));
+        }
+        backend.end();
+    }
+    
+    /**
+    * method: clear()
+    * purpose: Remove the recorded commands. They are reused by add().
+    **/
+    public void clear() {
+        recorded.clear();
+    }
+    
+    /**
+    * method: size()
+    * purpose: Returns the number of recorded commands.
+    **/
+    public int size() {
+        return recorded.size();
+    }
+}
@@ -0,0 +1,171 @@
+/***************************************************************
+* file: RenderRegistry.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class holds the Drawable objects of the Screen and the list
+* of objects that are visible from the camera. Objects are kept in a hash set
+* so adding and removing them takes constant time.
+*
+* The visible list is only rebuilt by update(), which the Screen calls when the
+* camera has moved or turned far enough, or objects were added or removed.
+* Objects inside the frustum that the OcclusionCuller did not reach are left
+* out as well.
+* Instead of sorting, visible objects are put in buckets by their distance from
+* the camera in rings one ring width wide. The visible list holds the buckets
+* closest first, so opaque objects are drawn by walking the list forwards and
+* translucent objects by walking it backwards.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class RenderRegistry {
+    private final Set<Drawable> objects;
+    private final List<List<Drawable>> rings;
+    private final List<Drawable> visible;
+    private boolean changed;
+    private int numCulled, numOccluded;
+    
+    public RenderRegistry() {
+        objects = new LinkedHashSet<>();
+        rings = new ArrayList<>();
+        visible = new ArrayList<>();
+        changed = true;
+    }
+    
+    /**
+    * method: add()
+    * purpose: Add an object. Returns false if it was already added.
+    **/
+    public boolean add(Drawable object) {
+        if (!objects.add(object)) {
+            return false;
+        }
+        changed = true;
+        return true;
+    }
+    
+    /**
+    * method: addAll()
+    * purpose: Add a collection of objects. Objects that were already added are
+    * skipped.
+    **/
+    public void addAll(Collection<? extends Drawable> coll) {
+        for (Drawable object : coll) {
+            add(object);
+        }
+    }
+    
+    /**
+    * method: remove()
+    * purpose: Remove an object and deactivate it. Returns false if the object
+    * was not added.
+    **/
+    public boolean remove(Drawable object) {
+        if (!objects.remove(object)) {
+            return false;
+        }
+        object.deactivate();
+        changed = true;
+        return true;
+    }
+    
+    /**
+    * method: getChanged()
+    * purpose: Returns true if objects were added or removed since the last
+    * update().
+    **/
+    public boolean getChanged() {
+        return changed;
+    }
+    
+    /**
+    * method: update()
+    * purpose: Rebuild the visible list. Objects within the draw distance of a
+    * given x, z position are activated, the others are deactivated. Activated
+    * objects inside the frustum and reached by the occlusion culler (if it is
+    * not null) are added to the bucket of their ring.
+    **/
+    public void update(float x, float z, float drawDistance, float ringWidth, Frustum frustum, OcclusionCuller occlusion) {
+        for (List<Drawable> ring : rings) {
+            ring.clear();
+        }
+        numCulled = 0;
+        numOccluded = 0;
+        
+        for (Drawable object : objects) {
+            float distance = object.distanceTo(x, object.getY(), z);
+            if (distance > drawDistance) {
+                object.deactivate();
+                continue;
+            }
+            
+            object.activate();
+            if (!object.inFrustum(frustum)) {
+                numCulled++;
+                continue;
+            }
+            if (occlusion != null && !object.reachable(occlusion)) {
+                numOccluded++;
+                continue;
+            }
+            
+            int ring = (int) (distance / ringWidth);
+            while (rings.size() <= ring) {
+                rings.add(new ArrayList<>());
+            }
+            rings.get(ring).add(object);
+        }
+        
+        // closest ring first
+        visible.clear();
+        for (List<Drawable> ring : rings) {
+            visible.addAll(ring);
+        }
+        changed = false;
+    }
+    
+    /**
+    * method: getVisible()
+    * purpose: Returns the visible objects found by the last update(), closest
+    * ring first.
+    **/
+    public List<Drawable> getVisible() {
+        return visible;
+    }
+    
+    /**
+    * method: getNumCulled()
+    * purpose: Returns the number of objects within the draw distance that the
+    * last update() found outside the frustum.
+    **/
+    public int getNumCulled() {
+        return numCulled;
+    }
+    
+    /**
+    * method: getNumOccluded()
+    * purpose: Returns the number of objects inside the frustum that the last
+    * update() left out because the occlusion culler did not reach them.
+    **/
+    public int getNumOccluded() {
+        return numOccluded;
+    }
+    
+    /**
+    * method: size()
+    * purpose: Returns the number of objects.
+    **/
+    public int size() {
+        return objects.size();
+    }
+}
@@ -7,19 +7,29 @@
 * date last modified: 10/28/2017
 *
 * purpose: This class is responsible for managing the OpenGL window
-* and maintains a list of 'Drawable' objects that need to be
+* and maintains a RenderRegistry of 'Drawable' objects that need to be
 * rendered on each frame. It requires a Camera object so the lookThrough method
-* can be called.
+* can be called. Objects outside of the camera's view frustum are not drawn.
+* 
+* The objects to draw are only found again when the camera moves or turns past
+* a small margin, or objects are added or removed. The frustum is grown by the
+* same margin so nothing is missed in between.
+* 
+* Chunk sections that can't be seen through open space from the camera are
+* left out by an OcclusionCuller once the Screen is given the World.
+* 
+* Terrain past the draw distance is drawn by a LodTerrain once it is given
+* one, and the far plane is moved out to its distance.
+* 
+* Each frame the visible objects are recorded into a RenderCommandList, which
+* is sorted by state and submitted to a LwjglRenderBackend.
 * 
 ****************************************************************/
 package cs445craft;
 
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.LWJGLException;
 import org.lwjgl.opengl.Display;
@@ -28,11 +38,31 @@ import static org.lwjgl.opengl.GL11.*;
 import org.lwjgl.util.glu.GLU;
 
 public class Screen {
+    public static final int TARGET_FPS = 60;
     private static float DRAW_DIST = Chunk.CHUNK_S * Voxel.BLOCK_SIZE * 6.5f;
+    private static final float FIELD_OF_VIEW = 100.0f;
+    private static final float NEAR_PLANE = 0.05f;
+    
+    // how far the camera can turn (in degrees) or move before the visible objects are found again
+    private static final float VISIBLE_ANGLE_MARGIN = 5.0f;
+    private static final float VISIBLE_DISTANCE_MARGIN = 2 * Voxel.BLOCK_SIZE;
+    private static final float RING_WIDTH = Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
     private final int width, height;
     private float r, g, b;
     private final Camera camera;
-    private final List<Drawable> objects;
+    private final RenderRegistry objects;
+    private final AtlasShader atlasShader;
+    private final Frustum frustum;
+    private OcclusionCuller occlusion;
+    private LodTerrain lodTerrain;
+    private final RenderCommandList commands;
+    private final LwjglRenderBackend backend;
+    
+    // camera state and draw distance when the visible objects were last found
+    private float visibleX, visibleY, visibleZ, visibleYaw, visiblePitch, visibleDrawDist;
+    private boolean visibleStale;
+    private int numVisibleUpdates;
+    private long syncNanos;
     
     private FloatBuffer lightPosition;
     private FloatBuffer lightColor;
@@ -41,7 +71,12 @@ public class Screen {
         this.width = width;
         this.height = height;
         this.camera = camera;
-        objects = new ArrayList<>();
+        objects = new RenderRegistry();
+        frustum = new Frustum();
+        commands = new RenderCommandList();
+        backend = new LwjglRenderBackend();
+        ChunkArena.setBackend(backend);
+        visibleStale = true;
         r = 1.0f;
         g = 1.0f;
         b = 1.0f;
@@ -59,6 +94,9 @@ public class Screen {
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
         glFrontFace(GL_CW);
         
+        // chunk meshes are drawn with the atlas shader so merged faces can repeat a texture tile
+        atlasShader = new AtlasShader();
+        
         lightPosition = BufferUtils.createFloatBuffer(4);
         lightPosition.put(0).put((Chunk.CHUNK_H + 5) * Voxel.BLOCK_SIZE).put(0).put(1.0f).flip();
         lightColor = BufferUtils.createFloatBuffer(4);
@@ -80,9 +118,7 @@ public class Screen {
     * be drawn to the screen on each frame.
     **/
     public void addObject(Drawable object) {
-        if (!objects.contains(object)) {
-            objects.add(object);
-        }
+        objects.add(object);
     }
     
     /**
@@ -91,8 +127,15 @@ public class Screen {
     * Objects will be drawn to the screen on each frame.
     **/
     public void addObjects(Collection< ? extends Drawable> coll) {
-        Collection< ? extends Drawable> filtered = coll.stream().filter(object -> !objects.contains(object)).collect(Collectors.toList());
-        objects.addAll(filtered);
+        objects.addAll(coll);
+    }
+    
+    /**
+    * method: removeObject()
+    * purpose: remove an object so it will no longer be drawn.
+    **/
+    public void removeObject(Drawable object) {
+        objects.remove(object);
     }
     
     /**
@@ -115,6 +158,146 @@ public class Screen {
         DRAW_DIST += d;
     }
     
+    /**
+    * method: getDrawDistance()
+    * purpose: Returns the DRAW_DIST
+    **/
+    public float getDrawDistance() {
+        return DRAW_DIST;
+    }
+    
+    /**
+    * method: setWorld()
+    * purpose: Set the World whose chunk sections are walked by the occlusion
+    * culler.
+    **/
+    public void setWorld(World world) {
+        occlusion = new OcclusionCuller(world);
+        visibleStale = true;
+    }
+    
+    /**
+    * method: setLodTerrain()
+    * purpose: Set the LodTerrain that draws the terrain past the draw distance.
+    **/
+    public void setLodTerrain(LodTerrain lodTerrain) {
+        this.lodTerrain = lodTerrain;
+        visibleStale = true;
+    }
+    
+    /**
+    * method: getFarDistance()
+    * purpose: Returns the distance to the far plane, the draw distance or the
+    * distance of the LodTerrain if it is further.
+    **/
+    private float getFarDistance() {
+        if (lodTerrain == null) {
+            return DRAW_DIST;
+        }
+        return Math.max(DRAW_DIST, lodTerrain.getLodDistance());
+    }
+    
+    /**
+    * method: setOcclusionCulling()
+    * purpose: Turn occlusion culling on or off. Does nothing until the World
+    * is set.
+    **/
+    public void setOcclusionCulling(boolean enabled) {
+        if (occlusion != null) {
+            occlusion.setEnabled(enabled);
+            visibleStale = true;
+        }
+    }
+    
+    /**
+    * method: getOcclusionCulling()
+    * purpose: Returns true if occlusion culling is on.
+    **/
+    public boolean getOcclusionCulling() {
+        return occlusion != null && occlusion.getEnabled();
+    }
+    
+    /**
+    * method: getNumOccluded()
+    * purpose: Returns the number of objects inside the view frustum that could
+    * not be seen through open space when the visible objects were last found.
+    **/
+    public int getNumOccluded() {
+        return objects.getNumOccluded();
+    }
+    
+    /**
+    * method: getSectionsOccluded()
+    * purpose: Returns the number of chunk sections with faces inside the view
+    * frustum that could not be seen through open space when the visible
+    * objects were last found.
+    **/
+    public int getSectionsOccluded() {
+        return occlusion == null ? 0 : occlusion.getSectionsOccluded();
+    }
+    
+    /**
+    * method: setFrustumCulling()
+    * purpose: Turn view frustum culling on or off.
+    **/
+    public void setFrustumCulling(boolean enabled) {
+        frustum.setEnabled(enabled);
+        visibleStale = true;
+    }
+    
+    /**
+    * method: getFrustumCulling()
+    * purpose: Returns true if view frustum culling is on.
+    **/
+    public boolean getFrustumCulling() {
+        return frustum.getEnabled();
+    }
+    
+    /**
+    * method: getNumDrawn()
+    * purpose: Returns the number of objects within the draw distance and inside
+    * the view frustum when the visible objects were last found.
+    **/
+    public int getNumDrawn() {
+        return objects.getVisible().size();
+    }
+    
+    /**
+    * method: getNumCulled()
+    * purpose: Returns the number of objects within the draw distance that were
+    * outside the view frustum when the visible objects were last found.
+    **/
+    public int getNumCulled() {
+        return objects.getNumCulled();
+    }
+    
+    /**
+    * method: getNumVisibleUpdates()
+    * purpose: Returns the number of times the visible objects have been found
+    * since the program started.
+    **/
+    public int getNumVisibleUpdates() {
+        return numVisibleUpdates;
+    }
+    
+    /**
+    * method: getSectionsDrawn()
+    * purpose: Returns the number of chunk sections with faces inside the view
+    * frustum when the visible objects were last found.
+    **/
+    public int getSectionsDrawn() {
+        return frustum.getSectionsVisible();
+    }
+    
+    /**
+    * method: getSectionsCulled()
+    * purpose: Returns the number of chunk sections with faces outside the view
+    * frustum when the visible objects were last found.
+    **/
+    public int getSectionsCulled() {
+        return frustum.getSectionsCulled();
+    }
+    
     /**
     * method: drawFrame()
     * purpose: Draw one frame by looping through the list of Drawable objects
@@ -126,26 +309,44 @@ public class Screen {
         // render 2d hud objects
         render2D();
         
-        // update display and sync to 60 hz.
+        // update display and sync to 60 hz, timing the wait so the FrameGovernor can leave it out
         Display.update();
-        Display.sync(60);
+        long syncStart = System.nanoTime();
+        Display.sync(TARGET_FPS);
+        syncNanos = System.nanoTime() - syncStart;
+    }
+    
+    /**
+    * method: getSyncTime()
+    * purpose: Returns the time the last frame waited in Display.sync(), in
+    * nanoseconds.
+    **/
+    public long getSyncTime() {
+        return syncNanos;
     }
     
     /**
     * method: render3D()
     * purpose: Render 3D objects to the display. Rendering is a 4 step process.
     * 
-    * Step 1: setup OpenGL config, look through camera, etc.
+    * Step 1: setup OpenGL config, look through camera, etc. If needed, find the
+    *  objects within the draw distance that are inside the view frustum (see
+    *  updateVisibleObjects()).
     * 
-    * Step 2: Sort all opaque 3D objects within the draw distance. Sort order is
-    *  front to back, based on distance from the camera's x,y,z. After the sort,
-    *  render the objects to the screen.
+    * Step 2: Record the visible opaque 3D objects front to back, one ring of
+    *  distance from the camera at a time. Chunks only queue their sections, and
+    *  the ChunkArena records one command for each of its pages. The LodTerrain
+    *  tiles go last.
     * 
-    * Step 3: Sort all translucent 3D objects within the draw distance. Sort order
-    * is back to front, based on distance from the camera's x,y,z. After the sort,
-    * render the objects to the screen. Translucent objects must be rendered in
+    * Step 3: Record the visible translucent 3D objects back to front, one ring
+    * of distance from the camera at a time. Translucent objects must be rendered in
     * after the opaque objects, and must be rendered back to front. Otherwise there
-    * will be alpha blending artifacts
+    * will be alpha blending artifacts. The LodTerrain tiles are further away
+    * than the chunks, so they go first.
+    * 
+    * Step 4: Sort the commands and submit them to the backend. Opaque commands
+    *  are grouped by texture, layout and buffer, translucent commands keep the
+    *  order they were recorded in (see RenderCommand).
     **/
     private void render3D() {
         // setup 3d config
@@ -154,7 +355,7 @@ public class Screen {
         glDisable(GL_BLEND); // turn off alpha blending
         glMatrixMode(GL_PROJECTION); // setup projection matrix
         glLoadIdentity();
-        GLU.gluPerspective(100.0f, (float) width / (float) height, 0.05f, DRAW_DIST);
+        GLU.gluPerspective(FIELD_OF_VIEW, (float) width / (float) height, NEAR_PLANE, getFarDistance());
         glMatrixMode(GL_MODELVIEW);
         glHint(GL_PERSPECTIVE_CORRECTION_HINT, GL_NICEST);
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
@@ -173,33 +374,40 @@ public class Screen {
         glLight(GL_LIGHT0, GL_AMBIENT, lightColor);
         glEnable(GL_LIGHT0);
 
-        // 3d draw solid objects
-        // enable alpha test so we can cut out transparent parts of textures (like leaves or flowers)
-        glEnable(GL_ALPHA_TEST);
-        // sort opaque objects front to back
-        objects.sort(Comparator.comparing(object -> ((Drawable) object).distanceTo(camera.x, camera.y, camera.z)).reversed());
-        for (Drawable object: objects) {
-            if (object.distanceTo(camera.x, object.getY(), camera.z) <= DRAW_DIST) {
-                object.activate();
-                object.draw();
-            } else {
-                object.deactivate();
-            }
+        // find the objects within the draw distance and inside the view frustum
+        if (visibleObjectsStale()) {
+            updateVisibleObjects();
         }
-        glDisable(GL_ALPHA_TEST);
+        List<Drawable> visibleObjects = objects.getVisible();
+        ChunkArena.resetDrawStats();
+
+        commands.clear();
         
-        // 3d draw translucent objects
-        glEnable(GL_BLEND);
-        glDisable(GL_CULL_FACE);
-        glDepthMask(false);
-        // sort translucent objects back to front
-        objects.sort(Comparator.comparing(object -> object.distanceTo(camera.x, camera.y, camera.z)));
-        for (Drawable object: objects) {
-            if (object.distanceTo(camera.x, object.getY(), camera.z) <= DRAW_DIST) {
-                object.drawTranslucent();
-            }
+        // record opaque objects front to back, chunks are recorded together by the arena at the end of the pass
+        ChunkArena.beginPass(commands, RenderCommand.PASS_OPAQUE);
+        for (int i = 0; i < visibleObjects.size(); i++) {
+            visibleObjects.get(i).draw();
+        }
+        if (lodTerrain != null) {
+            lodTerrain.draw();
         }
-        glDepthMask(true);
+        ChunkArena.endPass();
+        
+        // record translucent objects back to front, keeping that order between arena pages
+        ChunkArena.beginPass(commands, RenderCommand.PASS_TRANSLUCENT);
+        if (lodTerrain != null) {
+            lodTerrain.drawTranslucent();
+        }
+        for (int i = visibleObjects.size() - 1; i >= 0; i--) {
+            visibleObjects.get(i).drawTranslucent();
+        }
+        ChunkArena.endPass();
+        
+        // 3d objects are drawn with the atlas shader, the backend sets up the state of each pass
+        commands.sort();
+        atlasShader.bind();
+        commands.submit(backend);
+        atlasShader.unbind();
         
         // 3d draw finish
         glPopMatrix();
@@ -209,6 +417,68 @@ public class Screen {
         glEnable(GL_BLEND);
     }
     
+    /**
+    * method: visibleObjectsStale()
+    * purpose: Returns true if the visible objects need to be found again: the
+    * camera entered another chunk, moved or turned past the margin, the draw
+    * distance changed, objects were added or removed, or LodTerrain tiles were
+    * added, removed or built. The occlusion culler
+    * also needs a new walk when the camera enters another section or the
+    * connectivity of a section changed.
+    **/
+    private boolean visibleObjectsStale() {
+        if (visibleStale || objects.getChanged() || DRAW_DIST != visibleDrawDist) {
+            return true;
+        }
+        if (lodTerrain != null && lodTerrain.getChanged()) {
+            return true;
+        }
+        if (occlusion != null && occlusion.isStale(camera.x, camera.y, camera.z)) {
+            return true;
+        }
+        
+        float chunkWidth = Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+        if (Math.floor(camera.x / chunkWidth) != Math.floor(visibleX / chunkWidth) || Math.floor(camera.z / chunkWidth) != Math.floor(visibleZ / chunkWidth)) {
+            return true;
+        }
+        
+        float dx = camera.x - visibleX;
+        float dy = camera.y - visibleY;
+        float dz = camera.z - visibleZ;
+        if (dx * dx + dy * dy + dz * dz > VISIBLE_DISTANCE_MARGIN * VISIBLE_DISTANCE_MARGIN) {
+            return true;
+        }
+        
+        // turning by yaw then pitch turns the view by at most the sum of the two
+        return Math.abs(camera.yaw - visibleYaw) + Math.abs(camera.pitch - visiblePitch) > VISIBLE_ANGLE_MARGIN;
+    }
+    
+    /**
+    * method: updateVisibleObjects()
+    * purpose: Rebuild the frustum, grown by the margins, walk the sections that
+    * can be seen through open space and find the visible objects. The camera
+    * state is saved for visibleObjectsStale().
+    **/
+    private void updateVisibleObjects() {
+        frustum.update(camera, FIELD_OF_VIEW, (float) width / (float) height, NEAR_PLANE, getFarDistance(), VISIBLE_ANGLE_MARGIN, VISIBLE_DISTANCE_MARGIN);
+        if (occlusion != null) {
+            occlusion.update(camera.x, camera.y, camera.z, frustum, DRAW_DIST);
+        }
+        objects.update(camera.x, camera.z, DRAW_DIST, RING_WIDTH, frustum, occlusion);
+        if (lodTerrain != null) {
+            lodTerrain.updateVisible(frustum, camera.x, camera.z);
+        }
+        
+        visibleX = camera.x;
+        visibleY = camera.y;
+        visibleZ = camera.z;
+        visibleYaw = camera.yaw;
+        visiblePitch = camera.pitch;
+        visibleDrawDist = DRAW_DIST;
+        visibleStale = false;
+        numVisibleUpdates++;
+    }
+    
     /**
     * method: render2D()
     * purpose: Render 2d objects to the display. Currently, this method just uses
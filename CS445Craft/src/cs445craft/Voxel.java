@@ -13,6 +13,8 @@
 ****************************************************************/
 package cs445craft;
 
+import java.nio.ByteOrder;
+
 public class Voxel {
     public static final int BLOCK_SIZE = 2;
     
@@ -23,6 +25,50 @@ public class Voxel {
     public static final int FACE_LEFT = 4;
     public static final int FACE_RIGHT = 5;
     
+    /*
+    Texture coordinates are written in atlas tile units instead of normalized
+    atlas coordinates. Each coordinate is TILE_STRIDE * tile + TILE_MARGIN plus
+    the position within the tile, which may be greater than 1 for merged faces.
+    The AtlasShader wraps the position within the tile so a tile repeats across
+    a merged face. TILE_MARGIN keeps interpolation error from crossing into the
+    neighboring tile.
+    */
+    public static final int ATLAS_TILES = 16;
+    public static final float TILE_STRIDE = 128.0f;
+    public static final float TILE_MARGIN = 1.0f;
+    
+    /*
+    The packed vertex layout is 8 bytes per vertex: x, y, z as shorts in fixed
+    point (PACKED_POSITION_SCALE units per OpenGL unit, enough to hold the cactus
+    and snow offsets exactly), then one byte for the atlas tile (row * 16 + column)
+    and one byte for the position within the tile (u in the high 4 bits, v in the
+    low 4 bits). Because u and v only have 4 bits, merged faces can be at most
+    MAX_PACKED_MERGE voxels wide or tall. The AtlasShader unpacks the vertices.
+    */
+    public static final int PACKED_POSITION_SCALE = 40;
+    public static final int MAX_PACKED_MERGE = 15;
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    
+    /*
+    Corners of each cube face in the order they are written. Each row is the
+    x, y, z direction of the corner from the center of the voxel, followed by the
+    u, v texture position within the tile.
+    */
+    private static final int[][][] FACE_CORNERS = {
+        // top
+        {{ 1,  1,  1, 1, 1}, {-1,  1,  1, 0, 1}, {-1,  1, -1, 0, 0}, { 1,  1, -1, 1, 0}},
+        // bottom
+        {{ 1, -1, -1, 1, 1}, {-1, -1, -1, 0, 1}, {-1, -1,  1, 0, 0}, { 1, -1,  1, 1, 0}},
+        // front
+        {{ 1,  1, -1, 0, 0}, {-1,  1, -1, 1, 0}, {-1, -1, -1, 1, 1}, { 1, -1, -1, 0, 1}},
+        // back
+        {{ 1, -1,  1, 1, 1}, {-1, -1,  1, 0, 1}, {-1,  1,  1, 0, 0}, { 1,  1,  1, 1, 0}},
+        // left
+        {{-1,  1, -1, 0, 0}, {-1,  1,  1, 1, 0}, {-1, -1,  1, 1, 1}, {-1, -1, -1, 0, 1}},
+        // right
+        {{ 1,  1,  1, 0, 0}, { 1,  1, -1, 1, 0}, { 1, -1, -1, 1, 1}, { 1, -1,  1, 0, 1}}
+    };
+    
     public static enum VoxelType {
         GRASS,
         SAND,
@@ -54,6 +100,21 @@ public class Voxel {
         SAND_STONE
     }
     
+    /*
+    The vertices of every face of every VoxelType are computed once and stored
+    back to back in one flat array, FLOATS_PER_FACE floats per face, indexed by
+    templateIndex(). Positions are relative to the center of the voxel, texture
+    coordinates are final. TEXTURE_TILES holds the atlas tile x, y of each face,
+    indexed by (ordinal * 6 + face) * 2.
+    */
+    private static final int FLOATS_PER_FACE = MeshBuffer.FLOATS_PER_FACE;
+    private static final float[] FACE_TEMPLATES = buildFaceTemplates();
+    private static final int[] TEXTURE_TILES = buildTextureTiles();
+    
+    // FACE_TEMPLATES converted to the packed layout, SHORTS_PER_FACE shorts per face
+    private static final int SHORTS_PER_FACE = MeshBuffer.SHORTS_PER_FACE;
+    private static final short[] PACKED_TEMPLATES = buildPackedTemplates();
+    
     /**
     * method: isTranslucent()
     * purpose: Check if a given VoxelType is translucent
@@ -140,6 +201,16 @@ public class Voxel {
         );
     }
     
+    /**
+    * method: isGreedyMeshable()
+    * purpose: Check if the faces of a given VoxelType can be merged with the
+    * faces of adjacent voxels of the same type. Cross types and partially
+    * transparent types are always drawn one face at a time.
+    **/
+    public static boolean isGreedyMeshable(VoxelType v) {
+        return !isCrossType(v) && !isPartiallyTransparent(v);
+    }
+    
     /**
     * method: breakIfSupportRemoved()
     * purpose: Check if a given VoxelType needs to be broken if its supporting
@@ -163,85 +234,252 @@ public class Voxel {
     * purpose: Write the vertices for a single face at a given x, y, z position
     * to a given float buffer. Note, the x,y,z coordinates are in OpenGL space
     * 
-    * This method checks if the Voxel is a cross type or not and calls the appropriate
-    * helper method.
+    * The face is copied from FACE_TEMPLATES with the x,y,z position added to
+    * each vertex, so nothing is allocated.
     **/
     public static void writeFaceVertices(float[] data, int writeIndex, int face, VoxelType voxelType, float x, float y, float z) {
-        if (isCrossType(voxelType)) {
-            writeFaceVerticesCross(data, writeIndex, face, voxelType, x, y, z);
-        } else {
-            writeFaceVerticesCube(data, writeIndex, face, voxelType, x, y, z);
+        int readIndex = templateIndex(voxelType, face);
+        for (int i = 0; i < 4; i++) {
+            data[writeIndex++] = x + FACE_TEMPLATES[readIndex++];
+            data[writeIndex++] = y + FACE_TEMPLATES[readIndex++];
+            data[writeIndex++] = z + FACE_TEMPLATES[readIndex++];
+            data[writeIndex++] = FACE_TEMPLATES[readIndex++];
+            data[writeIndex++] = FACE_TEMPLATES[readIndex++];
         }
     }
     
     /**
-    * method: writeFaceVerticesCross()
-    * purpose: Write the vertices for a single face at a given x, y, z position
-    * to a given float buffer. Checks which face is requested and calls the appropriate
-    * helper method. This method is for the cross type.
+    * method: writeMergedFaceVertices()
+    * purpose: Write the vertices for a rectangle of merged cube faces to a given
+    * float buffer. The x,y,z position is the center of the voxel with the lowest
+    * coordinates in the rectangle (in OpenGL space). The rectangle is w voxels
+    * wide along the face's texture u axis and h voxels tall along its texture v
+    * axis. The texture tile repeats once per voxel.
+    * 
+    * The u axis is x for the top, bottom, front, and back faces and z for the
+    * left and right faces. The v axis is z for the top and bottom faces and y for
+    * the others.
     **/
-    private static void writeFaceVerticesCross(float[] data, int writeIndex, int face, VoxelType voxelType, float x, float y, float z) {        
-        float[] vertices;
-        switch (face) {
-            case FACE_FRONT:
-                vertices = getFrontFaceCross(voxelType, x, y, z);
-                break;
-            case FACE_BACK:
-                vertices = getBackFaceCross(voxelType, x, y, z);
-                break;
-            case FACE_LEFT:
-                vertices = getLeftFaceCross(voxelType, x, y, z);
-                break;
-            case FACE_RIGHT:
-                vertices = getRightFaceCross(voxelType, x, y, z);
-                break;
-            default:
-                throw new RuntimeException("Unknown face");
+    public static void writeMergedFaceVertices(float[] data, int writeIndex, int face, VoxelType voxelType, float x, float y, float z, int w, int h) {
+        float s = ((float) Voxel.BLOCK_SIZE) / 2;
+        int tu = TEXTURE_TILES[(voxelType.ordinal() * 6 + face) * 2];
+        int tv = TEXTURE_TILES[(voxelType.ordinal() * 6 + face) * 2 + 1];
+        
+        // how far the far edges of the rectangle extend past the first voxel
+        float extendU = (w - 1) * Voxel.BLOCK_SIZE;
+        float extendV = (h - 1) * Voxel.BLOCK_SIZE;
+        boolean uAlongZ = face == FACE_LEFT || face == FACE_RIGHT;
+        boolean vAlongZ = face == FACE_TOP || face == FACE_BOTTOM;
+        
+        for (int[] corner: FACE_CORNERS[face]) {
+            float px = x + corner[0] * s;
+            float py = y + corner[1] * s;
+            float pz = z + corner[2] * s;
+            
+            if (uAlongZ) {
+                if (corner[2] > 0) pz += extendU;
+            } else {
+                if (corner[0] > 0) px += extendU;
+            }
+            
+            if (vAlongZ) {
+                if (corner[2] > 0) pz += extendV;
+            } else {
+                if (corner[1] > 0) py += extendV;
+            }
+            
+            data[writeIndex++] = px;
+            data[writeIndex++] = py;
+            data[writeIndex++] = pz;
+            data[writeIndex++] = textureCoord(tu, corner[3] * w);
+            data[writeIndex++] = textureCoord(tv, corner[4] * h);
         }
-        
-        System.arraycopy(vertices, 0, data, writeIndex, vertices.length);
     }
-
+    
     /**
-    * method: writeFaceVertices()
-    * purpose: Write the vertices for a single face at a given x, y, z position
-    * to a given float buffer. Checks which face is requested and calls the appropriate
-    * helper method. This method is for the cube type.
+    * method: writePackedFaceVertices()
+    * purpose: Write the vertices for a single face of the voxel at a given x, y, z
+    * index in a chunk to a given short buffer, using the packed layout.
     **/
-    private static void writeFaceVerticesCube(float[] data, int writeIndex, int face, VoxelType voxelType, float x, float y, float z) {
-        float[] vertices;
-        switch (face) {
-            case FACE_TOP:
-                vertices = getTopFace(voxelType, x, y, z);
-                break;
-            case FACE_BOTTOM:
-                vertices = getBottomFace(voxelType, x, y, z);
-                break;
-            case FACE_FRONT:
-                vertices = getFrontFace(voxelType, x, y, z);
-                break;
-            case FACE_BACK:
-                vertices = getBackFace(voxelType, x, y, z);
-                break;
-            case FACE_LEFT:
-                vertices = getLeftFace(voxelType, x, y, z);
-                break;
-            case FACE_RIGHT:
-                vertices = getRightFace(voxelType, x, y, z);
-                break;
-            default:
-                throw new RuntimeException("Unknown face");
+    public static void writePackedFaceVertices(short[] data, int writeIndex, int face, VoxelType voxelType, int x, int y, int z) {
+        int readIndex = (voxelType.ordinal() * 6 + face) * SHORTS_PER_FACE;
+        int step = Voxel.BLOCK_SIZE * PACKED_POSITION_SCALE;
+        int px = x * step;
+        int py = y * step;
+        int pz = z * step;
+        for (int i = 0; i < 4; i++) {
+            data[writeIndex++] = (short) (px + PACKED_TEMPLATES[readIndex++]);
+            data[writeIndex++] = (short) (py + PACKED_TEMPLATES[readIndex++]);
+            data[writeIndex++] = (short) (pz + PACKED_TEMPLATES[readIndex++]);
+            data[writeIndex++] = PACKED_TEMPLATES[readIndex++];
         }
-        
-        System.arraycopy(vertices, 0, data, writeIndex, vertices.length);
+    }
+    
+    /**
+    * method: writeMergedPackedFaceVertices()
+    * purpose: Same as writeMergedFaceVertices() but the position is the x, y, z
+    * index of the first voxel in the chunk and the vertices use the packed
+    * layout. w and h must not be greater than MAX_PACKED_MERGE.
+    **/
+    public static void writeMergedPackedFaceVertices(short[] data, int writeIndex, int face, VoxelType voxelType, int x, int y, int z, int w, int h) {
+        int s = Voxel.BLOCK_SIZE / 2 * PACKED_POSITION_SCALE;
+        int step = Voxel.BLOCK_SIZE * PACKED_POSITION_SCALE;
+        int tile = packedTile(voxelType, face);
+        
+        // how far the far edges of the rectangle extend past the first voxel
+        int extendU = (w - 1) * step;
+        int extendV = (h - 1) * step;
+        boolean uAlongZ = face == FACE_LEFT || face == FACE_RIGHT;
+        boolean vAlongZ = face == FACE_TOP || face == FACE_BOTTOM;
+        
+        for (int[] corner: FACE_CORNERS[face]) {
+            int px = x * step + corner[0] * s;
+            int py = y * step + corner[1] * s;
+            int pz = z * step + corner[2] * s;
+            
+            if (uAlongZ) {
+                if (corner[2] > 0) pz += extendU;
+            } else {
+                if (corner[0] > 0) px += extendU;
+            }
+            
+            if (vAlongZ) {
+                if (corner[2] > 0) pz += extendV;
+            } else {
+                if (corner[1] > 0) py += extendV;
+            }
+            
+            data[writeIndex++] = (short) px;
+            data[writeIndex++] = (short) py;
+            data[writeIndex++] = (short) pz;
+            data[writeIndex++] = packTexture(tile, corner[3] * w, corner[4] * h);
+        }
+    }
+    
+    /**
+    * method: packedTile()
+    * purpose: Returns the atlas tile of a given face of a VoxelType as it is
+    * stored in the packed layout.
+    **/
+    private static int packedTile(VoxelType voxelType, int face) {
+        int t = (voxelType.ordinal() * 6 + face) * 2;
+        return TEXTURE_TILES[t + 1] * ATLAS_TILES + TEXTURE_TILES[t];
+    }
+    
+    /**
+    * method: packTexture()
+    * purpose: Pack an atlas tile and a u, v position within the tile into the
+    * last short of a packed vertex. The tile byte must come first in memory, so
+    * the byte order of the short depends on the native byte order (the direct
+    * buffers uploaded to OpenGL use the native order).
+    **/
+    private static short packTexture(int tile, int u, int v) {
+        int uv = (u << 4) | v;
+        if (LITTLE_ENDIAN) {
+            return (short) (tile | (uv << 8));
+        }
+        return (short) ((tile << 8) | uv);
+    }
+    
+    /**
+    * method: templateIndex()
+    * purpose: Returns the index in FACE_TEMPLATES of a given face of a given
+    * VoxelType.
+    **/
+    private static int templateIndex(VoxelType voxelType, int face) {
+        return (voxelType.ordinal() * 6 + face) * FLOATS_PER_FACE;
+    }
+    
+    /**
+    * method: buildFaceTemplates()
+    * purpose: Build the FACE_TEMPLATES table from the face methods below. Cross
+    * types have no top or bottom face, those entries are left as zeros.
+    **/
+    private static float[] buildFaceTemplates() {
+        VoxelType[] types = VoxelType.values();
+        float[] templates = new float[types.length * 6 * FLOATS_PER_FACE];
+        for (VoxelType v: types) {
+            float[][] faces;
+            if (isCrossType(v)) {
+                faces = new float[][] {
+                    null,
+                    null,
+                    getFrontFaceCross(v),
+                    getBackFaceCross(v),
+                    getLeftFaceCross(v),
+                    getRightFaceCross(v)
+                };
+            } else {
+                faces = new float[][] {
+                    getTopFace(v),
+                    getBottomFace(v),
+                    getFrontFace(v),
+                    getBackFace(v),
+                    getLeftFace(v),
+                    getRightFace(v)
+                };
+            }
+            
+            for (int face = 0; face < 6; face++) {
+                if (faces[face] != null) {
+                    System.arraycopy(faces[face], 0, templates, templateIndex(v, face), FLOATS_PER_FACE);
+                }
+            }
+        }
+        return templates;
+    }
+    
+    /**
+    * method: buildPackedTemplates()
+    * purpose: Build the PACKED_TEMPLATES table by converting FACE_TEMPLATES to the
+    * packed layout.
+    **/
+    private static short[] buildPackedTemplates() {
+        VoxelType[] types = VoxelType.values();
+        short[] templates = new short[types.length * 6 * SHORTS_PER_FACE];
+        for (VoxelType type: types) {
+            for (int face = 0; face < 6; face++) {
+                // cross types have no top or bottom face
+                if (isCrossType(type) && (face == FACE_TOP || face == FACE_BOTTOM)) {
+                    continue;
+                }
+                
+                int tileX = TEXTURE_TILES[(type.ordinal() * 6 + face) * 2];
+                int tileY = TEXTURE_TILES[(type.ordinal() * 6 + face) * 2 + 1];
+                int readIndex = templateIndex(type, face);
+                int writeIndex = (type.ordinal() * 6 + face) * SHORTS_PER_FACE;
+                for (int i = 0; i < 4; i++) {
+                    templates[writeIndex++] = (short) Math.round(FACE_TEMPLATES[readIndex++] * PACKED_POSITION_SCALE);
+                    templates[writeIndex++] = (short) Math.round(FACE_TEMPLATES[readIndex++] * PACKED_POSITION_SCALE);
+                    templates[writeIndex++] = (short) Math.round(FACE_TEMPLATES[readIndex++] * PACKED_POSITION_SCALE);
+                    int u = Math.round(FACE_TEMPLATES[readIndex++] - textureCoord(tileX, 0));
+                    int v = Math.round(FACE_TEMPLATES[readIndex++] - textureCoord(tileY, 0));
+                    templates[writeIndex++] = packTexture(tileY * ATLAS_TILES + tileX, u, v);
+                }
+            }
+        }
+        return templates;
+    }
+    
+    /**
+    * method: buildTextureTiles()
+    * purpose: Build the TEXTURE_TILES table from getTextureCoords().
+    **/
+    private static int[] buildTextureTiles() {
+        VoxelType[] types = VoxelType.values();
+        int[] tiles = new int[types.length * 12];
+        for (VoxelType v: types) {
+            System.arraycopy(getTextureCoords(v), 0, tiles, v.ordinal() * 12, 12);
+        }
+        return tiles;
     }
     
     /**
     * method: getTopFace()
-    * purpose: Get the vertices of the top face of a given VoxelType at a given
-    * x,y,z location. This is for the cube shape.
+    * purpose: Get the vertices of the top face of a given VoxelType relative to
+    * the center of the voxel. This is for the cube shape.
     **/
-    private static float[] getTopFace(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getTopFace(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
         
         float e = 0.0f; //extra side offset (for things like cacti)
@@ -252,7 +490,6 @@ public class Voxel {
             h = Voxel.BLOCK_SIZE - 0.15f;
         }
         
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         // vertex, texture, vertex, texture...
@@ -261,26 +498,26 @@ public class Voxel {
             // color
             // texture
 
-            x + s, y + s - h, z + s,
-            offset*(t[0] + 1), offset*(t[1] + 1),
+            s, s - h, s,
+            textureCoord(t[0], 1), textureCoord(t[1], 1),
             
-            x - s, y + s - h, z + s,
-            offset*(t[0] + 0), offset*(t[1] + 1),
+            -s, s - h, s,
+            textureCoord(t[0], 0), textureCoord(t[1], 1),
             
-            x - s, y + s - h, z - s,
-            offset*(t[0] + 0), offset*(t[1] + 0),
+            -s, s - h, -s,
+            textureCoord(t[0], 0), textureCoord(t[1], 0),
             
-            x + s, y + s - h, z - s,
-            offset*(t[0] + 1), offset*(t[1] + 0)
+            s, s - h, -s,
+            textureCoord(t[0], 1), textureCoord(t[1], 0)
         };
     }
     
     /**
     * method: getBottomFace()
-    * purpose: Get the vertices of the bottom face of a given VoxelType at a given
-    * x,y,z location. This is for the cube shape.
+    * purpose: Get the vertices of the bottom face of a given VoxelType relative to
+    * the center of the voxel. This is for the cube shape.
     **/
-    private static float[] getBottomFace(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getBottomFace(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
         
         float e = 0.0f; //extra side offset (for things like cacti)
@@ -291,7 +528,6 @@ public class Voxel {
             h = Voxel.BLOCK_SIZE - 0.15f;
         }
         
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         
@@ -300,26 +536,26 @@ public class Voxel {
             // position
             // texture
 
-            x + s, y - s, z - s,
-            offset*(t[2] + 1), offset*(t[3] + 1),
+            s, -s, -s,
+            textureCoord(t[2], 1), textureCoord(t[3], 1),
             
-            x - s, y - s, z - s,
-            offset*(t[2] + 0), offset*(t[3] + 1),
+            -s, -s, -s,
+            textureCoord(t[2], 0), textureCoord(t[3], 1),
             
-            x - s, y - s, z + s,
-            offset*(t[2] + 0), offset*(t[3] + 0),
+            -s, -s, s,
+            textureCoord(t[2], 0), textureCoord(t[3], 0),
             
-            x + s, y - s, z + s,
-            offset*(t[2] + 1), offset*(t[3] + 0),
+            s, -s, s,
+            textureCoord(t[2], 1), textureCoord(t[3], 0),
         };
     }
     
     /**
     * method: getFrontFace()
-    * purpose: Get the vertices of the front face of a given VoxelType at a given
-    * x,y,z location. This is for the cube shape.
+    * purpose: Get the vertices of the front face of a given VoxelType relative to
+    * the center of the voxel. This is for the cube shape.
     **/
-    private static float[] getFrontFace(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getFrontFace(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
         
         float e = 0.0f; //extra side offset (for things like cacti)
@@ -330,7 +566,6 @@ public class Voxel {
             h = Voxel.BLOCK_SIZE - 0.15f;
         }
         
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         
@@ -338,26 +573,26 @@ public class Voxel {
         return new float[] {
             // position
             // texture
-            x + s, y + s - h, z - s + e,
-            offset*(t[4] + 0), offset*(t[5] + 0),
+            s, s - h, -s + e,
+            textureCoord(t[4], 0), textureCoord(t[5], 0),
             
-            x - s, y + s - h, z - s + e,
-            offset*(t[4] + 1), offset*(t[5] + 0),
+            -s, s - h, -s + e,
+            textureCoord(t[4], 1), textureCoord(t[5], 0),
             
-            x - s, y - s, z - s + e,
-            offset*(t[4] + 1), offset*(t[5] + 1),
+            -s, -s, -s + e,
+            textureCoord(t[4], 1), textureCoord(t[5], 1),
             
-            x + s, y - s, z - s + e,
-            offset*(t[4] + 0), offset*(t[5] + 1),
+            s, -s, -s + e,
+            textureCoord(t[4], 0), textureCoord(t[5], 1),
         };
     }
     
     /**
     * method: getBackFace()
-    * purpose: Get the vertices of the back face of a given VoxelType at a given
-    * x,y,z location. This is for the cube shape.
+    * purpose: Get the vertices of the back face of a given VoxelType relative to
+    * the center of the voxel. This is for the cube shape.
     **/
-    private static float[] getBackFace(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getBackFace(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
         
         float e = 0.0f; //extra side offset (for things like cacti)
@@ -368,7 +603,6 @@ public class Voxel {
             h = Voxel.BLOCK_SIZE - 0.15f;
         }
         
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         
@@ -377,26 +611,26 @@ public class Voxel {
             // position
             // texture
 
-            x + s, y - s, z + s - e,
-            offset*(t[6] + 1), offset*(t[7] + 1),
+            s, -s, s - e,
+            textureCoord(t[6], 1), textureCoord(t[7], 1),
             
-            x - s, y - s, z + s - e,
-            offset*(t[6] + 0), offset*(t[7] + 1),
+            -s, -s, s - e,
+            textureCoord(t[6], 0), textureCoord(t[7], 1),
             
-            x - s, y + s - h, z + s - e,
-            offset*(t[6] + 0), offset*(t[7] + 0),
+            -s, s - h, s - e,
+            textureCoord(t[6], 0), textureCoord(t[7], 0),
             
-            x + s, y + s - h, z + s - e,
-            offset*(t[6] + 1), offset*(t[7] + 0)
+            s, s - h, s - e,
+            textureCoord(t[6], 1), textureCoord(t[7], 0)
         };
     }
     
     /**
     * method: getLeftFace()
-    * purpose: Get the vertices of the left face of a given VoxelType at a given
-    * x,y,z location. This is for the cube shape.
+    * purpose: Get the vertices of the left face of a given VoxelType relative to
+    * the center of the voxel. This is for the cube shape.
     **/
-    private static float[] getLeftFace(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getLeftFace(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
         
         float e = 0.0f; //extra side offset (for things like cacti)
@@ -407,7 +641,6 @@ public class Voxel {
             h = Voxel.BLOCK_SIZE - 0.15f;
         }
         
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         
@@ -416,26 +649,26 @@ public class Voxel {
             // position
             // texture
 
-            x - s + e, y + s - h, z - s,
-            offset*(t[8] + 0), offset*(t[9] + 0),
+            -s + e, s - h, -s,
+            textureCoord(t[8], 0), textureCoord(t[9], 0),
             
-            x - s + e, y + s - h, z + s,
-            offset*(t[8] + 1), offset*(t[9] + 0),
+            -s + e, s - h, s,
+            textureCoord(t[8], 1), textureCoord(t[9], 0),
             
-            x - s + e, y - s, z + s,
-            offset*(t[8] + 1), offset*(t[9] + 1),
+            -s + e, -s, s,
+            textureCoord(t[8], 1), textureCoord(t[9], 1),
             
-            x - s + e, y - s, z - s,
-            offset*(t[8] + 0), offset*(t[9] + 1)
+            -s + e, -s, -s,
+            textureCoord(t[8], 0), textureCoord(t[9], 1)
         };
     }
     
     /**
     * method: getRightFace()
-    * purpose: Get the vertices of the right face of a given VoxelType at a given
-    * x,y,z location. This is for the cube shape.
+    * purpose: Get the vertices of the right face of a given VoxelType relative to
+    * the center of the voxel. This is for the cube shape.
     **/
-    private static float[] getRightFace(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getRightFace(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
         
         float e = 0.0f; //extra side offset (for things like cacti)
@@ -446,7 +679,6 @@ public class Voxel {
             h = Voxel.BLOCK_SIZE - 0.15f;
         }
         
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         
@@ -455,30 +687,29 @@ public class Voxel {
             // position
             // texture
 
-            x + s - e, y + s - h, z + s,
-            offset*(t[10] + 0), offset*(t[11] + 0),
+            s - e, s - h, s,
+            textureCoord(t[10], 0), textureCoord(t[11], 0),
             
-            x + s - e, y + s - h, z - s,
-            offset*(t[10] + 1), offset*(t[11] + 0),
+            s - e, s - h, -s,
+            textureCoord(t[10], 1), textureCoord(t[11], 0),
             
-            x + s - e, y - s, z - s,
-            offset*(t[10] + 1), offset*(t[11] + 1),
+            s - e, -s, -s,
+            textureCoord(t[10], 1), textureCoord(t[11], 1),
             
-            x + s - e, y - s, z + s,
-            offset*(t[10] + 0), offset*(t[11] + 1)
+            s - e, -s, s,
+            textureCoord(t[10], 0), textureCoord(t[11], 1)
         };
     }
     
     
     /**
     * method: getFrontFace()
-    * purpose: Get the vertices of the front face of a given VoxelType at a given
-    * x,y,z location. This is for the cross shape.
+    * purpose: Get the vertices of the front face of a given VoxelType relative to
+    * the center of the voxel. This is for the cross shape.
     **/
-    private static float[] getFrontFaceCross(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getFrontFaceCross(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
 
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         
@@ -486,26 +717,26 @@ public class Voxel {
         return new float[] {
             // position
             // texture
-            x + s, y + s, z,
-            offset*(t[4] + 0), offset*(t[5] + 0),
+            s, s, 0,
+            textureCoord(t[4], 0), textureCoord(t[5], 0),
             
-            x - s, y + s, z,
-            offset*(t[4] + 1), offset*(t[5] + 0),
+            -s, s, 0,
+            textureCoord(t[4], 1), textureCoord(t[5], 0),
             
-            x - s, y - s, z,
-            offset*(t[4] + 1), offset*(t[5] + 1),
+            -s, -s, 0,
+            textureCoord(t[4], 1), textureCoord(t[5], 1),
             
-            x + s, y - s, z,
-            offset*(t[4] + 0), offset*(t[5] + 1),
+            s, -s, 0,
+            textureCoord(t[4], 0), textureCoord(t[5], 1),
         };
     }
     
     /**
     * method: getBackFaceCross()
-    * purpose: Get the vertices of the back face of a given VoxelType at a given
-    * x,y,z location. This is for the cross shape.
+    * purpose: Get the vertices of the back face of a given VoxelType relative to
+    * the center of the voxel. This is for the cross shape.
     **/
-    private static float[] getBackFaceCross(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getBackFaceCross(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
         
         float e = 0.0f; //extra side offset (for things like cacti)
@@ -516,7 +747,6 @@ public class Voxel {
             h = Voxel.BLOCK_SIZE - 0.15f;
         }
         
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         
@@ -525,26 +755,26 @@ public class Voxel {
             // position
             // texture
 
-            x + s, y - s, z,
-            offset*(t[6] + 1), offset*(t[7] + 1),
+            s, -s, 0,
+            textureCoord(t[6], 1), textureCoord(t[7], 1),
             
-            x - s, y - s, z,
-            offset*(t[6] + 0), offset*(t[7] + 1),
+            -s, -s, 0,
+            textureCoord(t[6], 0), textureCoord(t[7], 1),
             
-            x - s, y + s, z,
-            offset*(t[6] + 0), offset*(t[7] + 0),
+            -s, s, 0,
+            textureCoord(t[6], 0), textureCoord(t[7], 0),
             
-            x + s, y + s, z,
-            offset*(t[6] + 1), offset*(t[7] + 0)
+            s, s, 0,
+            textureCoord(t[6], 1), textureCoord(t[7], 0)
         };
     }
     
     /**
     * method: getLeftFaceCross()
-    * purpose: Get the vertices of the left face of a given VoxelType at a given
-    * x,y,z location. This is for the cross shape.
+    * purpose: Get the vertices of the left face of a given VoxelType relative to
+    * the center of the voxel. This is for the cross shape.
     **/
-    private static float[] getLeftFaceCross(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getLeftFaceCross(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
         
         float e = 0.0f; //extra side offset (for things like cacti)
@@ -555,7 +785,6 @@ public class Voxel {
             h = Voxel.BLOCK_SIZE - 0.15f;
         }
         
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         
@@ -564,26 +793,26 @@ public class Voxel {
             // position
             // texture
 
-            x, y + s, z - s,
-            offset*(t[8] + 0), offset*(t[9] + 0),
+            0, s, -s,
+            textureCoord(t[8], 0), textureCoord(t[9], 0),
             
-            x, y + s, z + s,
-            offset*(t[8] + 1), offset*(t[9] + 0),
+            0, s, s,
+            textureCoord(t[8], 1), textureCoord(t[9], 0),
             
-            x, y - s, z + s,
-            offset*(t[8] + 1), offset*(t[9] + 1),
+            0, -s, s,
+            textureCoord(t[8], 1), textureCoord(t[9], 1),
             
-            x, y - s, z - s,
-            offset*(t[8] + 0), offset*(t[9] + 1)
+            0, -s, -s,
+            textureCoord(t[8], 0), textureCoord(t[9], 1)
         };
     }
     
     /**
     * method: getRightFaceCross()
-    * purpose: Get the vertices of the right face of a given VoxelType at a given
-    * x,y,z location. This is for the cross shape.
+    * purpose: Get the vertices of the right face of a given VoxelType relative to
+    * the center of the voxel. This is for the cross shape.
     **/
-    private static float[] getRightFaceCross(VoxelType voxelType, float x, float y, float z) {
+    private static float[] getRightFaceCross(VoxelType voxelType) {
         float s = ((float) Voxel.BLOCK_SIZE) / 2;
         
         float e = 0.0f; //extra side offset (for things like cacti)
@@ -594,7 +823,6 @@ public class Voxel {
             h = Voxel.BLOCK_SIZE - 0.15f;
         }
         
-        float offset = (2048f/16)/2048f;
         int[] t = getTextureCoords(voxelType);
         
         
@@ -603,20 +831,29 @@ public class Voxel {
             // position
             // texture
 
-            x, y + s, z + s,
-            offset*(t[10] + 0), offset*(t[11] + 0),
+            0, s, s,
+            textureCoord(t[10], 0), textureCoord(t[11], 0),
             
-            x, y + s, z - s,
-            offset*(t[10] + 1), offset*(t[11] + 0),
+            0, s, -s,
+            textureCoord(t[10], 1), textureCoord(t[11], 0),
             
-            x, y - s, z - s,
-            offset*(t[10] + 1), offset*(t[11] + 1),
+            0, -s, -s,
+            textureCoord(t[10], 1), textureCoord(t[11], 1),
             
-            x, y - s, z + s,
-            offset*(t[10] + 0), offset*(t[11] + 1)
+            0, -s, s,
+            textureCoord(t[10], 0), textureCoord(t[11], 1)
         };
     }
     
+    /**
+    * method: textureCoord()
+    * purpose: Translate an atlas tile and a position within that tile to the
+    * texture coordinate format used by the AtlasShader.
+    **/
+    private static float textureCoord(int tile, float position) {
+        return tile * TILE_STRIDE + TILE_MARGIN + position;
+    }
+    
     /**
     * method: getTextureCoords()
     * purpose: Get the x and y texture coordinates for each face of a given VoxelType.
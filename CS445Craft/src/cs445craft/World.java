@@ -10,29 +10,36 @@
 * been created and has useful methods for traversing chunk boundaries
 * and translating OpenGL coordinates to voxel grid coordinates.
 * 
+* Chunks are looked up by their i and j index in a ChunkTable, which the
+* MeshBuilder threads may read while the main thread adds chunks. Each chunk
+* also links to its 8 horizontal neighbors (see Chunk.getNeighbor()), so
+* crossing a chunk border doesn't need a lookup at all. Chunks are added and
+* removed on the main thread. A new chunk is linked to its neighbors before
+* they are linked to it and before it is added to the table, so any thread
+* that can reach it sees all of its links.
+* 
 ****************************************************************/
 package cs445craft;
 
 import static cs445craft.Chunk.CHUNK_S;
 import cs445craft.Voxel.VoxelType;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 public class World {    
     private final List<Chunk> chunksList;
-    private final Map<Integer, Map<Integer, Chunk>> chunks;
-    private final Map<Chunk, Integer> chunkToIndexI;
-    private final Map<Chunk, Integer> chunkToIndexJ;
+    private final ChunkTable chunks;
+    
+    // chunks whose blocks were edited since the last call to drainEditedChunks()
+    private final Set<Chunk> editedChunks;
     
     public World() {
         chunksList = new ArrayList<>();
-        chunks = new HashMap<>();        
-        chunkToIndexI = new HashMap<>();
-        chunkToIndexJ = new HashMap<>();
+        chunks = new ChunkTable();
+        editedChunks = new LinkedHashSet<>();
     }
     
     /**
@@ -40,13 +47,67 @@ public class World {
     * purpose: Add a chunk to the world.
     **/
     public void addChunk(Chunk chunk) {
+        for (int xDir = -1; xDir <= 1; xDir++) {
+            for (int zDir = -1; zDir <= 1; zDir++) {
+                if (xDir != 0 || zDir != 0) {
+                    chunk.setNeighbor(xDir, zDir, getChunk(chunk.indexI + xDir, chunk.indexJ + zDir));
+                }
+            }
+        }
+        for (int xDir = -1; xDir <= 1; xDir++) {
+            for (int zDir = -1; zDir <= 1; zDir++) {
+                Chunk neighbor = chunk.getNeighbor(xDir, zDir);
+                if ((xDir != 0 || zDir != 0) && neighbor != null) {
+                    neighbor.setNeighbor(-xDir, -zDir, chunk);
+                }
+            }
+        }
         chunksList.add(chunk);
-        if (chunks.get(chunk.indexI) == null) {
-            chunks.put(chunk.indexI, new HashMap<>());
+        chunks.put(chunk);
+    }
+    
+    /**
+    * method: removeChunk()
+    * purpose: Remove a chunk from the world and unlink it from its neighbors.
+    * Threads that still hold the chunk can read its blocks, but its neighbors
+    * no longer lead to it. Edits to the chunk that were not drained yet are
+    * forgotten.
+    **/
+    public void removeChunk(Chunk chunk) {
+        if (chunks.get(chunk.indexI, chunk.indexJ) != chunk) {
+            return;
+        }
+        chunks.remove(chunk.indexI, chunk.indexJ);
+        chunksList.remove(chunk);
+        editedChunks.remove(chunk);
+        for (int xDir = -1; xDir <= 1; xDir++) {
+            for (int zDir = -1; zDir <= 1; zDir++) {
+                Chunk neighbor = chunk.getNeighbor(xDir, zDir);
+                if ((xDir != 0 || zDir != 0) && neighbor != null) {
+                    neighbor.setNeighbor(-xDir, -zDir, null);
+                    chunk.setNeighbor(xDir, zDir, null);
+                }
+            }
         }
-        chunks.get(chunk.indexI).put(chunk.indexJ, chunk);
-        chunkToIndexI.put(chunk, chunk.indexI);
-        chunkToIndexJ.put(chunk, chunk.indexJ);
+    }
+    
+    /**
+    * method: markEdited()
+    * purpose: Record that the blocks of a chunk were edited so its mesh is
+    * rebuilt at high priority. Must be called on the main thread.
+    **/
+    public void markEdited(Chunk chunk) {
+        editedChunks.add(chunk);
+    }
+    
+    /**
+    * method: drainEditedChunks()
+    * purpose: Move the chunks edited since the last call to a given collection.
+    * Each chunk is only moved once, no matter how many times it was edited.
+    **/
+    public void drainEditedChunks(Collection<Chunk> out) {
+        out.addAll(editedChunks);
+        editedChunks.clear();
     }
     
     /**
@@ -54,10 +115,7 @@ public class World {
     * purpose: lookup the chunk at a given i and j index
     **/
     public Chunk getChunk(int i, int j) {
-        if (chunks.get(i) == null) {
-            return null;
-        }
-        return chunks.get(i).get(j);
+        return chunks.get(i, j);
     }
     
     /**
@@ -73,44 +131,7 @@ public class World {
     * purpose: return the chunk adjacent to a given chunk in a given direction
     **/
     public Chunk findAdjacentChunk(Chunk thisChunk, int xDir, int zDir) {
-        Integer i = chunkToIndexI.get(thisChunk);
-        Integer j = chunkToIndexJ.get(thisChunk);
-        if (i == null || j == null) {
-            return null;
-        }
-        
-        if (xDir < 0)
-            i--;
-        else if (xDir > 0)
-            i++;
-        
-        if (zDir < 0)
-            j--;
-        else if (zDir > 0)
-            j++;
-        
-        return getChunk(i, j);
-    }
-    
-    /**
-    * method: findAllAdjacentChunks()
-    * purpose: return all adjacent chunks to a given chunk
-    **/
-    public Set<Chunk> findAllAdjacentChunks(Chunk c) {
-        Set<Chunk> adjacent = new HashSet<>();
-        Integer i = chunkToIndexI.get(c);
-        Integer j = chunkToIndexJ.get(c);
-        if (i == null || j == null) {
-            return adjacent;
-        }
-        
-        adjacent.add(getChunk(i - 1, j));
-        adjacent.add(getChunk(i + 1, j));
-        adjacent.add(getChunk(i, j - 1));
-        adjacent.add(getChunk(i, j + 1));
-        adjacent.remove(null);
-        
-        return adjacent;
+        return thisChunk.getNeighbor(Integer.signum(xDir), Integer.signum(zDir));
     }
     
     /**
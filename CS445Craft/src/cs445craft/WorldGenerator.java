@@ -8,7 +8,13 @@
 *
 * purpose: This class is responsible for generating new chunks
 * using SimplexNoise and java.util.Random. It supports four biomes,
-* various plants, ores, water, and caverns.
+* various plants, ores, water, and caverns. Chunks saved in the
+* ChunkStore are loaded instead of generated (see fillChunk()).
+* 
+* The ores and plants of a chunk are placed with a Random of its own, seeded
+* from the world seed and the chunk's i and j index (see chunkSeed()). A chunk
+* is the same whatever order chunks are generated in, and any number of
+* threads can generate chunks at the same time.
 * 
 ****************************************************************/
 package cs445craft;
@@ -16,10 +22,13 @@ package cs445craft;
 import cs445craft.Voxel.VoxelType;
 import static cs445craft.Chunk.CHUNK_H;
 import static cs445craft.Chunk.CHUNK_S;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import java.lang.management.ThreadMXBean;
 import java.lang.management.ManagementFactory;
@@ -48,7 +57,9 @@ public class WorldGenerator {
     private static final int NOISE_FACTOR_REGION_HEIGHT = 7;
 
     private final int initialSize;
-    private final Random rand;
+    private final int seed;
+    // saved chunks, null if the world is not saved
+    private final ChunkStore chunkStore;
     
     private final SimplexNoise noiseGenLocalHeight;
     private final SimplexNoise noiseGenBlockType;
@@ -65,8 +76,13 @@ public class WorldGenerator {
     }
     
     public WorldGenerator(int seed, int initialSize) {
+        this(seed, initialSize, null);
+    }
+    
+    public WorldGenerator(int seed, int initialSize, ChunkStore chunkStore) {
         this.initialSize = initialSize;
-        this.rand = new Random();
+        this.chunkStore = chunkStore;
+        this.seed = seed;
         
         noiseGenLocalHeight = new SimplexNoise(Chunk.CHUNK_S * 5, 0.30, seed);
         noiseGenRegionHeight = new SimplexNoise(Chunk.CHUNK_S * 10, 0.25, seed + 1);
@@ -90,7 +106,7 @@ public class WorldGenerator {
         for (int i = 0; i < initialSize; i++) {
             for (int j = 0; j < initialSize; j++) {
                 Chunk c = new Chunk(world, i, j);
-                fillChunkGenerateRandom(c);
+                fillChunk(c);
                 world.addChunk(c);
             }
         }
@@ -98,8 +114,7 @@ public class WorldGenerator {
         // rebuild all the meshes
         world.getChunks().forEach(chunk -> {
             chunk.setGenerated();
-            chunk.rebuildMesh();
-            chunk.copyMeshToVBO();
+            chunk.copyMeshToVBO(chunk.rebuildMesh());
         });
         
         return world;
@@ -159,6 +174,25 @@ public class WorldGenerator {
         return noiseGen.getNoise(x + NOISE_OFFSET_X, y, z + NOISE_OFFSET_Z);
     }
     
+    /**
+    * method: fillChunk()
+    * purpose: Fill a given chunk with the blocks saved in the ChunkStore, or
+    * generate it if it is not saved. A chunk that can't be read is generated
+    * as well.
+    **/
+    public void fillChunk(Chunk chunk) {
+        if (chunkStore != null) {
+            try {
+                if (chunkStore.load(chunk)) {
+                    return;
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(WorldGenerator.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+        fillChunkGenerateRandom(chunk);
+    }
+    
     /**
     * method: fillChunkGenerateRandom()
     * purpose: fill a given chunk with randomly generated voxel data. Since all
@@ -178,19 +212,66 @@ public class WorldGenerator {
         performance.
         */
         VoxelType[][][] blocks = new VoxelType[CHUNK_H][CHUNK_S][CHUNK_S];
+        Random rand = new Random(chunkSeed(chunk.indexI, chunk.indexJ));
         
         // generate heights and biome for each xz position
         int[][] cellHeights = new int[CHUNK_S][CHUNK_S];
         Biome[][] biomes = new Biome[CHUNK_S][CHUNK_S];
-        for (int x = 0; x < CHUNK_S; x++) {
-            for (int z = 0; z < CHUNK_S; z++) {
+        generateColumns(chunk.indexI, chunk.indexJ, 0, 0, 1, CHUNK_S, CHUNK_S, cellHeights, biomes);
+        
+        // loop over each vertical layer in this chunk
+        for (int y = 0; y < CHUNK_H - WORLD_HEADROOM; y++) {
+            if (y < BEDROCK_HEIGHT) {
+                // lowest layer is bedrock
+                generateFlatLayer(blocks, y, VoxelType.BEDROCK);
+            } else if (y < BEDROCK_HEIGHT + ROCK_LAYER_HEIGHT) {
+                // middle layers are rocky
+                generateRockLayer(chunk, blocks, y, rand);
+            } else {
+                // upper layers
+                generateUpperLayer(chunk, blocks, y, cellHeights, biomes, rand);
+            }
+            // yeild incase other threads need to do something important
+            Thread.yield();
+        }
+        
+        // once all the layers are generated, copy the data and mark the chunk as generated
+        chunk.copyBlocks(blocks, 0, CHUNK_S, 0, CHUNK_H, 0, CHUNK_S);
+        chunk.setGenerated();
+        if (Chunk.getDebugOutput()) {
+            System.out.println("Generated " + chunk.indexI + "," + chunk.indexJ + " in " + (threadTimer.getCurrentThreadCpuTime() - start) / 1000000000.0);
+        }
+    }
+    
+    /**
+    * method: chunkSeed()
+    * purpose: Returns the seed of the Random used to generate the chunk at a
+    * given i and j index. The world seed and the index are mixed so that
+    * neighboring chunks get unrelated seeds.
+    **/
+    private long chunkSeed(int indexI, int indexJ) {
+        long h = ChunkTable.key(indexI, indexJ) ^ seed * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+    
+    /**
+    * method: generateColumns()
+    * purpose: Compute the height of the top voxel and the biome of columns of
+    * the chunk at a given i and j index. Columns are sampled every step voxels
+    * starting at the local startX, startZ position, countX by countZ of them.
+    **/
+    private void generateColumns(int indexI, int indexJ, int startX, int startZ, int step, int countX, int countZ, int[][] cellHeights, Biome[][] biomes) {
+        for (int x = 0; x < countX; x++) {
+            for (int z = 0; z < countZ; z++) {
                 // computer x and z coords for the noise generator
-                int noiseX = x + chunk.indexI * CHUNK_S;
-                int noiseZ = z + chunk.indexJ * CHUNK_S;
+                int noiseX = startX + x * step + indexI * CHUNK_S;
+                int noiseZ = startZ + z * step + indexJ * CHUNK_S;
                 
                 // compute local and region height factors
                 double localHeightNoise = getNoise2d(noiseGenLocalHeight, noiseX, noiseZ) * NOISE_FACTOR_LOCAL_HEIGHT;
-                double regionHeightNoise = 1 + getNoise2d(noiseGenRegionHeight, chunk.indexI, chunk.indexJ) * NOISE_FACTOR_REGION_HEIGHT;
+                double regionHeightNoise = 1 + getNoise2d(noiseGenRegionHeight, indexI, indexJ) * NOISE_FACTOR_REGION_HEIGHT;
                 
                 // multiply height factors
                 double combinedHeightNoise = Math.abs(NOISE_FACTOR_HEIGHT * localHeightNoise * regionHeightNoise);
@@ -237,27 +318,40 @@ public class WorldGenerator {
                 }
             }
         }
-        
-        // loop over each vertical layer in this chunk
-        for (int y = 0; y < CHUNK_H - WORLD_HEADROOM; y++) {
-            if (y < BEDROCK_HEIGHT) {
-                // lowest layer is bedrock
-                generateFlatLayer(blocks, y, VoxelType.BEDROCK);
-            } else if (y < BEDROCK_HEIGHT + ROCK_LAYER_HEIGHT) {
-                // middle layers are rocky
-                generateRockLayer(chunk, blocks, y);
-            } else {
-                // upper layers
-                generateUpperLayer(chunk, blocks, y, cellHeights, biomes);
+    }
+    
+    /**
+    * method: sampleSurface()
+    * purpose: Compute the height and VoxelType of the top voxel of columns of
+    * the chunk at a given i and j index without generating the chunk (see
+    * generateColumns()). Caverns and foliage are left out. Used for distant
+    * terrain, any number of threads can sample at the same time.
+    **/
+    public void sampleSurface(int indexI, int indexJ, int startX, int startZ, int step, int countX, int countZ, int[][] heights, VoxelType[][] types) {
+        Biome[][] biomes = new Biome[countX][countZ];
+        generateColumns(indexI, indexJ, startX, startZ, step, countX, countZ, heights, biomes);
+        for (int x = 0; x < countX; x++) {
+            for (int z = 0; z < countZ; z++) {
+                switch (biomes[x][z]) {
+                    default:
+                    case NORMAL:
+                        types[x][z] = VoxelType.GRASS;
+                        break;
+                    case WINTER:
+                        types[x][z] = VoxelType.ICE_GRASS;
+                        break;
+                    case DESERT:
+                        types[x][z] = VoxelType.SAND;
+                        break;
+                    case OCEAN:
+                        // the same choice as generateCellOceanBiome()
+                        int noiseX = startX + x * step + indexI * CHUNK_S;
+                        int noiseZ = startZ + z * step + indexJ * CHUNK_S;
+                        types[x][z] = getNoise2d(noiseGenBlockType, noiseX, noiseZ) > 0.45 ? VoxelType.SAND : VoxelType.WATER;
+                        break;
+                }
             }
-            // yeild incase other threads need to do something important
-            Thread.yield();
         }
-        
-        // once all the layers are generated, copy the data and mark the chunk as generated
-        chunk.copyBlocks(blocks, 0, CHUNK_S, 0, CHUNK_H, 0, CHUNK_S);
-        chunk.setGenerated();
-        System.out.println("Generated " + chunk.indexI + "," + chunk.indexJ + " in " + (threadTimer.getCurrentThreadCpuTime() - start) / 1000000000.0);
     }
     
     /**
@@ -274,10 +368,10 @@ public class WorldGenerator {
     * method: generateRockLayer()
     * purpose: generate a rocky underground layer
     **/
-    private void generateRockLayer(Chunk chunk, VoxelType[][][] blocks, int y) {
+    private void generateRockLayer(Chunk chunk, VoxelType[][][] blocks, int y, Random rand) {
         for (int x = 0; x < CHUNK_S; x++) {
             for (int z = 0; z < CHUNK_S; z++) {
-                generateRockLayerSingle(chunk, blocks, x, y, z);
+                generateRockLayerSingle(chunk, blocks, x, y, z, rand);
             }
         }
     }
@@ -288,7 +382,7 @@ public class WorldGenerator {
     * determine if this cell should be open space. Use Random() to generate ore
     * veins.
     **/
-    private void generateRockLayerSingle(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z) {
+    private void generateRockLayerSingle(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z, Random rand) {
         int noiseX = x + chunk.indexI * CHUNK_S;
         int noiseZ = z + chunk.indexJ * CHUNK_S;
         double noise = (getNoise3d(noiseGenCavern, noiseX, y, noiseZ) + 1) / 2;
@@ -298,13 +392,13 @@ public class WorldGenerator {
             blocks[y][x][z] = VoxelType.STONE;
             
             if (y < DIAMOND_MAX_HEIGHT && rand.nextDouble() < DIAMOND_RATE)
-                generateOreVein(blocks, x, y, z, VoxelType.DIAMOND);
+                generateOreVein(blocks, x, y, z, VoxelType.DIAMOND, rand);
             if (y < GOLD_MAX_HEIGHT && rand.nextDouble() < GOLD_RATE) 
-                generateOreVein(blocks, x, y, z, VoxelType.GOLD);
+                generateOreVein(blocks, x, y, z, VoxelType.GOLD, rand);
             if (rand.nextDouble() < IRON_RATE)
-                generateOreVein(blocks, x, y, z, VoxelType.IRON);
+                generateOreVein(blocks, x, y, z, VoxelType.IRON, rand);
             if (rand.nextDouble() < COAL_RATE) 
-                generateOreVein(blocks, x, y, z, VoxelType.COAL);
+                generateOreVein(blocks, x, y, z, VoxelType.COAL, rand);
         }
     }
     
@@ -313,7 +407,7 @@ public class WorldGenerator {
     * purpose: generate an upper layer. Use the boiomes array to choose which
     * helper method to call.
     **/
-    private void generateUpperLayer(Chunk chunk, VoxelType[][][] blocks, int y, int[][] cellHeights, Biome[][] biomes) {
+    private void generateUpperLayer(Chunk chunk, VoxelType[][][] blocks, int y, int[][] cellHeights, Biome[][] biomes, Random rand) {
         for (int x = 0; x < CHUNK_S; x++) {
             for (int z = 0; z < CHUNK_S; z++) {
                 if (y > cellHeights[x][z]) {
@@ -326,21 +420,21 @@ public class WorldGenerator {
                 }
                 
                 if (y < rockyCutoff) {
-                    generateRockLayerSingle(chunk, blocks, x, y, z);
+                    generateRockLayerSingle(chunk, blocks, x, y, z, rand);
                 } else {
                     switch (biomes[x][z]) {
                         default:
                         case NORMAL:
-                            generateCellNormalBiome(chunk, blocks, x, y, z, cellHeights[x][z], rockyCutoff);
+                            generateCellNormalBiome(chunk, blocks, x, y, z, cellHeights[x][z], rockyCutoff, rand);
                             break;
                         case WINTER:
-                            generateCellWinterBiome(chunk, blocks, x, y, z, cellHeights[x][z], rockyCutoff);
+                            generateCellWinterBiome(chunk, blocks, x, y, z, cellHeights[x][z], rockyCutoff, rand);
                             break;
                         case OCEAN:
-                            generateCellOceanBiome(chunk, blocks, x, y, z, cellHeights[x][z], rockyCutoff);
+                            generateCellOceanBiome(chunk, blocks, x, y, z, cellHeights[x][z], rockyCutoff, rand);
                             break;
                         case DESERT:
-                            generateCellDesertBiome(chunk, blocks, x, y, z, cellHeights[x][z], rockyCutoff);
+                            generateCellDesertBiome(chunk, blocks, x, y, z, cellHeights[x][z], rockyCutoff, rand);
                             break;
                     }
                 }
@@ -352,7 +446,7 @@ public class WorldGenerator {
     * method: generateCellNormalBiome()
     * purpose: generate a single cell of the normal biome
     **/
-    private void generateCellNormalBiome(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z, int cellHeight, int rockyCutoff) {
+    private void generateCellNormalBiome(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z, int cellHeight, int rockyCutoff, Random rand) {
         boolean openSpace = false;
         int noiseX = x + chunk.indexI * CHUNK_S;
         int noiseZ = z + chunk.indexJ * CHUNK_S;
@@ -367,7 +461,7 @@ public class WorldGenerator {
             if (y == cellHeight) {
                 // top layer
                 blocks[y][x][z] = VoxelType.GRASS;
-                geterateGrassFoliage(blocks, x, y, z);
+                geterateGrassFoliage(blocks, x, y, z, rand);
             } else {
                 blocks[y][x][z] = VoxelType.DIRT;
             }
@@ -378,7 +472,7 @@ public class WorldGenerator {
     * method: generateCellWinterBiome()
     * purpose: generate a single cell of the winter biome
     **/
-    private void generateCellWinterBiome(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z, int cellHeight, int rockyCutoff) {
+    private void generateCellWinterBiome(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z, int cellHeight, int rockyCutoff, Random rand) {
         boolean openSpace = false;
         int noiseX = x + chunk.indexI * CHUNK_S;
         int noiseZ = z + chunk.indexJ * CHUNK_S;
@@ -403,13 +497,13 @@ public class WorldGenerator {
                     } else {
                         blocks[y][x][z] = VoxelType.ICE_GRASS;
                         blocks[y+1][x][z] = VoxelType.SNOW;
-                        generateWinterFoliage(blocks, x, y, z);
+                        generateWinterFoliage(blocks, x, y, z, rand);
                     }
                 } else {
                     // high top layer
                     blocks[y][x][z] = VoxelType.ICE_GRASS;
                     blocks[y+1][x][z] = VoxelType.SNOW;
-                    generateWinterFoliage(blocks, x, y, z);
+                    generateWinterFoliage(blocks, x, y, z, rand);
                 }
             } else {
                 blocks[y][x][z] = VoxelType.DIRT;
@@ -421,14 +515,14 @@ public class WorldGenerator {
     * method: generateCellOceanBiome()
     * purpose: generate a single cell of the ocean biome
     **/
-    private void generateCellOceanBiome(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z, int cellHeight, int rockyCutoff) {
+    private void generateCellOceanBiome(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z, int cellHeight, int rockyCutoff, Random rand) {
         int noiseX = x + chunk.indexI * CHUNK_S;
         int noiseZ = z + chunk.indexJ * CHUNK_S;
         double v = getNoise2d(noiseGenBlockType, noiseX, noiseZ);
         if (v > 0.45) {
             blocks[y][x][z] = VoxelType.SAND;
             if (y == cellHeight) {
-                generateWetSandFoliage(blocks, x, y, z); 
+                generateWetSandFoliage(blocks, x, y, z, rand);
             }
         } else {
             if (y == cellHeight) {
@@ -443,10 +537,10 @@ public class WorldGenerator {
     * method: generateCellDesertBiome()
     * purpose: generate a single cell of the desert biome
     **/
-    private void generateCellDesertBiome(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z, int cellHeight, int rockyCutoff) {
+    private void generateCellDesertBiome(Chunk chunk, VoxelType[][][] blocks, int x, int y, int z, int cellHeight, int rockyCutoff, Random rand) {
         blocks[y][x][z] = VoxelType.SAND;
         if (y == cellHeight) {
-            generateDesertFoliage(blocks, x, y, z);
+            generateDesertFoliage(blocks, x, y, z, rand);
         }
     }
     
@@ -454,7 +548,7 @@ public class WorldGenerator {
     * method: generateOreVein()
     * purpose: generate an ore vein at a given x,y,z location.
     **/
-    private void generateOreVein(VoxelType[][][] blocks, int x, int y, int z, VoxelType v) {
+    private void generateOreVein(VoxelType[][][] blocks, int x, int y, int z, VoxelType v, Random rand) {
         int length = rand.nextInt(ORE_VEIN_MAX - ORE_VEIN_MIN + 1) + ORE_VEIN_MIN;
         int[] coords = new int[length * 3];
         
@@ -492,7 +586,7 @@ public class WorldGenerator {
     * method: geterateGrassFoliage()
     * purpose: use Random() to sometimes add foliage to a given x, y, z position
     **/
-    private void geterateGrassFoliage(VoxelType[][][] blocks, int x, int y, int z) {
+    private void geterateGrassFoliage(VoxelType[][][] blocks, int x, int y, int z, Random rand) {
         if (rand.nextDouble() < 0.05) 
             blocks[y+1][x][z] = VoxelType.TALL_GRASS;
         if (rand.nextDouble() < 0.0040)
@@ -513,7 +607,7 @@ public class WorldGenerator {
     * method: generateWetSandFoliage()
     * purpose: use Random() to sometimes add reeds to a given x, y, z position
     **/
-    private void generateWetSandFoliage(VoxelType[][][] blocks, int x, int y, int z) {
+    private void generateWetSandFoliage(VoxelType[][][] blocks, int x, int y, int z, Random rand) {
         if (rand.nextDouble() < 0.005) {
             // generate reeds
             int max = 5;
@@ -529,7 +623,7 @@ public class WorldGenerator {
     * method: generateWetSandFoliage()
     * purpose: use Random() to add snow and sometimes trees to a given x, y, z position
     **/
-    private void generateWinterFoliage(VoxelType[][][] blocks, int x, int y, int z) {
+    private void generateWinterFoliage(VoxelType[][][] blocks, int x, int y, int z, Random rand) {
         blocks[y+1][x][z] = VoxelType.SNOW;
         if (rand.nextDouble() < 0.0015)
             generateTree(blocks, x, y + 1, z, true);
@@ -539,7 +633,7 @@ public class WorldGenerator {
     * method: generateDesertFoliage()
     * purpose: use Random() to add cacti to a given x, y, z position
     **/
-    private void generateDesertFoliage(VoxelType[][][] blocks, int x, int y, int z) {
+    private void generateDesertFoliage(VoxelType[][][] blocks, int x, int y, int z, Random rand) {
         if (rand.nextDouble() < 0.001) {
             // generate caci
             int max = 6;
@@ -0,0 +1,131 @@
+/***************************************************************
+* file: BiomeVertexBenchmark.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This program compares the vertices the mesher writes per chunk
+* with greedy meshing off and on, for each biome. It generates chunks spread
+* over a square of the world, classifies each by the surface the
+* WorldGenerator samples for it and meshes it both ways. A chunk belongs to a
+* biome if at least two thirds of its columns do; chunks with no such biome
+* are left out. Sand columns count as ocean in chunks that also have water and
+* as desert otherwise. The arguments are [radius] [seed]: the chunks are
+* sampled every SPACING chunks from -radius to radius - 1 along i and j, 7 and
+* seed 42 by default.
+*
+****************************************************************/
+package cs445craft;
+
+import cs445craft.Voxel.VoxelType;
+import cs445craft.WorldGenerator.Biome;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class BiomeVertexBenchmark {
+    // chunks are sampled this many chunks apart, so neighbouring samples differ
+    private static final int SPACING = 7;
+    private static final int VERTICES_PER_FACE = 4;
+    
+    /**
+    * method: main
+    * purpose: Mesh the sampled chunks both ways and print the average
+    * vertices per chunk of each biome.
+    **/
+    public static void main(String[] args) {
+        int[] values = Harness.intArgs("BiomeVertexBenchmark", args, "[radius] [seed]", 7, 42);
+        int radius = values[0];
+        int seed = values[1];
+        WorldGenerator generator = new WorldGenerator(seed, 0);
+        World world = generator.getOrGenerate();
+        boolean greedy = Chunk.getGreedyMeshing();
+        
+        // per biome: chunks, vertices per face, vertices greedy
+        Map<Biome, long[]> totals = new EnumMap<>(Biome.class);
+        for (int i = -radius; i < radius; i++) {
+            for (int j = -radius; j < radius; j++) {
+                Chunk chunk = new Chunk(world, i * SPACING, j * SPACING);
+                Biome biome = classify(generator, chunk);
+                if (biome == null) {
+                    continue;
+                }
+                generator.fillChunkGenerateRandom(chunk);
+                long[] total = totals.computeIfAbsent(biome, b -> new long[3]);
+                total[0]++;
+                Chunk.setGreedyMeshing(false);
+                total[1] += countVertices(chunk);
+                Chunk.setGreedyMeshing(true);
+                total[2] += countVertices(chunk);
+            }
+        }
+        Chunk.setGreedyMeshing(greedy);
+        
+        System.out.printf("seed %d, %d x %d chunks sampled%n", seed, 2 * radius, 2 * radius);
+        System.out.println("  biome    chunks   vertices/chunk per face -> greedy");
+        for (Map.Entry<Biome, long[]> entry : totals.entrySet()) {
+            long[] total = entry.getValue();
+            System.out.printf("  %-7s  %6d   %,10d -> %,10d  (%.0f%%)%n", entry.getKey(), total[0],
+                total[1] / total[0], total[2] / total[0], 100.0 * total[2] / total[1]);
+        }
+    }
+    
+    /**
+    * method: classify()
+    * purpose: Returns the biome of at least two thirds of a chunk's columns,
+    * or null if there is none.
+    **/
+    private static Biome classify(WorldGenerator generator, Chunk chunk) {
+        int[][] heights = new int[Chunk.CHUNK_S][Chunk.CHUNK_S];
+        VoxelType[][] types = new VoxelType[Chunk.CHUNK_S][Chunk.CHUNK_S];
+        generator.sampleSurface(chunk.indexI, chunk.indexJ, 0, 0, 1, Chunk.CHUNK_S, Chunk.CHUNK_S, heights, types);
+        
+        int normal = 0, winter = 0, sand = 0, water = 0;
+        for (int x = 0; x < Chunk.CHUNK_S; x++) {
+            for (int z = 0; z < Chunk.CHUNK_S; z++) {
+                switch (types[x][z]) {
+                    case GRASS:
+                        normal++;
+                        break;
+                    case ICE_GRASS:
+                        winter++;
+                        break;
+                    case SAND:
+                        sand++;
+                        break;
+                    case WATER:
+                        water++;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        
+        int needed = Chunk.CHUNK_S * Chunk.CHUNK_S * 2 / 3;
+        if (normal >= needed) {
+            return Biome.NORMAL;
+        } else if (winter >= needed) {
+            return Biome.WINTER;
+        } else if (water > 0 && sand + water >= needed) {
+            return Biome.OCEAN;
+        } else if (sand >= needed) {
+            return Biome.DESERT;
+        }
+        return null;
+    }
+    
+    /**
+    * method: countVertices()
+    * purpose: Build the mesh of a chunk and return the number of opaque and
+    * translucent vertices in it. The mesh is not uploaded.
+    **/
+    private static long countVertices(Chunk chunk) {
+        chunk.setDirty();
+        ChunkMesh mesh = chunk.rebuildMesh();
+        long faces = mesh.getTotalFaces(false) + mesh.getTotalFaces(true);
+        mesh.release();
+        return faces * VERTICES_PER_FACE;
+    }
+}
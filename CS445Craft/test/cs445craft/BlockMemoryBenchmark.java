@@ -0,0 +1,70 @@
+/***************************************************************
+* file: BlockMemoryBenchmark.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This program measures the heap used by the blocks of generated
+* chunks. It generates a number of chunks, measures the heap they use after a
+* garbage collection, then copies their blocks into VoxelType[y][x][z] arrays,
+* the way chunks held them before BlockStorage, and measures those too. The
+* arguments are [chunks] [seed], 1000 chunks and seed 42 by default, which
+* need a heap of about 2 GB (-Xmx2g).
+*
+****************************************************************/
+package cs445craft;
+
+import cs445craft.Voxel.VoxelType;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockMemoryBenchmark {
+    // chunks are generated in rows of this many chunks
+    private static final int ROW_CHUNKS = 40;
+    
+    /**
+    * method: main
+    * purpose: Generate the chunks, copy their blocks to arrays and print the
+    * heap used by each.
+    **/
+    public static void main(String[] args) {
+        int[] values = Harness.intArgs("BlockMemoryBenchmark", args, "[chunks] [seed]", 1000, 42);
+        int numChunks = values[0];
+        int seed = values[1];
+        WorldGenerator generator = new WorldGenerator(seed, 0);
+        World world = generator.getOrGenerate();
+        
+        long before = Harness.usedHeap();
+        List<Chunk> chunks = new ArrayList<>();
+        long estimated = 0;
+        for (int n = 0; n < numChunks; n++) {
+            Chunk chunk = new Chunk(world, n % ROW_CHUNKS, n / ROW_CHUNKS);
+            generator.fillChunkGenerateRandom(chunk);
+            chunks.add(chunk);
+            estimated += chunk.getBlockMemoryUsage();
+        }
+        long chunkBytes = Harness.usedHeap() - before;
+        
+        before = Harness.usedHeap();
+        List<VoxelType[][][]> arrays = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            VoxelType[][][] blocks = new VoxelType[Chunk.CHUNK_H][Chunk.CHUNK_S][Chunk.CHUNK_S];
+            for (int y = 0; y < Chunk.CHUNK_H; y++) {
+                for (int x = 0; x < Chunk.CHUNK_S; x++) {
+                    for (int z = 0; z < Chunk.CHUNK_S; z++) {
+                        blocks[y][x][z] = chunk.blockAt(x, y, z);
+                    }
+                }
+            }
+            arrays.add(blocks);
+        }
+        long arrayBytes = Harness.usedHeap() - before;
+        
+        System.out.printf("%d chunks, seed %d%n", chunks.size(), seed);
+        System.out.printf("  Chunk objects     %8.1f MB heap (%6.1f KB each)%n", chunkBytes / 1e6, chunkBytes / 1e3 / numChunks);
+        System.out.printf("  BlockStorage      %8.1f MB estimated (%6.1f KB each)%n", estimated / 1e6, estimated / 1e3 / numChunks);
+        System.out.printf("  VoxelType[][][]   %8.1f MB heap (%6.1f KB each, %d arrays)%n", arrayBytes / 1e6, arrayBytes / 1e3 / numChunks, arrays.size());
+    }
+}
@@ -0,0 +1,240 @@
+/***************************************************************
+* file: ChunkStoreBenchmark.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This program measures saving and loading chunks with the
+* ChunkStore in a temporary directory. It generates a square of chunks, saves
+* them, loads them back into new chunks (after warming the page cache) and
+* reports the time per chunk, the bytes on disk and whether the loaded chunks
+* equal the originals. It then rewrites chunks many times to check that the
+* region files don't grow, breaks a block and checks that the edit survives
+* reopening the store. Last, it walks out and back along a row of chunks,
+* unloading chunks with a ChunkResidency the way the Game does, and counts how
+* many of the chunks created again were loaded instead of generated. The
+* arguments are [size] [rewrites] [walk], 16 x 16 chunks, 2000 rewrites and a
+* 60 chunk walk by default. Exits with status 1 if a check fails.
+*
+****************************************************************/
+package cs445craft;
+
+import cs445craft.Voxel.VoxelType;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ChunkStoreBenchmark {
+    private static final int SEED = 42;
+    private static final int WARMUP_LOADS = 3;
+    // chunks around the walker that are kept, like the Game's keep distance
+    private static final int WALK_KEEP_DISTANCE = 3;
+    private static final int WALK_UNLOAD_MARGIN = 2;
+    
+    /**
+    * method: main
+    * purpose: Run the measurements and checks in a temporary directory and
+    * delete it afterwards.
+    **/
+    public static void main(String[] args) throws IOException {
+        int[] values = Harness.intArgs("ChunkStoreBenchmark", args, "[size] [rewrites] [walk]", 16, 2000, 60);
+        
+        File directory = Files.createTempDirectory("cs445craft").toFile();
+        try {
+            saveAndLoad(new File(directory, "square"), values[0], values[1]);
+            walk(new File(directory, "walk"), values[2]);
+        } finally {
+            deleteDirectory(directory);
+        }
+        Harness.finish();
+    }
+    
+    /**
+    * method: saveAndLoad()
+    * purpose: Time generating, saving and loading size x size chunks, then
+    * rewrite and edit them. Prints the results and checks that the loaded
+    * chunks are equal, that rewrites don't grow the files and that the edit is
+    * kept.
+    **/
+    private static void saveAndLoad(File directory, int size, int rewrites) throws IOException {
+        WorldGenerator generator = new WorldGenerator(SEED, 0);
+        World world = generator.getOrGenerate();
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                chunks.add(new Chunk(world, i - size / 2, j - size / 2));
+            }
+        }
+        int n = chunks.size();
+        
+        long start = System.nanoTime();
+        for (Chunk chunk : chunks) {
+            generator.fillChunkGenerateRandom(chunk);
+        }
+        long generateNanos = System.nanoTime() - start;
+        
+        ChunkStore store = new ChunkStore(directory);
+        start = System.nanoTime();
+        for (Chunk chunk : chunks) {
+            store.save(chunk);
+        }
+        long saveNanos = System.nanoTime() - start;
+        store.close();
+        long fileBytes = directoryBytes(directory);
+        long rawBytes = 0;
+        for (Chunk chunk : chunks) {
+            rawBytes += chunk.writeBlocks().length;
+        }
+        
+        for (int round = 0; round < WARMUP_LOADS; round++) {
+            store = new ChunkStore(directory);
+            for (Chunk chunk : chunks) {
+                store.load(new Chunk(world, chunk.indexI, chunk.indexJ));
+            }
+            store.close();
+        }
+        store = new ChunkStore(directory);
+        List<Chunk> loaded = new ArrayList<>();
+        start = System.nanoTime();
+        for (Chunk chunk : chunks) {
+            Chunk copy = new Chunk(world, chunk.indexI, chunk.indexJ);
+            store.load(copy);
+            loaded.add(copy);
+        }
+        long loadNanos = System.nanoTime() - start;
+        boolean equal = true;
+        for (int k = 0; k < n; k++) {
+            equal &= Arrays.equals(chunks.get(k).writeBlocks(), loaded.get(k).writeBlocks());
+        }
+        
+        // rewriting chunks reuses their sectors, so the files stay the same size
+        long beforeRewrites = directoryBytes(directory);
+        for (int r = 0; r < rewrites; r++) {
+            store.save(loaded.get(r % n));
+        }
+        long afterRewrites = directoryBytes(directory);
+        
+        // break the top block of a column and reopen the store
+        Chunk edited = loaded.get(0);
+        int y = Chunk.CHUNK_H - 1;
+        while (y > 0 && edited.blockAt(3, y, 3) == null) {
+            y--;
+        }
+        VoxelType broken = edited.blockAt(3, y, 3);
+        edited.breakBlock(3, y, 3);
+        store.save(edited);
+        store.close();
+        store = new ChunkStore(directory);
+        Chunk reopened = new Chunk(world, edited.indexI, edited.indexJ);
+        store.load(reopened);
+        store.close();
+        boolean editKept = reopened.blockAt(3, y, 3) == null;
+        
+        System.out.printf("%d chunks: generate %.2f ms/chunk, save %.2f ms/chunk, load %.2f ms/chunk%n", n,
+            generateNanos / 1e6 / n, saveNanos / 1e6 / n, loadNanos / 1e6 / n);
+        System.out.printf("  %d KB of blocks, %d KB on disk (%.1f KB/chunk), loaded chunks equal: %b%n",
+            rawBytes >> 10, fileBytes >> 10, fileBytes / 1024.0 / n, equal);
+        System.out.printf("  %d rewrites: %d KB -> %d KB on disk%n", rewrites, beforeRewrites >> 10, afterRewrites >> 10);
+        System.out.printf("  broke %s at 3,%d,3 of chunk %d,%d, kept after reopening: %b%n", broken, y, edited.indexI, edited.indexJ, editKept);
+        Harness.check("loaded chunks equal the saved chunks", equal);
+        Harness.check("bytes on disk after rewrites", afterRewrites, beforeRewrites);
+        Harness.check("edit kept after reopening", editKept);
+    }
+    
+    /**
+    * method: walk()
+    * purpose: Walk a given number of chunks along i and back, creating the
+    * chunks within WALK_KEEP_DISTANCE of the walker and unloading the chunks
+    * the ChunkResidency picks. Unloaded chunks are saved and chunks created
+    * again are loaded. Prints how many chunks were loaded and checks that an
+    * edit made at the start survived the walk.
+    **/
+    private static void walk(File directory, int length) throws IOException {
+        WorldGenerator generator = new WorldGenerator(SEED, 0);
+        World world = generator.getOrGenerate();
+        ChunkStore store = new ChunkStore(directory);
+        ChunkResidency residency = new ChunkResidency(WALK_UNLOAD_MARGIN, Integer.MAX_VALUE);
+        List<Chunk> unloaded = new ArrayList<>();
+        
+        Chunk start = new Chunk(world, 0, 0);
+        generator.fillChunkGenerateRandom(start);
+        world.addChunk(start);
+        int y = Chunk.CHUNK_H - 1;
+        while (y > 0 && start.blockAt(5, y, 5) == null) {
+            y--;
+        }
+        start.breakBlock(5, y, 5);
+        
+        int created = 0, loaded = 0;
+        for (int step = 0; step <= 2 * length; step++) {
+            int chunkI = step <= length ? step : 2 * length - step;
+            for (int i = chunkI - WALK_KEEP_DISTANCE; i <= chunkI + WALK_KEEP_DISTANCE; i++) {
+                for (int j = -WALK_KEEP_DISTANCE; j <= WALK_KEEP_DISTANCE; j++) {
+                    if (world.getChunk(i, j) == null) {
+                        Chunk chunk = new Chunk(world, i, j);
+                        world.addChunk(chunk);
+                        created++;
+                        if (store.load(chunk)) {
+                            loaded++;
+                        } else {
+                            generator.fillChunkGenerateRandom(chunk);
+                        }
+                    }
+                }
+            }
+            
+            residency.findUnloadable(world.getChunks(), chunkI, 0, WALK_KEEP_DISTANCE, unloaded);
+            for (Chunk chunk : unloaded) {
+                if (chunk.getModified() || !store.contains(chunk)) {
+                    store.save(chunk);
+                }
+                world.removeChunk(chunk);
+            }
+            unloaded.clear();
+        }
+        store.close();
+        
+        boolean editKept = world.getChunk(0, 0).blockAt(5, y, 5) == null;
+        System.out.printf("%d chunk walk out and back: %d chunks created, %d loaded, %d generated, edit kept: %b%n",
+            length, created, loaded, created - loaded, editKept);
+        Harness.check("edit kept after the walk", editKept);
+    }
+    
+    /**
+    * method: directoryBytes()
+    * purpose: Returns the total size of the files in a directory.
+    **/
+    private static long directoryBytes(File directory) {
+        long bytes = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                bytes += file.length();
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+    * method: deleteDirectory()
+    * purpose: Delete a directory and everything in it.
+    **/
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+}
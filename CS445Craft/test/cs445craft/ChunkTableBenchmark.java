@@ -0,0 +1,215 @@
+/***************************************************************
+* file: ChunkTableBenchmark.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This program compares chunk lookups in the ChunkTable with the
+* nested maps the World used before it: a Map<Integer, Map<Integer, Chunk>>
+* plus maps from each chunk back to its indices. For square worlds of growing
+* size it times getChunk() at random indices (some past the edge, so some
+* miss) and findAdjacentChunk() from random chunks, best of a number of
+* runs. Then three reader threads look chunks up while one thread adds chunks
+* and removes every other one, and any kept chunk a reader doesn't find is
+* counted as a miss. The argument is [runs], 6 by default. Exits with status 1
+* if a reader missed a chunk.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ChunkTableBenchmark {
+    private static final int LOOKUPS = 1 << 22;
+    private static final int[] WORLD_SIDES = {8, 16, 32, 64, 128};
+    private static final int READERS = 3;
+    private static final int CONCURRENT_SIDE = 64;
+    
+    // sum over the chunks found, so the JIT can't drop the lookups
+    private static long sink;
+    
+    /**
+    * class: NestedMaps
+    * purpose: The chunk lookups of the World before the ChunkTable.
+    **/
+    private static class NestedMaps {
+        private final Map<Integer, Map<Integer, Chunk>> chunks = new HashMap<>();
+        private final Map<Chunk, Integer> chunkToIndexI = new HashMap<>();
+        private final Map<Chunk, Integer> chunkToIndexJ = new HashMap<>();
+        
+        /**
+        * method: add()
+        * purpose: Add a chunk at its index.
+        **/
+        public void add(Chunk chunk) {
+            chunks.computeIfAbsent(chunk.indexI, i -> new HashMap<>()).put(chunk.indexJ, chunk);
+            chunkToIndexI.put(chunk, chunk.indexI);
+            chunkToIndexJ.put(chunk, chunk.indexJ);
+        }
+        
+        /**
+        * method: getChunk()
+        * purpose: Returns the chunk at a given index, or null.
+        **/
+        public Chunk getChunk(int i, int j) {
+            Map<Integer, Chunk> column = chunks.get(i);
+            return column == null ? null : column.get(j);
+        }
+        
+        /**
+        * method: findAdjacentChunk()
+        * purpose: Returns the chunk next to a given chunk in a given direction,
+        * or null.
+        **/
+        public Chunk findAdjacentChunk(Chunk chunk, int xDir, int zDir) {
+            Integer i = chunkToIndexI.get(chunk);
+            Integer j = chunkToIndexJ.get(chunk);
+            if (i == null || j == null) {
+                return null;
+            }
+            return getChunk(i + xDir, j + zDir);
+        }
+    }
+    
+    /**
+    * method: main
+    * purpose: Print the lookup rates of both for each world size, then run
+    * the concurrent check.
+    **/
+    public static void main(String[] args) throws InterruptedException {
+        int runs = Harness.intArgs("ChunkTableBenchmark", args, "[runs]", 6)[0];
+        World world = new World();
+        
+        System.out.println("  chunks   getChunk old -> new M/s   findAdjacentChunk old -> new M/s");
+        for (int side : WORLD_SIDES) {
+            int numChunks = side * side;
+            int half = side / 2;
+            Chunk[] chunks = new Chunk[numChunks];
+            NestedMaps maps = new NestedMaps();
+            ChunkTable table = new ChunkTable();
+            for (int n = 0; n < numChunks; n++) {
+                chunks[n] = new Chunk(world, n / side - half, n % side - half);
+                maps.add(chunks[n]);
+                table.put(chunks[n]);
+            }
+            
+            // indices one past the edge on each side miss
+            int[] queryI = new int[LOOKUPS];
+            int[] queryJ = new int[LOOKUPS];
+            Random random = new Random(1);
+            for (int q = 0; q < LOOKUPS; q++) {
+                queryI[q] = random.nextInt(side + 2) - half - 1;
+                queryJ[q] = random.nextInt(side + 2) - half - 1;
+            }
+            
+            long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                for (int q = 0; q < LOOKUPS; q++) {
+                    consume(maps.getChunk(queryI[q], queryJ[q]));
+                }
+                best[0] = Math.min(best[0], System.nanoTime() - start);
+                
+                start = System.nanoTime();
+                for (int q = 0; q < LOOKUPS; q++) {
+                    consume(table.get(queryI[q], queryJ[q]));
+                }
+                best[1] = Math.min(best[1], System.nanoTime() - start);
+                
+                start = System.nanoTime();
+                for (int q = 0; q < LOOKUPS; q++) {
+                    consume(maps.findAdjacentChunk(chunks[q & (numChunks - 1)], 1, 0));
+                }
+                best[2] = Math.min(best[2], System.nanoTime() - start);
+                
+                // what World.findAdjacentChunk() does now
+                start = System.nanoTime();
+                for (int q = 0; q < LOOKUPS; q++) {
+                    Chunk chunk = chunks[q & (numChunks - 1)];
+                    consume(table.get(chunk.indexI + 1, chunk.indexJ));
+                }
+                best[3] = Math.min(best[3], System.nanoTime() - start);
+            }
+            System.out.printf("%8d   %7.1f -> %7.1f          %7.1f -> %7.1f%n", numChunks,
+                LOOKUPS * 1e3 / best[0], LOOKUPS * 1e3 / best[1], LOOKUPS * 1e3 / best[2], LOOKUPS * 1e3 / best[3]);
+        }
+        
+        Harness.check("concurrent misses of kept chunks", readWhileWriting(world), 0);
+        Harness.finish();
+    }
+    
+    /**
+    * method: readWhileWriting()
+    * purpose: Add chunks to a table and remove every other one while READERS
+    * threads look up the chunks added so far. Prints the reads and returns the
+    * number of kept chunks the readers didn't find.
+    **/
+    private static long readWhileWriting(World world) throws InterruptedException {
+        ChunkTable table = new ChunkTable();
+        Chunk[] chunks = new Chunk[CONCURRENT_SIDE * CONCURRENT_SIDE];
+        for (int n = 0; n < chunks.length; n++) {
+            chunks[n] = new Chunk(world, n / CONCURRENT_SIDE, n % CONCURRENT_SIDE);
+        }
+        
+        // chunks with an even index below added are in the table, odd ones may have been removed
+        AtomicInteger added = new AtomicInteger();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong misses = new AtomicLong();
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            Random random = new Random(r);
+            readers[r] = new Thread(() -> {
+                long numReads = 0, numMisses = 0;
+                while (added.get() < chunks.length) {
+                    int limit = added.get();
+                    if (limit == 0) {
+                        continue;
+                    }
+                    int n = random.nextInt(limit) & ~1;
+                    Chunk found = table.get(chunks[n].indexI, chunks[n].indexJ);
+                    numReads++;
+                    if (found != chunks[n]) {
+                        numMisses++;
+                    }
+                }
+                reads.addAndGet(numReads);
+                misses.addAndGet(numMisses);
+            });
+            readers[r].start();
+        }
+        
+        for (int n = 0; n < chunks.length; n++) {
+            table.put(chunks[n]);
+            if (n % 2 == 1 && n > 2) {
+                table.remove(chunks[n - 2].indexI, chunks[n - 2].indexJ);
+            }
+            added.set(n + 1);
+            if (n % 64 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        
+        System.out.println("concurrent: " + reads.get() + " reads, " + misses.get() + " misses of kept chunks, "
+            + table.size() + " chunks left, capacity " + table.getCapacity());
+        return misses.get();
+    }
+    
+    /**
+    * method: consume()
+    * purpose: Use the result of a lookup so it isn't optimized away.
+    **/
+    private static void consume(Chunk chunk) {
+        if (chunk != null) {
+            sink += chunk.indexJ;
+        }
+    }
+}
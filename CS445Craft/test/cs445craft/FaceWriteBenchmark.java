@@ -0,0 +1,120 @@
+/***************************************************************
+* file: FaceWriteBenchmark.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This program measures how fast the Voxel writes the vertices of
+* faces and how much the mesher allocates. It writes every face of every
+* VoxelType in a timed loop, in the float and the packed layout, and reports
+* faces per second and bytes allocated per face for each round after a warm
+* up. It then rebuilds and uploads the meshes of a small generated world to a
+* HeadlessRenderBackend and reports the bytes allocated per chunk. The
+* arguments are [rounds] [seed], 5 rounds and seed 42 by default.
+*
+****************************************************************/
+package cs445craft;
+
+import cs445craft.Voxel.VoxelType;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FaceWriteBenchmark {
+    private static final int FACES_PER_ROUND = 20000000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int WORLD_SIZE = 4;
+    
+    /**
+    * method: main
+    * purpose: Time the face writes and measure the allocations of chunk
+    * rebuilds.
+    **/
+    public static void main(String[] args) {
+        int[] values = Harness.intArgs("FaceWriteBenchmark", args, "[rounds] [seed]", 5, 42);
+        int rounds = values[0];
+        int seed = values[1];
+        
+        float[] floats = new float[MeshBuffer.FLOATS_PER_FACE * 1024];
+        short[] shorts = new short[MeshBuffer.SHORTS_PER_FACE * 1024];
+        for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+            long floatAllocated = Harness.allocatedBytes();
+            long floatStart = System.nanoTime();
+            writeFloatFaces(floats);
+            long floatNanos = System.nanoTime() - floatStart;
+            floatAllocated = Harness.allocatedBytes() - floatAllocated;
+            
+            long packedAllocated = Harness.allocatedBytes();
+            long packedStart = System.nanoTime();
+            writePackedFaces(shorts);
+            long packedNanos = System.nanoTime() - packedStart;
+            packedAllocated = Harness.allocatedBytes() - packedAllocated;
+            
+            if (round >= 0) {
+                System.out.printf("round %d: float %.1f Mfaces/s (%.2f bytes/face), packed %.1f Mfaces/s (%.2f bytes/face)%n", round,
+                    FACES_PER_ROUND * 1e3 / floatNanos, (double) floatAllocated / FACES_PER_ROUND,
+                    FACES_PER_ROUND * 1e3 / packedNanos, (double) packedAllocated / FACES_PER_ROUND);
+            }
+        }
+        // keep the writes from being optimized away
+        System.out.println("checksum " + (floats[7] + shorts[7]));
+        
+        ChunkArena.setBackend(new HeadlessRenderBackend());
+        WorldGenerator generator = new WorldGenerator(seed, 0);
+        World world = generator.getOrGenerate();
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < WORLD_SIZE; i++) {
+            for (int j = 0; j < WORLD_SIZE; j++) {
+                Chunk chunk = new Chunk(world, i, j);
+                generator.fillChunkGenerateRandom(chunk);
+                world.addChunk(chunk);
+                chunks.add(chunk);
+            }
+        }
+        for (int round = 0; round < rounds; round++) {
+            long allocated = Harness.allocatedBytes();
+            long start = System.nanoTime();
+            long faces = 0;
+            for (Chunk chunk : chunks) {
+                chunk.setDirty();
+                ChunkMesh mesh = chunk.rebuildMesh();
+                faces += mesh.getTotalFaces(false) + mesh.getTotalFaces(true);
+                chunk.copyMeshToVBO(mesh);
+            }
+            allocated = Harness.allocatedBytes() - allocated;
+            System.out.printf("rebuild and upload round %d: %.2f ms, %d bytes allocated, %d faces per chunk%n", round,
+                (System.nanoTime() - start) / 1e6 / chunks.size(), allocated / chunks.size(), faces / chunks.size());
+        }
+    }
+    
+    /**
+    * method: writeFloatFaces()
+    * purpose: Write FACES_PER_ROUND faces in the float layout, cycling through
+    * every VoxelType and face.
+    **/
+    private static void writeFloatFaces(float[] data) {
+        VoxelType[] types = VoxelType.values();
+        int slots = data.length / MeshBuffer.FLOATS_PER_FACE;
+        for (int n = 0; n < FACES_PER_ROUND; n++) {
+            int face = n % 6;
+            VoxelType type = types[(n / 6) % types.length];
+            Voxel.writeFaceVertices(data, (n % slots) * MeshBuffer.FLOATS_PER_FACE, face, type, n & 63, n & 127, n & 31);
+        }
+    }
+    
+    /**
+    * method: writePackedFaces()
+    * purpose: Write FACES_PER_ROUND faces in the packed layout, cycling
+    * through every VoxelType and face.
+    **/
+    private static void writePackedFaces(short[] data) {
+        VoxelType[] types = VoxelType.values();
+        int slots = data.length / MeshBuffer.SHORTS_PER_FACE;
+        for (int n = 0; n < FACES_PER_ROUND; n++) {
+            int face = n % 6;
+            VoxelType type = types[(n / 6) % types.length];
+            Voxel.writePackedFaceVertices(data, (n % slots) * MeshBuffer.SHORTS_PER_FACE, face, type, n % Chunk.CHUNK_S, n % Chunk.CHUNK_H, n % 29);
+        }
+    }
+}
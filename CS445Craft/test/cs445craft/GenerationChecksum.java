@@ -0,0 +1,109 @@
+/***************************************************************
+* file: GenerationChecksum.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This program checks that the WorldGenerator makes the same chunks
+* whatever number of threads generate them and in whatever order. It
+* generates a square of chunks with one thread in order, then with more
+* threads in order and shuffled, and compares a checksum of the bytes
+* Chunk.writeBlocks() returns for each chunk. The arguments are [size]
+* [threads] [seed]: the square is size x size chunks (default 8), the most
+* threads used is threads (default the number of processors) and the seed is
+* 1234 by default. Exits with status 1 if any checksum differs from the one
+* thread checksum.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class GenerationChecksum {
+    /**
+    * method: main
+    * purpose: Generate the chunks with 1 to the given number of threads,
+    * doubling each time, print each checksum and check it against the one
+    * thread checksum.
+    **/
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int[] values = Harness.intArgs("GenerationChecksum", args, "[size] [threads] [seed]",
+            8, Runtime.getRuntime().availableProcessors(), 1234);
+        int size = values[0];
+        int maxThreads = values[1];
+        int seed = values[2];
+        
+        long expected = checksum(size, seed, 1, false);
+        System.out.printf("1 thread in order: %016x%n", expected);
+        
+        int threads = 1;
+        while (true) {
+            for (boolean shuffle : new boolean[] {false, true}) {
+                if (threads == 1 && !shuffle) {
+                    continue;
+                }
+                long sum = checksum(size, seed, threads, shuffle);
+                String run = threads + (threads == 1 ? " thread " : " threads ") + (shuffle ? "shuffled" : "in order");
+                System.out.printf("%s: %016x%n", run, sum);
+                Harness.check(run + " checksum", sum, expected);
+            }
+            if (threads >= maxThreads) {
+                break;
+            }
+            threads = Math.min(threads * 2, maxThreads);
+        }
+        
+        Harness.finish();
+    }
+    
+    /**
+    * method: checksum()
+    * purpose: Generate size x size chunks centered on chunk 0,0 with a given
+    * number of threads, in order or shuffled, and return the checksum of their
+    * blocks in order.
+    **/
+    private static long checksum(int size, int seed, int threads, boolean shuffle) throws InterruptedException, ExecutionException {
+        WorldGenerator generator = new WorldGenerator(seed, 0);
+        World world = generator.getOrGenerate();
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                chunks.add(new Chunk(world, i - size / 2, j - size / 2));
+            }
+        }
+        
+        List<Chunk> work = new ArrayList<>(chunks);
+        if (shuffle) {
+            Collections.shuffle(work, new Random(threads));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Chunk chunk : work) {
+                futures.add(executor.submit(() -> generator.fillChunkGenerateRandom(chunk)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        long sum = 1125899906842597L;
+        for (Chunk chunk : chunks) {
+            for (byte b : chunk.writeBlocks()) {
+                sum = 31 * sum + b;
+            }
+        }
+        return sum;
+    }
+}
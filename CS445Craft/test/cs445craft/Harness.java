@@ -0,0 +1,127 @@
+/***************************************************************
+* file: Harness.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This class holds what the checks and benchmarks in the test
+* sources share: reading their arguments, counting failed checks, finishing
+* with exit status 1 if any failed and measuring the heap and allocations.
+* None of them needs a display, so they run without LWJGL's natives, after
+* the project and its tests are built:
+*   java -cp build/classes:build/test/classes:<libraries> cs445craft.<Name> [arguments]
+* Each program names its arguments and their defaults in its own header.
+*
+****************************************************************/
+package cs445craft;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+public final class Harness {
+    private static int numChecks;
+    private static int numFailed;
+    
+    /**
+    * method: Harness
+    * purpose: Harness is static and not meant to be instantiated.
+    **/
+    private Harness() {
+    }
+    
+    /**
+    * method: intArgs()
+    * purpose: Returns the program's arguments as ints, with the given default
+    * for each argument left out. Prints the usage line and exits with status 1
+    * if there are too many arguments or one isn't a number. The usage names
+    * the arguments, e.g. "[size] [seed]", and is empty for a program that
+    * takes none.
+    **/
+    public static int[] intArgs(String name, String[] args, String usage, int... defaults) {
+        if (args.length > defaults.length) {
+            usage(name, usage);
+        }
+        int[] values = defaults.clone();
+        for (int i = 0; i < args.length; i++) {
+            try {
+                values[i] = Integer.parseInt(args[i]);
+            } catch (NumberFormatException ex) {
+                usage(name, usage);
+            }
+        }
+        return values;
+    }
+    
+    /**
+    * method: usage()
+    * purpose: Print how to run a program and exit with status 1.
+    **/
+    private static void usage(String name, String usage) {
+        System.err.println("usage: java -cp build/classes:build/test/classes:<libraries> cs445craft." + name + (usage.isEmpty() ? "" : " " + usage));
+        System.exit(1);
+    }
+    
+    /**
+    * method: check()
+    * purpose: Count a check, print it if it failed and remember the failure.
+    * Returns whether it passed.
+    **/
+    public static boolean check(String name, boolean passed) {
+        numChecks++;
+        if (!passed) {
+            System.out.println("FAILED: " + name);
+            numFailed++;
+        }
+        return passed;
+    }
+    
+    /**
+    * method: check()
+    * purpose: Check that a count equals the count expected, printing both if
+    * they differ. Returns whether they are equal.
+    **/
+    public static boolean check(String name, long actual, long expected) {
+        return check(name + ": " + actual + ", expected " + expected, actual == expected);
+    }
+    
+    /**
+    * method: finish()
+    * purpose: Print how many checks passed and exit with status 1 if any
+    * failed.
+    **/
+    public static void finish() {
+        if (numFailed > 0) {
+            System.out.println(numFailed + " of " + numChecks + " checks failed");
+            System.exit(1);
+        }
+        System.out.println(numChecks == 1 ? "The check passed" : "All " + numChecks + " checks passed");
+    }
+    
+    /**
+    * method: usedHeap()
+    * purpose: Collect garbage and return the number of bytes of heap in use.
+    * Only as exact as Runtime's free memory after System.gc().
+    **/
+    public static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    /**
+    * method: allocatedBytes()
+    * purpose: Returns the number of bytes the current thread has allocated, or
+    * 0 if the JVM's ThreadMXBean doesn't count them (HotSpot's does).
+    **/
+    public static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,73 @@
+/***************************************************************
+* file: MeshThroughputBenchmark.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This program measures how fast chunks are meshed and uploaded on
+* one thread. It generates a square of chunks and, with greedy meshing off
+* and then on, rebuilds the mesh of every chunk and uploads it to a
+* HeadlessRenderBackend for a number of rounds after a warm up. Each round
+* prints the milliseconds per chunk spent building and uploading, and the
+* chunks per second. The arguments are [rounds] [size] [seed], 4 rounds of
+* 6 x 6 chunks with seed 42 by default.
+*
+****************************************************************/
+package cs445craft;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MeshThroughputBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    
+    /**
+    * method: main
+    * purpose: Generate the chunks and time the rebuilds both ways.
+    **/
+    public static void main(String[] args) {
+        int[] values = Harness.intArgs("MeshThroughputBenchmark", args, "[rounds] [size] [seed]", 4, 6, 42);
+        int rounds = values[0];
+        int size = values[1];
+        int seed = values[2];
+        
+        ChunkArena.setBackend(new HeadlessRenderBackend());
+        WorldGenerator generator = new WorldGenerator(seed, 0);
+        World world = generator.getOrGenerate();
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                Chunk chunk = new Chunk(world, i, j);
+                generator.fillChunkGenerateRandom(chunk);
+                world.addChunk(chunk);
+                chunks.add(chunk);
+            }
+        }
+        
+        boolean greedy = Chunk.getGreedyMeshing();
+        for (boolean mode : new boolean[] {false, true}) {
+            Chunk.setGreedyMeshing(mode);
+            for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+                long buildNanos = 0, uploadNanos = 0;
+                for (Chunk chunk : chunks) {
+                    chunk.setDirty();
+                    long start = System.nanoTime();
+                    ChunkMesh mesh = chunk.rebuildMesh();
+                    long built = System.nanoTime();
+                    chunk.copyMeshToVBO(mesh);
+                    buildNanos += built - start;
+                    uploadNanos += System.nanoTime() - built;
+                }
+                if (round >= 0) {
+                    int n = chunks.size();
+                    System.out.printf("%s round %d: build %.2f ms/chunk, upload %.2f ms/chunk, %.0f chunks/s%n",
+                        mode ? "greedy  " : "per face", round, buildNanos / 1e6 / n, uploadNanos / 1e6 / n,
+                        n * 1e9 / (buildNanos + uploadNanos));
+                }
+            }
+        }
+        Chunk.setGreedyMeshing(greedy);
+    }
+}
@@ -0,0 +1,127 @@
+/***************************************************************
+* file: OcclusionCullerCheck.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This program checks the walk of the OcclusionCuller and the
+* connectivity the Chunk computes for it. It builds one chunk of stone with
+* open air above it and a cave in the stone, meshes it on a
+* HeadlessRenderBackend and walks from a camera in the cave. A sealed cave
+* must not reach the sections above the stone, and once a shaft is dug from
+* the cave to the air they must be reached. The camera's own section has no
+* connected faces (mask 0), so the walk must still leave it through every
+* face, and a chunk that was never meshed, a disabled culler or a camera
+* outside the world must fall back to reaching every section. It takes no
+* arguments and exits with status 1 if a check fails.
+*
+****************************************************************/
+package cs445craft;
+
+import cs445craft.Voxel.VoxelType;
+
+public class OcclusionCullerCheck {
+    // the stone fills sections 0 to 5, sections 6 to 8 are air
+    private static final int STONE_TOP = 60;
+    // the cave is inside section 2 and touches none of its faces
+    private static final int CAVE_SECTION = 2;
+    private static final int CAVE_MIN = 12, CAVE_MAX = 17;
+    private static final int CAVE_BOTTOM = 22, CAVE_TOP = 27;
+    private static final int SURFACE_SECTION = 6;
+    
+    /**
+    * method: main
+    * purpose: Run each check and exit with status 1 if any failed.
+    **/
+    public static void main(String[] args) {
+        Harness.intArgs("OcclusionCullerCheck", args, "");
+        ChunkArena.setBackend(new HeadlessRenderBackend());
+        Frustum frustum = new Frustum();
+        frustum.setEnabled(false);
+        float drawDistance = 4 * Chunk.CHUNK_S * Voxel.BLOCK_SIZE;
+        float cameraX = glCoord(15);
+        float cameraY = glCoord((CAVE_BOTTOM + CAVE_TOP) / 2);
+        float cameraZ = glCoord(15);
+        
+        // a chunk that was never meshed is open everywhere
+        World world = new World();
+        Chunk chunk = new Chunk(world, 0, 0);
+        chunk.copyBlocks(buildBlocks(), 0, Chunk.CHUNK_S, 0, Chunk.CHUNK_H, 0, Chunk.CHUNK_S);
+        world.addChunk(chunk);
+        OcclusionCuller culler = new OcclusionCuller(world);
+        culler.update(cameraX, cameraY, cameraZ, frustum, drawDistance);
+        Harness.check("unmeshed chunk reached sections", culler.getReachedSections(chunk), Chunk.ALL_SECTIONS);
+        
+        // sealed cave
+        chunk.copyMeshToVBO(chunk.rebuildMesh());
+        Harness.check("sealed cave section connectivity", chunk.getSectionConnectivity(CAVE_SECTION), 0);
+        Harness.check("solid section connectivity", chunk.getSectionConnectivity(CAVE_SECTION + 1), 0);
+        Harness.check("air section connectivity", chunk.getSectionConnectivity(SURFACE_SECTION + 1), OcclusionCuller.ALL_CONNECTED);
+        Harness.check("sealed cave is stale after the mesh", culler.isStale(cameraX, cameraY, cameraZ));
+        culler.update(cameraX, cameraY, cameraZ, frustum, drawDistance);
+        int reached = culler.getReachedSections(chunk);
+        Harness.check("sealed cave doesn't reach the surface", (reached & (1 << SURFACE_SECTION)) == 0);
+        // the camera's section has mask 0, but the walk starts through every face
+        int caveAndAround = 7 << (CAVE_SECTION - 1);
+        Harness.check("sealed cave reached sections", reached, caveAndAround);
+        
+        // reachable() drops the sections the walk did not reach
+        chunk.inFrustum(frustum);
+        Harness.check("sealed cave chunk reachable", chunk.reachable(culler));
+        Harness.check("sealed cave hides the stone top", culler.getSectionsOccluded() > 0);
+        
+        // a shaft from the cave up to the air
+        for (int y = CAVE_TOP + 1; y < STONE_TOP; y++) {
+            chunk.breakBlock(15, y, 15);
+        }
+        chunk.copyMeshToVBO(chunk.rebuildMesh());
+        Harness.check("shaft section connects bottom and top",
+            OcclusionCuller.isConnected(chunk.getSectionConnectivity(CAVE_SECTION + 1), Voxel.FACE_BOTTOM, Voxel.FACE_TOP));
+        Harness.check("shaft is stale after the mesh", culler.isStale(cameraX, cameraY, cameraZ));
+        culler.update(cameraX, cameraY, cameraZ, frustum, drawDistance);
+        reached = culler.getReachedSections(chunk);
+        Harness.check("open shaft reaches the surface", (reached & (1 << SURFACE_SECTION)) != 0);
+        Harness.check("open shaft reaches the sky", (reached & (1 << (Chunk.NUM_SECTIONS - 1))) != 0);
+        chunk.inFrustum(frustum);
+        chunk.reachable(culler);
+        Harness.check("open shaft hides nothing", culler.getSectionsOccluded(), 0);
+        
+        // a disabled culler and a camera outside the world reach everything
+        culler.setEnabled(false);
+        culler.update(cameraX, cameraY, cameraZ, frustum, drawDistance);
+        Harness.check("disabled culler reached sections", culler.getReachedSections(chunk), Chunk.ALL_SECTIONS);
+        culler.setEnabled(true);
+        culler.update(glCoord(-100), cameraY, cameraZ, frustum, drawDistance);
+        Harness.check("camera outside the world reached sections", culler.getReachedSections(chunk), Chunk.ALL_SECTIONS);
+        
+        Harness.finish();
+    }
+    
+    /**
+    * method: buildBlocks()
+    * purpose: Returns the blocks of the test chunk: stone below STONE_TOP with
+    * the cave carved out of it.
+    **/
+    private static VoxelType[][][] buildBlocks() {
+        VoxelType[][][] blocks = new VoxelType[Chunk.CHUNK_H][Chunk.CHUNK_S][Chunk.CHUNK_S];
+        for (int y = 0; y < STONE_TOP; y++) {
+            for (int x = 0; x < Chunk.CHUNK_S; x++) {
+                for (int z = 0; z < Chunk.CHUNK_S; z++) {
+                    boolean cave = y >= CAVE_BOTTOM && y <= CAVE_TOP && x >= CAVE_MIN && x <= CAVE_MAX && z >= CAVE_MIN && z <= CAVE_MAX;
+                    blocks[y][x][z] = cave ? null : VoxelType.STONE;
+                }
+            }
+        }
+        return blocks;
+    }
+    
+    /**
+    * method: glCoord()
+    * purpose: Returns the OpenGL coordinate of a voxel position in chunk 0,0.
+    **/
+    private static float glCoord(int voxel) {
+        return voxel * Voxel.BLOCK_SIZE;
+    }
+}
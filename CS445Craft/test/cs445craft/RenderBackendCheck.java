@@ -0,0 +1,125 @@
+/***************************************************************
+* file: RenderBackendCheck.java
+* author: CS445 Group 42^3
+* class: CS 445 – Computer Graphics
+*
+* assignment: Final Project
+* date last modified: 10/28/2017
+*
+* purpose: This program checks that RenderBackend.execute() only makes the
+* calls a list of RenderCommands needs. It submits small RenderCommandLists
+* to a HeadlessRenderBackend and compares the calls it counted with the calls
+* expected: state that doesn't change between commands is not applied again,
+* a new vertex layout binds the buffer again, commands without ranges make no
+* calls and sorting groups opaque commands by texture. It takes no arguments
+* and exits with status 1 if any count differs.
+*
+****************************************************************/
+package cs445craft;
+
+import java.nio.ByteBuffer;
+
+public class RenderBackendCheck {
+    private static final int TEXTURE_A = 1;
+    private static final int TEXTURE_B = 2;
+    
+    /**
+    * method: main
+    * purpose: Run each check, print the counts that differ and exit with
+    * status 1 if any did.
+    **/
+    public static void main(String[] args) {
+        Harness.intArgs("RenderBackendCheck", args, "");
+        HeadlessRenderBackend backend = new HeadlessRenderBackend();
+        int bufferA = backend.createBuffer(1 << 16);
+        int bufferB = backend.createBuffer(1 << 16);
+        RenderCommandList list = new RenderCommandList();
+        
+        // nothing to draw, nothing applied
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferA, 0, 0);
+        submit(list, backend, false);
+        Harness.check("empty command", backend.getDrawCalls(), 0);
+        Harness.check("empty command state changes", backend.getStateChanges(), 0);
+        
+        // the same state twice is applied once, every range is drawn
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferA, 0, 0).addRange(0, 4);
+        RenderCommand second = list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferA, 0, 0);
+        second.addRange(4, 8);
+        second.addRange(20, 4);
+        submit(list, backend, false);
+        Harness.check("same state draw calls", backend.getDrawCalls(), 2);
+        Harness.check("same state ranges", backend.getRangesDrawn(), 3);
+        Harness.check("same state vertices", backend.getVerticesDrawn(), 16);
+        Harness.check("same state pass changes", backend.getPassChanges(), 1);
+        Harness.check("same state texture binds", backend.getTextureBinds(), 1);
+        Harness.check("same state layout changes", backend.getLayoutChanges(), 1);
+        Harness.check("same state buffer binds", backend.getBufferBinds(), 1);
+        Harness.check("same state origin changes", backend.getOriginChanges(), 1);
+        
+        // each list starts with unknown state, so submitting again applies it again
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferA, 0, 0).addRange(0, 4);
+        submit(list, backend, false);
+        Harness.check("second list state changes", backend.getStateChanges(), 5);
+        
+        // only the origin changes
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferA, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferA, 60, 0).addRange(0, 4);
+        submit(list, backend, false);
+        Harness.check("new origin state changes", backend.getStateChanges(), 6);
+        Harness.check("new origin origin changes", backend.getOriginChanges(), 2);
+        
+        // a new layout binds the same buffer again
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferA, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, true, bufferA, 0, 0).addRange(0, 4);
+        submit(list, backend, false);
+        Harness.check("new layout layout changes", backend.getLayoutChanges(), 2);
+        Harness.check("new layout buffer binds", backend.getBufferBinds(), 2);
+        
+        // sorting groups opaque commands by texture but keeps translucent commands in order
+        list.add(RenderCommand.PASS_TRANSLUCENT, TEXTURE_B, false, bufferB, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferA, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_B, false, bufferA, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferB, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_TRANSLUCENT, TEXTURE_A, false, bufferA, 0, 0).addRange(0, 4);
+        submit(list, backend, false);
+        Harness.check("unsorted texture binds", backend.getTextureBinds(), 4);
+        list.add(RenderCommand.PASS_TRANSLUCENT, TEXTURE_B, false, bufferB, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferA, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_B, false, bufferA, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_OPAQUE, TEXTURE_A, false, bufferB, 0, 0).addRange(0, 4);
+        list.add(RenderCommand.PASS_TRANSLUCENT, TEXTURE_A, false, bufferA, 0, 0).addRange(0, 4);
+        submit(list, backend, true);
+        Harness.check("sorted draw calls", backend.getDrawCalls(), 5);
+        Harness.check("sorted pass changes", backend.getPassChanges(), 2);
+        Harness.check("sorted texture binds", backend.getTextureBinds(), 3);
+        Harness.check("sorted buffer binds", backend.getBufferBinds(), 5);
+        
+        // buffer writes are counted and must stay inside the buffer
+        backend.reset();
+        backend.writeBuffer(bufferA, 1024, ByteBuffer.allocate(256));
+        Harness.check("bytes written", backend.getBytesWritten(), 256);
+        boolean thrown = false;
+        try {
+            backend.writeBuffer(bufferA, (1 << 16) - 8, ByteBuffer.allocate(16));
+        } catch (IllegalArgumentException ex) {
+            thrown = true;
+        }
+        Harness.check("write outside buffer throws", thrown);
+        
+        Harness.finish();
+    }
+    
+    /**
+    * method: submit()
+    * purpose: Reset the counts of a backend, submit the commands of a list to
+    * it, sorted first if asked, and clear the list.
+    **/
+    private static void submit(RenderCommandList list, HeadlessRenderBackend backend, boolean sort) {
+        if (sort) {
+            list.sort();
+        }
+        backend.reset();
+        list.submit(backend);
+        list.clear();
+    }
+}